@@ -0,0 +1,118 @@
+package net.allape.noisefighter.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 离线批量分析录音: 每个录音按块拆分到ForkJoin线程池, 输出事件列表与每小时统计
+ */
+public final class Analyzer {
+
+    private Analyzer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        List<File> files = expand(options.inputs);
+        if (files.isEmpty()) {
+            System.err.println("no wav files found");
+            System.exit(1);
+            return;
+        }
+        if (!options.out.isDirectory() && !options.out.mkdirs()) {
+            throw new IOException("cannot create " + options.out);
+        }
+
+        long began = System.nanoTime();
+        List<Recording> recordings = new ArrayList<>(files.size());
+        try {
+            double seconds = 0;
+            for (File file : files) {
+                Recording recording = new Recording(file);
+                recordings.add(recording);
+                seconds += (double) recording.getFrames() / recording.getSampleRate();
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            ForkJoinPool pool = new ForkJoinPool(options.threads);
+            Result result;
+            try {
+                result = analyze(pool, recordings, options, zone);
+            } finally {
+                pool.shutdown();
+            }
+
+            ReportWriter writer = new ReportWriter(options.out, zone);
+            if (options.csv) {
+                writer.writeCsv(result);
+            }
+            if (options.json) {
+                writer.writeJson(result);
+            }
+
+            double wall = (System.nanoTime() - began) / 1e9;
+            System.out.println(String.format(Locale.ROOT,
+                    "%d files, %.2f hours of audio, %d events in %.1f s (%.0fx real time) on %d threads",
+                    recordings.size(), seconds / 3600, result.events.size(), wall,
+                    seconds / Math.max(wall, 1e-9), options.threads));
+        } finally {
+            for (Recording recording : recordings) {
+                recording.close();
+            }
+        }
+    }
+
+    /**
+     * 并行分析所有录音
+     * @return 按开始时间排序的事件与每小时统计
+     */
+    static Result analyze(ForkJoinPool pool, List<Recording> recordings, Options options, ZoneId zone) {
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(recordings.size());
+        for (Recording recording : recordings) {
+            tasks.add(pool.submit(new ChunkTask(recording, options, zone)));
+        }
+        Result result = new Result();
+        for (ForkJoinTask<Result> task : tasks) {
+            result.merge(task.join());
+        }
+        // 录音的时间可能重叠, 按绝对时间排序
+        result.events.sort(Comparator.comparingLong(DetectedEvent::getStartTime));
+        return result;
+    }
+
+    /**
+     * 目录展开为其中的wav文件(不递归), 按文件名排序
+     */
+    static List<File> expand(List<File> inputs) {
+        List<File> files = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                File[] children = input.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".wav"));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else {
+                files.add(input);
+            }
+        }
+        return files;
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.allape.noisefighter.analyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 把录音的一段对半拆分到不超过一个块, 每块由一个Detector顺序分析, 结果按时间顺序合并
+ */
+final class ChunkTask extends RecursiveTask<Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Recording recording;
+    private final Options options;
+    private final ZoneId zone;
+    // 范围, 单位: 帧
+    private final long from;
+    private final long to;
+    // 块的长度, 单位: 帧
+    private final long chunkFrames;
+
+    ChunkTask(Recording recording, Options options, ZoneId zone) {
+        this(recording, options, zone, 0, recording.getFrames(),
+                Math.max(1, (long) recording.getSampleRate() * options.chunkSeconds));
+    }
+
+    private ChunkTask(Recording recording, Options options, ZoneId zone, long from, long to, long chunkFrames) {
+        this.recording = recording;
+        this.options = options;
+        this.zone = zone;
+        this.from = from;
+        this.to = to;
+        this.chunkFrames = chunkFrames;
+    }
+
+    @Override
+    protected Result compute() {
+        if (to - from <= chunkFrames) {
+            try {
+                return new Detector(recording, options, from, to, zone).run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(recording.file.getPath(), e);
+            }
+        }
+        // 在块边界上拆分, 使结果与块的划分无关
+        long chunks = (to - from + chunkFrames - 1) / chunkFrames;
+        long middle = from + chunks / 2 * chunkFrames;
+        ChunkTask later = new ChunkTask(recording, options, zone, middle, to, chunkFrames);
+        later.fork();
+        Result result = new ChunkTask(recording, options, zone, from, middle, chunkFrames).compute();
+        return result.merge(later.join());
+    }
+
+}
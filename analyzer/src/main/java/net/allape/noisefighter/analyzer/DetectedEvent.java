@@ -0,0 +1,48 @@
+package net.allape.noisefighter.analyzer;
+
+/**
+ * 录音中检测到的一个事件
+ */
+final class DetectedEvent {
+
+    // 所在的录音
+    final Recording recording;
+    // 起始帧
+    final long startFrame;
+    // 帧数, 从第一个触发的帧到最后一个超过释放阈值的帧
+    final long frames;
+    // 峰值, 单位: dBFS
+    final double peakDbfs;
+    // 有效值, 单位: dBFS
+    final double rmsDbfs;
+    // 能量最大的倍频程频段的中心频率, 单位: Hz
+    final double dominantHz;
+
+    DetectedEvent(Recording recording, long startFrame, long frames, double peakDbfs, double rmsDbfs, double dominantHz) {
+        this.recording = recording;
+        this.startFrame = startFrame;
+        this.frames = frames;
+        this.peakDbfs = peakDbfs;
+        this.rmsDbfs = rmsDbfs;
+        this.dominantHz = dominantHz;
+    }
+
+    /**
+     * @return 相对录音开始的时间, 单位: s
+     */
+    double getOffsetSeconds() {
+        return (double) startFrame / recording.getSampleRate();
+    }
+
+    double getDurationSeconds() {
+        return (double) frames / recording.getSampleRate();
+    }
+
+    /**
+     * @return 开始时间, 单位: ms
+     */
+    long getStartTime() {
+        return recording.timeOf(startFrame);
+    }
+
+}
@@ -0,0 +1,223 @@
+package net.allape.noisefighter.analyzer;
+
+import net.allape.noisefighter.dsp.AdaptiveThreshold;
+import net.allape.noisefighter.dsp.CapturePipeline;
+import net.allape.noisefighter.dsp.Fft;
+import net.allape.noisefighter.dsp.LevelMeter;
+import net.allape.noisefighter.dsp.ThresholdTrigger;
+import net.allape.noisefighter.dsp.WavReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * 顺序分析录音中的一段, 与CapturePipeline使用相同的电平、自适应阈值与触发
+ *
+ * 从段开始之前NOISE_FLOOR_WINDOW_MS的位置开始预热, 使背景噪声的估计与连续分析一致;
+ * 开始于段内的事件跨过段结尾时继续分析到事件结束, 开始于段之前的事件属于上一段. 因此分段的结果与整体分析基本相同.
+ */
+final class Detector implements ThresholdTrigger.Listener {
+
+    // 每帧的时长
+    static final int FRAME_MS = 20;
+    // 单个事件的最大时长, 超出时在段结尾之后强制结束
+    static final int MAX_EVENT_MS = 10 * 60 * 1000;
+    // 主要频段使用的FFT长度
+    static final int FFT_SIZE = 4096;
+    // 倍频程频段的中心频率
+    static final double[] OCTAVE_CENTERS = {31.5, 63, 125, 250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    private final Recording recording;
+    private final WavReader reader;
+    private final int sampleRate;
+    private final int frameSize;
+    // 段的范围, 单位: 帧
+    private final long from;
+    private final long to;
+    private final ZoneId zone;
+
+    private final LevelMeter meter = new LevelMeter();
+    private final AdaptiveThreshold adaptive;
+    private final ThresholdTrigger trigger;
+    // 固定阈值, 自适应时为-1
+    private final int threshold;
+    private final short[] frame;
+    private final Result result = new Result();
+
+    // 映射的起始帧
+    private long mappedFrom;
+    private ByteBuffer mapped;
+    // 当前帧的位置
+    private long position;
+
+    // 当前事件, 没有事件时start为-1
+    private long eventStart = -1;
+    private long eventLastLoud;
+    private long eventLoudestFrame;
+    private int eventPeak;
+    private double eventSumSquares;
+    private long eventSamples;
+
+    // 当前小时
+    private HourlySummary hour;
+    private long hourEnd = Long.MIN_VALUE;
+
+    Detector(Recording recording, Options options, long from, long to, ZoneId zone) {
+        this.recording = recording;
+        this.reader = recording.reader;
+        this.sampleRate = recording.getSampleRate();
+        this.frameSize = Math.max(1, sampleRate * FRAME_MS / 1000);
+        this.from = from;
+        this.to = to;
+        this.zone = zone;
+        this.frame = new short[frameSize];
+        this.adaptive = new AdaptiveThreshold(meter, sampleRate, frameSize,
+                CapturePipeline.NOISE_FLOOR_WINDOW_MS, CapturePipeline.NOISE_FLOOR_PERCENTILE);
+        this.threshold = options.thresholdDbfs == null ? -1 : (int) LevelMeter.amplitude(options.thresholdDbfs);
+        long hold = (long) sampleRate * options.holdMs / 1000;
+        this.trigger = new ThresholdTrigger(meter, Math.max(threshold, 0), hold, this);
+        if (threshold < 0) {
+            trigger.setAdaptive(adaptive);
+            trigger.setMode(ThresholdTrigger.Mode.ADAPTIVE);
+        } else {
+            trigger.setMode(ThresholdTrigger.Mode.PEAK);
+        }
+    }
+
+    Result run() throws IOException {
+        long total = recording.getFrames();
+        long warmup = (long) sampleRate * CapturePipeline.NOISE_FLOOR_WINDOW_MS / 1000;
+        long end = Math.min(total, to + (long) sampleRate * MAX_EVENT_MS / 1000);
+        // 从帧边界开始, 保证与整体分析的分帧一致
+        mappedFrom = Math.max(0, (from - warmup) / frameSize * frameSize);
+        mapped = reader.map(mappedFrom, (int) Math.min(Integer.MAX_VALUE / reader.getConfig().getBytesPerFrame(), end - mappedFrom));
+        position = mappedFrom;
+        while (position < end && (position < to || eventStart >= 0)) {
+            int count = reader.decode(mapped, frame, 0, frameSize);
+            if (count == 0) break;
+            meter.process(frame, 0, count);
+            adaptive.process(frame, 0, count);
+            trigger.process(frame, 0, count);
+            if (position >= from && position < to) {
+                accumulateHour(count);
+            }
+            position += count;
+        }
+        if (eventStart >= 0) {
+            finishEvent();
+        }
+        return result;
+    }
+
+    @Override
+    public void onTriggered(short[] frame, int offset, int length) {
+        if (eventStart < 0) {
+            eventStart = position;
+            eventPeak = 0;
+            eventSumSquares = 0;
+            eventSamples = 0;
+            eventLastLoud = position + length;
+            eventLoudestFrame = position;
+        }
+        boolean loud = threshold < 0 ? adaptive.isAboveRelease() : meter.getPeak() >= threshold;
+        if (loud) {
+            eventLastLoud = position + length;
+        }
+        if (meter.getPeak() > eventPeak) {
+            eventPeak = meter.getPeak();
+            eventLoudestFrame = position;
+        }
+        eventSumSquares += meter.getSumSquares();
+        eventSamples += length;
+    }
+
+    @Override
+    public void onIdle(short[] frame, int offset, int length) {
+        if (eventStart >= 0) {
+            finishEvent();
+        }
+    }
+
+    /**
+     * 结束当前事件, 开始于段之前的事件属于上一段
+     */
+    private void finishEvent() {
+        if (eventStart >= from && eventStart < to) {
+            // 不计入保持期间的安静帧
+            long frames = eventLastLoud - eventStart;
+            double rms = Math.sqrt(eventSumSquares / Math.max(1, eventSamples));
+            DetectedEvent event = new DetectedEvent(recording, eventStart, frames,
+                    LevelMeter.dbfs(eventPeak), LevelMeter.dbfs(rms), dominantHz(eventLoudestFrame));
+            result.events.add(event);
+            HourlySummary summary = result.hour(hourOf(event.getStartTime()));
+            summary.events++;
+            summary.eventSeconds += event.getDurationSeconds();
+        }
+        eventStart = -1;
+    }
+
+    /**
+     * @return 以最响的帧为中心的一个FFT窗口中, 能量最大的倍频程频段
+     */
+    private double dominantHz(long loudestFrame) {
+        int size = FFT_SIZE;
+        int bytesPerFrame = reader.getConfig().getBytesPerFrame();
+        // 靠近映射结尾时向前移动窗口, 映射不足一个窗口时补零
+        long start = Math.max(mappedFrom, Math.min(loudestFrame + frameSize / 2 - size / 2,
+                mappedFrom + mapped.limit() / bytesPerFrame - size));
+
+        ByteBuffer window = mapped.duplicate().order(mapped.order());
+        window.position((int) ((start - mappedFrom) * bytesPerFrame));
+        short[] samples = new short[size];
+        int count = reader.decode(window, samples, 0, size);
+        double[] input = new double[size];
+        for (int i = 0; i < count; i++) {
+            // Hann窗
+            input[i] = samples[i] * (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+        }
+        double[] power = new double[size / 2 + 1];
+        new Fft(size).power(input, power, new double[size / 2 + 1], new double[size / 2 + 1]);
+
+        double best = 0;
+        double bestPower = -1;
+        double resolution = (double) sampleRate / size;
+        for (double center : OCTAVE_CENTERS) {
+            double low = center / Math.sqrt(2);
+            double high = Math.min(center * Math.sqrt(2), sampleRate / 2.0);
+            if (low >= high) break;
+            double sum = 0;
+            for (int bin = (int) Math.ceil(low / resolution); bin <= (int) (high / resolution) && bin < power.length; bin++) {
+                sum += power[bin];
+            }
+            if (sum > bestPower) {
+                bestPower = sum;
+                best = center;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 当前帧计入所在小时的统计
+     */
+    private void accumulateHour(int length) {
+        long time = recording.timeOf(position);
+        if (time >= hourEnd || hour == null || time < hour.hourStart) {
+            long start = hourOf(time);
+            hour = result.hour(start);
+            hourEnd = start + ChronoUnit.HOURS.getDuration().toMillis();
+        }
+        hour.seconds += (double) length / sampleRate;
+        hour.samples += length;
+        hour.sumSquares += meter.getSumSquares();
+        hour.peak = Math.max(hour.peak, meter.getPeak());
+    }
+
+    private long hourOf(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,49 @@
+package net.allape.noisefighter.analyzer;
+
+import net.allape.noisefighter.dsp.LevelMeter;
+
+/**
+ * 一个小时内的统计, 可以合并
+ */
+final class HourlySummary {
+
+    // 小时的开始时间, 单位: ms
+    final long hourStart;
+    // 分析的时长, 单位: s
+    double seconds;
+    // 分析的采样数
+    long samples;
+    // 采样的平方和
+    double sumSquares;
+    // 峰值
+    int peak;
+    // 开始于这个小时的事件数量
+    int events;
+    // 这些事件的总时长, 单位: s
+    double eventSeconds;
+
+    HourlySummary(long hourStart) {
+        this.hourStart = hourStart;
+    }
+
+    void merge(HourlySummary other) {
+        seconds += other.seconds;
+        samples += other.samples;
+        sumSquares += other.sumSquares;
+        peak = Math.max(peak, other.peak);
+        events += other.events;
+        eventSeconds += other.eventSeconds;
+    }
+
+    double getPeakDbfs() {
+        return LevelMeter.dbfs(peak);
+    }
+
+    /**
+     * @return 整个小时的等效有效值(能量平均), 单位: dBFS
+     */
+    double getRmsDbfs() {
+        return samples == 0 ? LevelMeter.SILENCE_DBFS : LevelMeter.dbfs(Math.sqrt(sumSquares / samples));
+    }
+
+}
@@ -0,0 +1,77 @@
+package net.allape.noisefighter.analyzer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 命令行参数
+ */
+final class Options {
+
+    static final String USAGE = "usage: analyzer [options] <wav file or directory>...\n"
+            + "  --out <dir>              output directory, default: current directory\n"
+            + "  --format <csv|json|both> report format, default: both\n"
+            + "  --threads <n>            worker threads, default: available processors\n"
+            + "  --chunk-seconds <s>      audio per task, default: 60\n"
+            + "  --threshold-dbfs <db>    fixed peak threshold, default: adaptive above the noise floor\n"
+            + "  --hold-ms <ms>           keep an event open this long after it drops, default: 800";
+
+    // 输入文件或目录
+    final List<File> inputs = new ArrayList<>();
+    // 输出目录
+    File out = new File(".");
+    boolean csv = true;
+    boolean json = true;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int chunkSeconds = 60;
+    // 固定阈值, 为null时使用自适应阈值
+    Double thresholdDbfs = null;
+    int holdMs = 800;
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                options.inputs.add(new File(arg));
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--out":
+                    options.out = new File(value);
+                    break;
+                case "--format":
+                    options.csv = "csv".equals(value) || "both".equals(value);
+                    options.json = "json".equals(value) || "both".equals(value);
+                    if (!options.csv && !options.json) {
+                        throw new IllegalArgumentException("unknown format: " + value);
+                    }
+                    break;
+                case "--threads":
+                    options.threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--chunk-seconds":
+                    options.chunkSeconds = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--threshold-dbfs":
+                    options.thresholdDbfs = Double.parseDouble(value);
+                    break;
+                case "--hold-ms":
+                    options.holdMs = Math.max(0, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (options.inputs.isEmpty()) {
+            throw new IllegalArgumentException("no input");
+        }
+        return options;
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.allape.noisefighter.analyzer;
+
+import net.allape.noisefighter.dsp.WavReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * 一个待分析的WAV文件与它的开始时间
+ */
+final class Recording implements Closeable {
+
+    // 与CaptureEngine的文件名格式一致
+    private static final String FILE_NAME_FORMAT = "yyyy-MM-dd_HH:mm:ss";
+
+    final File file;
+    final WavReader reader;
+    // 录音开始的时间, 单位: ms
+    final long startTime;
+
+    Recording(File file) throws IOException {
+        this.file = file;
+        this.reader = new WavReader(file);
+        this.startTime = startTimeOf(file, reader);
+    }
+
+    /**
+     * 文件名是CaptureEngine的格式时按文件名, 否则按修改时间(录音结束时)减去时长
+     */
+    static long startTimeOf(File file, WavReader reader) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        try {
+            SimpleDateFormat format = new SimpleDateFormat(FILE_NAME_FORMAT, Locale.ROOT);
+            format.setLenient(false);
+            return format.parse(dot > 0 ? name.substring(0, dot) : name).getTime();
+        } catch (ParseException e) {
+            return file.lastModified() - reader.getFrames() * 1000 / reader.getConfig().getSampleRate();
+        }
+    }
+
+    int getSampleRate() {
+        return reader.getConfig().getSampleRate();
+    }
+
+    long getFrames() {
+        return reader.getFrames();
+    }
+
+    /**
+     * @return 第frame帧的时间, 单位: ms
+     */
+    long timeOf(long frame) {
+        return startTime + frame * 1000 / getSampleRate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
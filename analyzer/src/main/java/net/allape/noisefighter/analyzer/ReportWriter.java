@@ -0,0 +1,111 @@
+package net.allape.noisefighter.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * 输出事件与每小时统计的CSV/JSON报告
+ */
+final class ReportWriter {
+
+    static final String EVENTS = "events";
+    static final String HOURLY = "hourly";
+
+    private final File dir;
+    private final DateTimeFormatter format;
+
+    ReportWriter(File dir, ZoneId zone) {
+        this.dir = dir;
+        this.format = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(zone);
+    }
+
+    void writeCsv(Result result) throws IOException {
+        try (PrintWriter out = open(EVENTS + ".csv")) {
+            out.println("file,start,offset_s,duration_s,peak_dbfs,rms_dbfs,dominant_hz");
+            for (DetectedEvent event : result.events) {
+                out.println(String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%.1f,%.1f,%.1f",
+                        csv(event.recording.file.getPath()), time(event.getStartTime()),
+                        event.getOffsetSeconds(), event.getDurationSeconds(),
+                        event.peakDbfs, event.rmsDbfs, event.dominantHz));
+            }
+        }
+        try (PrintWriter out = open(HOURLY + ".csv")) {
+            out.println("hour,seconds,peak_dbfs,rms_dbfs,events,event_seconds");
+            for (HourlySummary hour : result.hours.values()) {
+                out.println(String.format(Locale.ROOT, "%s,%.1f,%.1f,%.1f,%d,%.1f",
+                        time(hour.hourStart), hour.seconds, hour.getPeakDbfs(), hour.getRmsDbfs(),
+                        hour.events, hour.eventSeconds));
+            }
+        }
+    }
+
+    void writeJson(Result result) throws IOException {
+        try (PrintWriter out = open(EVENTS + ".json")) {
+            out.println("[");
+            for (int i = 0; i < result.events.size(); i++) {
+                DetectedEvent event = result.events.get(i);
+                out.print(String.format(Locale.ROOT,
+                        "  {\"file\": %s, \"start\": \"%s\", \"offset_s\": %.3f, \"duration_s\": %.3f, "
+                                + "\"peak_dbfs\": %.1f, \"rms_dbfs\": %.1f, \"dominant_hz\": %.1f}",
+                        json(event.recording.file.getPath()), time(event.getStartTime()),
+                        event.getOffsetSeconds(), event.getDurationSeconds(),
+                        event.peakDbfs, event.rmsDbfs, event.dominantHz));
+                out.println(i < result.events.size() - 1 ? "," : "");
+            }
+            out.println("]");
+        }
+        try (PrintWriter out = open(HOURLY + ".json")) {
+            out.println("[");
+            int i = 0;
+            for (HourlySummary hour : result.hours.values()) {
+                out.print(String.format(Locale.ROOT,
+                        "  {\"hour\": \"%s\", \"seconds\": %.1f, \"peak_dbfs\": %.1f, \"rms_dbfs\": %.1f, "
+                                + "\"events\": %d, \"event_seconds\": %.1f}",
+                        time(hour.hourStart), hour.seconds, hour.getPeakDbfs(), hour.getRmsDbfs(),
+                        hour.events, hour.eventSeconds));
+                out.println(++i < result.hours.size() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    private PrintWriter open(String name) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(
+                Files.newOutputStream(new File(dir, name).toPath()), StandardCharsets.UTF_8));
+    }
+
+    private String time(long millis) {
+        return format.format(Instant.ofEpochMilli(millis));
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+}
@@ -0,0 +1,38 @@
+package net.allape.noisefighter.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一段或多段录音的分析结果, 按时间顺序合并
+ */
+final class Result {
+
+    // 按开始时间排列的事件
+    final List<DetectedEvent> events = new ArrayList<>();
+    // 按小时排列的统计
+    final Map<Long, HourlySummary> hours = new TreeMap<>();
+
+    HourlySummary hour(long hourStart) {
+        HourlySummary summary = hours.get(hourStart);
+        if (summary == null) {
+            summary = new HourlySummary(hourStart);
+            hours.put(hourStart, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * 追加后面一段的结果
+     */
+    Result merge(Result later) {
+        events.addAll(later.events);
+        for (HourlySummary summary : later.hours.values()) {
+            hour(summary.hourStart).merge(summary);
+        }
+        return this;
+    }
+
+}
@@ -0,0 +1,123 @@
+package net.allape.noisefighter.analyzer;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.WavWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AnalyzerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    // 与文件名的解析一致
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 3分钟的低噪声, 在30s, 75s, 150s处各有1s的1kHz正弦波, 从10:59:00开始
+     */
+    private File record() throws IOException {
+        File file = new File(folder.getRoot(), "2026-01-01_10:59:00.wav");
+        short[] samples = new short[SAMPLE_RATE * 180];
+        Random random = new Random(1);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextGaussian() * 30);
+        }
+        for (int second : new int[]{30, 75, 150}) {
+            for (int i = 0; i < SAMPLE_RATE; i++) {
+                samples[second * SAMPLE_RATE + i] += (short) (10000 * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+            }
+        }
+        try (WavWriter writer = new WavWriter(file, new AudioConfig(SAMPLE_RATE, 1, AudioConfig.Encoding.PCM_16BIT))) {
+            writer.write(samples, 0, samples.length);
+        }
+        return file;
+    }
+
+    private static Result analyze(File file, int chunkSeconds) throws IOException {
+        Options options = Options.parse(new String[]{"--chunk-seconds", String.valueOf(chunkSeconds), file.getPath()});
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Recording recording = new Recording(file)) {
+            return Analyzer.analyze(pool, Collections.singletonList(recording), options, ZONE);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void detectsBursts() throws IOException {
+        Result result = analyze(record(), 60);
+        List<DetectedEvent> events = result.events;
+        assertEquals(3, events.size());
+        double[] offsets = {30, 75, 150};
+        for (int i = 0; i < offsets.length; i++) {
+            DetectedEvent event = events.get(i);
+            assertEquals(offsets[i], event.getOffsetSeconds(), 0.05);
+            assertEquals(1, event.getDurationSeconds(), 0.1);
+            assertEquals(-10.3, event.peakDbfs, 0.5);
+            assertEquals(1000, event.dominantHz, 0);
+        }
+    }
+
+    @Test
+    public void chunkingDoesNotChangeResults() throws IOException {
+        File file = record();
+        Result whole = analyze(file, 3600);
+        for (int chunkSeconds : new int[]{1, 7, 60}) {
+            Result chunked = analyze(file, chunkSeconds);
+            assertEquals(whole.events.size(), chunked.events.size());
+            for (int i = 0; i < whole.events.size(); i++) {
+                assertEquals(whole.events.get(i).startFrame, chunked.events.get(i).startFrame);
+                assertEquals(whole.events.get(i).frames, chunked.events.get(i).frames);
+            }
+            assertEquals(whole.hours.keySet(), chunked.hours.keySet());
+            for (Long hour : whole.hours.keySet()) {
+                HourlySummary expected = whole.hours.get(hour);
+                HourlySummary actual = chunked.hours.get(hour);
+                assertEquals(expected.samples, actual.samples);
+                assertEquals(expected.peak, actual.peak);
+                assertEquals(expected.events, actual.events);
+                assertEquals(expected.sumSquares, actual.sumSquares, expected.sumSquares * 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void splitsHours() throws IOException {
+        Result result = analyze(record(), 60);
+        assertEquals(2, result.hours.size());
+        HourlySummary first = result.hours.values().iterator().next();
+        assertEquals(60, first.seconds, 0.05);
+        assertEquals(1, first.events);
+        assertEquals(LocalDateTime.of(2026, 1, 1, 10, 0).atZone(ZONE).toInstant().toEpochMilli(), first.hourStart);
+    }
+
+    @Test
+    public void writesReports() throws IOException {
+        Result result = analyze(record(), 60);
+        File out = folder.newFolder("out");
+        ReportWriter writer = new ReportWriter(out, ZONE);
+        writer.writeCsv(result);
+        writer.writeJson(result);
+        List<String> lines = Files.readAllLines(new File(out, "events.csv").toPath());
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(1).contains("2026-01-01T"));
+        assertEquals(3, Files.readAllLines(new File(out, "hourly.csv").toPath()).size());
+        assertTrue(new String(Files.readAllBytes(new File(out, "events.json").toPath())).contains("\"dominant_hz\": 1000.0"));
+    }
+
+}
@@ -0,0 +1,85 @@
+package net.allape.noisefighter;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+
+/**
+ * {@link AudioConfig}与Android音频参数之间的转换, 以及设备支持的格式探测
+ */
+final class AudioConfigs {
+
+    private static final String LOG_TAG = "AudioConfigs";
+
+    // 原生采样率不可用时依次尝试的采样率
+    private static final int[] FALLBACK_RATES = {48000, 44100};
+
+    private AudioConfigs() {}
+
+    /**
+     * 按期望的格式选择设备支持的格式: 采样率优先使用设备的原生采样率, 避免系统重采样带来的开销与延迟;
+     * 不支持时依次退回到单声道与16bit
+     * @param preferred 期望的格式
+     */
+    static AudioConfig probe(AudioManager audioManager, AudioConfig preferred) {
+        String nativeRate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+        int[] rates = new int[FALLBACK_RATES.length + 2];
+        rates[0] = nativeRate == null ? preferred.getSampleRate() : Integer.parseInt(nativeRate);
+        rates[1] = preferred.getSampleRate();
+        System.arraycopy(FALLBACK_RATES, 0, rates, 2, FALLBACK_RATES.length);
+
+        AudioConfig.Encoding[] encodings = {preferred.getEncoding(), AudioConfig.Encoding.PCM_16BIT};
+        int[] channels = {preferred.getChannels(), 1};
+        for (AudioConfig.Encoding encoding : encodings) {
+            for (int channel : channels) {
+                for (int rate : rates) {
+                    AudioConfig config = new AudioConfig(rate, channel, encoding);
+                    if (isSupported(config)) {
+                        Log.v(LOG_TAG, "native rate: " + nativeRate + ", using: " + config);
+                        return config;
+                    }
+                }
+            }
+        }
+        Log.w(LOG_TAG, "no supported config found, using: " + AudioConfig.DEFAULT);
+        return AudioConfig.DEFAULT;
+    }
+
+    /**
+     * @return 录音与播放是否都支持这个格式
+     */
+    static boolean isSupported(AudioConfig config) {
+        if (config.getChannels() > 2) return false;
+        int encoding = encodingOf(config);
+        return AudioRecord.getMinBufferSize(config.getSampleRate(), channelInMaskOf(config), encoding) > 0
+                && AudioTrack.getMinBufferSize(config.getSampleRate(), channelOutMaskOf(config), encoding) > 0;
+    }
+
+    /**
+     * @return AudioFormat中的编码
+     */
+    static int encodingOf(AudioConfig config) {
+        return config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT
+                ? AudioFormat.ENCODING_PCM_FLOAT
+                : AudioFormat.ENCODING_PCM_16BIT;
+    }
+
+    /**
+     * @return 录音的声道掩码, 只支持单声道与立体声
+     */
+    static int channelInMaskOf(AudioConfig config) {
+        return config.getChannels() == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+    }
+
+    /**
+     * @return 播放的声道掩码, 只支持单声道与立体声
+     */
+    static int channelOutMaskOf(AudioConfig config) {
+        return config.getChannels() == 2 ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO;
+    }
+
+}
@@ -0,0 +1,69 @@
+package net.allape.noisefighter;
+
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.AudioSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 麦克风录音, 在{@link #start()}时才创建AudioRecord, 需要在录音线程中调用
+ */
+class AudioRecordSource implements AudioSource {
+
+    private final AudioConfig config;
+    private final int bufferSize;
+    private AudioRecord audioRecord;
+
+    /**
+     * @param config 设备支持的格式
+     * @param bufferSize AudioRecord的buffer大小, 单位: byte
+     */
+    AudioRecordSource(AudioConfig config, int bufferSize) {
+        this.config = config;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public void start() throws IOException {
+        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, config.getSampleRate(),
+                AudioConfigs.channelInMaskOf(config), AudioConfigs.encodingOf(config), bufferSize);
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("failed to initialize AudioRecord with " + config);
+        }
+        audioRecord.startRecording();
+    }
+
+    /**
+     * 阻塞读取, 麦克风不会结束; AudioRecord返回0时作为错误返回
+     */
+    @Override
+    public int read(ByteBuffer dst, int size) {
+        int read = audioRecord.read(dst, size);
+        return read == 0 ? AudioRecord.ERROR : read;
+    }
+
+    @Override
+    public void close() {
+        if (audioRecord == null) return;
+        audioRecord.stop();
+        audioRecord.release();
+        audioRecord = null;
+    }
+
+    @Override
+    public String toString() {
+        return "mic " + config;
+    }
+
+}
@@ -0,0 +1,916 @@
+package net.allape.noisefighter;
+
+import android.media.AudioRecord;
+import android.util.Log;
+
+import net.allape.noisefighter.dsp.AdaptiveThreshold;
+import net.allape.noisefighter.dsp.AsyncWavWriter;
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.AudioSource;
+import net.allape.noisefighter.dsp.Band;
+import net.allape.noisefighter.dsp.BandMeter;
+import net.allape.noisefighter.dsp.CapturePipeline;
+import net.allape.noisefighter.dsp.Clip;
+import net.allape.noisefighter.dsp.Counter;
+import net.allape.noisefighter.dsp.EventStore;
+import net.allape.noisefighter.dsp.EventWriter;
+import net.allape.noisefighter.dsp.FlacWriter;
+import net.allape.noisefighter.dsp.FrameProcessor;
+import net.allape.noisefighter.dsp.GoertzelBank;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.Metrics;
+import net.allape.noisefighter.dsp.MetricsFile;
+import net.allape.noisefighter.dsp.NoiseLog;
+import net.allape.noisefighter.dsp.NoiseRollup;
+import net.allape.noisefighter.dsp.PcmConverter;
+import net.allape.noisefighter.dsp.PlaybackChain;
+import net.allape.noisefighter.dsp.Sound;
+import net.allape.noisefighter.dsp.SoundLibrary;
+import net.allape.noisefighter.dsp.SpectrogramBuffer;
+import net.allape.noisefighter.dsp.SpectrumAnalyzer;
+import net.allape.noisefighter.dsp.ThresholdTrigger;
+import net.allape.noisefighter.dsp.WaveformBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录音引擎: 录音、触发、播放与文件写入, 由{@link CaptureService}持有, 与Activity的生命周期无关
+ *
+ * 界面通过{@link #getWaveform()}与{@link #getSpectrogram()}按vsync读取最新的数据,
+ * 状态变化通过{@link Listener}通知; 没有界面订阅时不产生任何界面相关的开销.
+ * 低功耗模式下长时间安静时休眠({@link State#SLEEPING}): 录音线程批量读取、降低优先级, 只做噪声统计、文件写入与唤醒检测.
+ */
+public class CaptureEngine {
+
+    private static final String LOG_TAG = "CaptureEngine";
+
+    // 日期格式化
+    private static final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss", Locale.CHINA);
+
+    // 波形的列数
+    private static final int WAVEFORM_COLUMNS = 512;
+    // 波形显示的时长
+    private static final int WAVEFORM_MS = 2000;
+
+    // 低音频段, 窄频段使用Goertzel滤波器组
+    private static final Band BASS = new Band(30, 150);
+    // 人声频段, 宽频段使用滑动窗口FFT
+    private static final Band VOICE = new Band(300, 3400);
+    // FFT长度
+    private static final int SPECTRUM_FFT_SIZE = 4096;
+    // 两次FFT之间的采样数
+    private static final int SPECTRUM_HOP = 1024;
+    // 频谱图的列数
+    private static final int SPECTROGRAM_COLUMNS = 512;
+    // 频谱图的行数
+    private static final int SPECTROGRAM_ROWS = 256;
+    // 频谱图的最低频率
+    private static final double SPECTROGRAM_MIN_HZ = 20;
+    // 频谱图的电平范围, 单位: dBFS
+    private static final double SPECTROGRAM_MIN_DB = -110;
+    private static final double SPECTROGRAM_MAX_DB = -20;
+
+    // 指标导出的间隔
+    private static final int METRICS_EXPORT_MS = 10000;
+    // 每个指标文件的最大长度
+    private static final long METRICS_FILE_BYTES = 4 * 1024 * 1024;
+    // 保留的指标文件数量
+    private static final int METRICS_FILES = 4;
+    // 应答声音的缓存上限, 单位: byte; 48kHz时约5.8分钟
+    private static final long SOUND_CACHE_BYTES = 32 * 1024 * 1024;
+    // 停止时等待录音、播放与事件写入线程结束的最长时间
+    private static final long STOP_TIMEOUT_MS = 1000;
+    // 需要进行记录的阈值: 峰值达到这个阈值开始录音、离开这个阈值结束录音(如果已经开始录音了)
+    static final int DEFAULT_THRESHOLD = CapturePipeline.DEFAULT_THRESHOLD;
+
+    /**
+     * 引擎状态
+     */
+    public enum State {
+        // 等待触发
+        IDLE,
+        // 触发中, 正在缓存录音
+        TRIGGERED,
+        // 正在播放录音
+        PLAYING,
+        // 低功耗休眠, 波形与频谱不再更新
+        SLEEPING,
+    }
+
+    /**
+     * 状态回调, 在录音或播放线程中调用, 只在状态变化时调用
+     */
+    public interface Listener {
+
+        void onStateChanged(State state);
+
+    }
+
+    // 音频格式, 录音与播放使用同一格式; 内部处理统一为单声道16bit
+    private final AudioConfig config;
+    // 采样率
+    private final int sampleRate;
+    // 一帧的采样数
+    private final int frameSize;
+    // 输出设备的burst大小, 单位: 帧
+    private final int framesPerBurst;
+
+    // 录音、触发与播放处理
+    private final CapturePipeline core;
+    // 自适应阈值
+    private final AdaptiveThreshold adaptiveThreshold;
+    // 阈值触发
+    private final ThresholdTrigger trigger;
+    // 播放处理: 循环、变速、增益与限制器; 设置在两次启动之间保留
+    private final PlaybackChain playbackChain;
+    // 应答声音, 解码为播放格式之后缓存在直接内存中
+    private final SoundLibrary sounds;
+    // 波形
+    private final WaveformBuffer waveform;
+    // 频谱, 频谱图与人声频段触发共用
+    private final SpectrumAnalyzer spectrum;
+    // 频谱图
+    private final SpectrogramBuffer spectrogram;
+    // 指标, 热路径上的记录只有几纳秒, 一直开启
+    private final Metrics metrics = new Metrics();
+
+    // 指标文件的目录, 为null时不导出
+    private volatile File metricsDirectory;
+    // 指标导出
+    private ScheduledExecutorService metricsExporter;
+    private MetricsFile metricsFile;
+    // 噪声统计的保存, 与指标在同一个线程中
+    private NoiseLog noiseLog;
+    private final NoiseRollup noiseRollup = new NoiseRollup();
+
+    // 录音器
+    private MicRunnable micRunnable;
+    private Thread micThread;
+    // 播放器, 录音线程中读取
+    private volatile PlaybackRunnable playbackRunnable;
+    private Thread playbackThread;
+    // 事件写入, 播放过的录音在这个线程中保存
+    private EventWriter eventWriter;
+    private Thread eventThread;
+
+    // 文件写入, 不为null则表示需要写入文件
+    private volatile AsyncWavWriter wav;
+    // 写入数据, 实际的文件写入在后台线程中进行; 休眠时也需要写入
+    private final FrameProcessor wavSink = (frame, offset, length) -> {
+        AsyncWavWriter writer = wav;
+        if (writer != null) {
+            writer.write(frame, offset, length);
+        }
+    };
+    // 压缩时wav的写入端
+    private FlacWriter flac;
+    // 事件写入, 不为null则表示需要保存触发的录音
+    private volatile EventStore events;
+    // 正在写入的文件路径
+    private volatile String recordingPath;
+
+    // 是否显示频谱图, 显示时才计算频谱
+    private volatile boolean spectrogramShown = false;
+    // 触发模式, 顺序与TriggerModes一致
+    private volatile int triggerMode = 0;
+    // 当前状态
+    private volatile State state = State.IDLE;
+    // 状态回调, 可以为null
+    private volatile Listener listener;
+
+    /**
+     * @param config 音频格式, 需要是设备支持的格式, 见{@link AudioConfigs#probe}
+     * @param framesPerBurst 输出设备的burst大小, 单位: 帧; 未知时为0
+     */
+    public CaptureEngine(AudioConfig config, int framesPerBurst) {
+        this.config = config;
+        this.sampleRate = config.getSampleRate();
+        this.framesPerBurst = framesPerBurst;
+        frameSize = MicRunnable.bufferSizeOf(config) / config.getBytesPerFrame();
+        waveform = new WaveformBuffer(WAVEFORM_COLUMNS, sampleRate * WAVEFORM_MS / 1000 / WAVEFORM_COLUMNS);
+        spectrogram = new SpectrogramBuffer(SPECTROGRAM_COLUMNS, SPECTROGRAM_ROWS,
+                sampleRate, SPECTRUM_FFT_SIZE, SPECTROGRAM_MIN_HZ, SPECTROGRAM_MIN_DB, SPECTROGRAM_MAX_DB);
+        spectrum = new SpectrumAnalyzer(sampleRate, SPECTRUM_FFT_SIZE, SPECTRUM_HOP, VOICE);
+        spectrum.setListener(spectrogram);
+
+        core = new CapturePipeline(config, frameSize, metrics, new CapturePipeline.Listener() {
+            @Override
+            public void onTriggered() {
+                setState(State.TRIGGERED);
+            }
+
+            @Override
+            public void onIdle() {
+                setState(State.IDLE);
+            }
+
+            @Override
+            public void onClip(Clip clip) {
+                // 停止时录音线程可能还没有结束
+                PlaybackRunnable playback = playbackRunnable;
+                if (playback != null) playback.wakeUp();
+            }
+
+            @Override
+            public void onDropped(long start, long end) {
+                // 回声消除之后播放期间也可以触发, 触发得太频繁时播放跟不上
+                Log.w(LOG_TAG, "playback queue is full, dropping clip");
+            }
+
+            @Override
+            public void onSleep() {
+                setState(State.SLEEPING);
+            }
+        }, this::processBands, waveform, wavSink);
+        core.setSleepStages(wavSink);
+        adaptiveThreshold = core.getAdaptiveThreshold();
+        trigger = core.getTrigger();
+        playbackChain = core.getPlaybackChain();
+        sounds = new SoundLibrary(sampleRate, SOUND_CACHE_BYTES);
+        // 播放期间继续电平与触发
+        core.setEchoCancelling(true);
+        core.getPipeline().setStageTimers(
+                metrics.histogram("stage.echo"),
+                metrics.histogram("stage.noise"),
+                metrics.histogram("stage.level"),
+                metrics.histogram("stage.adaptive"),
+                metrics.histogram("stage.band"),
+                metrics.histogram("stage.trigger"),
+                metrics.histogram("stage.waveform"),
+                metrics.histogram("stage.wav"));
+    }
+
+    /**
+     * 只在需要时计算频段能量与频谱, 共用的频谱只计算一次
+     */
+    private void processBands(short[] frame, int offset, int length) {
+        BandMeter bandMeter = trigger.getBandMeter();
+        ThresholdTrigger.Mode mode = trigger.getMode();
+        boolean banded = bandMeter != null
+                && (mode == ThresholdTrigger.Mode.BAND || mode == ThresholdTrigger.Mode.PEAK_AND_BAND);
+        if (spectrogramShown || (banded && bandMeter == spectrum)) {
+            spectrum.process(frame, offset, length);
+        }
+        if (banded && bandMeter != spectrum) {
+            bandMeter.process(frame, offset, length);
+        }
+    }
+
+    /**
+     * 从麦克风录音并启动播放线程, 重复调用无效
+     */
+    public synchronized void start() {
+        start(null);
+    }
+
+    /**
+     * 启动录音与播放线程, 重复调用无效
+     * @param source 录音来源, 为null时使用麦克风; 其他来源的格式需要与{@link #getConfig()}相同
+     */
+    public synchronized void start(AudioSource source) {
+        if (micRunnable != null) {
+            Log.w(LOG_TAG, "has been started");
+            return;
+        }
+        if (source != null && !source.getConfig().equals(config)) {
+            throw new IllegalArgumentException("source format " + source.getConfig() + " does not match " + config);
+        }
+
+        // 上一次停止时线程没有及时结束, 它们结束之前不能重置处理核心
+        if ((micThread != null && !join(micThread)) || (playbackThread != null && !join(playbackThread))
+                || (eventThread != null && !join(eventThread))) {
+            throw new IllegalStateException("previous mic, playback or event thread is still running");
+        }
+        micThread = null;
+        playbackThread = null;
+        eventThread = null;
+        // 上一次运行留下的录音与静音不再有效
+        core.reset();
+
+        // 录音器, 数据直接交给处理核心; AudioRecord的buffer需要容纳休眠时的一次批量读取
+        int maxFrames = core.getMaxReadSize();
+        micRunnable = new MicRunnable(source != null ? source
+                : new AudioRecordSource(config, (maxFrames + frameSize) * config.getBytesPerFrame()),
+                metrics, maxFrames, new MicRunnable.AudioRecordRunnableCallback() {
+                    @Override
+                    public int getReadSize() {
+                        return core.getReadSize();
+                    }
+
+                    @Override
+                    public void onData(ShortBuffer data) {
+                        core.onData(data);
+                    }
+
+                    @Override
+                    public void onEnd() {
+                        core.onEnd();
+                    }
+                });
+        // 噪声统计的周期按墙上时间对齐
+        core.getNoiseStatistics().reset(System.currentTimeMillis());
+
+        // 保存触发的录音, 不占用播放线程
+        eventWriter = new EventWriter(core.getRecorded(), CapturePipeline.PLAYBACK_QUEUE_SIZE, metrics);
+        eventWriter.setStore(events);
+
+        // 播放器
+        playbackRunnable = new PlaybackRunnable(config, framesPerBurst, core.getRecorded(), core.getClips(), playbackChain,
+                core.getEchoReference(), eventWriter, metrics, new PlaybackRunnable.PlaybackCallback() {
+            @Override
+            public void onStart() {
+                setState(State.PLAYING);
+            }
+
+            @Override
+            public void onEnd() {
+                // 开始冷却, 期间继续录音但不触发
+                core.onPlaybackEnd();
+            }
+        });
+
+        eventThread = new Thread(eventWriter, "EventWriter");
+        eventThread.start();
+        playbackThread = new Thread(playbackRunnable, "Playback");
+        playbackRunnable.setThread(playbackThread);
+        playbackThread.start();
+        micThread = new Thread(micRunnable, "Mic");
+        micThread.start();
+        startMetricsExport();
+        Log.v(LOG_TAG, "started with " + config + ", frame size: " + frameSize);
+    }
+
+    /**
+     * 设置了目录时定期将指标追加到轮转的文件中, 导出在独立的线程中进行
+     */
+    private void startMetricsExport() {
+        File directory = metricsDirectory;
+        if (directory == null) return;
+        try {
+            metricsFile = new MetricsFile(directory, "metrics", METRICS_FILE_BYTES, METRICS_FILES);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, "failed to open metrics file: " + e.getMessage());
+            return;
+        }
+        try {
+            noiseLog = new NoiseLog(new File(directory, "noise.bin"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, "failed to open noise log: " + e.getMessage());
+        }
+        MetricsFile file = metricsFile;
+        metricsExporter = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "Metrics"));
+        metricsExporter.scheduleWithFixedDelay(() -> exportMetrics(file),
+                METRICS_EXPORT_MS, METRICS_EXPORT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void exportMetrics(MetricsFile file) {
+        try {
+            file.append(metrics, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "failed to export metrics: " + e.getMessage());
+        }
+        NoiseLog log = noiseLog;
+        if (log == null) return;
+        try {
+            while (core.getNoiseStatistics().poll(noiseRollup)) {
+                log.append(noiseRollup);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "failed to save noise statistics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 导出最后一次并关闭指标文件
+     */
+    private void stopMetricsExport() {
+        if (metricsExporter == null) return;
+        metricsExporter.shutdownNow();
+        try {
+            metricsExporter.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exportMetrics(metricsFile);
+        try {
+            metricsFile.close();
+            if (noiseLog != null) noiseLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        metricsExporter = null;
+        metricsFile = null;
+        noiseLog = null;
+    }
+
+    /**
+     * 停止录音与播放线程, 关闭正在写入的文件
+     */
+    public synchronized void stop() {
+        if (micRunnable != null) micRunnable.close();
+        if (playbackRunnable != null) playbackRunnable.close();
+        // 等待录音线程发布未完成的噪声统计, 最后一次导出时保存; 没有及时结束的线程保留引用, 下一次启动之前等待
+        if (micThread != null && join(micThread)) {
+            micThread = null;
+        }
+        if (playbackThread != null && join(playbackThread)) {
+            playbackThread = null;
+        }
+        // 播放结束之后写完等待保存的录音, 再关闭文件
+        if (eventWriter != null) eventWriter.close();
+        if (eventThread != null && join(eventThread)) {
+            eventThread = null;
+        }
+        if (micThread != null || playbackThread != null || eventThread != null) {
+            Log.w(LOG_TAG, "threads did not stop in " + STOP_TIMEOUT_MS + "ms");
+        }
+        micRunnable = null;
+        playbackRunnable = null;
+        eventWriter = null;
+        stopRecording();
+        stopMetricsExport();
+    }
+
+    /**
+     * 等待线程结束, 最长{@link #STOP_TIMEOUT_MS}
+     * @return 线程是否已经结束
+     */
+    private static boolean join(Thread thread) {
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * 开始写入文件
+     * @param directory 文件所在的目录
+     * @param eventsOnly 是否只保存触发的录音
+     * @param compressed 是否压缩为FLAC, 只用于完整的录音
+     * @return 写入的文件路径
+     */
+    public synchronized String startRecording(File directory, boolean eventsOnly, boolean compressed)
+            throws IOException {
+        if (isRecording()) {
+            throw new IllegalStateException("already recording to " + recordingPath);
+        }
+        if (eventsOnly) {
+            File base = new File(directory, "events");
+            // 保存的是处理之后的单声道16bit录音
+            events = new EventStore(base, sampleRate, 1);
+            if (eventWriter != null) eventWriter.setStore(events);
+            recordingPath = EventStore.segmentFile(base).getPath();
+            Log.v(LOG_TAG, "start recording events to: " + base + ", existing: " + events.size());
+        } else {
+            File wavFile = new File(directory, FORMAT.format(new Date()) + (compressed ? ".flac" : ".wav"));
+            if (!wavFile.exists()) {
+                if (!wavFile.createNewFile()) {
+                    throw new IOException("failed to create wav file: " + wavFile);
+                }
+            }
+            if (compressed) {
+                // 处理之后的16bit单声道, 在写入线程中编码
+                flac = new FlacWriter(wavFile, config.withChannels(1).withEncoding(AudioConfig.Encoding.PCM_16BIT));
+                wav = new AsyncWavWriter(flac);
+            } else {
+                // 与录音相同的编码, 内容为处理之后的单声道
+                wav = new AsyncWavWriter(wavFile, config.withChannels(1));
+            }
+            recordingPath = wavFile.getPath();
+            Log.v(LOG_TAG, "start recording to file: " + wavFile);
+        }
+        return recordingPath;
+    }
+
+    /**
+     * 关闭并保存正在写入的文件
+     */
+    public synchronized void stopRecording() {
+        try {
+            // 关闭并保存头部数据
+            AsyncWavWriter closing = wav;
+            FlacWriter compressed = flac;
+            wav = null;
+            flac = null;
+            if (closing != null) {
+                closing.close();
+                Log.v(LOG_TAG, "wav saved: " + closing.getDataBytes() + "bytes"
+                        + (compressed != null ? ", compressed to " + compressed.getEncodedBytes() + "bytes" : "")
+                        + ", dropped: " + closing.getDroppedSamples() + " samples");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            EventStore closing = events;
+            events = null;
+            // 写入线程不再使用之后关闭, 正在写入的事件结束之前close会等待
+            if (eventWriter != null) eventWriter.setStore(null);
+            if (closing != null) {
+                closing.close();
+                Log.v(LOG_TAG, "event store closed with " + closing.size() + " events");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        recordingPath = null;
+    }
+
+    public boolean isRecording() {
+        return wav != null || events != null;
+    }
+
+    public boolean isRecordingEvents() {
+        return events != null;
+    }
+
+    /**
+     * @return 正在写入的文件路径, 没有写入时为null
+     */
+    public String getRecordingPath() {
+        return recordingPath;
+    }
+
+    public int getThreshold() {
+        return trigger.getThreshold();
+    }
+
+    /**
+     * @param threshold 阈值, 0 ~ 32768, 自适应模式下不使用
+     */
+    public void setThreshold(int threshold) {
+        trigger.setThreshold(threshold);
+    }
+
+    public int getTriggerMode() {
+        return triggerMode;
+    }
+
+    /**
+     * 切换触发模式, 顺序与TriggerModes一致
+     * @param position 选择的序号
+     */
+    public void setTriggerMode(int position) {
+        switch (position) {
+            case 1:
+                trigger.setMode(ThresholdTrigger.Mode.PEAK);
+                trigger.setBandMeter(null);
+                break;
+            case 2:
+                trigger.setBandMeter(new GoertzelBank(sampleRate, frameSize, BASS));
+                trigger.setMode(ThresholdTrigger.Mode.BAND);
+                break;
+            case 3:
+                trigger.setBandMeter(new GoertzelBank(sampleRate, frameSize, BASS));
+                trigger.setMode(ThresholdTrigger.Mode.PEAK_AND_BAND);
+                break;
+            case 4:
+                trigger.setBandMeter(spectrum);
+                trigger.setMode(ThresholdTrigger.Mode.BAND);
+                break;
+            default:
+                trigger.setMode(ThresholdTrigger.Mode.ADAPTIVE);
+                trigger.setBandMeter(null);
+                break;
+        }
+        triggerMode = position;
+        Log.v(LOG_TAG, "trigger mode: " + trigger.getMode() + ", noise floor: " + adaptiveThreshold.getFloorDbfs() + "dBFS");
+    }
+
+    /**
+     * @return 是否使用自适应阈值
+     */
+    public boolean isAdaptive() {
+        return trigger.getMode() == ThresholdTrigger.Mode.ADAPTIVE;
+    }
+
+    public boolean isLowPower() {
+        return core.isLowPower();
+    }
+
+    /**
+     * @param lowPower 是否在长时间安静时休眠, 关闭时立即恢复完整的处理
+     */
+    public void setLowPower(boolean lowPower) {
+        core.setLowPower(lowPower);
+    }
+
+    public boolean isSpectrogramShown() {
+        return spectrogramShown;
+    }
+
+    /**
+     * @param shown 是否显示频谱图, 不显示时不计算频谱
+     */
+    public void setSpectrogramShown(boolean shown) {
+        this.spectrogramShown = shown;
+    }
+
+    public double getPlaybackGainDb() {
+        return playbackChain.getLimiter().getGainDb();
+    }
+
+    /**
+     * @param gainDb 播放增益, 单位: dB; 超出上限的部分由限制器压低
+     */
+    public void setPlaybackGainDb(double gainDb) {
+        playbackChain.getLimiter().setGainDb(gainDb);
+    }
+
+    public int getPlaybackLoops() {
+        return playbackChain.getLoops();
+    }
+
+    /**
+     * @param loops 每段录音的播放次数, 从下一段录音开始生效
+     */
+    public void setPlaybackLoops(int loops) {
+        playbackChain.setLoops(loops);
+    }
+
+    public double getPlaybackSpeed() {
+        return playbackChain.getSpeed();
+    }
+
+    /**
+     * @param speed 播放速度, 音调随速度变化, 从下一段录音开始生效
+     */
+    public void setPlaybackSpeed(double speed) {
+        playbackChain.setSpeed(speed);
+    }
+
+    /**
+     * 触发之后播放选定的声音而不是触发的录音, 从下一段录音开始生效; 需要解码时在调用线程中进行, 不要在主线程中调用
+     * @param file WAV或FLAC文件
+     */
+    public Sound setResponse(File file) throws IOException {
+        Sound sound = sounds.load(file);
+        playbackChain.setSound(sound);
+        return sound;
+    }
+
+    /**
+     * 触发之后播放记录的事件, 其他同{@link #setResponse(File)}
+     * @param index 事件序号
+     */
+    public Sound setResponse(EventStore.Reader events, int index) throws IOException {
+        Sound sound = sounds.load(events, index);
+        playbackChain.setSound(sound);
+        return sound;
+    }
+
+    /**
+     * 恢复为播放触发的录音
+     */
+    public void clearResponse() {
+        playbackChain.setSound(null);
+    }
+
+    /**
+     * @return 选定的声音, 播放触发的录音时为null
+     */
+    public Sound getResponse() {
+        return playbackChain.getSound();
+    }
+
+    public SoundLibrary getSounds() {
+        return sounds;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param directory 指标文件的目录, 为null时不导出; 在下一次{@link #start()}时生效
+     */
+    public void setMetricsDirectory(File directory) {
+        this.metricsDirectory = directory;
+    }
+
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    public WaveformBuffer getWaveform() {
+        return waveform;
+    }
+
+    public SpectrogramBuffer getSpectrogram() {
+        return spectrogram;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param listener 状态回调, 为null时取消订阅
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 状态变化时通知回调, 每帧调用也只在变化时产生开销
+     */
+    private void setState(State state) {
+        if (this.state == state) return;
+        this.state = state;
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onStateChanged(state);
+        }
+    }
+
+    /**
+     * 录音器, 从{@link AudioSource}读取, 通常是麦克风
+     *
+     * 16bit单声道时直接通过直接内存的采样视图回调; 其他格式先混合为16bit单声道, 使用预分配的buffer.
+     * 每次读取的帧数由回调决定, 批量读取(低功耗休眠)时使用较低的线程优先级.
+     * 有限的来源(例如回放的WAV文件)结束时线程退出.
+     */
+    static class MicRunnable implements Runnable {
+
+        // 录音来源
+        protected final AudioSource source;
+        // 音频格式
+        protected final AudioConfig config;
+        // 两次读取之间的间隔, 正常时接近一个buffer的时长, 偏大说明录音线程跟不上
+        protected final LatencyHistogram readInterval;
+        // 回调耗时
+        protected final LatencyHistogram callbackTime;
+        // 回调耗时超过一个buffer时长的次数
+        protected final Counter late;
+        // 读取失败的次数
+        protected final Counter readErrors;
+        // 录音回调
+        protected final AudioRecordRunnableCallback callback;
+
+        // 是否在下个循环停止录音
+        protected volatile boolean endAtNext = false;
+        // buffer大小
+        protected int bufferSize;
+        // 一次读取的最大帧数
+        protected final int maxFrames;
+
+        /**
+         * @param maxFrames 一次读取的最大帧数, 不小于{@link #bufferSizeOf}对应的帧数
+         */
+        public MicRunnable(AudioSource source, Metrics metrics, int maxFrames, AudioRecordRunnableCallback callback) {
+            this.source = source;
+            this.config = source.getConfig();
+            this.maxFrames = maxFrames;
+            this.callback = callback;
+            this.readInterval = metrics.histogram("mic.read_interval");
+            this.callbackTime = metrics.histogram("mic.callback");
+            this.late = metrics.counter("mic.late");
+            this.readErrors = metrics.counter("mic.read_error");
+
+            bufferSize = bufferSizeOf(config);
+        }
+
+        /**
+         * @param config 音频格式
+         * @return 录音使用的buffer大小, 单位: byte, 为整数帧
+         */
+        public static int bufferSizeOf(AudioConfig config) {
+            int size = AudioRecord.getMinBufferSize(config.getSampleRate(),
+                    AudioConfigs.channelInMaskOf(config), AudioConfigs.encodingOf(config)) * 2;
+            return size / config.getBytesPerFrame() * config.getBytesPerFrame();
+        }
+
+        @Override
+        public void run() {
+            // Set the thread priority
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+            int bufferReadResult;
+            // 本机字节序的直接内存, 通过视图读取采样, 不需要逐字节解码
+            int bytesPerFrame = config.getBytesPerFrame();
+            ByteBuffer audioData = ByteBuffer.allocateDirect(Math.max(bufferSize, maxFrames * bytesPerFrame))
+                    .order(ByteOrder.nativeOrder());
+            ShortBuffer samples = audioData.asShortBuffer();
+            FloatBuffer floats = audioData.asFloatBuffer();
+            boolean floating = config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+            int channels = config.getChannels();
+            int bytesPerSample = config.getEncoding().bytesPerSample;
+            // 需要转换时的单声道16bit输出
+            ShortBuffer mono = floating || channels > 1
+                    ? ShortBuffer.wrap(new short[audioData.capacity() / bytesPerFrame])
+                    : samples;
+
+            long lastRead = 0;
+            // 是否正在批量读取
+            boolean batched = false;
+
+            Log.d(LOG_TAG, "start reading from " + source);
+            try {
+                source.start();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "failed to start " + source + ": " + e.getMessage());
+                endAtNext = true;
+            }
+
+            while (!endAtNext) {
+                int frames = callback.getReadSize();
+                boolean batch = frames * bytesPerFrame > bufferSize;
+                if (batch != batched) {
+                    // 批量读取时唤醒延迟本来就是一次读取的时长, 让出CPU给其他音频线程
+                    batched = batch;
+                    android.os.Process.setThreadPriority(batched
+                            ? android.os.Process.THREAD_PRIORITY_AUDIO
+                            : android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+                }
+                bufferReadResult = source.read(audioData, Math.min(frames * bytesPerFrame, audioData.capacity()));
+                long now = System.nanoTime();
+                if (lastRead != 0) readInterval.record(now - lastRead);
+                lastRead = now;
+                if (bufferReadResult == 0) {
+                    Log.v(LOG_TAG, "source ended");
+                    break;
+                }
+                if (bufferReadResult < 0) readErrors.increment();
+                if (bufferReadResult > 0) {
+                    int count = bufferReadResult / bytesPerSample;
+                    if (floating) {
+                        floats.clear();
+                        floats.limit(count);
+                        mono.clear();
+                        mono.limit(PcmConverter.toMono(floats, channels, mono.array(), 0));
+                    } else if (channels > 1) {
+                        samples.clear();
+                        samples.limit(count);
+                        mono.clear();
+                        mono.limit(PcmConverter.toMono(samples, channels, mono.array(), 0));
+                    } else {
+                        samples.clear();
+                        samples.limit(count);
+                    }
+                    try {
+                        callback.onData(mono);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, e.getMessage());
+                        e.printStackTrace();
+                    }
+                    // 回调耗时超过读取的时长
+                    long readNanos = TimeUnit.SECONDS.toNanos(bufferReadResult / bytesPerFrame) / config.getSampleRate();
+                    if (callbackTime.recordSince(now) - now > readNanos) late.increment();
+                }
+            }
+
+            Log.v(LOG_TAG,"AudioThread Finished");
+            callback.onEnd();
+
+            try {
+                source.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            Log.v(LOG_TAG,"audio source released");
+        }
+
+        public void close() {
+            this.endAtNext = true;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        interface AudioRecordRunnableCallback {
+            /**
+             * @return 下一次读取的帧数, 不超过maxFrames
+             */
+            int getReadSize();
+
+            /**
+             * @param data 单声道16bit录音数据, position到limit之间的采样有效; 回调返回之后会被覆盖
+             */
+            void onData(ShortBuffer data);
+
+            /**
+             * 录音结束, 在录音线程中最后调用
+             */
+            void onEnd();
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package net.allape.noisefighter;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.media.AudioManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+
+/**
+ * 前台服务, 持有{@link CaptureEngine}; Activity重建或进入后台时录音不中断
+ *
+ * 通过startForegroundService启动后一直运行, 直到点击通知中的停止按钮;
+ * Activity通过bindService取得引擎, 解绑不会停止录音.
+ */
+public class CaptureService extends Service {
+
+    private static final String LOG_TAG = "CaptureService";
+
+    // 通知渠道
+    private static final String CHANNEL_ID = "capture";
+    // 通知ID
+    private static final int NOTIFICATION_ID = 1;
+    // 停止服务的action
+    static final String ACTION_STOP = "net.allape.noisefighter.action.STOP";
+    // 期望的音频格式, 采样率以设备的原生采样率优先, 设备不支持时退回到单声道16bit
+    private static final AudioConfig PREFERRED_CONFIG = new AudioConfig(48000, 1, AudioConfig.Encoding.PCM_16BIT);
+
+    /**
+     * 同一进程内的binder, 直接返回引擎
+     */
+    public class LocalBinder extends Binder {
+
+        public CaptureEngine getEngine() {
+            return engine;
+        }
+
+    }
+
+    private final LocalBinder binder = new LocalBinder();
+
+    // 录音引擎
+    private CaptureEngine engine;
+    // 保持CPU运行, 长时间无人值守时屏幕关闭也不中断
+    private PowerManager.WakeLock wakeLock;
+
+    /**
+     * 启动服务, 已经启动时无效
+     */
+    static void start(Context context) {
+        context.startForegroundService(new Intent(context, CaptureService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        String framesPerBurst = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+        AudioConfig config = AudioConfigs.probe(audioManager, PREFERRED_CONFIG);
+        engine = new CaptureEngine(config, framesPerBurst == null ? 0 : Integer.parseInt(framesPerBurst));
+        engine.setMetricsDirectory(getExternalFilesDir(null));
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "NoiseFighter:capture");
+        wakeLock.setReferenceCounted(false);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            Log.v(LOG_TAG, "stopped from notification");
+            engine.stop();
+            stopForeground(true);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        wakeLock.acquire();
+        engine.start();
+        return START_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        engine.stop();
+        if (wakeLock.isHeld()) wakeLock.release();
+        Log.v(LOG_TAG, "destroyed");
+    }
+
+    /**
+     * 常驻通知: 点击打开界面, 停止按钮结束录音
+     */
+    private Notification buildNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.createNotificationChannel(new NotificationChannel(
+                CHANNEL_ID, getString(R.string.CaptureChannel), NotificationManager.IMPORTANCE_LOW));
+
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, CaptureService.class).setAction(ACTION_STOP), PendingIntent.FLAG_IMMUTABLE);
+
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.CaptureRunning))
+                .setContentIntent(open)
+                .addAction(new Notification.Action.Builder(null, getString(R.string.CaptureStop), stop).build())
+                .setOngoing(true)
+                .build();
+    }
+
+}
@@ -1,115 +1,143 @@
 package net.allape.noisefighter;
 
 import android.Manifest;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioRecord;
-import android.media.AudioTrack;
-import android.media.MediaRecorder;
+import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.components.Legend;
-import com.github.mikephil.charting.components.XAxis;
-import com.github.mikephil.charting.components.YAxis;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
-import com.github.mikephil.charting.data.LineDataSet;
-import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 import com.google.android.material.slider.Slider;
+import com.google.android.material.switchmaterial.SwitchMaterial;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.allape.noisefighter.dsp.Sound;
 
 import pub.devrel.easypermissions.EasyPermissions;
 
+/**
+ * 界面, 只是{@link CaptureService}的客户端: 可见时绑定服务并显示引擎的状态, 不可见时解绑
+ */
 public class MainActivity extends AppCompatActivity {
 
     private static final String LOG_TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_CODE = 2021;
-
-    // 日期格式化
-    private static final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss", Locale.CHINA);
-
-    // WAV文件头长度
-    private static final int WAV_HEADER_SIZE = 44;
+    private static final int PICK_RESPONSE_REQUEST_CODE = 2022;
+    // 复制到缓存目录的应答声音的文件名前缀
+    private static final String RESPONSE_PREFIX = "response-";
 
     // OneShot震动
     private static final VibrationEffect ONE_SHOT = VibrationEffect.createOneShot(50, VibrationEffect.DEFAULT_AMPLITUDE);
 
-    // 采样率
-    private static final int SAMPLE_RATE_IN_HZ = 44100;
-//    private static final int SAMPLE_RATE_IN_HZ = 30000;
-    // 频道, 单声道为1
-    private static final int CHANNEL = 1;
-    // 码率 bytes per second
-    private static final int BYTE_RATE = SAMPLE_RATE_IN_HZ * CHANNEL * 2;
-    // 音频采样大小 bit
-    private static final int SAMPLE_LENGTH = 16;
-    // 音频采样格式
-    private static final int SAMPLE_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
-
-    // 触发之后需要延后录音的数量, 避免闪烁
-    private static final int RECORDED_TRAILING_SIZE = 10;
-    // 最大缓存数量, 超出时直接播放
-    private static final int RECORDED_MAX_SIZE = 2000;
-    // 缓存录音
-    private static final ArrayList<byte[]> recorded = new ArrayList<>(RECORDED_MAX_SIZE);
-
-    // 是否初始化
-    private boolean initialized = false;
-
-    // 需要进行记录的阈值: 峰值达到这个阈值开始录音、离开这个阈值结束录音(如果已经开始录音了)
-    // private int threshold = 10000;
-    private int threshold = 33000;
-    // 是否正在播放声音
-    private boolean playing = false;
-    // 防闪烁计数
-    private int trailingCount = RECORDED_TRAILING_SIZE;
+    // 是否有权限, 有权限之后才启动服务
+    private boolean permitted = false;
+    // 是否已经绑定服务
+    private boolean bound = false;
 
     // 震动器
     Vibrator vibrator;
-    // 录音器
-    private MicRunnable micRunnable;
-    // 播放器
-    private AudioTrack track;
-
-    // 文件写入流, 不为null则表示需要写入文件
-    private RandomAccessFile wav;
-    // 已经写入了的数据长度(byte数量)
-    private long wavBytes = 0;
-
-    // 是否暂停图表刷新
-    private boolean chartPaused = false;
-    // 图表压缩内容的值
-    private final int chartScale = 1 << 5;
+    // 录音引擎, 绑定服务期间不为null
+    private CaptureEngine engine;
+    // 选择的应答声音, 返回界面时服务可能还没有重新绑定, 绑定之后再加载
+    private Uri pendingResponse;
+    // 复制并解码应答声音, 不占用主线程
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    private TextView recordFilePath;
+    private Button recordButton;
+    private Button responseButton;
+    private SwitchMaterial eventModeSwitch;
+    private SwitchMaterial compressSwitch;
+    private SwitchMaterial spectrogramSwitch;
+    private SwitchMaterial lowPowerSwitch;
+    private Spinner triggerModeSpinner;
+    private Slider thresholdSlider;
+    private TextView playbackLabel;
+    private Slider gainSlider;
+    private Slider loopsSlider;
+    private Slider speedSlider;
+    private WaveformView waveformView;
+    private SpectrogramView spectrogramView;
+    private MetricsOverlayView metricsOverlay;
+
+    // 引擎状态变化, 在录音或播放线程中调用; 背景颜色在下一个vsync生效
+    private final CaptureEngine.Listener engineListener = state -> {
+        switch (state) {
+            case TRIGGERED:
+                // 波形背景颜色改为红色
+                waveformView.setTint(Color.RED);
+                break;
+            case PLAYING:
+                // 设置为绿色表示在播放录音
+                waveformView.setTint(Color.GREEN);
+                break;
+            case SLEEPING:
+                // 灰色表示低功耗休眠
+                waveformView.setTint(Color.LTGRAY);
+                break;
+            default:
+                waveformView.setTint(Color.WHITE);
+                break;
+        }
+        // 休眠时没有新的数据, 停止按vsync检查
+        boolean sleeping = state == CaptureEngine.State.SLEEPING;
+        waveformView.post(() -> {
+            waveformView.setSuspended(sleeping);
+            spectrogramView.setSuspended(sleeping);
+        });
+    };
 
-    private LineChart chart;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            engine = ((CaptureService.LocalBinder) service).getEngine();
+            engine.setListener(engineListener);
+            engineListener.onStateChanged(engine.getState());
+            waveformView.setWaveform(engine.getWaveform());
+            spectrogramView.setSpectrogram(engine.getSpectrogram());
+            metricsOverlay.setMetrics(engine.getMetrics());
+            if (pendingResponse != null) {
+                loadResponse(pendingResponse);
+                pendingResponse = null;
+            }
+            refresh();
+            Log.v(LOG_TAG, "engine connected");
+        }
 
-    private Handler handler;
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            engine = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        this.init();
 
         // 检查权限
         boolean hasPermissions = EasyPermissions.hasPermissions(
@@ -118,7 +146,8 @@ public class MainActivity extends AppCompatActivity {
                 Manifest.permission.READ_EXTERNAL_STORAGE
         );
         if (hasPermissions) {
-            this.init();
+            permitted = true;
+            CaptureService.start(this);
         } else {
             // shouldShowRequestPermissionRationale(Manifest.permission.RECORD_AUDIO);
             requestPermissions(new String[]{
@@ -128,16 +157,41 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bind();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // 不可见时取消订阅, 录音在服务中继续
+        if (bound) {
+            if (engine != null) engine.setListener(null);
+            unbindService(connection);
+            engine = null;
+            bound = false;
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (micRunnable != null) micRunnable.close();
-        if (wav != null) {
-            try {
-                wav.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        loader.shutdown();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != PICK_RESPONSE_REQUEST_CODE || resultCode != RESULT_OK
+                || data == null || data.getData() == null) {
+            return;
+        }
+        if (engine != null) {
+            loadResponse(data.getData());
+        } else {
+            pendingResponse = data.getData();
         }
     }
 
@@ -152,417 +206,232 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         }
-        this.init();
+        permitted = true;
+        CaptureService.start(this);
+        bind();
     }
 
     /**
-     * 初始化组件
+     * 有权限时绑定服务
      */
-    private void init() {
-        if (initialized) {
-            Log.w(LOG_TAG, "has been initialized");
-            return;
+    private void bind() {
+        if (permitted && !bound) {
+            bound = bindService(new Intent(this, CaptureService.class), connection, Context.BIND_AUTO_CREATE);
         }
+    }
 
+    /**
+     * 初始化组件
+     */
+    private void init() {
         vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
         // 录音文件
-        final TextView recordFilePath = findViewById(R.id.record_file_path);
+        recordFilePath = findViewById(R.id.record_file_path);
         recordFilePath.setText(R.string.RecordFilePathDefault);
 
+        // 只保存触发的录音
+        eventModeSwitch = findViewById(R.id.event_mode_switch);
+        // 完整的录音压缩为FLAC
+        compressSwitch = findViewById(R.id.compress_switch);
+
         // 录音按钮
-        final Button recordButton = findViewById(R.id.record_button);
+        recordButton = findViewById(R.id.record_button);
         recordButton.setOnClickListener(view -> {
             vibrator.vibrate(ONE_SHOT);
-            // 初始化写入功能
-            if (wav == null) {
+            if (engine == null) return;
+            if (!engine.isRecording()) {
                 try {
-                    String fileName = getExternalFilesDir(null) + "/" + FORMAT.format(new Date()) + ".wav";
-                    File wavFile = new File(fileName);
-                    if (!wavFile.exists()) {
-                        if (!wavFile.createNewFile()) {
-                            throw new IOException("failed to create wav file: " + fileName);
-                        }
-                    }
-                    recordFilePath.setText(fileName);
-                    wav = new RandomAccessFile(wavFile, "rw");
-                    wav.seek(WAV_HEADER_SIZE);
-                    Log.v(LOG_TAG, "start recording to file: " + fileName);
+                    engine.startRecording(getExternalFilesDir(null), eventModeSwitch.isChecked(),
+                            compressSwitch.isChecked());
                 } catch (IOException e) {
                     e.printStackTrace();
                     Log.e(LOG_TAG, e.getMessage());
-                    Toast.makeText(this, "Failed to create WAV file", Toast.LENGTH_LONG).show();
+                    Toast.makeText(this, "Failed to start recording", Toast.LENGTH_LONG).show();
                 }
-                recordButton.setText(R.string.StopRecording);
             } else {
-                try {
-                    // 关闭并保存头部数据 https://zh.wikipedia.org/wiki/WAV
-                    byte[] header = new byte[WAV_HEADER_SIZE];
-                    // RIFF/WAVE header
-                    header[0] = 'R';
-                    header[1] = 'I';
-                    header[2] = 'F';
-                    header[3] = 'F';
-                    int totalBytesLength = (int) (wavBytes + 36);
-                    header[4] = (byte) (totalBytesLength & 0xff);
-                    header[5] = (byte) ((totalBytesLength >> 8) & 0xff);
-                    header[6] = (byte) ((totalBytesLength >> 16) & 0xff);
-                    header[7] = (byte) ((totalBytesLength >> 24) & 0xff);
-                    //WAVE
-                    header[8] = 'W';
-                    header[9] = 'A';
-                    header[10] = 'V';
-                    header[11] = 'E';
-                    // 'fmt ' chunk
-                    header[12] = 'f';
-                    header[13] = 'm';
-                    header[14] = 't';
-                    header[15] = ' ';
-                    // 4 bytes: size of 'fmt ' chunk
-                    header[16] = 16;
-                    header[17] = 0;
-                    header[18] = 0;
-                    header[19] = 0;
-                    // format = 1
-                    header[20] = 1;
-                    header[21] = 0;
-                    header[22] = (byte) CHANNEL;
-                    header[23] = 0;
-                    header[24] = (byte) (SAMPLE_RATE_IN_HZ & 0xff);
-                    header[25] = (byte) ((SAMPLE_RATE_IN_HZ >> 8) & 0xff);
-                    header[26] = (byte) ((SAMPLE_RATE_IN_HZ >> 16) & 0xff);
-                    header[27] = (byte) ((SAMPLE_RATE_IN_HZ >> 24) & 0xff);
-                    header[28] = (byte) (BYTE_RATE & 0xff);
-                    header[29] = (byte) ((BYTE_RATE >> 8) & 0xff);
-                    header[30] = (byte) ((BYTE_RATE >> 16) & 0xff);
-                    header[31] = (byte) ((BYTE_RATE >> 24) & 0xff);
-                    // block align
-                    header[32] = (byte) (CHANNEL * SAMPLE_LENGTH / 8);
-                    header[33] = 0;
-                    // bits per sample
-                    header[34] = SAMPLE_LENGTH;
-                    header[35] = 0;
-                    //data
-                    header[36] = 'd';
-                    header[37] = 'a';
-                    header[38] = 't';
-                    header[39] = 'a';
-                    header[40] = (byte) (wavBytes & 0xff);
-                    header[41] = (byte) ((wavBytes >> 8) & 0xff);
-                    header[42] = (byte) ((wavBytes >> 16) & 0xff);
-                    header[43] = (byte) ((wavBytes >> 24) & 0xff);
-                    wav.seek(0);
-                    wav.write(header);
-
-                    Log.v(LOG_TAG, "wav wrote header: " + WAV_HEADER_SIZE + "bytes");
-
-                    wav.close();
-                    wav = null;
-                    wavBytes = 0;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                recordButton.setText(R.string.StartRecording);
+                engine.stopRecording();
             }
+            refresh();
+        });
+
+        // 应答声音: 点击选择WAV或FLAC文件, 长按恢复为播放触发的录音
+        responseButton = findViewById(R.id.response_button);
+        responseButton.setOnClickListener(view -> {
+            vibrator.vibrate(ONE_SHOT);
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("audio/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                    new String[]{"audio/wav", "audio/x-wav", "audio/flac", "audio/x-flac"});
+            startActivityForResult(intent, PICK_RESPONSE_REQUEST_CODE);
+        });
+        responseButton.setOnLongClickListener(view -> {
+            vibrator.vibrate(ONE_SHOT);
+            if (engine != null) engine.clearResponse();
+            refresh();
+            return true;
         });
 
-        // 图表暂停/开始刷新按钮
+        // 波形暂停/开始刷新按钮
         Button chartButton = findViewById(R.id.chart_button);
         chartButton.setOnClickListener(view -> {
             vibrator.vibrate(ONE_SHOT);
-            chartPaused = !chartPaused;
+            waveformView.setPaused(!waveformView.isPaused());
+            spectrogramView.setPaused(waveformView.isPaused());
+        });
+        // 长按显示或隐藏指标浮层
+        metricsOverlay = findViewById(R.id.metrics_overlay);
+        chartButton.setOnLongClickListener(view -> {
+            vibrator.vibrate(ONE_SHOT);
+            metricsOverlay.setVisibility(metricsOverlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+            return true;
         });
 
-        // 图表
-        chart = findViewById(R.id.audio_chart);
-        chart.setBackgroundColor(Color.WHITE);
-        chart.setDrawGridBackground(true);
-        chart.setDrawBorders(true);
-        chart.getDescription().setEnabled(false);
-        chart.setPinchZoom(false);
-
-        Legend l = chart.getLegend();
-        l.setEnabled(false);
-
-        XAxis xAxis = chart.getXAxis();
-        xAxis.setEnabled(false);
-
-        YAxis leftAxis = chart.getAxisLeft();
-        leftAxis.setAxisMaximum(Short.MAX_VALUE);
-        leftAxis.setAxisMinimum(Short.MIN_VALUE);
-        leftAxis.setDrawAxisLine(false);
-        leftAxis.setDrawZeroLine(false);
-        leftAxis.setDrawGridLines(false);
-
-        chart.getAxisRight().setEnabled(false);
-
-        chart.invalidate();
+        // 波形与频谱图
+        waveformView = findViewById(R.id.waveform_view);
+        spectrogramView = findViewById(R.id.spectrogram_view);
+        spectrogramSwitch = findViewById(R.id.spectrogram_switch);
+        spectrogramSwitch.setOnCheckedChangeListener((view, checked) -> {
+            if (engine != null) engine.setSpectrogramShown(checked);
+            waveformView.setVisibility(checked ? View.GONE : View.VISIBLE);
+            spectrogramView.setVisibility(checked ? View.VISIBLE : View.GONE);
+        });
 
-        handler = new Handler();
+        // 长时间安静时休眠
+        lowPowerSwitch = findViewById(R.id.low_power_switch);
+        lowPowerSwitch.setOnCheckedChangeListener((view, checked) -> {
+            if (engine != null) engine.setLowPower(checked);
+        });
 
         // 滑条
-        Slider thresholdSlider = findViewById(R.id.threshold_slider);
-        thresholdSlider.setValue(threshold);
+        thresholdSlider = findViewById(R.id.threshold_slider);
+        thresholdSlider.setValue(CaptureEngine.DEFAULT_THRESHOLD);
         thresholdSlider.addOnChangeListener((slider, value, fromUser) -> {
-            threshold = (int) value;
-            vibrator.vibrate(ONE_SHOT);
+            if (engine != null) engine.setThreshold((int) value);
+            if (fromUser) vibrator.vibrate(ONE_SHOT);
         });
 
-        // 录音器
-        micRunnable = new MicRunnable(SAMPLE_RATE_IN_HZ, data -> {
-            // 图表用的数据
-            ArrayList<Entry> values = new ArrayList<>(data.length / chartScale);
-
-            // 振幅峰值
-            short peak = 0;
-            for (int i = 0; i < data.length; i+=2) {
-                short one = (short) (data[i] | (data[i + 1] << 8));
-
-                // 避免显示过多
-                if (i % chartScale == 0) {
-                    values.add(new Entry(i, one));
-                }
-
-                if (one > peak) {
-                    peak = one;
-                }
-            }
-
-            // 正在播放声音时不处理任何数据
-            if (!playing) {
-                boolean triggerThreshold = peak >= threshold;
-                if (triggerThreshold || trailingCount < RECORDED_TRAILING_SIZE) {
-                    if (triggerThreshold) trailingCount = 0;
-                    // 图表背景颜色改为绿色
-                    chart.setBackgroundColor(Color.RED);
-                    if (recorded.size() >= RECORDED_MAX_SIZE) {
-                        play();
-                    } else {
-                        // 噪音问题来源与
-                        byte[] newData = new byte[data.length];
-                        System.arraycopy(data, 0, newData, 0, newData.length);
-                        recorded.add(newData);
-                        trailingCount++;
-                    }
-                } else {
-                    chart.setBackgroundColor(Color.WHITE);
-                    // 如果存在录音数据则暂停录音、开始播放
-                    if (recorded.size() > 0) {
-                        play();
-                    }
-                }
-            }
-
-            // 重新渲染图表
-            if (!chartPaused) {
-                handler.post(() -> setData(values));
-                // setData(values);
+        // 播放增益、次数与速度, 从下一段录音开始生效
+        playbackLabel = findViewById(R.id.playback_label);
+        gainSlider = findViewById(R.id.gain_slider);
+        gainSlider.addOnChangeListener((slider, value, fromUser) -> {
+            if (engine != null) engine.setPlaybackGainDb(value);
+            onPlaybackChanged(fromUser);
+        });
+        loopsSlider = findViewById(R.id.loops_slider);
+        loopsSlider.addOnChangeListener((slider, value, fromUser) -> {
+            if (engine != null) engine.setPlaybackLoops((int) value);
+            onPlaybackChanged(fromUser);
+        });
+        speedSlider = findViewById(R.id.speed_slider);
+        speedSlider.addOnChangeListener((slider, value, fromUser) -> {
+            if (engine != null) engine.setPlaybackSpeed(value);
+            onPlaybackChanged(fromUser);
+        });
+        onPlaybackChanged(false);
+
+        // 触发模式
+        triggerModeSpinner = findViewById(R.id.trigger_mode_spinner);
+        triggerModeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (engine == null) return;
+                engine.setTriggerMode(position);
+                // 自适应模式下不使用滑条的阈值
+                thresholdSlider.setEnabled(!engine.isAdaptive());
             }
 
-            // 写入数据
-            if (wav != null) {
-                try {
-                    wav.write(data);
-                    wavBytes += data.length;
-                    Log.w(LOG_TAG, "wav wrote: " + data.length + "bytes, total: " + wavBytes + "bytes");
-                    if (wavBytes >= Integer.MAX_VALUE) {
-                        Log.w(LOG_TAG, "wav file overflow");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Log.e(LOG_TAG, e.getMessage());
-                }
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
             }
         });
-        new Thread(micRunnable).start();
-
-        // 播放器
-        // noinspection deprecation
-        track = new AudioTrack(
-                AudioManager.STREAM_MUSIC,
-                SAMPLE_RATE_IN_HZ,
-                AudioFormat.CHANNEL_OUT_MONO,
-                SAMPLE_FORMAT,
-                micRunnable.getBufferSize(),
-                AudioTrack.MODE_STREAM
-        );
-//        track = new AudioTrack.Builder()
-//                .setAudioAttributes(new AudioAttributes.Builder()
-//                        .setUsage(AudioAttributes.USAGE_MEDIA)
-//                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-//                        .build())
-//                .setAudioFormat(new AudioFormat.Builder()
-//                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
-//                        .setEncoding(SAMPLE_FORMAT)
-//                        .setSampleRate(SAMPLE_RATE_IN_HZ)
-//                        .build())
-//                .setBufferSizeInBytes(micRunnable.getBufferSize())
-//                .build();
-
-        initialized = true;
     }
 
     /**
-     * 绘制图表
-     * @param values 绘制的数据
+     * 显示滑条设置的播放参数
      */
-    private void setData(ArrayList<Entry> values) {
-
-        //ArrayList<Entry> values = new ArrayList<>();
-        //for (int i = 0; i < count; i++) {
-        //    float val = (float) (Math.random() * range) + 50;
-        //    values.add(new Entry(i, val));
-        //}
-
-        LineDataSet lineDataSet;
-
-        if (chart.getData() != null &&
-                chart.getData().getDataSetCount() > 0) {
-            lineDataSet = (LineDataSet) chart.getData().getDataSetByIndex(0);
-            lineDataSet.setValues(values);
-            chart.getData().notifyDataChanged();
-            chart.notifyDataSetChanged();
-            chart.postInvalidate();
-        } else {
-            lineDataSet = new LineDataSet(values, "Audio");
-
-            lineDataSet.setAxisDependency(YAxis.AxisDependency.LEFT);
-            lineDataSet.setColor(Color.BLACK);
-            lineDataSet.setLineWidth(2f);
-            lineDataSet.setDrawCircles(false);
-            lineDataSet.setFillAlpha(255);
-            lineDataSet.setDrawFilled(false);
-            lineDataSet.setFillColor(Color.WHITE);
-            lineDataSet.setHighLightColor(Color.RED);
-            lineDataSet.setDrawCircleHole(false);
-
-            ArrayList<ILineDataSet> dataSets = new ArrayList<>();
-            dataSets.add(lineDataSet); // add the data sets
-
-            LineData data = new LineData(dataSets);
-            data.setDrawValues(false);
-
-            // set data
-            chart.setData(data);
-        }
+    private void onPlaybackChanged(boolean fromUser) {
+        playbackLabel.setText(getString(R.string.PlaybackSettings,
+                gainSlider.getValue(), (int) loopsSlider.getValue(), speedSlider.getValue()));
+        if (fromUser) vibrator.vibrate(ONE_SHOT);
     }
 
     /**
-     * 播放{@link this#recorded}录音
+     * 在后台线程中复制选择的文件并解码为应答声音, 完成之后刷新界面
      */
-    synchronized private void play() {
-        if (recorded.size() == 0) {
-            return;
-        }
-
-        try {
-            // 设置为绿色表示在播放录音
-            chart.setBackgroundColor(Color.GREEN);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        playing = true;
-
-        try {
-            track.play();
-            int shortLength = recorded.get(0).length;
-//            byte[] data = new byte[recorded.size() * shortLength];
-//            for (int i = 0; i < recorded.size(); i++) {
-//                System.arraycopy(recorded.get(i), 0, data, i * shortLength, shortLength);
-//            }
-//            Log.v(LOG_TAG, "Playback with: " + data.length + " * 2 bytes");
-//            track.write(data, 0, data.length);
-
-            for (byte[] bytes : recorded) {
-                track.write(bytes, 0, bytes.length);
+    private void loadResponse(Uri uri) {
+        CaptureEngine target = engine;
+        if (target == null) return;
+        String type = getContentResolver().getType(uri);
+        String extension = type != null && type.contains("flac") ? ".flac" : ".wav";
+        loader.execute(() -> {
+            try {
+                Sound sound = target.setResponse(copyResponse(uri, extension));
+                Log.v(LOG_TAG, "response selected: " + sound);
+                runOnUiThread(this::refresh);
+            } catch (IOException e) {
+                e.printStackTrace();
+                Log.e(LOG_TAG, String.valueOf(e.getMessage()));
+                runOnUiThread(() -> Toast.makeText(this, "Failed to load the sound", Toast.LENGTH_LONG).show());
             }
-            Log.v(LOG_TAG, "Playback with: " + recorded.size() * shortLength + "bytes");
-
-            track.stop();
-            track.flush();
-
-            Thread.sleep(1000);
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.e(LOG_TAG, e.getMessage());
-        } finally {
-            playing = false;
-            // 清空缓存
-            recorded.clear();
-        }
+        });
     }
 
     /**
-     * 录音器
+     * 复制到缓存目录; 每次使用新的文件名, 不会命中之前的声音缓存. 之前复制的文件已经解码, 直接删除
+     * @param extension 按扩展名区分WAV和FLAC
      */
-    static class MicRunnable implements Runnable {
-
-        // 采样率
-        protected final int rateInHz;
-        // 录音回调
-        protected final AudioRecordRunnableCallback callback;
-
-        // 是否在下个循环停止录音
-        protected boolean endAtNext = false;
-        // buffer大小
-        protected int bufferSize;
-
-        public MicRunnable(int rateInHz, AudioRecordRunnableCallback callback) {
-            this.rateInHz = rateInHz;
-            this.callback = callback;
-
-            bufferSize = AudioRecord.getMinBufferSize(rateInHz,
-                    AudioFormat.CHANNEL_IN_MONO, SAMPLE_FORMAT) * 2;
-        }
-
-        @Override
-        public void run() {
-            // Set the thread priority
-            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
-
-            // Audio
-            AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, rateInHz,
-                    AudioFormat.CHANNEL_IN_MONO, SAMPLE_FORMAT, bufferSize);
-
-            int bufferReadResult;
-            byte[] audioData = new byte[bufferSize];
-
-            Log.d(LOG_TAG, "audioRecord.startRecord()");
-            audioRecord.startRecording();
-
-            while (!endAtNext) {
-                bufferReadResult = audioRecord.read(audioData, 0, audioData.length);
-                if (bufferReadResult > 0) {
-                    try {
-                        callback.onData(audioData);
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, e.getMessage());
-                        e.printStackTrace();
-                    }
-                }
+    private File copyResponse(Uri uri, String extension) throws IOException {
+        File[] previous = getCacheDir().listFiles((dir, name) -> name.startsWith(RESPONSE_PREFIX));
+        if (previous != null) {
+            for (File file : previous) {
+                if (!file.delete()) Log.w(LOG_TAG, "failed to delete: " + file);
             }
-
-            Log.v(LOG_TAG,"AudioThread Finished");
-
-            audioRecord.stop();
-            audioRecord.release();
-
-            Log.v(LOG_TAG,"audio record released");
         }
-
-        public void close() {
-            this.endAtNext = true;
+        File file = new File(getCacheDir(), RESPONSE_PREFIX + System.currentTimeMillis() + extension);
+        try (InputStream in = getContentResolver().openInputStream(uri);
+             OutputStream out = new FileOutputStream(file)) {
+            if (in == null) {
+                throw new IOException("failed to open: " + uri);
+            }
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
         }
+        return file;
+    }
 
-        public int getBufferSize() {
-            return bufferSize;
-        }
+    /**
+     * 按引擎的状态刷新界面, 例如Activity重建之后
+     */
+    private void refresh() {
+        if (engine == null) return;
 
-        interface AudioRecordRunnableCallback {
-            void onData(byte[] data);
+        boolean recording = engine.isRecording();
+        String path = engine.getRecordingPath();
+        if (path != null) {
+            recordFilePath.setText(path);
+        } else {
+            recordFilePath.setText(R.string.RecordFilePathDefault);
         }
-
+        recordButton.setText(recording ? R.string.StopRecording : R.string.StartRecording);
+        eventModeSwitch.setEnabled(!recording);
+        if (recording) eventModeSwitch.setChecked(engine.isRecordingEvents());
+        compressSwitch.setEnabled(!recording);
+        responseButton.setText(engine.getResponse() != null ? R.string.ResponseSelected : R.string.ResponseRecorded);
+
+        spectrogramSwitch.setChecked(engine.isSpectrogramShown());
+        lowPowerSwitch.setChecked(engine.isLowPower());
+        triggerModeSpinner.setSelection(engine.getTriggerMode());
+        thresholdSlider.setValue(engine.getThreshold());
+        // 对齐到滑条的步长
+        gainSlider.setValue(Math.round(engine.getPlaybackGainDb()));
+        loopsSlider.setValue(engine.getPlaybackLoops());
+        speedSlider.setValue(Math.round(engine.getPlaybackSpeed() * 4) / 4f);
+        thresholdSlider.setEnabled(!engine.isAdaptive());
     }
 
-}
\ No newline at end of file
+}
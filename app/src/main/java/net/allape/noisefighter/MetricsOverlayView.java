@@ -0,0 +1,110 @@
+package net.allape.noisefighter;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.allape.noisefighter.dsp.Counter;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.Metrics;
+
+import java.util.Locale;
+
+/**
+ * 调试用的指标浮层: 可见时每REFRESH_MS读取一次{@link Metrics}并显示计数器与直方图的百分位,
+ * 时间以微秒显示, 队列深度直接显示
+ *
+ * 只在UI线程中读取, 录音与播放线程不感知浮层是否显示.
+ */
+public class MetricsOverlayView extends TextView implements Runnable {
+
+    // 刷新间隔
+    private static final long REFRESH_MS = 500;
+
+    private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+    private final StringBuilder text = new StringBuilder();
+
+    // 指标来源
+    private Metrics metrics;
+    // 是否已经安排了下一次刷新
+    private boolean scheduled = false;
+
+    public MetricsOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public MetricsOverlayView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        setTypeface(Typeface.MONOSPACE);
+        setTextSize(10);
+        setTextColor(Color.WHITE);
+        setBackgroundColor(0xa0000000);
+    }
+
+    /**
+     * @param metrics 指标来源, 只能在UI线程中设置
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        schedule();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        schedule();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(this);
+        scheduled = false;
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled && metrics != null && isAttachedToWindow() && isShown()) {
+            scheduled = true;
+            post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        if (metrics == null || !isShown()) return;
+
+        text.setLength(0);
+        for (Counter counter : metrics.getCounters()) {
+            text.append(String.format(Locale.ROOT, "%-22s %d%n", counter.getName(), counter.get()));
+        }
+        text.append(String.format(Locale.ROOT, "%-22s %7s %7s %7s %7s%n", "(us)", "n", "p50", "p99", "max"));
+        for (LatencyHistogram histogram : metrics.getHistograms()) {
+            histogram.snapshot(snapshot);
+            // 队列深度不是时间, 直接显示
+            long scale = histogram.getName().endsWith(Metrics.DEPTH_SUFFIX) ? 1 : 1000;
+            text.append(String.format(Locale.ROOT, "%-22s %7d %7d %7d %7d%n", histogram.getName(),
+                    snapshot.getCount(),
+                    snapshot.getValueAtPercentile(50) / scale,
+                    snapshot.getValueAtPercentile(99) / scale,
+                    snapshot.getMax() / scale));
+        }
+        setText(text);
+
+        scheduled = true;
+        postDelayed(this, REFRESH_MS);
+    }
+
+}
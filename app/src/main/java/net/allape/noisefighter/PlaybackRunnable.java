@@ -0,0 +1,321 @@
+package net.allape.noisefighter;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.Clip;
+import net.allape.noisefighter.dsp.ClipQueue;
+import net.allape.noisefighter.dsp.Counter;
+import net.allape.noisefighter.dsp.EchoReference;
+import net.allape.noisefighter.dsp.EventWriter;
+import net.allape.noisefighter.dsp.FrameRingBuffer;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.Metrics;
+import net.allape.noisefighter.dsp.PcmConverter;
+import net.allape.noisefighter.dsp.PlaybackChain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 播放器, 在独立的线程中播放{@link ClipQueue}中的录音
+ *
+ * 使用低延迟模式的AudioTrack, 整个生命周期只创建一次: 播放结束之后继续写入静音保持输出流运行,
+ * 空闲超过WARM_MS之后才暂停, 下一次播放时不需要重新启动输出流.
+ * 缓冲从最小值开始, 每次出现欠载(underrun)增加一个burst, 直到不再欠载; 两次写入之间本线程自己耽误的欠载不增加缓冲.
+ * 播放过的录音交给{@link EventWriter}在后台保存, 保存之前不释放录音缓存; 本线程不进行文件写入.
+ * 录音(或预先解码的应答声音)经过{@link PlaybackChain}按burst大小分块处理之后写入, 播放期间不分配内存也不解码;
+ * 输出格式与录音格式相同, 单声道16bit的处理结果在写入之前转换为输出格式.
+ * 写入的单声道采样(包括保持期间的静音)同时作为回声消除的参考信号.
+ */
+class PlaybackRunnable implements Runnable {
+
+    private static final String LOG_TAG = "PlaybackRunnable";
+
+    // 没有录音且已经暂停时的最长等待时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // 播放结束之后保持输出流运行的时长
+    private static final long WARM_MS = 10000;
+    // 无法获取burst大小时使用的默认值, 单位: 帧
+    private static final int DEFAULT_FRAMES_PER_BURST = 256;
+
+    private final AudioTrack track;
+    private final FrameRingBuffer recorded;
+    private final ClipQueue clips;
+    private final PlaybackChain chain;
+    // 保存播放过的录音
+    private final EventWriter eventWriter;
+    // 回声消除的参考信号
+    private final EchoReference echoReference;
+    private final PlaybackCallback callback;
+    // 每次写入与缓冲调整的单位, 单位: 帧
+    private final int framesPerBurst;
+    // 静音, 长度为一个burst
+    private final short[] silence;
+    // 处理链的输出, 长度为一个burst
+    private final short[] block;
+    // 输出格式的缓冲, 长度为一个burst; 16bit单声道时不需要
+    private final short[] output16;
+    private final float[] outputFloat;
+    // 输出声道数
+    private final int channels;
+    // 保持输出流运行的帧数
+    private final long warmFrames;
+    // 采样率
+    private final int sampleRate;
+    // 欠载次数
+    private final Counter underrunCount;
+    // 两次写入之间本线程耽误太久造成的欠载次数, 不增加缓冲
+    private final Counter stallCount;
+    // 阻塞写入的耗时, 正常时接近一个burst的时长
+    private final LatencyHistogram writeTime;
+    // 从录音加入队列到第一个采样被播放出来的时间, 包括缓冲中的延迟
+    private final LatencyHistogram triggerToSound;
+
+    // 播放线程, 用于唤醒
+    private volatile Thread thread;
+    // 是否在下个循环停止播放
+    private volatile boolean endAtNext = false;
+    // 已知的欠载次数
+    private int underruns = 0;
+    // 距离暂停还需要写入的静音帧数
+    private long warmRemaining = 0;
+    // 上一次写入返回的时间, 单位: {@link System#nanoTime()}
+    private long lastWritten = 0;
+    // 已经播放完的录音的结束序号, 等待保存的部分释放之前不能覆盖
+    private long playedEnd = 0;
+
+    /**
+     * @param config 输出格式
+     * @param framesPerBurst 输出设备的burst大小, 单位: 帧; 不大于0时使用默认值
+     * @param echoReference 写入播放的采样, 供录音线程消除回声
+     * @param eventWriter 保存播放过的录音
+     */
+    PlaybackRunnable(AudioConfig config, int framesPerBurst, FrameRingBuffer recorded, ClipQueue clips,
+                     PlaybackChain chain, EchoReference echoReference, EventWriter eventWriter, Metrics metrics,
+                     PlaybackCallback callback) {
+        this.recorded = recorded;
+        this.clips = clips;
+        this.chain = chain;
+        this.eventWriter = eventWriter;
+        this.echoReference = echoReference;
+        this.callback = callback;
+        this.framesPerBurst = framesPerBurst > 0 ? framesPerBurst : DEFAULT_FRAMES_PER_BURST;
+        this.silence = new short[this.framesPerBurst];
+        this.block = new short[this.framesPerBurst];
+        this.channels = config.getChannels();
+        boolean floating = config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+        this.outputFloat = floating ? new float[this.framesPerBurst * channels] : null;
+        this.output16 = !floating && channels > 1 ? new short[this.framesPerBurst * channels] : null;
+        this.warmFrames = config.framesOf(WARM_MS);
+        this.sampleRate = config.getSampleRate();
+        this.underrunCount = metrics.counter("track.underrun");
+        this.stallCount = metrics.counter("track.stall");
+        this.writeTime = metrics.histogram("track.write");
+        this.triggerToSound = metrics.histogram("trigger_to_sound");
+
+        track = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setChannelMask(AudioConfigs.channelOutMaskOf(config))
+                        .setEncoding(AudioConfigs.encodingOf(config))
+                        .setSampleRate(config.getSampleRate())
+                        .build())
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .build();
+        // 从两个burst开始, 欠载时再增加
+        track.setBufferSizeInFrames(2 * this.framesPerBurst);
+        Log.v(LOG_TAG, "track buffer: " + track.getBufferSizeInFrames() + "/" + track.getBufferCapacityInFrames()
+                + " frames, burst: " + this.framesPerBurst);
+    }
+
+    @Override
+    public void run() {
+        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        playedEnd = recorded.getReadSequence();
+        while (!endAtNext) {
+            release();
+            Clip clip = clips.peek();
+            if (clip == null) {
+                idle();
+                continue;
+            }
+            // 录音之前的历史帧不再需要, 释放之后录音线程可以继续使用这些槽位
+            playedEnd = Math.max(playedEnd, clip.start);
+            release();
+
+            try {
+                if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                    track.play();
+                }
+                callback.onStart();
+                if (play(clip)) {
+                    eventWriter.offer(clip);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e(LOG_TAG, e.getMessage());
+            } finally {
+                // 释放录音缓存, 等待保存的部分除外
+                playedEnd = clip.end;
+                release();
+                clips.remove();
+                warmRemaining = warmFrames;
+                callback.onEnd();
+            }
+        }
+
+        track.stop();
+        track.release();
+        Log.v(LOG_TAG, "playback released");
+    }
+
+    /**
+     * 释放已经播放完且不需要保存的录音缓存
+     */
+    private void release() {
+        long end = eventWriter.releasable(playedEnd);
+        if (end > recorded.getReadSequence()) {
+            recorded.release(end);
+        }
+    }
+
+    /**
+     * 没有录音时: 保持期间写入一个burst的静音, 写入会阻塞到缓冲有空间, 所以最多延迟一个burst就能开始播放;
+     * 保持期结束之后暂停并等待唤醒
+     */
+    private void idle() {
+        if (warmRemaining > 0) {
+            output(silence, silence.length);
+            warmRemaining -= silence.length;
+            if (warmRemaining <= 0) {
+                track.pause();
+                lastWritten = 0;
+                Log.v(LOG_TAG, "track paused after " + WARM_MS + "ms idle");
+            }
+        } else {
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * 播放录音, 停止时中断
+     * @return 是否完整播放
+     */
+    private boolean play(Clip clip) {
+        chain.start(recorded, clip);
+        int samples = 0;
+        int count;
+        while ((count = chain.render(block, 0, block.length)) > 0) {
+            if (endAtNext) {
+                Log.v(LOG_TAG, "playback interrupted after " + samples + " samples");
+                return false;
+            }
+            output(block, count);
+            if (samples == 0) {
+                // 第一块写入之后还要经过缓冲才能听到
+                long buffered = TimeUnit.SECONDS.toNanos(track.getBufferSizeInFrames()) / sampleRate;
+                triggerToSound.record(System.nanoTime() - clip.published + buffered);
+            }
+            samples += count;
+        }
+        Log.v(LOG_TAG, "Playback with: " + samples + " * 2 bytes");
+        return true;
+    }
+
+    /**
+     * 转换为输出格式并写入
+     * @param mono 单声道16bit采样
+     * @param length 采样数, 不超过一个burst
+     */
+    private void output(short[] mono, int length) {
+        long start = System.nanoTime();
+        // 距离上一次写入超过了缓冲的时长: 这期间的欠载是本线程造成的
+        boolean stalled = lastWritten != 0 && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING
+                && start - lastWritten > TimeUnit.SECONDS.toNanos(track.getBufferSizeInFrames()) / sampleRate;
+        if (outputFloat != null) {
+            PcmConverter.fromMono(mono, 0, length, outputFloat, channels);
+            checkWritten(track.write(outputFloat, 0, length * channels, AudioTrack.WRITE_BLOCKING), stalled);
+        } else if (output16 != null) {
+            PcmConverter.fromMono(mono, 0, length, output16, channels);
+            checkWritten(track.write(output16, 0, length * channels, AudioTrack.WRITE_BLOCKING), stalled);
+        } else {
+            checkWritten(track.write(mono, 0, length, AudioTrack.WRITE_BLOCKING), stalled);
+        }
+        lastWritten = System.nanoTime();
+        writeTime.recordSince(start);
+        // 录音线程停止时参考信号写满, 多余的采样被丢弃
+        echoReference.write(mono, 0, length);
+    }
+
+    /**
+     * 检查阻塞写入的结果与欠载, 设备造成的欠载增大缓冲
+     * @param stalled 写入之前本线程是否耽误了超过缓冲时长的时间
+     */
+    private void checkWritten(int written, boolean stalled) {
+        if (written < 0) {
+            Log.e(LOG_TAG, "write failed: " + written);
+        }
+        int count = track.getUnderrunCount();
+        if (count > underruns && stalled) {
+            stallCount.add(count - underruns);
+            underruns = count;
+            Log.w(LOG_TAG, "underrun #" + count + " after a stall, track buffer unchanged");
+        } else if (count > underruns) {
+            underrunCount.add(count - underruns);
+            underruns = count;
+            int size = Math.min(track.getBufferCapacityInFrames(), track.getBufferSizeInFrames() + framesPerBurst);
+            size = track.setBufferSizeInFrames(size);
+            Log.w(LOG_TAG, "underrun #" + count + ", track buffer: " + size + " frames");
+        }
+    }
+
+    /**
+     * @return 当前的缓冲大小, 单位: 帧
+     */
+    public int getBufferSizeInFrames() {
+        return track.getBufferSizeInFrames();
+    }
+
+    public int getUnderrunCount() {
+        return underruns;
+    }
+
+    public void setThread(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * 有新的录音需要播放
+     */
+    public void wakeUp() {
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    public void close() {
+        this.endAtNext = true;
+        wakeUp();
+    }
+
+    interface PlaybackCallback {
+        /**
+         * 开始播放, 在播放线程中调用
+         */
+        void onStart();
+
+        /**
+         * 播放结束, 在播放线程中调用
+         */
+        void onEnd();
+    }
+
+}
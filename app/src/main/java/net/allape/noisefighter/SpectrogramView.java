@@ -0,0 +1,151 @@
+package net.allape.noisefighter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.allape.noisefighter.dsp.SpectrogramBuffer;
+
+/**
+ * 频谱图视图: 每个vsync把{@link SpectrogramBuffer}中新写入的列复制到环形位图, 再分两段绘制
+ *
+ * 每次绘制只复制新的列, 开销与显示的历史长度无关; 最新的一列在最右侧.
+ */
+public class SpectrogramView extends View implements Choreographer.FrameCallback {
+
+    // 像素来源
+    private SpectrogramBuffer spectrogram;
+    // 环形位图, 宽为列数, 高为行数
+    private Bitmap bitmap;
+    // 已经复制到位图的列数
+    private long copied = 0;
+    // 是否暂停刷新
+    private boolean paused = false;
+    // 录音引擎是否在低功耗休眠, 休眠时没有新的数据, 与paused分开
+    private boolean suspended = false;
+    // 是否已经注册了vsync回调
+    private boolean scheduled = false;
+
+    private final Paint paint = new Paint();
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+
+    public SpectrogramView(Context context) {
+        this(context, null);
+    }
+
+    public SpectrogramView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        // 放大时保持像素边缘清晰
+        paint.setFilterBitmap(false);
+    }
+
+    /**
+     * @param spectrogram 像素来源, 只能在UI线程中设置
+     */
+    public void setSpectrogram(SpectrogramBuffer spectrogram) {
+        this.spectrogram = spectrogram;
+        this.bitmap = Bitmap.createBitmap(spectrogram.getColumns(), spectrogram.getRows(), Bitmap.Config.ARGB_8888);
+        this.copied = 0;
+        schedule();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @param paused 是否暂停刷新, 只能在UI线程中调用
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        schedule();
+    }
+
+    /**
+     * @param suspended 录音引擎是否在低功耗休眠, 休眠时不注册vsync回调; 只能在UI线程中调用
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        // 绘制一次休眠之前的最后状态
+        invalidate();
+        schedule();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        schedule();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Choreographer.getInstance().removeFrameCallback(this);
+        scheduled = false;
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        schedule();
+    }
+
+    /**
+     * 可见且需要刷新时注册下一个vsync回调
+     */
+    private void schedule() {
+        if (!scheduled && !paused && !suspended && spectrogram != null && isAttachedToWindow() && isShown()) {
+            scheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        if (spectrogram.getWritten() != copied) {
+            invalidate();
+        }
+        schedule();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (spectrogram == null) return;
+
+        int columns = spectrogram.getColumns();
+        int rows = spectrogram.getRows();
+        long written = spectrogram.getWritten();
+        // 只复制新的列, 落后超过一圈时只复制最近的一圈
+        int[] pixels = spectrogram.pixels();
+        for (long sequence = Math.max(copied, written - columns); sequence < written; sequence++) {
+            bitmap.setPixels(pixels, spectrogram.offset(sequence), 1, (int) (sequence % columns), 0, 1, rows);
+        }
+        copied = written;
+
+        // 环形位图分两段: [head, columns) 在左, [0, head) 在右
+        int head = (int) (written % columns);
+        int width = getWidth();
+        int height = getHeight();
+        int split = width * (columns - head) / columns;
+        src.set(head, 0, columns, rows);
+        dst.set(0, 0, split, height);
+        canvas.drawBitmap(bitmap, src, dst, paint);
+        if (head > 0) {
+            src.set(0, 0, head, rows);
+            dst.set(split, 0, width, height);
+            canvas.drawBitmap(bitmap, src, dst, paint);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package net.allape.noisefighter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.allape.noisefighter.dsp.WaveformBuffer;
+
+/**
+ * 波形视图: 每个vsync检查一次{@link WaveformBuffer}, 有更新时才重绘
+ *
+ * 录音线程只写入WaveformBuffer, 不向UI线程post任何消息; 一次vsync之间的多帧合并为一次绘制.
+ * 绘制用的数组与画笔都是预先分配的.
+ */
+public class WaveformView extends View implements Choreographer.FrameCallback {
+
+    // 波形来源
+    private WaveformBuffer waveform;
+    // 每列一条竖线, 每条线4个坐标
+    private float[] lines = new float[0];
+    // 背景颜色, 可以由其他线程修改
+    private volatile int tint = Color.WHITE;
+    // 上一次绘制的背景颜色
+    private int drawnTint = Color.WHITE;
+    // 是否暂停刷新
+    private boolean paused = false;
+    // 录音引擎是否在低功耗休眠, 休眠时没有新的数据, 与paused分开
+    private boolean suspended = false;
+    // 是否已经注册了vsync回调
+    private boolean scheduled = false;
+
+    private final Paint paint = new Paint();
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(2f);
+    }
+
+    /**
+     * @param waveform 波形来源, 只能在UI线程中设置
+     */
+    public void setWaveform(WaveformBuffer waveform) {
+        this.waveform = waveform;
+        this.lines = new float[waveform.getColumns() * 4];
+        schedule();
+    }
+
+    /**
+     * @param tint 背景颜色, 可以在任意线程中调用, 在下一个vsync生效
+     */
+    public void setTint(int tint) {
+        this.tint = tint;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @param paused 是否暂停刷新, 只能在UI线程中调用
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        schedule();
+    }
+
+    /**
+     * @param suspended 录音引擎是否在低功耗休眠, 休眠时不注册vsync回调; 只能在UI线程中调用
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        // 绘制一次休眠之前的最后状态
+        invalidate();
+        schedule();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        schedule();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Choreographer.getInstance().removeFrameCallback(this);
+        scheduled = false;
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        schedule();
+    }
+
+    /**
+     * 可见且需要刷新时注册下一个vsync回调
+     */
+    private void schedule() {
+        if (!scheduled && !paused && !suspended && waveform != null && isAttachedToWindow() && isShown()) {
+            scheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        if (waveform.hasUpdate() || tint != drawnTint) {
+            invalidate();
+        }
+        schedule();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        drawnTint = tint;
+        canvas.drawColor(drawnTint);
+        if (waveform == null) return;
+
+        WaveformBuffer.Snapshot snapshot = waveform.acquire();
+        int columns = waveform.getColumns();
+        float width = getWidth();
+        float middle = getHeight() / 2f;
+        float scale = middle / 32768f;
+        for (int i = 0; i < snapshot.count; i++) {
+            // 最新的一列在最右侧
+            float x = width * (columns - snapshot.count + i) / columns;
+            lines[i * 4] = x;
+            lines[i * 4 + 1] = middle - snapshot.max[i] * scale;
+            lines[i * 4 + 2] = x;
+            // 至少绘制一个像素
+            lines[i * 4 + 3] = middle - snapshot.min[i] * scale + 1;
+        }
+        canvas.drawLines(lines, 0, snapshot.count * 4, paint);
+    }
+
+}
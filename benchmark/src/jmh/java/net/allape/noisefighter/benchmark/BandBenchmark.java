@@ -0,0 +1,109 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.Band;
+import net.allape.noisefighter.dsp.Fft;
+import net.allape.noisefighter.dsp.GoertzelBank;
+import net.allape.noisefighter.dsp.SpectrogramBuffer;
+import net.allape.noisefighter.dsp.SpectrumAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 频段触发与频谱图每个buffer的开销, 一次操作即处理一个buffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BandBenchmark {
+
+    // 与CaptureEngine保持一致
+    static final Band BASS = new Band(30, 150);
+    static final Band VOICE = new Band(300, 3400);
+    private static final int FFT_SIZE = 4096;
+    private static final int FFT_HOP = 1024;
+
+    @State(Scope.Thread)
+    public static class GoertzelState {
+        GoertzelBank bass;
+        GoertzelBank bassAndVoice;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            bass = new GoertzelBank(capture.sampleRate, capture.bufferSamples, BASS);
+            bassAndVoice = new GoertzelBank(capture.sampleRate, capture.bufferSamples, BASS, VOICE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SpectrumState {
+        SpectrumAnalyzer analyzer;
+        SpectrumAnalyzer spectrogram;
+        final Fft fft = new Fft(FFT_SIZE);
+        final double[] input = new double[FFT_SIZE];
+        final double[] re = new double[FFT_SIZE / 2 + 1];
+        final double[] im = new double[FFT_SIZE / 2 + 1];
+
+        @Setup
+        public void setup(CaptureState capture) {
+            analyzer = new SpectrumAnalyzer(capture.sampleRate, FFT_SIZE, FFT_HOP, BASS, VOICE);
+            spectrogram = new SpectrumAnalyzer(capture.sampleRate, FFT_SIZE, FFT_HOP, VOICE);
+            spectrogram.setListener(new SpectrogramBuffer(512, 256, capture.sampleRate, FFT_SIZE, 20, -110, -20));
+            for (int i = 0; i < FFT_SIZE; i++) {
+                input[i] = capture.samples[0][i % capture.bufferSamples];
+            }
+        }
+    }
+
+    /**
+     * 单个窄频段, CaptureEngine低音触发使用的方式
+     */
+    @Benchmark
+    public double goertzelBass(CaptureState capture, GoertzelState state) {
+        state.bass.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.bass.getBandPower(0);
+    }
+
+    /**
+     * 宽频段的频点数量与带宽成正比, 作为与FFT的对照
+     */
+    @Benchmark
+    public double goertzelBassAndVoice(CaptureState capture, GoertzelState state) {
+        state.bassAndVoice.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.bassAndVoice.getBandPower(1);
+    }
+
+    /**
+     * 滑动窗口FFT, 开销与频段数量和带宽无关
+     */
+    @Benchmark
+    public double spectrum(CaptureState capture, SpectrumState state) {
+        state.analyzer.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.analyzer.getBandPower(1);
+    }
+
+    /**
+     * 与CaptureEngine相同: 人声频段触发与频谱图共用一个滑动窗口FFT, 每个频谱写入一列
+     */
+    @Benchmark
+    public double spectrogram(CaptureState capture, SpectrumState state) {
+        state.spectrogram.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.spectrogram.getBandPower(0);
+    }
+
+    /**
+     * 单次变换, 与buffer无关
+     */
+    @Benchmark
+    public double fft(SpectrumState state) {
+        state.fft.transform(state.input, state.re, state.im);
+        return state.re[1];
+    }
+
+}
@@ -0,0 +1,44 @@
+package net.allape.noisefighter.benchmark;
+
+/**
+ * 模拟MicRunnable中的buffer大小: AudioRecord.getMinBufferSize(...) * 2
+ *
+ * getMinBufferSize依赖设备HAL, 这里使用常见设备上16bit单声道报告的数值
+ */
+final class BufferSizes {
+
+    private BufferSizes() {}
+
+    /**
+     * @param sampleRate 采样率
+     * @return AudioRecord.getMinBufferSize的近似值, 单位: byte
+     */
+    static int minBufferSize(int sampleRate) {
+        switch (sampleRate) {
+            case 44100:
+                return 3584;
+            case 48000:
+                return 3840;
+            case 96000:
+                return 7680;
+            default:
+                // 两个20ms周期
+                return sampleRate / 25 * 2;
+        }
+    }
+
+    /**
+     * @return MicRunnable实际使用的buffer大小, 单位: byte
+     */
+    static int bufferSize(int sampleRate) {
+        return minBufferSize(sampleRate) * 2;
+    }
+
+    /**
+     * @return 一个buffer对应的实时时长, 单位: ns
+     */
+    static double bufferNanos(int sampleRate) {
+        return bufferSize(sampleRate) / 2 * 1e9 / sampleRate;
+    }
+
+}
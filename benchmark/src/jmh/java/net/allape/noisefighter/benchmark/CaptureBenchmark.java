@@ -0,0 +1,373 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.AdaptiveThreshold;
+import net.allape.noisefighter.dsp.AsyncWavWriter;
+import net.allape.noisefighter.dsp.Clip;
+import net.allape.noisefighter.dsp.ClipQueue;
+import net.allape.noisefighter.dsp.ClipRecorder;
+import net.allape.noisefighter.dsp.FramePipeline;
+import net.allape.noisefighter.dsp.FrameRingBuffer;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.LevelMeter;
+import net.allape.noisefighter.dsp.Metrics;
+import net.allape.noisefighter.dsp.Pcm16;
+import net.allape.noisefighter.dsp.PcmConverter;
+import net.allape.noisefighter.dsp.ThresholdTrigger;
+import net.allape.noisefighter.dsp.WavWriter;
+import net.allape.noisefighter.dsp.WaveformBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MicRunnable回调中每个buffer的开销, 一次操作即处理一个buffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureBenchmark {
+
+    // 与CaptureEngine保持一致
+    private static final int RECORDED_HOLD_MS = 800;
+    private static final int NOISE_FLOOR_WINDOW_MS = 10000;
+    private static final double NOISE_FLOOR_PERCENTILE = 0.2;
+    private static final int RECORDED_MAX_SIZE = 2000;
+    private static final int THRESHOLD = 10000;
+    private static final int CHART_SCALE = 1 << 4;
+    private static final int WAVEFORM_COLUMNS = 512;
+    private static final int WAVEFORM_MS = 2000;
+    private static final int PRE_ROLL_FRAMES = 6;
+
+    /**
+     * 与MPAndroidChart的Entry字段相同, 用于衡量每个点的分配开销
+     */
+    static final class Entry {
+        final float x;
+        final float y;
+        Object data = null;
+        Object icon = null;
+
+        Entry(float x, float y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClipState {
+        final ArrayList<short[]> recorded = new ArrayList<>(RECORDED_MAX_SIZE);
+    }
+
+    @State(Scope.Thread)
+    public static class RingState {
+        FrameRingBuffer recorded;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            recorded = new FrameRingBuffer(capture.bufferSamples, RECORDED_MAX_SIZE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MeterState {
+        final LevelMeter meter = new LevelMeter();
+    }
+
+    @State(Scope.Thread)
+    public static class WaveformState {
+        WaveformBuffer waveform;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            waveform = new WaveformBuffer(WAVEFORM_COLUMNS, capture.sampleRate * WAVEFORM_MS / 1000 / WAVEFORM_COLUMNS);
+        }
+    }
+
+    /**
+     * 立体声录音的直接内存视图, 两个声道内容相同, 与同时长的单声道buffer对应
+     */
+    @State(Scope.Thread)
+    public static class StereoState {
+        ShortBuffer[] shorts;
+        FloatBuffer[] floats;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            int frames = capture.samples.length;
+            shorts = new ShortBuffer[frames];
+            floats = new FloatBuffer[frames];
+            for (int i = 0; i < frames; i++) {
+                ByteBuffer pcm16 = ByteBuffer.allocateDirect(capture.bufferSamples * 4).order(ByteOrder.nativeOrder());
+                ByteBuffer pcmFloat = ByteBuffer.allocateDirect(capture.bufferSamples * 8).order(ByteOrder.nativeOrder());
+                for (short sample : capture.samples[i]) {
+                    pcm16.putShort(sample).putShort(sample);
+                    pcmFloat.putFloat(sample / 32768f).putFloat(sample / 32768f);
+                }
+                pcm16.clear();
+                pcmFloat.clear();
+                shorts[i] = pcm16.asShortBuffer();
+                floats[i] = pcmFloat.asFloatBuffer();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WavState {
+        // 每写入这么多buffer重新创建文件, 避免测试占满磁盘
+        static final int ROTATE_FRAMES = 10000;
+
+        File file;
+        WavWriter writer;
+        int frames;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            file = File.createTempFile("noisefighter-bench", ".wav");
+            rotate();
+        }
+
+        void rotate() throws IOException {
+            if (writer != null) writer.close();
+            writer = new WavWriter(file, 44100, 1);
+            frames = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            writer.close();
+            writer = null;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AsyncWavState {
+        File file;
+        AsyncWavWriter writer;
+        int frames;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            file = File.createTempFile("noisefighter-bench", ".wav");
+            rotate();
+        }
+
+        void rotate() throws IOException {
+            if (writer != null) writer.close();
+            writer = new AsyncWavWriter(file, 44100, 1);
+            frames = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            writer.close();
+            writer = null;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PipelineState {
+        // 是否与CaptureEngine一样记录指标: 每个阶段的耗时、回调耗时与缓存深度
+        @Param({"false", "true"})
+        public boolean instrumented;
+
+        final LevelMeter meter = new LevelMeter();
+        final Metrics metrics = new Metrics();
+        LatencyHistogram callbackTime;
+        LatencyHistogram ringDepth;
+        FrameRingBuffer recorded;
+        WaveformBuffer waveform;
+        ClipRecorder recorder;
+        FramePipeline pipeline;
+        short[] samples;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            samples = new short[capture.bufferSamples];
+            waveform = new WaveformBuffer(WAVEFORM_COLUMNS, capture.sampleRate * WAVEFORM_MS / 1000 / WAVEFORM_COLUMNS);
+            recorded = new FrameRingBuffer(capture.bufferSamples, RECORDED_MAX_SIZE + PRE_ROLL_FRAMES + 1);
+            ClipQueue clips = new ClipQueue(4);
+            recorder = new ClipRecorder(recorded, clips, PRE_ROLL_FRAMES, RECORDED_MAX_SIZE, new ClipRecorder.Callback() {
+                @Override
+                public void onClip(Clip clip) {
+                    // 立即播放完成
+                    recorded.release(clip.end);
+                    clips.remove();
+                }
+
+                @Override
+                public void onDropped(long start, long end) {
+                }
+            });
+            AdaptiveThreshold adaptive = new AdaptiveThreshold(meter, capture.sampleRate, capture.bufferSamples,
+                    NOISE_FLOOR_WINDOW_MS, NOISE_FLOOR_PERCENTILE);
+            long hold = (long) capture.sampleRate * RECORDED_HOLD_MS / 1000;
+            ThresholdTrigger trigger = new ThresholdTrigger(meter, THRESHOLD, hold, recorder);
+            trigger.setAdaptive(adaptive);
+            trigger.setMode(ThresholdTrigger.Mode.ADAPTIVE);
+            pipeline = new FramePipeline(meter, adaptive, trigger, waveform);
+            if (instrumented) {
+                pipeline.setStageTimers(metrics.histogram("stage.level"), metrics.histogram("stage.adaptive"),
+                        metrics.histogram("stage.trigger"), metrics.histogram("stage.waveform"));
+                callbackTime = metrics.histogram("mic.callback");
+                ringDepth = metrics.histogram("ring.depth");
+            }
+        }
+    }
+
+    @Benchmark
+    public int decode(CaptureState capture) {
+        byte[] data = capture.bytes[capture.next()];
+        return Pcm16.decode(data, data.length, capture.decoded);
+    }
+
+    /**
+     * MicRunnable使用的方式: 通过小端ShortBuffer视图批量读取
+     */
+    @Benchmark
+    public int decodeView(CaptureState capture) {
+        ShortBuffer view = capture.views[capture.next()];
+        view.clear();
+        view.get(capture.decoded, 0, view.remaining());
+        return view.position();
+    }
+
+    /**
+     * MicRunnable录制16bit立体声时: 混合为单声道
+     */
+    @Benchmark
+    public int downmixStereo(CaptureState capture, StereoState state) {
+        ShortBuffer view = state.shorts[capture.next()];
+        view.clear();
+        return PcmConverter.toMono(view, 2, capture.decoded, 0);
+    }
+
+    /**
+     * MicRunnable录制浮点立体声时: 混合为单声道并转换为16bit
+     */
+    @Benchmark
+    public int downmixFloatStereo(CaptureState capture, StereoState state) {
+        FloatBuffer view = state.floats[capture.next()];
+        view.clear();
+        return PcmConverter.toMono(view, 2, capture.decoded, 0);
+    }
+
+    @Benchmark
+    public long meter(CaptureState capture, MeterState state) {
+        state.meter.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.meter.getPeak() + state.meter.getSumSquares();
+    }
+
+    /**
+     * 旧的MPAndroidChart方式: 每个buffer每CHART_SCALE个采样创建一个Entry, 作为对照
+     */
+    @Benchmark
+    public ArrayList<Entry> chartEntries(CaptureState capture) {
+        short[] frame = capture.samples[capture.next()];
+        ArrayList<Entry> values = new ArrayList<>(capture.bufferSamples / CHART_SCALE + 1);
+        for (int i = 0; i < capture.bufferSamples; i += CHART_SCALE) {
+            values.add(new Entry(i, frame[i]));
+        }
+        return values;
+    }
+
+    /**
+     * 替代chartEntries的最小/最大值列与快照发布, 绘制在UI线程中按vsync进行
+     */
+    @Benchmark
+    public WaveformBuffer waveform(CaptureState capture, WaveformState state) {
+        state.waveform.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.waveform;
+    }
+
+    /**
+     * 旧的ArrayList<byte[]>缓存方式, 作为对照
+     */
+    @Benchmark
+    public int clipCopy(CaptureState capture, ClipState clip) {
+        if (clip.recorded.size() >= RECORDED_MAX_SIZE) {
+            clip.recorded.clear();
+        }
+        short[] frame = capture.samples[capture.next()];
+        short[] newData = new short[capture.bufferSamples];
+        System.arraycopy(frame, 0, newData, 0, newData.length);
+        clip.recorded.add(newData);
+        return clip.recorded.size();
+    }
+
+    /**
+     * 替代clipCopy的预分配环形缓冲
+     */
+    @Benchmark
+    public int ringOffer(CaptureState capture, RingState ring) {
+        if (!ring.recorded.offer(capture.samples[capture.next()], 0, capture.bufferSamples)) {
+            ring.recorded.clear();
+        }
+        return ring.recorded.size();
+    }
+
+    @Benchmark
+    public long wavWrite(CaptureState capture, WavState wav) throws IOException {
+        if (++wav.frames == WavState.ROTATE_FRAMES) {
+            wav.rotate();
+        }
+        wav.writer.write(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return wav.writer.getDataBytes();
+    }
+
+    /**
+     * 录音线程中的异步写入开销, 文件写入在后台线程中进行
+     */
+    @Benchmark
+    public boolean asyncWavWrite(CaptureState capture, AsyncWavState wav) throws IOException {
+        if (++wav.frames == WavState.ROTATE_FRAMES) {
+            wav.rotate();
+        }
+        return wav.writer.write(capture.samples[capture.next()], 0, capture.bufferSamples);
+    }
+
+    /**
+     * 与CaptureEngine相同的完整回调(包括pre-roll), 不包括WAV写入
+     */
+    @Benchmark
+    public Object pipeline(CaptureState capture, PipelineState state) {
+        long start = state.instrumented ? System.nanoTime() : 0;
+        ShortBuffer data = capture.views[capture.next()];
+        data.clear();
+        int offset = state.recorder.claim();
+        short[] frame = state.recorded.array();
+        if (offset < 0) {
+            frame = state.samples;
+            offset = 0;
+        }
+        int count = data.remaining();
+        data.get(frame, offset, count);
+        state.recorder.commit(count);
+        state.pipeline.process(frame, offset, count);
+        if (state.instrumented) {
+            state.ringDepth.record(state.recorded.size());
+            state.callbackTime.recordSince(start);
+        }
+        return state.waveform;
+    }
+
+}
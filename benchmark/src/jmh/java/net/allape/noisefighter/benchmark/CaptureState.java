@@ -0,0 +1,142 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.Pcm16;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * 回放用的PCM数据, 按MicRunnable的buffer大小切分
+ *
+ * 设置系统属性noisefighter.pcm为16bit单声道WAV文件路径时使用录音, 否则按signal生成
+ */
+@State(Scope.Thread)
+public class CaptureState {
+
+    // 生成的信号时长
+    private static final int SYNTHETIC_SECONDS = 5;
+
+    @Param({"44100", "48000", "96000"})
+    public int sampleRate;
+
+    // silence: 静音; tone: 持续的1kHz正弦; bursts: 背景噪声中夹杂着突发噪音
+    @Param({"bursts"})
+    public String signal;
+
+    // 一个buffer的字节数
+    public int bufferSize;
+    // 一个buffer的采样数
+    public int bufferSamples;
+
+    // 原始字节
+    public byte[][] bytes;
+    // 原始字节的小端直接内存与采样视图, 与MicRunnable相同
+    public ShortBuffer[] views;
+    // 解码后的采样
+    public short[][] samples;
+    // 解码输出
+    public short[] decoded;
+
+    private int cursor = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        bufferSize = BufferSizes.bufferSize(sampleRate);
+        bufferSamples = bufferSize / Pcm16.BYTES_PER_SAMPLE;
+
+        short[] pcm;
+        String path = System.getProperty("noisefighter.pcm");
+        if (path != null && !path.isEmpty()) {
+            pcm = readWav(path);
+        } else {
+            pcm = generate(signal, sampleRate, sampleRate * SYNTHETIC_SECONDS);
+        }
+
+        int frames = Math.max(1, pcm.length / bufferSamples);
+        bytes = new byte[frames][bufferSize];
+        views = new ShortBuffer[frames];
+        samples = new short[frames][bufferSamples];
+        for (int i = 0; i < frames; i++) {
+            for (int j = 0; j < bufferSamples; j++) {
+                samples[i][j] = pcm[(i * bufferSamples + j) % pcm.length];
+            }
+            Pcm16.encode(samples[i], 0, bufferSamples, bytes[i]);
+            ByteBuffer direct = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+            direct.put(bytes[i]).clear();
+            views[i] = direct.asShortBuffer();
+        }
+        decoded = new short[bufferSamples];
+    }
+
+    /**
+     * @return 下一个buffer的序号, 循环回放
+     */
+    public int next() {
+        int index = cursor;
+        cursor = index + 1 == bytes.length ? 0 : index + 1;
+        return index;
+    }
+
+    static short[] generate(String signal, int sampleRate, int length) {
+        short[] pcm = new short[length];
+        Random random = new Random(2021);
+        switch (signal) {
+            case "silence":
+                break;
+            case "tone":
+                for (int i = 0; i < length; i++) {
+                    pcm[i] = (short) (Math.sin(2 * Math.PI * 1000 * i / sampleRate) * 8000);
+                }
+                break;
+            case "bursts":
+                for (int i = 0; i < length; i++) {
+                    double noise = random.nextGaussian() * 300;
+                    // 每秒一次200ms的低频突发
+                    if (i % sampleRate < sampleRate / 5) {
+                        noise += Math.sin(2 * Math.PI * 120 * i / sampleRate) * 20000;
+                    }
+                    pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, noise));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown signal: " + signal);
+        }
+        return pcm;
+    }
+
+    /**
+     * 读取16bit WAV的data块, 多声道时只取第一个声道
+     */
+    static short[] readWav(String path) throws IOException {
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))).order(ByteOrder.LITTLE_ENDIAN);
+        int channels = 1;
+        wav.position(12);
+        while (wav.remaining() >= 8) {
+            int id = wav.getInt();
+            int size = wav.getInt();
+            if (id == 0x20746d66) { // "fmt "
+                channels = wav.getShort(wav.position() + 2);
+            } else if (id == 0x61746164) { // "data"
+                int length = Math.min(size, wav.remaining()) / 2 / channels;
+                short[] pcm = new short[length];
+                for (int i = 0; i < length; i++) {
+                    pcm[i] = wav.getShort(wav.position() + i * 2 * channels);
+                }
+                return pcm;
+            }
+            wav.position(wav.position() + size + (size & 1));
+        }
+        throw new IOException("no data chunk: " + path);
+    }
+
+}
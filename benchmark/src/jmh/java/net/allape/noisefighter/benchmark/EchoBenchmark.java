@@ -0,0 +1,67 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.EchoCanceller;
+import net.allape.noisefighter.dsp.EchoReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 播放期间回声消除的开销, 一次操作即写入一个buffer的参考信号并处理一个buffer的录音, 与采集端的余量可以直接比较
+ *
+ * 参考信号一直在播放, 录音是延迟一个buffer、衰减6dB的参考信号加上背景噪声, 滤波器每块都在滤波与更新, 是最坏的情况
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EchoBenchmark {
+
+    @State(Scope.Thread)
+    public static class CancellerState {
+        // 滤波器长度, 单位: ms
+        @Param({"10", "20"})
+        public int filterMs;
+
+        EchoReference reference;
+        EchoCanceller canceller;
+        // 每个buffer对应的录音
+        short[][] mic;
+        short[] frame;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            reference = new EchoReference(capture.bufferSamples * 4);
+            canceller = new EchoCanceller(reference, capture.sampleRate, capture.bufferSamples,
+                    filterMs, EchoCanceller.DEFAULT_MAX_DELAY_MS);
+            int frames = capture.samples.length;
+            Random random = new Random(2021);
+            mic = new short[frames][capture.bufferSamples];
+            for (int i = 0; i < frames; i++) {
+                short[] played = capture.samples[(i + frames - 1) % frames];
+                for (int j = 0; j < capture.bufferSamples; j++) {
+                    mic[i][j] = (short) (played[j] / 2 + random.nextGaussian() * 30);
+                }
+            }
+            frame = new short[capture.bufferSamples];
+        }
+    }
+
+    @Benchmark
+    public short cancel(CaptureState capture, CancellerState state) {
+        int index = capture.next();
+        state.reference.write(capture.samples[index], 0, capture.bufferSamples);
+        short[] frame = state.frame;
+        System.arraycopy(state.mic[index], 0, frame, 0, frame.length);
+        state.canceller.process(frame, 0, frame.length);
+        return frame[0];
+    }
+
+}
@@ -0,0 +1,64 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.FlacEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入线程中FLAC编码的开销, 一次操作即编码一个buffer的采样(写满一块时编码一帧), 与采集端的余量可以直接比较
+ *
+ * 每轮结束时输出压缩率(压缩后/原始), 可以用-p signal=silence,tone,bursts比较不同的信号
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FlacBenchmark {
+
+    @State(Scope.Thread)
+    public static class EncoderState {
+        // 最大LPC阶数, 0时只使用固定多项式预测
+        @Param({"0", "8"})
+        public int maxLpcOrder;
+
+        FlacEncoder encoder;
+        // 压缩前后的字节数
+        long inputBytes;
+        long outputBytes;
+
+        @Setup(Level.Trial)
+        public void setup(CaptureState capture) {
+            encoder = new FlacEncoder(capture.sampleRate, 1, FlacEncoder.DEFAULT_BLOCK_SIZE, maxLpcOrder,
+                    (data, length, firstSample, samples) -> {
+                        outputBytes += length;
+                        inputBytes += samples * 2L;
+                    });
+        }
+
+        @TearDown(Level.Iteration)
+        public void ratio() {
+            if (inputBytes > 0) {
+                System.out.printf(Locale.ROOT, "  compression ratio: %.3f%n", (double) outputBytes / inputBytes);
+            }
+            inputBytes = 0;
+            outputBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public long encode(CaptureState capture, EncoderState state) {
+        state.encoder.write(capture.samples[capture.next()], 0, capture.bufferSamples);
+        return state.encoder.getFrameNumber();
+    }
+
+}
@@ -0,0 +1,64 @@
+package net.allape.noisefighter.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * 运行基准测试并输出相对实时的余量
+ *
+ * 余量 = buffer对应的实时时长 / 处理一个buffer的耗时, 例如100x表示单核能够处理100路实时输入;
+ * 单核占用 = 余量的倒数, 即实时处理时占用一个核心的百分比
+ */
+public class Headroom {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(CaptureBenchmark.class.getSimpleName());
+            builder.include(BandBenchmark.class.getSimpleName());
+            builder.include(PlaybackBenchmark.class.getSimpleName());
+            builder.include(FlacBenchmark.class.getSimpleName());
+            builder.include(EchoBenchmark.class.getSimpleName());
+            builder.include(NoiseBenchmark.class.getSimpleName());
+        }
+        Options options = builder
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-40s %8s %8s %12s %10s %12s %10s %8s%n",
+                "Benchmark", "Signal", "Rate", "ns/buffer", "ns/sample", "B/buffer", "Headroom", "Core");
+        for (RunResult result : results) {
+            String sampleRate = result.getParams().getParam("sampleRate");
+            if (sampleRate == null) continue;
+            int rate = Integer.parseInt(sampleRate);
+            int samples = BufferSizes.bufferSize(rate) / 2;
+
+            double nanos = result.getPrimaryResult().getScore();
+            Result<?> alloc = result.getSecondaryResults().get("·gc.alloc.rate.norm");
+            double bytes = alloc == null ? Double.NaN : alloc.getScore();
+
+            String benchmark = result.getParams().getBenchmark();
+            double headroom = BufferSizes.bufferNanos(rate) / nanos;
+            System.out.printf(Locale.ROOT, "%-40s %8s %8d %12.1f %10.3f %12.1f %9.0fx %7.3f%%%n",
+                    benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1),
+                    result.getParams().getParam("signal"), rate, nanos, nanos / samples, bytes,
+                    headroom, 100 / headroom);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.Counter;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次记录指标的开销, 一次操作即一次记录; 不是按buffer计算的, 不包括在Headroom的默认列表中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    @State(Scope.Thread)
+    public static class MetricsState {
+        final Metrics metrics = new Metrics();
+        final Counter counter = metrics.counter("counter");
+        final LatencyHistogram histogram = metrics.histogram("histogram");
+        long value = 12345;
+    }
+
+    @Benchmark
+    public long counter(MetricsState state) {
+        state.counter.increment();
+        return state.counter.get();
+    }
+
+    /**
+     * 值在一定范围内变化, 避免总是命中同一个桶
+     */
+    @Benchmark
+    public void histogram(MetricsState state) {
+        long value = state.value;
+        state.value = value * 6364136223846793005L + 1442695040888963407L;
+        state.histogram.record((value >>> 40) & 0xfffff);
+    }
+
+    /**
+     * 包括一次System.nanoTime()
+     */
+    @Benchmark
+    public long recordSince(MetricsState state) {
+        return state.histogram.recordSince(state.value);
+    }
+
+}
@@ -0,0 +1,47 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.NoiseRollup;
+import net.allape.noisefighter.dsp.NoiseStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 噪声统计的开销, 一次操作即A计权并统计一个buffer, 与采集端的余量可以直接比较
+ *
+ * 回放的音频时间远快于实时, 分钟与小时的结束比实际频繁得多, 统计结果每次都取出以免队列写满
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoiseBenchmark {
+
+    @State(Scope.Thread)
+    public static class StatisticsState {
+        NoiseStatistics statistics;
+        final NoiseRollup rollup = new NoiseRollup();
+        // 取出的统计结果数量
+        long rollups;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            statistics = new NoiseStatistics(capture.sampleRate);
+        }
+    }
+
+    @Benchmark
+    public double statistics(CaptureState capture, StatisticsState state) {
+        state.statistics.process(capture.samples[capture.next()], 0, capture.bufferSamples);
+        while (state.statistics.poll(state.rollup)) {
+            state.rollups++;
+        }
+        return state.statistics.getLastLevel();
+    }
+
+}
@@ -0,0 +1,124 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.Clip;
+import net.allape.noisefighter.dsp.FrameRingBuffer;
+import net.allape.noisefighter.dsp.PlaybackChain;
+import net.allape.noisefighter.dsp.Sound;
+import net.allape.noisefighter.dsp.SoundLibrary;
+import net.allape.noisefighter.dsp.WavWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 播放处理链的开销, 一次操作即按块输出一个buffer时长的音频, 与采集端的余量可以直接比较;
+ * sound测量选定应答声音时开始播放并输出第一块的开销, 应当与声音的长度无关
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaybackBenchmark {
+
+    // 与PlaybackRunnable的默认burst大小保持一致
+    private static final int BLOCK = 256;
+    // 与CaptureEngine保持一致
+    private static final double LIMITER_LOOKAHEAD_MS = 5;
+    private static final double LIMITER_RELEASE_MS = 100;
+
+    @State(Scope.Thread)
+    public static class ChainState {
+        // 增益, 单位: dB; 录音中的突发接近满幅度, 正增益时限制器持续工作
+        @Param({"0", "12"})
+        public double gainDb;
+
+        // 速度
+        @Param({"1", "1.25"})
+        public double speed;
+
+        final short[] block = new short[BLOCK];
+        final Clip clip = new Clip();
+        FrameRingBuffer ring;
+        PlaybackChain chain;
+
+        @Setup
+        public void setup(CaptureState capture) {
+            ring = new FrameRingBuffer(capture.bufferSamples, capture.samples.length + 1);
+            for (short[] frame : capture.samples) {
+                ring.offer(frame, 0, frame.length);
+            }
+            clip.set(ring.getReadSequence(), ring.getWriteSequence());
+            chain = new PlaybackChain(capture.sampleRate, LIMITER_LOOKAHEAD_MS, LIMITER_RELEASE_MS);
+            chain.getLimiter().setGainDb(gainDb);
+            chain.setSpeed(speed);
+            chain.setLoops(2);
+            chain.start(ring, clip);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SoundState {
+        // 应答声音的时长, 单位: 秒
+        @Param({"1", "60"})
+        public int seconds;
+
+        final short[] block = new short[BLOCK];
+        final Clip clip = new Clip();
+        FrameRingBuffer ring;
+        PlaybackChain chain;
+
+        @Setup
+        public void setup(CaptureState capture) throws IOException {
+            ring = new FrameRingBuffer(capture.bufferSamples, 2);
+            ring.offer(capture.samples[0], 0, capture.samples[0].length);
+            clip.set(ring.getReadSequence(), ring.getWriteSequence());
+
+            File file = File.createTempFile("sound", ".wav");
+            try {
+                try (WavWriter writer = new WavWriter(file, capture.sampleRate, 1)) {
+                    for (int written = 0; written < capture.sampleRate * seconds; ) {
+                        short[] frame = capture.samples[written / capture.bufferSamples % capture.samples.length];
+                        writer.write(frame, 0, frame.length);
+                        written += frame.length;
+                    }
+                }
+                Sound sound = new SoundLibrary(capture.sampleRate, Long.MAX_VALUE).load(file);
+                chain = new PlaybackChain(capture.sampleRate, LIMITER_LOOKAHEAD_MS, LIMITER_RELEASE_MS);
+                chain.setSound(sound);
+            } finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public short sound(SoundState state) {
+        state.chain.start(state.ring, state.clip);
+        state.chain.render(state.block, 0, state.block.length);
+        return state.block[0];
+    }
+
+    @Benchmark
+    public short chain(CaptureState capture, ChainState state) {
+        short[] block = state.block;
+        for (int rendered = 0; rendered < capture.bufferSamples; ) {
+            int count = state.chain.render(block, 0, Math.min(block.length, capture.bufferSamples - rendered));
+            if (count == 0) {
+                state.chain.start(state.ring, state.clip);
+            }
+            rendered += count;
+        }
+        return block[0];
+    }
+
+}
@@ -0,0 +1,161 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.LowPowerGate;
+import net.allape.noisefighter.dsp.Metrics;
+import net.allape.noisefighter.dsp.Replay;
+import net.allape.noisefighter.dsp.SyntheticSource;
+import net.allape.noisefighter.dsp.WavSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 比较低功耗模式与完整流程: 同一段录音各回放一次, 输出每小时录音线程的唤醒次数、CPU时间, 以及漏掉或推迟的触发
+ *
+ * 设置系统属性noisefighter.pcm为WAV文件路径时回放录音, 否则先生成一段夜间的录音写入临时文件:
+ * 安静的背景中每隔几分钟一次长短、响度与频率不同的突发. 唤醒次数是读取的次数, 设备上每次读取唤醒一次录音线程;
+ * CPU时间是回放线程的CPU时间, 包括读取WAV文件. 两种模式先各预热一次, 预热的结果不计入.
+ */
+public class PowerLoad {
+
+    // 生成的信号时长
+    private static final int SYNTHETIC_MINUTES = 60;
+    private static final int SAMPLE_RATE = 48000;
+
+    /**
+     * 一次回放的结果
+     */
+    private static final class Result {
+
+        Replay.Report report;
+        long cpuNanos;
+        long reads;
+        long wakeups;
+        double sleptFraction;
+
+        double perHour(double value) {
+            return value * 3600 / report.getAudioSeconds();
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        String path = System.getProperty("noisefighter.pcm");
+        File file;
+        boolean temporary = path == null || path.isEmpty();
+        if (temporary) {
+            file = File.createTempFile("night", ".wav");
+            generate(file);
+        } else {
+            file = new File(path);
+        }
+
+        try {
+            replay(file, false);
+            replay(file, true);
+            Result full = replay(file, false);
+            Result lowPower = replay(file, true);
+
+            int frameSize;
+            try (WavSource source = new WavSource(file)) {
+                frameSize = BufferSizes.bufferSize(source.getConfig().getSampleRate()) / 2;
+                System.out.println(file + ": " + source.getConfig() + ", buffer: " + frameSize + " frames");
+            }
+            print("full", full);
+            print("low power", lowPower);
+            compare(full.report, lowPower.report, frameSize);
+        } finally {
+            if (temporary && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static Result replay(File file, boolean lowPower) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try (WavSource source = new WavSource(file)) {
+            int frameSize = BufferSizes.bufferSize(source.getConfig().getSampleRate()) / 2;
+            Metrics metrics = new Metrics();
+            Replay replay = new Replay(source, frameSize, metrics);
+            // 与设备上相同, 回声消除一直开启
+            replay.getPipeline().setEchoCancelling(true);
+            replay.getPipeline().setLowPower(lowPower);
+
+            Result result = new Result();
+            long cpu = threads.getCurrentThreadCpuTime();
+            result.report = replay.run();
+            result.cpuNanos = threads.getCurrentThreadCpuTime() - cpu;
+            LatencyHistogram.Snapshot callback = new LatencyHistogram.Snapshot();
+            metrics.histogram("mic.callback").snapshot(callback);
+            result.reads = callback.getCount();
+            LowPowerGate gate = replay.getPipeline().getLowPowerGate();
+            result.wakeups = gate.getWakeups();
+            result.sleptFraction = (double) gate.getSleptSamples() / Math.max(1, result.report.getFrames());
+            return result;
+        }
+    }
+
+    private static void print(String name, Result result) {
+        System.out.printf(Locale.ROOT, "%-10s %s%n", name, result.report);
+        System.out.printf(Locale.ROOT, "  per hour: %.0f thread wakeups, %.2f s cpu, %.0f escalations, %.0f triggers%n",
+                result.perHour(result.reads), result.perHour(result.cpuNanos / 1e9), result.perHour(result.wakeups),
+                result.perHour(result.report.getEvents(Replay.Type.TRIGGERED).size()));
+        System.out.printf(Locale.ROOT, "  asleep %.1f%% of the time%n", result.sleptFraction * 100);
+    }
+
+    /**
+     * 以完整流程的触发为准, 统计低功耗模式漏掉、推迟与多出的触发
+     */
+    private static void compare(Replay.Report full, Replay.Report lowPower, int frameSize) {
+        List<Replay.Event> expected = full.getEvents(Replay.Type.TRIGGERED);
+        List<Replay.Event> actual = lowPower.getEvents(Replay.Type.TRIGGERED);
+        // 抽取最多推迟DECIMATION-1帧; 背景噪声的估计略有不同时也可能提前
+        long tolerance = (long) LowPowerGate.DECIMATION * frameSize;
+        int missed = 0;
+        int delayed = 0;
+        long maxDelay = 0;
+        int matched = 0;
+        for (Replay.Event event : expected) {
+            Replay.Event match = null;
+            for (Replay.Event candidate : actual) {
+                if (Math.abs(candidate.frame - event.frame) <= tolerance) {
+                    match = candidate;
+                    break;
+                }
+            }
+            if (match == null) {
+                missed++;
+                continue;
+            }
+            matched++;
+            if (match.frame > event.frame) {
+                delayed++;
+                maxDelay = Math.max(maxDelay, match.frame - event.frame);
+            }
+        }
+        int rate = (int) Math.round(full.getFrames() / full.getAudioSeconds());
+        System.out.printf(Locale.ROOT, "triggers: %d expected, %d missed, %d delayed (max %.0f ms), %d extra%n",
+                expected.size(), missed, delayed, maxDelay * 1000.0 / rate, actual.size() - matched);
+    }
+
+    /**
+     * 安静的背景中每隔约4.6分钟一次突发, 频率、时长与响度轮换, 包括抽取之后难以检测的频率
+     */
+    private static void generate(File file) throws IOException {
+        AudioConfig config = new AudioConfig(SAMPLE_RATE, 1, AudioConfig.Encoding.PCM_16BIT);
+        SyntheticSource source = new SyntheticSource(config, config.framesOf(SYNTHETIC_MINUTES * 60000L), -65, 2022);
+        double[] hz = {60, 440, 1000, SAMPLE_RATE / 8.0, 3000, SAMPLE_RATE / 4.0 - 1000};
+        int i = 0;
+        for (long ms = 90000; ms < SYNTHETIC_MINUTES * 60000L; ms += 277000, i++) {
+            source.burst(ms, 120 + (i * 370) % 1500, hz[i % hz.length], -10 - (i % 3) * 10);
+        }
+        ReplayLoad.write(source, file);
+    }
+
+}
@@ -0,0 +1,108 @@
+package net.allape.noisefighter.benchmark;
+
+import net.allape.noisefighter.dsp.AudioConfig;
+import net.allape.noisefighter.dsp.AudioSource;
+import net.allape.noisefighter.dsp.LatencyHistogram;
+import net.allape.noisefighter.dsp.Metrics;
+import net.allape.noisefighter.dsp.Replay;
+import net.allape.noisefighter.dsp.SyntheticSource;
+import net.allape.noisefighter.dsp.WavSource;
+import net.allape.noisefighter.dsp.WavWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * 不限速地回放录音经过完整的录音、触发与播放流程, 输出相对实时的倍数、回调耗时与事件数量
+ *
+ * 设置系统属性noisefighter.pcm为WAV文件路径时回放录音, 否则先生成一段突发噪音写入临时文件再回放,
+ * 生成的时间不计入结果. 设置系统属性noisefighter.echo=true时模拟麦克风听到自己的播放并打开回声消除.
+ */
+public class ReplayLoad {
+
+    // 生成的信号时长
+    private static final int SYNTHETIC_MINUTES = 30;
+    private static final int SAMPLE_RATE = 48000;
+    // 模拟的回声: 扬声器到麦克风的延迟与增益
+    private static final int ECHO_DELAY_MS = 60;
+    private static final double ECHO_GAIN_DB = -12;
+
+    public static void main(String[] args) throws IOException {
+        String path = System.getProperty("noisefighter.pcm");
+        File file;
+        boolean temporary = path == null || path.isEmpty();
+        if (temporary) {
+            file = File.createTempFile("replay", ".wav");
+            generate(file);
+        } else {
+            file = new File(path);
+        }
+
+        try (WavSource source = new WavSource(file)) {
+            int rate = source.getConfig().getSampleRate();
+            int frameSize = BufferSizes.bufferSize(rate) / 2;
+            Metrics metrics = new Metrics();
+            Replay replay = new Replay(source, frameSize, metrics);
+            boolean echo = Boolean.getBoolean("noisefighter.echo");
+            if (echo) {
+                replay.setEcho(Math.max(ECHO_DELAY_MS, (int) Math.ceil(1000.0 * frameSize / rate)), ECHO_GAIN_DB);
+                replay.getPipeline().setEchoCancelling(true);
+            }
+            Replay.Report report = replay.run();
+
+            System.out.println(file + ": " + source.getConfig() + ", buffer: " + frameSize + " frames");
+            System.out.println(report);
+            if (echo) {
+                System.out.printf(Locale.ROOT, "  echo: delay %d frames, erle %.1f dB%n",
+                        replay.getPipeline().getEchoCanceller().getDelay(),
+                        replay.getPipeline().getEchoCanceller().getErleDb());
+            }
+            for (Replay.Type type : Replay.Type.values()) {
+                System.out.printf(Locale.ROOT, "  %-16s %d%n", type, report.getEvents(type).size());
+            }
+            LatencyHistogram.Snapshot callback = new LatencyHistogram.Snapshot();
+            metrics.histogram("mic.callback").snapshot(callback);
+            System.out.printf(Locale.ROOT, "  callback ns: p50 %d, p99 %d, p99.9 %d, max %d, budget %.0f%n",
+                    callback.getValueAtPercentile(50), callback.getValueAtPercentile(99),
+                    callback.getValueAtPercentile(99.9), callback.getMax(), BufferSizes.bufferNanos(rate));
+        } finally {
+            if (temporary && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * 背景噪声中每隔一段时间出现一次突发, 部分突发落在播放与冷却期间
+     */
+    private static void generate(File file) throws IOException {
+        AudioConfig config = new AudioConfig(SAMPLE_RATE, 1, AudioConfig.Encoding.PCM_16BIT);
+        SyntheticSource source = new SyntheticSource(config, config.framesOf(SYNTHETIC_MINUTES * 60000L), -55, 2021);
+        for (long ms = 12000; ms < SYNTHETIC_MINUTES * 60000L; ms += 7300) {
+            source.burst(ms, 200 + ms % 900, 120 + ms % 2000, -12);
+        }
+        write(source, file);
+    }
+
+    /**
+     * 把有限的来源写入WAV文件
+     */
+    static void write(AudioSource source, File file) throws IOException {
+        AudioConfig config = source.getConfig();
+        ByteBuffer buffer = ByteBuffer.allocate(config.getSampleRate() * config.getBytesPerFrame())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        source.start();
+        try (WavWriter writer = new WavWriter(file, config)) {
+            int read;
+            while ((read = source.read(buffer, buffer.capacity())) > 0) {
+                buffer.limit(read);
+                writer.write(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 自适应阈值: 以最近一段时间内每帧峰值的百分位数作为背景噪声, 在其之上加上起始/释放余量得到两个阈值
+ *
+ * 峰值按0.5dB量化后记入固定大小的直方图, 滑动窗口中移出的帧从直方图中减去, 每帧的开销是固定的.
+ * 百分位数低于一半时, 持续时间少于窗口一半的突发噪音不会抬高背景噪声.
+ * 必须放在对应的{@link LevelMeter}之后处理
+ */
+public class AdaptiveThreshold implements FrameProcessor {
+
+    // 直方图精度, 单位: dB
+    private static final double BIN_DB = 0.5;
+    // 直方图频点数量, 覆盖SILENCE_DBFS ~ 0dBFS
+    private static final int BINS = (int) (-LevelMeter.SILENCE_DBFS / BIN_DB) + 1;
+
+    // 峰值来源
+    private final LevelMeter meter;
+    // 作为背景噪声的百分位数, 0 ~ 1
+    private final double percentile;
+    // 每个量化值的帧数
+    private final int[] histogram = new int[BINS];
+    // 滑动窗口中每帧的量化值, 环形
+    private final short[] window;
+
+    // 起始阈值相对背景噪声的余量, 单位: dB
+    private volatile double attackDb = 18;
+    // 释放阈值相对背景噪声的余量, 单位: dB
+    private volatile double releaseDb = 10;
+    // 起始阈值的下限, 避免安静的环境中轻微的声音也触发, 单位: dBFS
+    private volatile double minimumDbfs = -42;
+
+    // 窗口中的帧数
+    private int count = 0;
+    // 下一帧在window中的位置
+    private int position = 0;
+    // 背景噪声, 单位: dBFS
+    private volatile double floorDbfs = LevelMeter.SILENCE_DBFS;
+    // 当前帧的峰值, 单位: dBFS
+    private double levelDbfs = LevelMeter.SILENCE_DBFS;
+
+    /**
+     * @param meter 峰值来源
+     * @param sampleRate 采样率
+     * @param frameSize 预期的帧长度
+     * @param windowMs 估计背景噪声的时长
+     * @param percentile 作为背景噪声的百分位数, 0 ~ 1
+     */
+    public AdaptiveThreshold(LevelMeter meter, int sampleRate, int frameSize, long windowMs, double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in 0 ~ 1: " + percentile);
+        }
+        this.meter = meter;
+        this.percentile = percentile;
+        this.window = new short[(int) Math.max(1, windowMs * sampleRate / 1000 / frameSize)];
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        update(meter.getPeakDbfs());
+    }
+
+    /**
+     * 记入一帧的峰值, 例如低功耗休眠时不经过{@link LevelMeter}的抽取峰值
+     * @param levelDbfs 峰值, 单位: dBFS
+     */
+    public void update(double levelDbfs) {
+        this.levelDbfs = levelDbfs;
+        int bin = (int) Math.round((levelDbfs - LevelMeter.SILENCE_DBFS) / BIN_DB);
+        bin = Math.max(0, Math.min(BINS - 1, bin));
+
+        if (count == window.length) {
+            histogram[window[position]]--;
+        } else {
+            count++;
+        }
+        histogram[bin]++;
+        window[position] = (short) bin;
+        position = position + 1 == window.length ? 0 : position + 1;
+
+        // 累计到百分位数所在的量化值
+        int rank = (int) (percentile * (count - 1));
+        int sum = 0;
+        int i = 0;
+        for (; i < BINS - 1; i++) {
+            sum += histogram[i];
+            if (sum > rank) break;
+        }
+        floorDbfs = LevelMeter.SILENCE_DBFS + i * BIN_DB;
+    }
+
+    /**
+     * @return 当前帧是否达到起始阈值
+     */
+    public boolean isAboveAttack() {
+        return levelDbfs >= getAttackDbfs();
+    }
+
+    /**
+     * @return 当前帧是否达到释放阈值
+     */
+    public boolean isAboveRelease() {
+        return levelDbfs >= getReleaseDbfs();
+    }
+
+    public double getFloorDbfs() {
+        return floorDbfs;
+    }
+
+    public double getAttackDbfs() {
+        return Math.max(floorDbfs + attackDb, minimumDbfs);
+    }
+
+    public double getReleaseDbfs() {
+        return Math.max(floorDbfs + releaseDb, minimumDbfs - (attackDb - releaseDb));
+    }
+
+    /**
+     * @return 窗口能够容纳的帧数
+     */
+    public int getWindowFrames() {
+        return window.length;
+    }
+
+    public double getAttackDb() {
+        return attackDb;
+    }
+
+    public double getReleaseDb() {
+        return releaseDb;
+    }
+
+    /**
+     * @param attackDb 起始阈值相对背景噪声的余量, 单位: dB
+     * @param releaseDb 释放阈值相对背景噪声的余量, 不大于attackDb, 单位: dB
+     */
+    public void setMargins(double attackDb, double releaseDb) {
+        if (releaseDb > attackDb) {
+            throw new IllegalArgumentException("release margin must not exceed attack margin");
+        }
+        this.attackDb = attackDb;
+        this.releaseDb = releaseDb;
+    }
+
+    public double getMinimumDbfs() {
+        return minimumDbfs;
+    }
+
+    /**
+     * @param minimumDbfs 起始阈值的下限, 单位: dBFS
+     */
+    public void setMinimumDbfs(double minimumDbfs) {
+        this.minimumDbfs = minimumDbfs;
+    }
+
+}
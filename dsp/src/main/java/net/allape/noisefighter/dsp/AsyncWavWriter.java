@@ -0,0 +1,269 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在后台线程中写入{@link WavWriter}或其他{@link PcmSink}, 例如{@link FlacWriter}; 压缩编码同样在写入线程中进行
+ *
+ * 录音线程调用{@link #write(short[], int, int)}只把采样按文件格式编码到预分配的块中, 写满的块交给写入线程,
+ * 写入线程以块为单位写入文件并定期回写文件头. 没有空闲的块时丢弃采样而不是阻塞录音线程.
+ */
+public class AsyncWavWriter implements Closeable {
+
+    // 默认每块的大小
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    // 默认的块数量
+    public static final int DEFAULT_BLOCKS = 4;
+    // 默认回写文件头的间隔
+    public static final long DEFAULT_HEADER_INTERVAL_MS = 2000;
+
+    // 没有数据时写入线程的最长等待时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // write可用
+    private static final int OPEN = 0;
+    // 正在write
+    private static final int WRITING = 1;
+    // 已关闭
+    private static final int CLOSED = 2;
+
+    private final PcmSink writer;
+    // 文件格式
+    private final AudioConfig config;
+    // 块, position为已编码的长度
+    private final ByteBuffer[] blocks;
+    // 块的采样视图, 16bit单声道时录音线程通过视图批量写入, 其他格式为null
+    private final ShortBuffer[] samples;
+    private final long headerIntervalNanos;
+    private final Thread thread;
+
+    // 录音线程与close之间的交接
+    private final AtomicInteger state = new AtomicInteger(OPEN);
+    // 已写满的块数, 仅生产者修改
+    private final AtomicLong filled = new AtomicLong();
+    // 已写入文件的块数, 仅写入线程修改
+    private final AtomicLong written = new AtomicLong();
+    // 丢弃的采样数
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    // 所有块都已提交, 写入线程可以结束
+    private volatile boolean finished = false;
+    // 写入线程遇到的错误
+    private volatile IOException error;
+
+    /**
+     * 16bit整数格式
+     */
+    public AsyncWavWriter(File wavFile, int sampleRate, int channels) throws IOException {
+        this(wavFile, new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT));
+    }
+
+    public AsyncWavWriter(File wavFile, AudioConfig config) throws IOException {
+        this(wavFile, config, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS, DEFAULT_HEADER_INTERVAL_MS);
+    }
+
+    /**
+     * 16bit整数格式
+     * @see #AsyncWavWriter(File, AudioConfig, int, int, long)
+     */
+    public AsyncWavWriter(File wavFile, int sampleRate, int channels,
+                          int blockSize, int blockCount, long headerIntervalMs) throws IOException {
+        this(wavFile, new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT),
+                blockSize, blockCount, headerIntervalMs);
+    }
+
+    /**
+     * @param config 文件格式, 写入的单声道采样会复制到每个声道
+     * @param blockSize 每块的大小, 单位: byte, 会向下取整为4096的倍数
+     * @param blockCount 块数量, 至少为2
+     * @param headerIntervalMs 回写文件头的间隔
+     */
+    public AsyncWavWriter(File wavFile, AudioConfig config,
+                          int blockSize, int blockCount, long headerIntervalMs) throws IOException {
+        this(alignedSize(blockSize, blockCount), blockCount, headerIntervalMs, new WavWriter(wavFile, config));
+    }
+
+    /**
+     * @param sink 写入端, 由写入线程使用并在结束时关闭
+     * @see #AsyncWavWriter(File, AudioConfig, int, int, long)
+     */
+    public AsyncWavWriter(PcmSink sink, int blockSize, int blockCount, long headerIntervalMs) {
+        this(alignedSize(blockSize, blockCount), blockCount, headerIntervalMs, sink);
+    }
+
+    public AsyncWavWriter(PcmSink sink) {
+        this(sink, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS, DEFAULT_HEADER_INTERVAL_MS);
+    }
+
+    private AsyncWavWriter(int alignedSize, int blockCount, long headerIntervalMs, PcmSink sink) {
+        this.writer = sink;
+        this.config = sink.getConfig();
+        this.blocks = new ByteBuffer[blockCount];
+        boolean view = config.getChannels() == 1 && config.getEncoding() == AudioConfig.Encoding.PCM_16BIT;
+        this.samples = view ? new ShortBuffer[blockCount] : null;
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = ByteBuffer.allocateDirect(alignedSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (view) samples[i] = blocks[i].asShortBuffer();
+        }
+        this.headerIntervalNanos = TimeUnit.MILLISECONDS.toNanos(headerIntervalMs);
+        this.thread = new Thread(this::drain, "WavWriter");
+        this.thread.start();
+    }
+
+    private static int alignedSize(int blockSize, int blockCount) {
+        int alignedSize = blockSize / WavWriter.DATA_OFFSET * WavWriter.DATA_OFFSET;
+        if (alignedSize <= 0 || blockCount < 2) {
+            throw new IllegalArgumentException("illegal block size or count: " + blockSize + ", " + blockCount);
+        }
+        return alignedSize;
+    }
+
+    /**
+     * 录音线程: 追加采样, 不会阻塞
+     * @return 是否完整写入, 关闭之后或没有空闲的块时返回false
+     */
+    public boolean write(short[] frame, int offset, int length) {
+        if (!state.compareAndSet(OPEN, WRITING)) {
+            return false;
+        }
+        try {
+            while (length > 0) {
+                long index = filled.get();
+                if (index - written.get() >= blocks.length) {
+                    droppedSamples.addAndGet(length);
+                    return false;
+                }
+                int slot = (int) (index % blocks.length);
+                ByteBuffer block = blocks[slot];
+                int count = Math.min(length, block.remaining() / config.getBytesPerFrame());
+                if (samples != null) {
+                    ShortBuffer view = samples[slot];
+                    view.position(block.position() / Pcm16.BYTES_PER_SAMPLE);
+                    view.put(frame, offset, count);
+                    block.position(view.position() * Pcm16.BYTES_PER_SAMPLE);
+                } else {
+                    PcmConverter.encode(frame, offset, count, config, block);
+                }
+                offset += count;
+                length -= count;
+                if (block.remaining() < config.getBytesPerFrame()) {
+                    submit(index);
+                }
+            }
+            return true;
+        } finally {
+            state.lazySet(OPEN);
+        }
+    }
+
+    /**
+     * 将块交给写入线程
+     */
+    private void submit(long index) {
+        filled.lazySet(index + 1);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * 写入线程
+     */
+    private void drain() {
+        long lastHeader = System.nanoTime();
+        try {
+            while (true) {
+                // 先读取finished: close在提交最后一块之后才设置finished, 看到finished时一定能看到最后一块
+                boolean done = finished;
+                long index = written.get();
+                if (index < filled.get()) {
+                    int slot = (int) (index % blocks.length);
+                    ByteBuffer block = blocks[slot];
+                    block.flip();
+                    writer.write(block);
+                    block.clear();
+                    written.lazySet(index + 1);
+                } else if (done) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+
+                long now = System.nanoTime();
+                if (now - lastHeader >= headerIntervalNanos) {
+                    writer.flush();
+                    lastHeader = now;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+        }
+    }
+
+    /**
+     * 写入剩余的数据、回写文件头并关闭文件, 会等待写入线程结束; 可以在任意线程调用
+     * @throws IOException 写入线程遇到的错误
+     */
+    @Override
+    public void close() throws IOException {
+        // 等待正在进行的write结束
+        while (true) {
+            int current = state.get();
+            if (current == CLOSED) return;
+            if (current == OPEN && state.compareAndSet(OPEN, CLOSED)) break;
+            Thread.yield();
+        }
+
+        // 提交未写满的块
+        long index = filled.get();
+        if (index - written.get() < blocks.length && blocks[(int) (index % blocks.length)].position() > 0) {
+            submit(index);
+        }
+        finished = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return 写入线程遇到的错误, 没有错误时为null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return 因写入跟不上而丢弃的采样数
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * @return 已写入文件的数据长度(byte数量), 在其他线程中读取时为近似值
+     */
+    public long getDataBytes() {
+        return writer.getDataBytes();
+    }
+
+}
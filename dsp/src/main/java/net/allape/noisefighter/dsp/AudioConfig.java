@@ -0,0 +1,117 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 音频格式: 采样率、声道数与采样编码, 不可变
+ *
+ * 录音、播放与WAV文件头使用同一份配置; 内部处理统一为16bit单声道, 格式转换只发生在输入输出的边界上.
+ */
+public final class AudioConfig {
+
+    /**
+     * 采样编码
+     */
+    public enum Encoding {
+        // 16bit整数
+        PCM_16BIT(2, 1),
+        // 32bit浮点, -1 ~ 1
+        PCM_FLOAT(4, 3);
+
+        // 每个采样的字节数
+        public final int bytesPerSample;
+        // WAV文件头中的格式编号
+        public final int formatTag;
+
+        Encoding(int bytesPerSample, int formatTag) {
+            this.bytesPerSample = bytesPerSample;
+            this.formatTag = formatTag;
+        }
+
+        public int getBitsPerSample() {
+            return bytesPerSample * 8;
+        }
+    }
+
+    // 最大声道数
+    public static final int MAX_CHANNELS = 8;
+
+    // 默认: 44.1kHz 16bit单声道
+    public static final AudioConfig DEFAULT = new AudioConfig(44100, 1, Encoding.PCM_16BIT);
+
+    private final int sampleRate;
+    private final int channels;
+    private final Encoding encoding;
+
+    public AudioConfig(int sampleRate, int channels, Encoding encoding) {
+        if (sampleRate <= 0 || channels < 1 || channels > MAX_CHANNELS || encoding == null) {
+            throw new IllegalArgumentException("illegal audio config: " + sampleRate + "Hz, " + channels + "ch, " + encoding);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return 一帧(所有声道各一个采样)的字节数, 即WAV的block align
+     */
+    public int getBytesPerFrame() {
+        return channels * encoding.bytesPerSample;
+    }
+
+    /**
+     * @return 每秒的字节数
+     */
+    public int getByteRate() {
+        return sampleRate * getBytesPerFrame();
+    }
+
+    /**
+     * @param ms 时长
+     * @return 对应的帧数(每个声道的采样数)
+     */
+    public long framesOf(long ms) {
+        return sampleRate * ms / 1000;
+    }
+
+    public AudioConfig withSampleRate(int sampleRate) {
+        return sampleRate == this.sampleRate ? this : new AudioConfig(sampleRate, channels, encoding);
+    }
+
+    public AudioConfig withChannels(int channels) {
+        return channels == this.channels ? this : new AudioConfig(sampleRate, channels, encoding);
+    }
+
+    public AudioConfig withEncoding(Encoding encoding) {
+        return encoding == this.encoding ? this : new AudioConfig(sampleRate, channels, encoding);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AudioConfig)) return false;
+        AudioConfig that = (AudioConfig) o;
+        return sampleRate == that.sampleRate && channels == that.channels && encoding == that.encoding;
+    }
+
+    @Override
+    public int hashCode() {
+        return (sampleRate * 31 + channels) * 31 + encoding.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return sampleRate + "Hz " + channels + "ch " + encoding;
+    }
+
+}
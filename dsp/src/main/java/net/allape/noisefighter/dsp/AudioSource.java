@@ -0,0 +1,33 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 录音来源: 麦克风、WAV文件或生成的信号, 按{@link #getConfig()}的格式输出交错的PCM
+ *
+ * 与AudioRecord.read(ByteBuffer, int)的约定相同: 从下标0开始写入, 不改变buffer的position,
+ * 使用buffer自身的字节序. 所有方法都在录音线程中调用.
+ */
+public interface AudioSource extends Closeable {
+
+    /**
+     * @return 输出格式
+     */
+    AudioConfig getConfig();
+
+    /**
+     * 开始输出, 只调用一次
+     */
+    void start() throws IOException;
+
+    /**
+     * 读取下一段数据, 实时来源会阻塞到数据可用, 文件与生成的信号不等待
+     * @param dst 输出, 容量不小于size
+     * @param size 最多读取的字节数, 为整数帧
+     * @return 读取的字节数, 为整数帧; 有限的来源结束时返回0; 小于0表示读取失败
+     */
+    int read(ByteBuffer dst, int size);
+
+}
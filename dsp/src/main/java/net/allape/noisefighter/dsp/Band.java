@@ -0,0 +1,30 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 频段, 单位: Hz
+ */
+public final class Band {
+
+    // 下限
+    public final double low;
+    // 上限
+    public final double high;
+
+    public Band(double low, double high) {
+        if (low < 0 || high <= low) {
+            throw new IllegalArgumentException("invalid band: " + low + " ~ " + high);
+        }
+        this.low = low;
+        this.high = high;
+    }
+
+    public double center() {
+        return (low + high) / 2;
+    }
+
+    @Override
+    public String toString() {
+        return (int) low + "~" + (int) high + "Hz";
+    }
+
+}
@@ -0,0 +1,26 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 按频段计算每一帧的能量
+ *
+ * 能量为频段内的均方值, 与采样同一量纲的平方: 振幅为A的正弦波落在频段内时约为A^2/2,
+ * 与{@link LevelMeter#getRms()}的平方可以直接比较.
+ */
+public interface BandMeter extends FrameProcessor {
+
+    /**
+     * @return 频段数量
+     */
+    int getBandCount();
+
+    /**
+     * @return 频段
+     */
+    Band getBand(int band);
+
+    /**
+     * @return 最近一帧中频段的均方值
+     */
+    double getBandPower(int band);
+
+}
@@ -0,0 +1,383 @@
+package net.allape.noisefighter.dsp;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 录音、触发与播放处理的核心, 与平台无关: 设备上由CaptureEngine驱动, 测试中由{@link Replay}驱动
+ *
+ * 每一帧先写入录音缓存, 再依次经过回声消除、噪声统计、电平、自适应阈值、(可选的)触发之前的阶段、阈值触发与触发之后的阶段.
+ * 触发结束时录音发布到{@link #getClips()}, 播放期间静音触发, 播放结束之后经过冷却再恢复.
+ * 开启回声消除时, 播放端把输出写入{@link #getEchoReference()}, 回声消除收敛之后播放期间也继续触发.
+ * 开启低功耗模式时, 长时间安静之后休眠: 录音缓存、噪声统计与{@link #setSleepStages}继续, 其他阶段暂停,
+ * 由{@link LowPowerGate}检测到可能触发时从当前帧起恢复完整的流程; 休眠时录音端按{@link #getReadSize()}批量读取.
+ */
+public class CapturePipeline {
+
+    // 低于阈值之后继续录音的时长, 避免闪烁
+    public static final int RECORDED_HOLD_MS = 800;
+    // 最大缓存数量, 超出时直接播放
+    public static final int RECORDED_MAX_SIZE = 2000;
+    // 触发之前需要一起播放的时长
+    public static final int RECORDED_PRE_ROLL_MS = 500;
+    // 等待播放的录音数量
+    public static final int PLAYBACK_QUEUE_SIZE = 4;
+    // 播放结束之后不再触发的时长, 避免录到自己播放的尾音
+    public static final int PLAYBACK_COOLDOWN_MS = 1000;
+    // 播放限制器的前视时长
+    public static final double PLAYBACK_LIMITER_LOOKAHEAD_MS = 5;
+    // 播放限制器的恢复时长
+    public static final double PLAYBACK_LIMITER_RELEASE_MS = 100;
+    // 播放限制器的上限, 单位: dBFS
+    public static final double PLAYBACK_CEILING_DBFS = -1;
+    // 估计背景噪声的时长
+    public static final int NOISE_FLOOR_WINDOW_MS = 10000;
+    // 作为背景噪声的百分位数
+    public static final double NOISE_FLOOR_PERCENTILE = 0.2;
+    // 需要进行记录的阈值, 与振幅峰值(绝对值)比较, 最大为32768, 默认-6dBFS
+    public static final int DEFAULT_THRESHOLD = 16384;
+    // 回声消除参考信号的缓冲时长
+    public static final int ECHO_REFERENCE_MS = 1000;
+    // 低功耗休眠时一次读取的时长, 即唤醒延迟的上限
+    public static final int LOW_POWER_READ_MS = 500;
+    // 低功耗模式下保持安静多久之后休眠
+    public static final int LOW_POWER_SLEEP_MS = 5000;
+    // 低功耗唤醒阈值低于可能触发的最低峰值的余量, 单位: dB
+    public static final double LOW_POWER_MARGIN_DB = 6;
+
+    /**
+     * 回调, 在录音线程中调用
+     */
+    public interface Listener {
+
+        /**
+         * 处于触发状态(包括保持)的每一帧
+         */
+        void onTriggered();
+
+        /**
+         * 未处于触发状态的每一帧, 播放期间不调用
+         */
+        void onIdle();
+
+        /**
+         * 一段录音已经发布, 等待播放
+         */
+        void onClip(Clip clip);
+
+        /**
+         * 等待播放的录音过多, 丢弃了一段录音
+         */
+        void onDropped(long start, long end);
+
+        /**
+         * 进入低功耗休眠, 直到下一次onTriggered或onIdle
+         */
+        void onSleep();
+
+    }
+
+    // 一帧的采样数
+    private final int frameSize;
+    // 回调
+    private final Listener listener;
+    // 低功耗休眠
+    private final LowPowerGate lowPowerGate;
+    // 休眠时一次读取的帧数
+    private final int sleepReadFrames;
+    // 休眠时继续的阶段: 噪声统计与setSleepStages设置的阶段
+    private FramePipeline sleepPipeline;
+    // 回声消除
+    private final EchoReference echoReference;
+    private final EchoCanceller echoCanceller;
+    // 每分钟与每小时的噪声统计
+    private final NoiseStatistics noiseStatistics;
+    // 电平
+    private final LevelMeter levelMeter = new LevelMeter();
+    // 自适应阈值
+    private final AdaptiveThreshold adaptiveThreshold;
+    // 阈值触发
+    private final ThresholdTrigger trigger;
+    // 缓存已满时使用的临时buffer
+    private final short[] samples;
+    // 缓存录音, 按最大录音长度与pre-roll一次性分配
+    private final FrameRingBuffer recorded;
+    // 等待播放的录音
+    private final ClipQueue clips = new ClipQueue(PLAYBACK_QUEUE_SIZE);
+    // 播放处理: 循环、变速、增益与限制器
+    private final PlaybackChain playbackChain;
+    // 录音组装
+    private final ClipRecorder clipRecorder;
+    // 处理流程
+    private final FramePipeline pipeline;
+    // 录音缓存中的帧数
+    private final LatencyHistogram ringDepth;
+    // 等待播放的录音数量
+    private final LatencyHistogram queueDepth;
+    // 录音缓存已满而没有录下的帧数
+    private final Counter ringFull;
+    // 低功耗休眠与唤醒的次数
+    private final Counter sleeps;
+    private final Counter wakeups;
+
+    /**
+     * @param config 音频格式, 只使用采样率
+     * @param frameSize 一帧的采样数, 即录音buffer的帧数
+     * @param metrics 指标
+     * @param listener 回调
+     * @param beforeTrigger 在阈值触发之前的阶段, 例如频段能量; 可以为null
+     * @param afterTrigger 在阈值触发之后的阶段, 例如波形与文件写入
+     * 回声消除默认关闭, 见{@link #setEchoCancelling(boolean)}; 低功耗模式默认关闭, 见{@link #setLowPower(boolean)}
+     */
+    public CapturePipeline(AudioConfig config, int frameSize, Metrics metrics, Listener listener,
+                           FrameProcessor beforeTrigger, FrameProcessor... afterTrigger) {
+        this.frameSize = frameSize;
+        this.listener = listener;
+        int sampleRate = config.getSampleRate();
+        int preRollFrames = (int) Math.ceil((double) sampleRate * RECORDED_PRE_ROLL_MS / 1000 / frameSize);
+        samples = new short[frameSize];
+        ringDepth = metrics.histogram("ring" + Metrics.DEPTH_SUFFIX);
+        queueDepth = metrics.histogram("playback.queue" + Metrics.DEPTH_SUFFIX);
+        ringFull = metrics.counter("ring.full");
+        sleeps = metrics.counter("power.sleep");
+        wakeups = metrics.counter("power.wake");
+        lowPowerGate = new LowPowerGate(config.framesOf(LOW_POWER_SLEEP_MS), LOW_POWER_MARGIN_DB);
+        sleepReadFrames = (int) Math.max(1, config.framesOf(LOW_POWER_READ_MS) / frameSize);
+        echoReference = new EchoReference((int) config.framesOf(ECHO_REFERENCE_MS));
+        echoCanceller = new EchoCanceller(echoReference, sampleRate, frameSize);
+        echoCanceller.setEnabled(false);
+        noiseStatistics = new NoiseStatistics(sampleRate);
+        playbackChain = new PlaybackChain(sampleRate, PLAYBACK_LIMITER_LOOKAHEAD_MS, PLAYBACK_LIMITER_RELEASE_MS);
+        playbackChain.getLimiter().setCeilingDbfs(PLAYBACK_CEILING_DBFS);
+        recorded = new FrameRingBuffer(frameSize, RECORDED_MAX_SIZE + preRollFrames + 1);
+        clipRecorder = new ClipRecorder(recorded, clips, preRollFrames, RECORDED_MAX_SIZE, new ClipRecorder.Callback() {
+            @Override
+            public void onClip(Clip clip) {
+                // 播放结束之前不再触发, 回声消除开启时由onData决定
+                if (!echoCanceller.isEnabled()) trigger.setMuted(true);
+                queueDepth.record(clips.size());
+                listener.onClip(clip);
+            }
+
+            @Override
+            public void onDropped(long start, long end) {
+                listener.onDropped(start, end);
+            }
+        });
+
+        // 阈值触发
+        adaptiveThreshold = new AdaptiveThreshold(levelMeter, sampleRate, frameSize,
+                NOISE_FLOOR_WINDOW_MS, NOISE_FLOOR_PERCENTILE);
+        long hold = config.framesOf(RECORDED_HOLD_MS);
+        trigger = new ThresholdTrigger(levelMeter, DEFAULT_THRESHOLD, hold, new ThresholdTrigger.Listener() {
+            @Override
+            public void onTriggered(short[] frame, int offset, int length) {
+                listener.onTriggered();
+                clipRecorder.onTriggered(frame, offset, length);
+            }
+
+            @Override
+            public void onIdle(short[] frame, int offset, int length) {
+                listener.onIdle();
+                // 如果存在录音数据则暂停录音、开始播放
+                clipRecorder.onIdle(frame, offset, length);
+            }
+        });
+        trigger.setCooldown(config.framesOf(PLAYBACK_COOLDOWN_MS));
+        trigger.setAdaptive(adaptiveThreshold);
+        trigger.setMode(ThresholdTrigger.Mode.ADAPTIVE);
+
+        List<FrameProcessor> stages = new ArrayList<>();
+        stages.add(echoCanceller);
+        stages.add(noiseStatistics);
+        stages.add(levelMeter);
+        stages.add(adaptiveThreshold);
+        if (beforeTrigger != null) stages.add(beforeTrigger);
+        stages.add(trigger);
+        stages.addAll(Arrays.asList(afterTrigger));
+        pipeline = new FramePipeline(stages.toArray(new FrameProcessor[0]));
+        sleepPipeline = new FramePipeline(noiseStatistics);
+    }
+
+    /**
+     * 处理一个录音buffer: 按帧直接复制到录音缓存中再处理, 缓存已满时使用临时buffer
+     * @param data 单声道16bit录音数据, position到limit之间的采样有效, 休眠时的批量读取包含多帧
+     */
+    public void onData(ShortBuffer data) {
+        do {
+            onFrame(data);
+        } while (data.hasRemaining());
+    }
+
+    private void onFrame(ShortBuffer data) {
+        int offset = clipRecorder.claim();
+        short[] frame = recorded.array();
+        if (offset < 0) {
+            frame = samples;
+            offset = 0;
+            ringFull.increment();
+        }
+        ringDepth.record(recorded.getHeldSize());
+        int count = Math.min(data.remaining(), frameSize);
+        data.get(frame, offset, count);
+        clipRecorder.commit(count);
+        // 与触发相同: 静音与冷却期间录到的主要是播放的声音, 不计入噪声统计; 休眠时不会处于冷却期间
+        noiseStatistics.setExcluded(trigger.isCoolingDown());
+        if (lowPowerGate.isSleeping()) {
+            if (!lowPowerGate.detect(frame, offset, count, trigger.getOnsetPeak())) {
+                // 背景噪声继续跟随, 唤醒之后的阈值不会过时
+                adaptiveThreshold.update(LevelMeter.dbfs(lowPowerGate.getPeak()));
+                // 输出流保持运行时参考信号继续写入, 按录音的节奏丢弃, 唤醒之后两端仍然对齐
+                echoReference.skip(count);
+                sleepPipeline.process(frame, offset, count);
+                return;
+            }
+            wakeups.increment();
+        }
+        if (echoCanceller.isEnabled()) {
+            // 播放期间只在回声消除收敛之后触发, 收敛之前与关闭回声消除时相同
+            trigger.setMuted(!clips.isEmpty() && !echoCanceller.isConverged());
+        }
+        pipeline.process(frame, offset, count);
+        boolean busy = trigger.isTriggered() || trigger.isCoolingDown() || clipRecorder.isRecording() || !clips.isEmpty();
+        if (lowPowerGate.update(busy, levelMeter.getPeak(), count, trigger.getOnsetPeak())) {
+            sleeps.increment();
+            listener.onSleep();
+        }
+    }
+
+    /**
+     * 录音结束时在录音线程中调用, 发布未完成的噪声统计
+     */
+    public void onEnd() {
+        noiseStatistics.flush();
+    }
+
+    /**
+     * 播放结束之后调用, 开始冷却, 期间继续录音但不触发
+     */
+    public void onPlaybackEnd() {
+        trigger.setMuted(false);
+    }
+
+    /**
+     * 两次运行之间调用, 录音与播放线程都必须已经停止: 丢弃未播放的录音与回声参考, 取消静音
+     */
+    public void reset() {
+        clips.clear();
+        recorded.clear();
+        echoReference.skip(echoReference.size());
+        trigger.setMuted(false);
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return 下一次读取的采样数(单声道), 休眠时为多帧以减少录音线程唤醒的次数
+     */
+    public int getReadSize() {
+        return lowPowerGate.isSleeping() ? sleepReadFrames * frameSize : frameSize;
+    }
+
+    /**
+     * @return 一次读取的最大采样数, 用于分配读取的buffer
+     */
+    public int getMaxReadSize() {
+        return sleepReadFrames * frameSize;
+    }
+
+    /**
+     * @param enabled 是否开启低功耗模式, 关闭时立即恢复完整的流程
+     */
+    public void setLowPower(boolean enabled) {
+        lowPowerGate.setEnabled(enabled);
+    }
+
+    public boolean isLowPower() {
+        return lowPowerGate.isEnabled();
+    }
+
+    public LowPowerGate getLowPowerGate() {
+        return lowPowerGate;
+    }
+
+    /**
+     * 设置休眠时仍然需要处理的阶段, 例如完整录音的文件写入; 在开始录音之前调用
+     * @param stages 这些阶段通常也在触发之后的阶段中, 休眠与唤醒时各处理一次, 不会重复
+     */
+    public void setSleepStages(FrameProcessor... stages) {
+        FrameProcessor[] all = new FrameProcessor[stages.length + 1];
+        all[0] = noiseStatistics;
+        System.arraycopy(stages, 0, all, 1, stages.length);
+        sleepPipeline = new FramePipeline(all);
+    }
+
+    /**
+     * @param enabled 是否开启回声消除, 开启时播放端需要写入{@link #getEchoReference()}
+     */
+    public void setEchoCancelling(boolean enabled) {
+        echoCanceller.setEnabled(enabled);
+        if (!enabled) {
+            trigger.setMuted(!clips.isEmpty());
+        }
+    }
+
+    public boolean isEchoCancelling() {
+        return echoCanceller.isEnabled();
+    }
+
+    /**
+     * @return 回声消除的参考信号, 播放端写入送往输出设备的单声道16bit采样
+     */
+    public EchoReference getEchoReference() {
+        return echoReference;
+    }
+
+    public EchoCanceller getEchoCanceller() {
+        return echoCanceller;
+    }
+
+    /**
+     * @return 噪声统计, 录音开始之前通过{@link NoiseStatistics#reset(long)}设置时间
+     */
+    public NoiseStatistics getNoiseStatistics() {
+        return noiseStatistics;
+    }
+
+    public LevelMeter getLevelMeter() {
+        return levelMeter;
+    }
+
+    public AdaptiveThreshold getAdaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+
+    public ThresholdTrigger getTrigger() {
+        return trigger;
+    }
+
+    public FrameRingBuffer getRecorded() {
+        return recorded;
+    }
+
+    public ClipQueue getClips() {
+        return clips;
+    }
+
+    public ClipRecorder getClipRecorder() {
+        return clipRecorder;
+    }
+
+    public PlaybackChain getPlaybackChain() {
+        return playbackChain;
+    }
+
+    public FramePipeline getPipeline() {
+        return pipeline;
+    }
+
+}
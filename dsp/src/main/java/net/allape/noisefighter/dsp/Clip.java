@@ -0,0 +1,29 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 一段录音在{@link FrameRingBuffer}中的位置, 由{@link ClipQueue}预分配并复用
+ */
+public class Clip {
+
+    // 第一帧的序号
+    public long start;
+    // 最后一帧之后的序号
+    public long end;
+    // 触发时间, 单位: ms
+    public long timestamp;
+    // 加入播放队列的时间, 单位: {@link System#nanoTime()}
+    public long published;
+
+    /**
+     * @return 帧数
+     */
+    public int frames() {
+        return (int) (end - start);
+    }
+
+    public void set(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+}
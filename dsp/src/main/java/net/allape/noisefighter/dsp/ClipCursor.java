@@ -0,0 +1,117 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 按采样顺序读取{@link FrameRingBuffer}中的一段录音或者一段{@link Sound}, 可以循环多次
+ *
+ * 只保存读取位置, 不复制录音; 读取期间这段录音必须一直受保护(未release).
+ * Sound整段视为一帧, 直接从直接内存中读取.
+ */
+public class ClipCursor {
+
+    private FrameRingBuffer ring;
+    // 不为null时读取这段声音, 而不是ring
+    private Sound sound;
+    // 录音范围
+    private long start;
+    private long end;
+    // 剩余的循环次数, 包括当前这一次
+    private int loops;
+    // 当前帧
+    private long sequence;
+    // 当前帧在ring中的位置
+    private int offset;
+    // 当前帧剩余的采样数
+    private int remaining;
+
+    /**
+     * @param ring 录音缓存
+     * @param start 第一帧的序号
+     * @param end 最后一帧之后的序号
+     * @param loops 播放次数, 至少1次
+     */
+    public void start(FrameRingBuffer ring, long start, long end, int loops) {
+        this.ring = ring;
+        this.sound = null;
+        this.start = start;
+        this.end = end;
+        this.loops = end > start ? Math.max(1, loops) : 0;
+        seek(start);
+    }
+
+    /**
+     * @param sound 声音
+     * @param loops 播放次数, 至少1次
+     */
+    public void start(Sound sound, int loops) {
+        this.ring = null;
+        this.sound = sound;
+        this.start = 0;
+        this.end = 1;
+        this.loops = sound.getLength() > 0 ? Math.max(1, loops) : 0;
+        seek(0);
+    }
+
+    /**
+     * @return 是否还有采样
+     */
+    public boolean hasNext() {
+        if (remaining > 0) return true;
+        advance();
+        return remaining > 0;
+    }
+
+    /**
+     * 读取下一个采样, 调用前需要确认{@link #hasNext()}
+     */
+    public short next() {
+        remaining--;
+        return sound != null ? sound.get(offset++) : ring.array()[offset++];
+    }
+
+    /**
+     * 批量读取
+     * @return 读取的采样数, 没有采样时为0
+     */
+    public int read(short[] dst, int dstOffset, int length) {
+        int total = 0;
+        while (total < length && hasNext()) {
+            int count = Math.min(remaining, length - total);
+            if (sound != null) {
+                sound.get(offset, dst, dstOffset + total, count);
+            } else {
+                System.arraycopy(ring.array(), offset, dst, dstOffset + total, count);
+            }
+            offset += count;
+            remaining -= count;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 当前帧读完之后移动到下一个非空帧, 到达结尾时进入下一次循环
+     */
+    private void advance() {
+        while (remaining == 0 && loops > 0) {
+            if (sequence + 1 < end) {
+                seek(sequence + 1);
+            } else if (--loops > 0) {
+                seek(start);
+            }
+        }
+    }
+
+    private void seek(long sequence) {
+        this.sequence = sequence;
+        if (sequence < end && sound != null) {
+            this.offset = 0;
+            this.remaining = sound.getLength();
+        } else if (sequence < end) {
+            this.offset = ring.offset(sequence);
+            this.remaining = ring.length(sequence);
+        } else {
+            this.remaining = 0;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的单生产者/单消费者{@link Clip}队列
+ *
+ * 所有Clip对象预先分配, 生产者通过{@link #claim()}取得空闲对象、填写后{@link #publish()};
+ * 消费者通过{@link #peek()}读取、处理完成后{@link #remove()}.
+ */
+public class ClipQueue {
+
+    private final Clip[] clips;
+    private final int mask;
+
+    // 下一个发布的位置, 仅生产者修改
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个读取的位置, 仅消费者修改
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 容量, 会向上取整为2的幂
+     */
+    public ClipQueue(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        clips = new Clip[size];
+        for (int i = 0; i < size; i++) {
+            clips[i] = new Clip();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * 生产者: 取得下一个可以填写的Clip
+     * @return 队列已满时返回null
+     */
+    public Clip claim() {
+        long t = tail.get();
+        if (t - head.get() >= clips.length) {
+            return null;
+        }
+        return clips[(int) (t & mask)];
+    }
+
+    /**
+     * 生产者: 发布{@link #claim()}取得的Clip
+     */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * 消费者: 读取队首
+     * @return 队列为空时返回null
+     */
+    public Clip peek() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        return clips[(int) (h & mask)];
+    }
+
+    /**
+     * 消费者: 移除队首, 之后不应再使用{@link #peek()}返回的对象
+     */
+    public void remove() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * 消费者: 丢弃所有已发布的Clip
+     */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return clips.length;
+    }
+
+}
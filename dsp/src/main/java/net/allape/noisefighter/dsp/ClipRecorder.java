@@ -0,0 +1,169 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 将触发的帧组装成{@link Clip}, 包括触发之前的一段历史(pre-roll)
+ *
+ * 每一帧都直接写入{@link FrameRingBuffer}: 先{@link #claim()}取得写入位置, 写完之后{@link #commit(int)},
+ * 再交给包含{@link ThresholdTrigger}的处理流程. 空闲时缓冲中的帧作为历史循环覆盖, 不需要额外复制;
+ * 触发时Clip只记录序号范围, 同样不复制数据. 所有方法都在录音线程中调用.
+ */
+public class ClipRecorder implements ThresholdTrigger.Listener {
+
+    /**
+     * 录音回调, 在录音线程中调用
+     */
+    public interface Callback {
+
+        /**
+         * 一段录音已经发布到{@link ClipQueue}
+         */
+        void onClip(Clip clip);
+
+        /**
+         * 等待播放的录音过多, 丢弃了一段录音
+         */
+        void onDropped(long start, long end);
+
+    }
+
+    private final FrameRingBuffer ring;
+    private final ClipQueue clips;
+    // 触发之前需要保留的帧数
+    private final int preRollFrames;
+    // 每段录音的最大帧数(不包括pre-roll), 超出时直接发布
+    private final int maxFrames;
+    private final Callback callback;
+    // 时钟, 单位: ms
+    private LongSupplier clock = System::currentTimeMillis;
+
+    // 当前帧是否取得了槽位
+    private boolean claimed = false;
+    // 当前帧是否写入了缓冲
+    private boolean committed = false;
+    // 连续写入的第一帧, 缓冲写满时会跳过帧, pre-roll不能跨过这个位置
+    private long contiguousFrom = 0;
+    // 上一段录音的结束序号
+    private long lastEnd = 0;
+    // 当前录音的第一帧, 没有在录音时为-1
+    private long clipStart = -1;
+    // 当前录音触发的第一帧
+    private long triggerStart = -1;
+    // 当前录音的触发时间
+    private long triggerTime;
+
+    public ClipRecorder(FrameRingBuffer ring, ClipQueue clips, int preRollFrames, int maxFrames, Callback callback) {
+        if (preRollFrames < 0 || maxFrames <= 0 || preRollFrames + maxFrames >= ring.getSlots()) {
+            throw new IllegalArgumentException("ring buffer too small for pre-roll " + preRollFrames
+                    + " and clip " + maxFrames + ": " + ring.getSlots());
+        }
+        this.ring = ring;
+        this.clips = clips;
+        this.preRollFrames = preRollFrames;
+        this.maxFrames = maxFrames;
+        this.callback = callback;
+    }
+
+    /**
+     * 取得下一帧的写入位置
+     * @return 在{@link FrameRingBuffer#array()}中的位置; 缓冲中的帧都需要保留时返回-1, 此时该帧不会被录下
+     */
+    public int claim() {
+        int position = ring.claim();
+        claimed = position >= 0;
+        return position;
+    }
+
+    /**
+     * 发布已写入的帧
+     * @param length 采样数
+     */
+    public void commit(int length) {
+        if (!claimed) {
+            committed = false;
+            // 跳过了一帧, 之前的帧不再连续
+            if (clipStart >= 0) {
+                publish(ring.getWriteSequence());
+            }
+            contiguousFrom = ring.getWriteSequence();
+            return;
+        }
+        claimed = false;
+        committed = true;
+        ring.commit(length);
+        if (clipStart < 0) {
+            // 空闲时只保留pre-roll
+            ring.retain(ring.getWriteSequence() - preRollFrames);
+        }
+    }
+
+    @Override
+    public void onTriggered(short[] frame, int offset, int length) {
+        long end = ring.getWriteSequence();
+        if (clipStart < 0) {
+            // 当前帧未写入缓冲时不能开始录音
+            if (end <= contiguousFrom) {
+                return;
+            }
+            triggerStart = end - 1;
+            triggerTime = clock.getAsLong();
+            clipStart = Math.max(Math.max(triggerStart - preRollFrames, contiguousFrom),
+                    Math.max(lastEnd, ring.getOldestSequence()));
+            ring.retain(clipStart);
+        }
+        if (end - triggerStart >= maxFrames) {
+            publish(end);
+        }
+    }
+
+    @Override
+    public void onIdle(short[] frame, int offset, int length) {
+        if (clipStart >= 0) {
+            // 当前帧不属于这段录音
+            long end = ring.getWriteSequence();
+            publish(committed ? end - 1 : end);
+        }
+    }
+
+    /**
+     * 发布当前录音
+     * @param end 最后一帧之后的序号
+     */
+    private void publish(long end) {
+        Clip clip = clips.claim();
+        if (clip == null) {
+            callback.onDropped(clipStart, end);
+        } else {
+            clip.set(clipStart, end);
+            clip.timestamp = triggerTime;
+            clip.published = System.nanoTime();
+            ring.hold(end);
+            clips.publish();
+            callback.onClip(clip);
+        }
+        lastEnd = end;
+        clipStart = -1;
+        triggerStart = -1;
+        ring.retain(end);
+    }
+
+    /**
+     * @return 是否正在录音
+     */
+    public boolean isRecording() {
+        return clipStart >= 0;
+    }
+
+    /**
+     * @param clock 用于{@link Clip#timestamp}的时钟, 单位: ms
+     */
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public int getPreRollFrames() {
+        return preRollFrames;
+    }
+
+}
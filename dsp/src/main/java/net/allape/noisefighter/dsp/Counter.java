@@ -0,0 +1,38 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 计数器, 由{@link Metrics}创建
+ *
+ * 只允许一个线程写入, 写入使用lazySet, 不需要CAS; 任意线程都可以读取.
+ */
+public final class Counter {
+
+    private static final AtomicLongFieldUpdater<Counter> VALUE =
+            AtomicLongFieldUpdater.newUpdater(Counter.class, "value");
+
+    private final String name;
+    private volatile long value = 0;
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        VALUE.lazySet(this, value + 1);
+    }
+
+    public void add(long delta) {
+        VALUE.lazySet(this, value + delta);
+    }
+
+    public long get() {
+        return value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,461 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 自适应回声消除: 从录音中减去麦克风听到的自己的播放, 播放期间电平与触发可以继续工作
+ *
+ * 参考信号来自{@link EchoReference}, 按录音的节奏读取. 两端之间的整体延迟由参考信号与录音的包络(每毫秒的绝对值之和)
+ * 互相关估计, 剩余的回声路径由定长的NLMS滤波器学习: 每BLOCK个采样用同一组系数滤波, 再以块内的平均梯度更新一次.
+ * 块内录音与估计的回声相关性低时视为双讲(近端有声音), 不更新系数; 但如果录音与主要路径上的参考信号相关,
+ * 是滤波器还没有学到的回声(例如播放的内容换了频率), 整块按残余回声处理. 残差大于输入时输出原始录音并在持续发散时重置.
+ * 线性消除之后按回声损耗增益(ERLE)估计残余的回声, 残余占主要部分的块整体衰减(非线性处理), 但不低于没有播放时的背景噪声,
+ * 否则后面的自适应阈值会把衰减之后的安静当作背景.
+ * 没有参考信号时直接跳过, 只读取参考信号与更新包络. 所有缓冲在构造时分配, 只能在录音线程中使用.
+ */
+public class EchoCanceller implements FrameProcessor {
+
+    // 默认的滤波器长度, 覆盖扬声器到麦克风的直达声与早期反射
+    public static final int DEFAULT_FILTER_MS = 10;
+    // 默认可以补偿的最大整体延迟
+    public static final int DEFAULT_MAX_DELAY_MS = 300;
+    // 滤波器更新的间隔, 单位: 采样
+    public static final int BLOCK = 32;
+
+    // NLMS步长, 作用于块内的平均梯度; 窄带信号(例如正弦)的特征值集中, 用梯度之和时块越长越容易发散
+    private static final float STEP = 1f;
+    // 正则化, 每个系数对应的参考信号能量, 约为-60dBFS
+    private static final float REGULARIZATION = 1000;
+    // 录音与估计回声的相关系数低于这个值时视为双讲, 与主要路径上的参考信号的相关系数高于这个值时视为回声
+    private static final double DOUBLE_TALK_CORRELATION = 0.8;
+    // ERLE高于这个值时认为已经收敛, 之后只在重新学习或重置时取消, 单位: dB
+    private static final double CONVERGED_ERLE_DB = 10;
+    // ERLE的平滑时长
+    private static final int ERLE_SMOOTHING_MS = 200;
+    // 背景噪声上升与下降的平滑时长: 跟踪最小值, 没有播放时的近端声音不会被当作背景
+    private static final int NOISE_RISE_MS = 5000;
+    private static final int NOISE_FALL_MS = 20;
+    // 持续不更新系数的时长, 超过时认为回声路径已经改变, 重新学习
+    private static final int RELEARN_MS = 2000;
+    // 残差持续大于输入的时长, 超过时重置滤波器
+    private static final int RESET_MS = 500;
+    // 非线性处理: 残余回声的放大倍数与最小增益
+    private static final double NLP_OVERDRIVE = 2;
+    // 非线性处理使用的ERLE上限, 线性部分只学到窄带回声时(例如播放正弦)瞬态仍然会漏过, 单位: dB
+    private static final double NLP_MAX_ERLE_DB = 10;
+    private static final double NLP_MIN_GAIN = 0.05;
+    // 延迟估计: 互相关的窗口、估计的间隔与需要的相关系数
+    private static final int DELAY_WINDOW_MS = 500;
+    private static final int DELAY_INTERVAL_MS = 500;
+    private static final double DELAY_CORRELATION = 0.6;
+
+    private final EchoReference reference;
+    // 滤波器长度
+    private final int taps;
+    // 最大整体延迟, 单位: 采样
+    private final int maxDelay;
+    // 一次读取的参考信号
+    private final short[] referenceFrame;
+
+    // 参考信号的历史, 每个采样同时写在i与i + size, 任意长度不超过size的窗口都是连续的
+    private final float[] history;
+    private final int historyMask;
+    private int historyIndex = 0;
+    // 已读取的参考信号采样数, 与最后一个非零采样的序号
+    private long time = 0;
+    private long lastActive = Long.MIN_VALUE / 2;
+
+    // 系数, weights[j]对应窗口中的第j个采样(最旧的在前)
+    private final float[] weights;
+    private final float[] gradient;
+    // 当前块的录音、估计的回声与残差
+    private final float[] near = new float[BLOCK];
+    private final float[] echo = new float[BLOCK];
+    private final float[] error = new float[BLOCK];
+    // 整体延迟, 单位: 采样
+    private int delay = 0;
+    // 绝对值最大的系数, 即主要路径在窗口中的位置
+    private int peak;
+
+    // 平滑之后的录音与残差能量
+    private double nearEnergy = 0;
+    private double errorEnergy = 0;
+    private final double erleSmoothing;
+    // 没有参考信号时每块的平均能量, 即背景噪声
+    private double noiseEnergy = 0;
+    private final double noiseRise;
+    private final double noiseFall;
+    private volatile boolean converged = false;
+    private volatile double erleDb = 0;
+    // 没有更新系数与持续发散的块数
+    private int frozenBlocks = 0;
+    private int divergedBlocks = 0;
+    private final int relearnBlocks;
+    private final int resetBlocks;
+    // 非线性处理的当前增益
+    private double gain = 1;
+
+    // 包络: 每个bin的参考信号与录音的绝对值之和
+    private final int bin;
+    private final float[] referenceEnvelope;
+    private final float[] nearEnvelope;
+    private final int envelopeMask;
+    private int envelopeIndex = 0;
+    private float referenceSum = 0;
+    private float nearSum = 0;
+    private int binSamples = 0;
+    private int binsSinceEstimate = 0;
+    private final int windowBins;
+    private final int intervalBins;
+    private final int maxDelayBins;
+
+    private volatile boolean enabled = true;
+
+    public EchoCanceller(EchoReference reference, int sampleRate, int frameSize) {
+        this(reference, sampleRate, frameSize, DEFAULT_FILTER_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param reference 参考信号
+     * @param sampleRate 采样率
+     * @param frameSize 一次读取的最大采样数, 更长的帧分段处理
+     * @param filterMs 滤波器长度, 至少BLOCK个采样
+     * @param maxDelayMs 可以补偿的最大整体延迟
+     */
+    public EchoCanceller(EchoReference reference, int sampleRate, int frameSize, int filterMs, int maxDelayMs) {
+        this.reference = reference;
+        // 向上取整为4的倍数, 见processBlock
+        this.taps = (Math.max(BLOCK, (int) ((long) sampleRate * filterMs / 1000)) + 3) & ~3;
+        this.maxDelay = (int) ((long) sampleRate * maxDelayMs / 1000);
+        if (frameSize <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("illegal frame size or delay: " + frameSize + ", " + maxDelayMs);
+        }
+        this.referenceFrame = new short[frameSize];
+        int size = Integer.highestOneBit(maxDelay + taps + BLOCK) << 1;
+        this.history = new float[size * 2];
+        this.historyMask = size - 1;
+        this.weights = new float[taps];
+        this.gradient = new float[taps];
+        this.peak = defaultPeak();
+
+        double blocksPerSecond = (double) sampleRate / BLOCK;
+        this.erleSmoothing = Math.exp(-1 / (blocksPerSecond * ERLE_SMOOTHING_MS / 1000));
+        this.noiseRise = Math.exp(-1 / (blocksPerSecond * NOISE_RISE_MS / 1000));
+        this.noiseFall = Math.exp(-1 / (blocksPerSecond * NOISE_FALL_MS / 1000));
+        this.relearnBlocks = (int) (blocksPerSecond * RELEARN_MS / 1000);
+        this.resetBlocks = (int) (blocksPerSecond * RESET_MS / 1000);
+
+        this.bin = Math.max(1, sampleRate / 1000);
+        this.windowBins = DELAY_WINDOW_MS * sampleRate / 1000 / bin;
+        this.intervalBins = DELAY_INTERVAL_MS * sampleRate / 1000 / bin;
+        this.maxDelayBins = maxDelay / bin;
+        int envelopeSize = Integer.highestOneBit(windowBins + maxDelayBins) << 1;
+        this.referenceEnvelope = new float[envelopeSize];
+        this.nearEnvelope = new float[envelopeSize];
+        this.envelopeMask = envelopeSize - 1;
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        if (!enabled) {
+            reference.skip(length);
+            return;
+        }
+        while (length > 0) {
+            int count = Math.min(length, referenceFrame.length);
+            reference.read(referenceFrame, 0, count);
+            for (int i = 0; i < count; i += BLOCK) {
+                processBlock(frame, offset + i, i, Math.min(BLOCK, count - i));
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void processBlock(short[] frame, int offset, int referenceOffset, int n) {
+        float[] history = this.history;
+        int size = historyMask + 1;
+        for (int i = 0; i < n; i++) {
+            short x = referenceFrame[referenceOffset + i];
+            history[historyIndex] = x;
+            history[historyIndex + size] = x;
+            historyIndex = (historyIndex + 1) & historyMask;
+            if (x != 0) lastActive = time;
+            time++;
+            short d = frame[offset + i];
+            near[i] = d;
+            envelope(x, d);
+        }
+
+        // 延迟之后的窗口里没有参考信号
+        if (time - lastActive > delay + taps + n) {
+            double energy = 0;
+            for (int i = 0; i < n; i++) {
+                energy += near[i] * near[i];
+            }
+            energy = energy * BLOCK / n;
+            double smoothing = energy > noiseEnergy ? noiseRise : noiseFall;
+            noiseEnergy = smoothing * noiseEnergy + (1 - smoothing) * energy;
+            if (gain != 1) {
+                applyGain(frame, offset, n, near, 1);
+            }
+            return;
+        }
+
+        // 第i个采样的窗口为history[start + i, start + i + taps)
+        int start = (historyIndex - n - delay - taps + 1) & historyMask;
+        // 四路独立累加, 缩短浮点加法的依赖链
+        float[] weights = this.weights;
+        float[] echo = this.echo;
+        for (int i = 0; i < n; i++) {
+            int base = start + i;
+            float y0 = 0, y1 = 0, y2 = 0, y3 = 0;
+            for (int j = 0; j < taps; j += 4) {
+                y0 += weights[j] * history[base + j];
+                y1 += weights[j + 1] * history[base + j + 1];
+                y2 += weights[j + 2] * history[base + j + 2];
+                y3 += weights[j + 3] * history[base + j + 3];
+            }
+            echo[i] = (y0 + y1) + (y2 + y3);
+        }
+        double sumNear = 0, sumError = 0, sumEcho = 0, sumCross = 0, sumDirect = 0, sumDirectCross = 0;
+        for (int i = 0; i < n; i++) {
+            int base = start + i;
+            float y = echo[i];
+            float d = near[i];
+            float e = d - y;
+            float x = history[base + peak];
+            error[i] = e;
+            sumNear += d * d;
+            sumError += e * e;
+            sumEcho += y * y;
+            sumCross += d * y;
+            sumDirect += x * x;
+            sumDirectCross += d * x;
+        }
+
+        if (sumError > sumNear && sumNear > 0) {
+            // 发散: 输出原始录音
+            if (++divergedBlocks > resetBlocks) {
+                reset();
+            }
+            applyGain(frame, offset, n, near, 1);
+            return;
+        }
+        divergedBlocks = 0;
+
+        // 录音可以由主要路径上的参考信号解释, 符号取决于扬声器与麦克风的相位
+        boolean direct = Math.abs(sumDirectCross) >= DOUBLE_TALK_CORRELATION * Math.sqrt(sumNear * sumDirect);
+        boolean doubleTalk = converged && sumCross < DOUBLE_TALK_CORRELATION * Math.sqrt(sumNear * sumEcho);
+        if (doubleTalk) {
+            if (++frozenBlocks > relearnBlocks) {
+                // 回声路径可能已经改变
+                converged = false;
+                frozenBlocks = 0;
+            }
+        } else {
+            frozenBlocks = 0;
+            adapt(start, n);
+            nearEnergy = erleSmoothing * nearEnergy + (1 - erleSmoothing) * sumNear;
+            errorEnergy = erleSmoothing * errorEnergy + (1 - erleSmoothing) * sumError;
+            double erle = errorEnergy > 0 ? 10 * Math.log10(nearEnergy / errorEnergy) : 0;
+            erleDb = erle;
+            if (erle >= CONVERGED_ERLE_DB) {
+                converged = true;
+            }
+        }
+
+        // 非线性处理: 按ERLE估计残余的回声
+        double erleLinear = Math.pow(10, Math.max(0, Math.min(NLP_MAX_ERLE_DB, erleDb)) / 10);
+        double residual = direct ? sumError : sumEcho / erleLinear;
+        double target = 1;
+        if (sumError > 0) {
+            double floor = Math.sqrt(noiseEnergy * n / BLOCK / sumError);
+            target = Math.max(Math.max(NLP_MIN_GAIN, floor), 1 - NLP_OVERDRIVE * residual / sumError);
+        }
+        applyGain(frame, offset, n, error, Math.min(1, target));
+    }
+
+    /**
+     * NLMS: 以块内的平均梯度更新系数, 按最后一个窗口的能量归一化
+     */
+    private void adapt(int start, int n) {
+        float[] history = this.history;
+        float[] gradient = this.gradient;
+        int last = start + n - 1;
+        float power = REGULARIZATION * taps;
+        for (int j = 0; j < taps; j++) {
+            float x = history[last + j];
+            power += x * x;
+        }
+        for (int j = 0; j < taps; j++) {
+            gradient[j] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            float e = error[i];
+            int base = start + i;
+            for (int j = 0; j < taps; j++) {
+                gradient[j] += e * history[base + j];
+            }
+        }
+        float mu = STEP / power / n;
+        float[] weights = this.weights;
+        float max = 0;
+        for (int j = 0; j < taps; j++) {
+            float w = weights[j] + mu * gradient[j];
+            weights[j] = w;
+            if (Math.abs(w) > max) {
+                max = Math.abs(w);
+                peak = j;
+            }
+        }
+    }
+
+    /**
+     * @return 还没有学习时主要路径的位置: 延迟估计留出的四分之一滤波器长度之后
+     */
+    private int defaultPeak() {
+        return taps - 1 - taps / 4;
+    }
+
+    /**
+     * 输出src乘以增益: 衰减立即生效, 否则回声的起始会漏过; 恢复时从当前增益线性过渡到target
+     */
+    private void applyGain(short[] frame, int offset, int n, float[] src, double target) {
+        if (target < gain) gain = target;
+        double step = (target - gain) / n;
+        for (int i = 0; i < n; i++) {
+            gain += step;
+            long value = Math.round(src[i] * gain);
+            frame[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+        gain = target;
+    }
+
+    /**
+     * 累加包络, 每个bin结束时检查是否需要估计延迟
+     */
+    private void envelope(short reference, short near) {
+        referenceSum += Math.abs(reference);
+        nearSum += Math.abs(near);
+        if (++binSamples < bin) return;
+        referenceEnvelope[envelopeIndex] = referenceSum;
+        nearEnvelope[envelopeIndex] = nearSum;
+        envelopeIndex = (envelopeIndex + 1) & envelopeMask;
+        referenceSum = 0;
+        nearSum = 0;
+        binSamples = 0;
+        if (++binsSinceEstimate >= intervalBins && time - lastActive < (long) windowBins * bin) {
+            binsSinceEstimate = 0;
+            estimateDelay();
+        }
+    }
+
+    /**
+     * 在0 ~ maxDelay之间寻找包络互相关(去均值、归一化)最大的延迟, 足够可信且与当前延迟相差较多时切换并重新学习
+     */
+    private void estimateDelay() {
+        int w = windowBins;
+        int newest = envelopeIndex - 1;
+        double sumNear = 0, sumNear2 = 0;
+        for (int i = 0; i < w; i++) {
+            double m = nearEnvelope[(newest - i) & envelopeMask];
+            sumNear += m;
+            sumNear2 += m * m;
+        }
+        double varNear = sumNear2 - sumNear * sumNear / w;
+        if (varNear <= 0) return;
+
+        double sumRef = 0, sumRef2 = 0;
+        for (int i = 0; i < w; i++) {
+            double r = referenceEnvelope[(newest - i) & envelopeMask];
+            sumRef += r;
+            sumRef2 += r * r;
+        }
+        double best = DELAY_CORRELATION;
+        int bestLag = -1;
+        for (int lag = 0; lag <= maxDelayBins; lag++) {
+            if (lag > 0) {
+                // 窗口向过去移动一个bin
+                double added = referenceEnvelope[(newest - lag - w + 1) & envelopeMask];
+                double removed = referenceEnvelope[(newest - lag + 1) & envelopeMask];
+                sumRef += added - removed;
+                sumRef2 += added * added - removed * removed;
+            }
+            double varRef = sumRef2 - sumRef * sumRef / w;
+            if (varRef <= 0) continue;
+            double cross = 0;
+            for (int i = 0; i < w; i++) {
+                cross += (double) nearEnvelope[(newest - i) & envelopeMask]
+                        * referenceEnvelope[(newest - i - lag) & envelopeMask];
+            }
+            double correlation = (cross - sumNear * sumRef / w) / Math.sqrt(varNear * varRef);
+            if (correlation > best) {
+                best = correlation;
+                bestLag = lag;
+            }
+        }
+        if (bestLag < 0) return;
+        // 留出四分之一的滤波器长度给延迟的误差
+        int estimated = Math.max(0, Math.min(maxDelay, bestLag * bin - taps / 4));
+        if (Math.abs(estimated - delay) > taps / 4) {
+            delay = estimated;
+            reset();
+        }
+    }
+
+    /**
+     * 清空系数, 重新学习
+     */
+    public void reset() {
+        for (int j = 0; j < taps; j++) {
+            weights[j] = 0;
+        }
+        nearEnergy = 0;
+        errorEnergy = 0;
+        erleDb = 0;
+        peak = defaultPeak();
+        converged = false;
+        frozenBlocks = 0;
+        divergedBlocks = 0;
+    }
+
+    /**
+     * @return 是否已经收敛, 收敛之后播放期间的录音不再包含明显的回声
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * @return 平滑之后的回声损耗增益, 单位: dB
+     */
+    public double getErleDb() {
+        return erleDb;
+    }
+
+    /**
+     * @return 估计的整体延迟, 单位: 采样
+     */
+    public int getDelay() {
+        return delay;
+    }
+
+    public int getTaps() {
+        return taps;
+    }
+
+    public EchoReference getReference() {
+        return reference;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled 关闭时丢弃参考信号, 录音不做处理
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+}
@@ -0,0 +1,100 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回声消除的参考信号: 播放线程写入送往输出设备的采样, 录音线程按录音的节奏读取, 单生产者/单消费者
+ *
+ * 没有播放(输出流暂停)时不写入, 读取时以静音补齐; 已满时丢弃新写入的采样. 两端的相对延迟由{@link EchoCanceller}估计.
+ */
+public class EchoReference {
+
+    private final short[] samples;
+    private final int mask;
+
+    // 下一个写入的位置, 仅生产者修改
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个读取的位置, 仅消费者修改
+    private final AtomicLong head = new AtomicLong();
+    // 已满而丢弃的采样数, 仅生产者修改
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity 容量, 单位: 采样; 会向上取整为2的幂
+     */
+    public EchoReference(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        samples = new short[size];
+        mask = size - 1;
+    }
+
+    /**
+     * 生产者: 追加播放的采样
+     * @return 写入的采样数, 其余的被丢弃
+     */
+    public int write(short[] src, int offset, int length) {
+        long t = tail.get();
+        int count = (int) Math.min(length, samples.length - (t - head.get()));
+        int index = (int) (t & mask);
+        int first = Math.min(count, samples.length - index);
+        System.arraycopy(src, offset, samples, index, first);
+        System.arraycopy(src, offset + first, samples, 0, count - first);
+        tail.lazySet(t + count);
+        if (count < length) {
+            dropped.lazySet(dropped.get() + length - count);
+        }
+        return count;
+    }
+
+    /**
+     * 消费者: 读取length个采样, 不足的部分以静音补齐
+     * @return 实际读取的采样数
+     */
+    public int read(short[] dst, int offset, int length) {
+        long h = head.get();
+        int count = (int) Math.min(length, tail.get() - h);
+        int index = (int) (h & mask);
+        int first = Math.min(count, samples.length - index);
+        System.arraycopy(samples, index, dst, offset, first);
+        System.arraycopy(samples, 0, dst, offset + first, count - first);
+        for (int i = count; i < length; i++) {
+            dst[offset + i] = 0;
+        }
+        head.lazySet(h + count);
+        return count;
+    }
+
+    /**
+     * 消费者: 丢弃最多length个采样
+     * @return 丢弃的采样数
+     */
+    public int skip(int length) {
+        long h = head.get();
+        int count = (int) Math.min(length, tail.get() - h);
+        head.lazySet(h + count);
+        return count;
+    }
+
+    /**
+     * @return 可以读取的采样数
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    /**
+     * @return 已满而丢弃的采样数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+}
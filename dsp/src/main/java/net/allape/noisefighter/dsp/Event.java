@@ -0,0 +1,30 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * {@link EventStore}中的一条录音事件, 可以复用
+ */
+public class Event {
+
+    // 触发时间, 单位: ms
+    public long timestamp;
+    // 采样数据在段文件中的位置, 单位: byte
+    public long offset;
+    // 采样数
+    public int length;
+    // 振幅峰值(绝对值)
+    public int peak;
+    // 均方根
+    public float rms;
+
+    @Override
+    public String toString() {
+        return "Event{" +
+                "timestamp=" + timestamp +
+                ", offset=" + offset +
+                ", length=" + length +
+                ", peak=" + peak +
+                ", rms=" + rms +
+                '}';
+    }
+
+}
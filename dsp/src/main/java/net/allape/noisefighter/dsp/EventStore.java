@@ -0,0 +1,437 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 只保存触发的录音事件
+ *
+ * 采样数据依次追加到段文件(.pcm, 16bit小端), 每个事件在索引文件(.idx)中占用一条定长记录,
+ * 因此不需要扫描音频就可以列出、按时间查找(二分, O(log n))和导出事件.
+ * 先写数据再写索引, 重新打开时丢弃没有索引的数据, 进程崩溃不会损坏已有的事件.
+ * 索引按触发时间排序: 早于上一个事件的时间(例如系统时间被调回)按上一个事件的时间记录.
+ */
+public class EventStore implements Closeable {
+
+    // 索引文件头: magic, 版本, 采样率, 频道数
+    static final int INDEX_HEADER_SIZE = 16;
+    // 每条索引的长度: timestamp(8) offset(8) length(4) peak(4) rms(4)
+    static final int RECORD_SIZE = 28;
+
+    private static final int MAGIC = 0x4945464e; // "NFEI"
+    private static final int VERSION = 1;
+    // 写入缓冲大小, 单位: 采样
+    private static final int BUFFER_SAMPLES = 32 * 1024;
+
+    private final int sampleRate;
+    private final int channels;
+    private final RandomAccessFile segmentFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel segment;
+    private final FileChannel index;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SAMPLES * Pcm16.BYTES_PER_SAMPLE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ShortBuffer samples = buffer.asShortBuffer();
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // 段文件长度
+    private long segmentBytes;
+    // 事件数量
+    private int size;
+    // 最后一个事件的触发时间, 之后的事件不早于这个时间
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    // 正在写入的事件
+    private final Event current = new Event();
+    private boolean writing = false;
+    private double sumSquares;
+
+    /**
+     * 打开或创建事件存储
+     * @param base 文件路径, 不包括扩展名
+     */
+    public EventStore(File base, int sampleRate, int channels) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.segmentFile = new RandomAccessFile(segmentFile(base), "rw");
+        this.indexFile = new RandomAccessFile(indexFile(base), "rw");
+        this.segment = segmentFile.getChannel();
+        this.index = indexFile.getChannel();
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (index.size() < INDEX_HEADER_SIZE) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(channels).flip();
+                index.truncate(0);
+                writeFully(index, header, 0);
+                segment.truncate(0);
+            } else {
+                readFully(index, header, 0);
+                checkHeader(header, base);
+                if (header.getInt(8) != sampleRate || header.getInt(12) != channels) {
+                    throw new IOException("event store format mismatch: " + base);
+                }
+                recover();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 丢弃不完整的索引和没有索引的数据
+     */
+    private void recover() throws IOException {
+        size = (int) ((index.size() - INDEX_HEADER_SIZE) / RECORD_SIZE);
+        index.truncate(INDEX_HEADER_SIZE + (long) size * RECORD_SIZE);
+        segmentBytes = 0;
+        if (size > 0) {
+            Event last = new Event();
+            readRecord(index, record, size - 1, last);
+            segmentBytes = last.offset + (long) last.length * Pcm16.BYTES_PER_SAMPLE;
+            lastTimestamp = last.timestamp;
+        }
+        segment.truncate(segmentBytes);
+    }
+
+    /**
+     * 开始写入一个事件
+     * @param timestamp 触发时间, 单位: ms; 早于上一个事件时按上一个事件的时间记录
+     */
+    public synchronized void begin(long timestamp) {
+        if (writing) {
+            throw new IllegalStateException("previous event not ended");
+        }
+        writing = true;
+        current.timestamp = Math.max(timestamp, lastTimestamp);
+        current.offset = segmentBytes;
+        current.length = 0;
+        current.peak = 0;
+        sumSquares = 0;
+    }
+
+    /**
+     * 追加当前事件的采样
+     */
+    public synchronized void write(short[] frame, int offset, int length) throws IOException {
+        if (!writing) {
+            throw new IllegalStateException("event not begun");
+        }
+        int peak = current.peak;
+        double sum = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int one = frame[i];
+            int abs = one < 0 ? -one : one;
+            if (abs > peak) peak = abs;
+            sum += one * one;
+        }
+        current.peak = peak;
+        sumSquares += sum;
+
+        try {
+            while (length > 0) {
+                int count = Math.min(length, samples.remaining());
+                samples.put(frame, offset, count);
+                offset += count;
+                length -= count;
+                current.length += count;
+                if (!samples.hasRemaining()) {
+                    flushBuffer();
+                }
+            }
+        } catch (IOException e) {
+            discard(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 结束当前事件并写入索引
+     * @return 事件序号
+     */
+    public synchronized int end() throws IOException {
+        if (!writing) {
+            throw new IllegalStateException("event not begun");
+        }
+        try {
+            flushBuffer();
+            current.rms = current.length == 0 ? 0 : (float) Math.sqrt(sumSquares / current.length);
+
+            record.clear();
+            record.putLong(current.timestamp)
+                    .putLong(current.offset)
+                    .putInt(current.length)
+                    .putInt(current.peak)
+                    .putFloat(current.rms)
+                    .flip();
+            writeFully(index, record, INDEX_HEADER_SIZE + (long) size * RECORD_SIZE);
+        } catch (IOException e) {
+            discard(e);
+            throw e;
+        }
+        writing = false;
+        lastTimestamp = current.timestamp;
+        return size++;
+    }
+
+    /**
+     * 写入失败时丢弃当前事件, 之后可以继续写入下一个事件; 不完整的索引会被下一个事件覆盖
+     * @param cause 写入失败的原因, 回滚失败时附加到这里
+     */
+    private void discard(IOException cause) {
+        writing = false;
+        buffer.clear();
+        samples.clear();
+        segmentBytes = current.offset;
+        try {
+            segment.truncate(segmentBytes);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * 写入{@link FrameRingBuffer}中的一段录音, 不复制数据
+     * @return 事件序号
+     */
+    public synchronized int append(long timestamp, FrameRingBuffer ring, Clip clip) throws IOException {
+        begin(timestamp);
+        short[] data = ring.array();
+        for (long i = clip.start; i < clip.end; i++) {
+            write(data, ring.offset(i), ring.length(i));
+        }
+        return end();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.limit(samples.position() * Pcm16.BYTES_PER_SAMPLE);
+        buffer.position(0);
+        segmentBytes += writeSegment(buffer, segmentBytes);
+        buffer.clear();
+        samples.clear();
+    }
+
+    /**
+     * 写入段文件, 测试中可以覆盖以模拟写入失败
+     * @return 写入的长度, 单位: byte
+     */
+    int writeSegment(ByteBuffer src, long position) throws IOException {
+        return writeFully(segment, src, position);
+    }
+
+    /**
+     * 写入存储设备
+     */
+    public synchronized void flush() throws IOException {
+        segment.force(false);
+        index.force(false);
+    }
+
+    /**
+     * @return 事件数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * 关闭文件, 未结束的事件会被丢弃
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (segment.isOpen() && index.isOpen()) flush();
+        } finally {
+            try {
+                segmentFile.close();
+            } finally {
+                indexFile.close();
+            }
+        }
+    }
+
+    /**
+     * 只读访问事件存储
+     */
+    public static class Reader implements Closeable {
+
+        private final RandomAccessFile segmentFile;
+        private final RandomAccessFile indexFile;
+        private final FileChannel segment;
+        private final FileChannel index;
+        private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final int sampleRate;
+        private final int channels;
+        private final int size;
+
+        // 读取采样用的缓冲
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+        public Reader(File base) throws IOException {
+            segmentFile = new RandomAccessFile(segmentFile(base), "r");
+            indexFile = new RandomAccessFile(indexFile(base), "r");
+            segment = segmentFile.getChannel();
+            index = indexFile.getChannel();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(index, header, 0);
+                checkHeader(header, base);
+                sampleRate = header.getInt(8);
+                channels = header.getInt(12);
+                size = (int) ((index.size() - INDEX_HEADER_SIZE) / RECORD_SIZE);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return 打开时的事件数量
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        /**
+         * 读取一条索引
+         */
+        public void get(int i, Event event) throws IOException {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("event " + i + " of " + size);
+            }
+            readRecord(index, record, i, event);
+        }
+
+        /**
+         * 二分查找
+         * @param timestamp 时间, 单位: ms
+         * @return 第一个触发时间不早于timestamp的事件序号, 没有时返回{@link #size()}
+         */
+        public int search(long timestamp) throws IOException {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (readTimestamp(mid) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long readTimestamp(int i) throws IOException {
+            record.clear();
+            record.limit(8);
+            readFully(index, record, INDEX_HEADER_SIZE + (long) i * RECORD_SIZE);
+            return record.getLong(0);
+        }
+
+        /**
+         * 读取事件的采样
+         * @param dst 输出, 长度至少为event.length
+         */
+        public void read(Event event, short[] dst, int dstOffset) throws IOException {
+            int bytes = event.length * Pcm16.BYTES_PER_SAMPLE;
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.clear();
+            buffer.limit(bytes);
+            readFully(segment, buffer, event.offset);
+            buffer.flip();
+            buffer.asShortBuffer().get(dst, dstOffset, event.length);
+        }
+
+        /**
+         * 将事件导出为WAV文件
+         */
+        public void export(Event event, File wavFile) throws IOException {
+            short[] pcm = new short[event.length];
+            read(event, pcm, 0);
+            try (WavWriter writer = new WavWriter(wavFile, sampleRate, channels)) {
+                writer.write(pcm, 0, pcm.length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                segmentFile.close();
+            } finally {
+                indexFile.close();
+            }
+        }
+
+    }
+
+    public static File segmentFile(File base) {
+        return new File(base.getPath() + ".pcm");
+    }
+
+    public static File indexFile(File base) {
+        return new File(base.getPath() + ".idx");
+    }
+
+    private static void checkHeader(ByteBuffer header, File base) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("not an event store: " + base);
+        }
+    }
+
+    private static void readRecord(FileChannel index, ByteBuffer record, int i, Event event) throws IOException {
+        record.clear();
+        readFully(index, record, INDEX_HEADER_SIZE + (long) i * RECORD_SIZE);
+        record.flip();
+        event.timestamp = record.getLong();
+        event.offset = record.getLong();
+        event.length = record.getInt();
+        event.peak = record.getInt();
+        event.rms = record.getFloat();
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        int total = 0;
+        while (src.hasRemaining()) {
+            total += channel.write(src, position + total);
+        }
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        long start = position;
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of file at " + position + ", reading from " + start);
+            }
+            position += read;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在后台线程中把播放过的录音写入{@link EventStore}, 播放线程只交出录音在缓存中的范围, 不等待文件写入
+ *
+ * 播放线程(唯一的生产者)通过{@link #offer(Clip)}交出录音, 并用{@link #releasable(long)}决定可以释放的录音缓存,
+ * 等待写入的录音因此不会被覆盖; 写入线程按顺序写入之后移除. 等待写入的录音过多时丢弃新的录音而不是阻塞播放线程.
+ */
+public class EventWriter implements Runnable {
+
+    // 没有录音时写入线程的最长等待时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final FrameRingBuffer recorded;
+    // 等待写入的录音, 生产者为播放线程, 消费者为写入线程
+    private final ClipQueue pending;
+    // 写入失败与因等待写入的录音过多而丢弃的次数
+    private final Counter failed;
+    private final Counter dropped;
+
+    // 写入目标, 为null时丢弃录音; 可以由其他线程修改
+    private volatile EventStore store;
+    // 写入线程, 用于唤醒
+    private volatile Thread thread;
+    // 是否在写完等待的录音之后结束
+    private volatile boolean closed = false;
+
+    /**
+     * @param recorded 录音缓存, 等待写入的录音由播放线程保留
+     * @param capacity 最多等待写入的录音数量
+     */
+    public EventWriter(FrameRingBuffer recorded, int capacity, Metrics metrics) {
+        this.recorded = recorded;
+        this.pending = new ClipQueue(capacity);
+        this.failed = metrics.counter("events.failed");
+        this.dropped = metrics.counter("events.dropped");
+    }
+
+    /**
+     * 播放线程: 交出一段播放过的录音, 没有写入目标时忽略
+     * @return 是否需要写入, 为true时录音缓存在写入之前不能释放
+     */
+    public boolean offer(Clip clip) {
+        if (store == null) return false;
+        Clip copy = pending.claim();
+        if (copy == null) {
+            dropped.increment();
+            return false;
+        }
+        copy.set(clip.start, clip.end);
+        copy.timestamp = clip.timestamp;
+        copy.published = clip.published;
+        pending.publish();
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+        return true;
+    }
+
+    /**
+     * 播放线程: 计算可以释放的录音缓存
+     * @param end 已经播放完的录音的结束序号
+     * @return 不超过end、且不包括等待写入的录音的序号
+     */
+    public long releasable(long end) {
+        // 只有播放线程会复用Clip对象, 写入线程移除之后读到旧的值只会少释放一些
+        Clip oldest = pending.peek();
+        return oldest != null ? Math.min(end, oldest.start) : end;
+    }
+
+    /**
+     * 写入线程
+     */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (true) {
+            Clip clip = pending.peek();
+            if (clip == null) {
+                if (closed) break;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            EventStore target = store;
+            if (target != null) {
+                try {
+                    target.append(clip.timestamp, recorded, clip);
+                } catch (IOException | RuntimeException e) {
+                    failed.increment();
+                    e.printStackTrace();
+                }
+            }
+            pending.remove();
+        }
+        thread = null;
+    }
+
+    /**
+     * @param store 写入目标, 为null时不再写入, 等待中的录音被丢弃; 关闭store之前需要先设置为null
+     */
+    public void setStore(EventStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return 等待写入的录音数量
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * 写完等待的录音之后结束写入线程
+     */
+    public void close() {
+        closed = true;
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+}
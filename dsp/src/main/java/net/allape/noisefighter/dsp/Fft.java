@@ -0,0 +1,137 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 实数输入的快速傅里叶变换, 长度为2的幂
+ *
+ * 将N个实数视为N/2个复数做基2原地变换, 再拆分出N/2+1个频点; 旋转因子与位反转表在构造时预先计算,
+ * 变换过程中不分配内存. 同一个实例不能在多个线程中同时使用.
+ */
+public class Fft {
+
+    // 变换长度
+    private final int size;
+    // 复数变换的长度
+    private final int half;
+    // 复数变换的旋转因子 exp(-2πik/half)
+    private final double[] cos;
+    private final double[] sin;
+    // 拆分实数频谱用的旋转因子 exp(-2πik/size)
+    private final double[] splitCos;
+    private final double[] splitSin;
+    // 位反转表
+    private final int[] reversed;
+    // 复数变换的工作区
+    private final double[] re;
+    private final double[] im;
+
+    /**
+     * @param size 变换长度, 2的幂且不小于4
+     */
+    public Fft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        cos = new double[half / 2];
+        sin = new double[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / half);
+            sin[k] = -Math.sin(2 * Math.PI * k / half);
+        }
+        splitCos = new double[half + 1];
+        splitSin = new double[half + 1];
+        for (int k = 0; k <= half; k++) {
+            splitCos[k] = Math.cos(2 * Math.PI * k / size);
+            splitSin[k] = -Math.sin(2 * Math.PI * k / size);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        reversed = new int[half];
+        for (int i = 0; i < half; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        re = new double[half];
+        im = new double[half];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 实数变换
+     * @param input 长度为size的实数输入, 不会被修改
+     * @param outRe 输出实部, 长度至少为size / 2 + 1
+     * @param outIm 输出虚部, 长度至少为size / 2 + 1
+     */
+    public void transform(double[] input, double[] outRe, double[] outIm) {
+        // 偶数位作为实部, 奇数位作为虚部, 同时完成位反转
+        for (int i = 0; i < half; i++) {
+            int j = reversed[i];
+            re[j] = input[2 * i];
+            im[j] = input[2 * i + 1];
+        }
+        complexTransform();
+
+        // 拆分: X[k] = (Z[k] + Z*[n-k]) / 2 + W^k * (Z[k] - Z*[n-k]) / 2i
+        for (int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            double zr = re[a];
+            double zi = im[a];
+            double cr = re[b];
+            double ci = -im[b];
+            double evenRe = (zr + cr) / 2;
+            double evenIm = (zi + ci) / 2;
+            // (Z - conj) / 2i = (diffIm, -diffRe) / 2
+            double oddRe = (zi - ci) / 2;
+            double oddIm = -(zr - cr) / 2;
+            double wr = splitCos[k];
+            double wi = splitSin[k];
+            outRe[k] = evenRe + wr * oddRe - wi * oddIm;
+            outIm[k] = evenIm + wr * oddIm + wi * oddRe;
+        }
+    }
+
+    /**
+     * 功率谱 |X[k]|^2
+     * @param input 长度为size的实数输入
+     * @param power 输出, 长度至少为size / 2 + 1
+     * @param scratchRe 工作区, 长度至少为size / 2 + 1
+     * @param scratchIm 工作区, 长度至少为size / 2 + 1
+     */
+    public void power(double[] input, double[] power, double[] scratchRe, double[] scratchIm) {
+        transform(input, scratchRe, scratchIm);
+        for (int k = 0; k <= half; k++) {
+            power[k] = scratchRe[k] * scratchRe[k] + scratchIm[k] * scratchIm[k];
+        }
+    }
+
+    /**
+     * 对已经位反转的re/im做原地基2变换
+     */
+    private void complexTransform() {
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length >> 1;
+            int step = half / length;
+            // 同一个旋转因子的蝶形放在一起, 每个旋转因子只读取一次
+            for (int k = 0; k < halfLength; k++) {
+                double wr = cos[k * step];
+                double wi = sin[k * step];
+                for (int i = k; i < half; i += length) {
+                    int j = i + halfLength;
+                    double tr = wr * re[j] - wi * im[j];
+                    double ti = wr * im[j] + wi * re[j];
+                    re[j] = re[i] - tr;
+                    im[j] = im[i] - ti;
+                    re[i] += tr;
+                    im[i] += ti;
+                }
+            }
+        }
+    }
+
+}
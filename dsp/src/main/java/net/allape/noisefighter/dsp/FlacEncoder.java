@@ -0,0 +1,774 @@
+package net.allape.noisefighter.dsp;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 流式FLAC编码器, 16bit整数, 固定块大小, 各声道独立编码
+ *
+ * 每个声道在常数、原样、固定多项式预测(0~4阶)与LPC(量化到LPC_PRECISION位)之中选择编码后最短的一种,
+ * 残差使用分区Rice编码. LPC的阶数按Levinson-Durbin递推的预测误差估计, 只计算一个阶数的残差. 写满一块时编码为一帧交给{@link FrameSink};
+ * 启动之后不再分配内存, 同一实例只能在一个线程中使用.
+ *
+ * @see <a href="https://xiph.org/flac/format.html">FLAC format</a>
+ */
+public class FlacEncoder {
+
+    // 默认的块大小, 单位: 帧
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    // 默认的最大LPC阶数
+    public static final int DEFAULT_MAX_LPC_ORDER = 8;
+    // 采样精度
+    public static final int BITS_PER_SAMPLE = 16;
+
+    // LPC系数的量化精度, 包括符号位
+    private static final int LPC_PRECISION = 12;
+    // LPC系数的最大移位, 帧格式中为5位有符号数
+    private static final int MAX_LPC_SHIFT = 15;
+    // 最大的Rice参数, 4位参数中15表示转义
+    private static final int MAX_RICE_PARAMETER = 14;
+    // 最大的分区阶数
+    private static final int MAX_PARTITION_ORDER = 8;
+    // 固定多项式预测的最大阶数
+    private static final int MAX_FIXED_ORDER = 4;
+
+    // 子帧类型
+    private static final int CONSTANT = 0;
+    private static final int VERBATIM = 1;
+    private static final int FIXED = 2;
+    private static final int LPC = 3;
+
+    /**
+     * 编码后的帧, 在编码线程中调用
+     */
+    public interface FrameSink {
+
+        /**
+         * @param data 帧数据, 回调返回之后会被覆盖
+         * @param length 帧长度, 单位: byte
+         * @param firstSample 第一帧采样的序号
+         * @param samples 帧中每个声道的采样数
+         */
+        void onFrame(byte[] data, int length, long firstSample, int samples);
+
+    }
+
+    private final int sampleRate;
+    private final int channels;
+    private final int blockSize;
+    private final int maxLpcOrder;
+    private final FrameSink sink;
+    private final MessageDigest md5;
+
+    // 当前块的交错采样
+    private final short[] block;
+    // 当前块中的帧数
+    private int buffered = 0;
+    // MD5的输入, 小端字节
+    private final byte[] md5Bytes;
+
+    // 一个声道的采样
+    private final int[] signal;
+    // 当前尝试的残差
+    private final int[] residual;
+    // 最终选择的残差
+    private final int[] bestResidual;
+    // 加窗之后的采样
+    private final double[] windowed;
+    // Tukey(0.5)窗
+    private final double[] window;
+    // 窗对应的块大小
+    private int windowLength = 0;
+    // 自相关
+    private final double[] autocorrelation;
+    // Levinson-Durbin的工作区
+    private final double[] lpc;
+    private final double[] lpcPrevious;
+    // 每一阶的LPC系数, lpcByOrder[order - 1]
+    private final double[][] lpcByOrder;
+    // 每一阶的预测误差
+    private final double[] lpcError;
+    // 量化的系数
+    private final int[] quantized;
+    private final int[] bestQuantized;
+    // 每个分区的残差之和, 按最大分区阶数
+    private final long[] partitionSums;
+    // 各分区的Rice参数
+    private final int[] parameters;
+    private final int[] bestParameters;
+
+    // 最终选择的子帧
+    private int bestType;
+    private int bestOrder;
+    private int bestShift;
+    private int bestPartitionOrder;
+    // 选择分区时的结果
+    private int chosenPartitionOrder;
+
+    // 输出
+    private final byte[] out;
+    private int outPosition;
+    private long bitCache;
+    private int bitCount;
+
+    // 已编码的帧数
+    private long frameNumber = 0;
+    // 已编码的采样数(每个声道)
+    private long samples = 0;
+    private int minFrameSize = Integer.MAX_VALUE;
+    private int maxFrameSize = 0;
+
+    public FlacEncoder(int sampleRate, int channels, FrameSink sink) {
+        this(sampleRate, channels, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_LPC_ORDER, sink);
+    }
+
+    /**
+     * @param sampleRate 采样率
+     * @param channels 声道数, 1 ~ 8
+     * @param blockSize 块大小, 16 ~ 65535
+     * @param maxLpcOrder 最大LPC阶数, 0 ~ 32, 为0时只使用固定多项式预测
+     * @param sink 编码后的帧
+     */
+    public FlacEncoder(int sampleRate, int channels, int blockSize, int maxLpcOrder, FrameSink sink) {
+        if (channels < 1 || channels > 8 || blockSize < 16 || blockSize > 65535 || maxLpcOrder < 0 || maxLpcOrder > 32
+                || sampleRate <= 0 || sampleRate >= 1 << 20) {
+            throw new IllegalArgumentException("unsupported: " + sampleRate + "Hz, " + channels + "ch, block "
+                    + blockSize + ", lpc " + maxLpcOrder);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.blockSize = blockSize;
+        this.maxLpcOrder = maxLpcOrder;
+        this.sink = sink;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        block = new short[blockSize * channels];
+        md5Bytes = new byte[blockSize * channels * 2];
+        signal = new int[blockSize];
+        residual = new int[blockSize];
+        bestResidual = new int[blockSize];
+        windowed = new double[blockSize];
+        window = new double[blockSize];
+        autocorrelation = new double[maxLpcOrder + 1];
+        lpc = new double[maxLpcOrder];
+        lpcPrevious = new double[maxLpcOrder];
+        lpcByOrder = new double[maxLpcOrder][];
+        lpcError = new double[maxLpcOrder];
+        for (int order = 1; order <= maxLpcOrder; order++) {
+            lpcByOrder[order - 1] = new double[order];
+        }
+        quantized = new int[Math.max(1, maxLpcOrder)];
+        bestQuantized = new int[Math.max(1, maxLpcOrder)];
+        partitionSums = new long[1 << MAX_PARTITION_ORDER];
+        parameters = new int[1 << MAX_PARTITION_ORDER];
+        bestParameters = new int[1 << MAX_PARTITION_ORDER];
+        // 帧头最多16字节, 子帧最长为原样加上子帧头, 另加CRC
+        out = new byte[16 + channels * (blockSize * BITS_PER_SAMPLE / 8 + 8) + 2];
+    }
+
+    /**
+     * 追加交错的采样, 写满一块时编码
+     * @param frames 帧数, 每帧channels个采样
+     */
+    public void write(short[] pcm, int offset, int frames) {
+        while (frames > 0) {
+            int count = Math.min(frames, blockSize - buffered);
+            System.arraycopy(pcm, offset, block, buffered * channels, count * channels);
+            buffered += count;
+            offset += count * channels;
+            frames -= count;
+            if (buffered == blockSize) {
+                encodeBlock();
+            }
+        }
+    }
+
+    /**
+     * 编码剩余的采样(最后一帧可以小于块大小)
+     */
+    public void finish() {
+        if (buffered > 0) {
+            encodeBlock();
+        }
+    }
+
+    /**
+     * @return 已经编码的所有采样的MD5, 与STREAMINFO中的相同; 调用之后不能继续写入
+     */
+    public byte[] digest() {
+        return md5.digest();
+    }
+
+    private void encodeBlock() {
+        int frames = buffered;
+        buffered = 0;
+        int length = frames * channels;
+        for (int i = 0; i < length; i++) {
+            short sample = block[i];
+            md5Bytes[2 * i] = (byte) sample;
+            md5Bytes[2 * i + 1] = (byte) (sample >> 8);
+        }
+        md5.update(md5Bytes, 0, length * 2);
+
+        outPosition = 0;
+        bitCache = 0;
+        bitCount = 0;
+        writeFrameHeader(frames);
+        for (int channel = 0; channel < channels; channel++) {
+            for (int i = 0; i < frames; i++) {
+                signal[i] = block[i * channels + channel];
+            }
+            writeSubframe(frames);
+        }
+        alignToByte();
+        int crc = crc16(out, 0, outPosition);
+        out[outPosition++] = (byte) (crc >> 8);
+        out[outPosition++] = (byte) crc;
+
+        minFrameSize = Math.min(minFrameSize, outPosition);
+        maxFrameSize = Math.max(maxFrameSize, outPosition);
+        sink.onFrame(out, outPosition, samples, frames);
+        samples += frames;
+        frameNumber++;
+    }
+
+    private void writeFrameHeader(int frames) {
+        // 同步码, 固定块大小
+        writeBits(0xfff8, 16);
+        int blockSizeCode = blockSizeCode(frames);
+        writeBits(blockSizeCode, 4);
+        writeBits(sampleRateCode(sampleRate), 4);
+        // 独立声道
+        writeBits(channels - 1, 4);
+        // 16bit, 保留位
+        writeBits(0x8, 4);
+        writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            writeBits(frames - 1, 8);
+        } else if (blockSizeCode == 7) {
+            writeBits(frames - 1, 16);
+        }
+        out[outPosition] = (byte) crc8(out, 0, outPosition);
+        outPosition++;
+    }
+
+    static int blockSizeCode(int frames) {
+        switch (frames) {
+            case 192: return 1;
+            case 576: return 2;
+            case 1152: return 3;
+            case 2304: return 4;
+            case 4608: return 5;
+            case 256: return 8;
+            case 512: return 9;
+            case 1024: return 10;
+            case 2048: return 11;
+            case 4096: return 12;
+            case 8192: return 13;
+            case 16384: return 14;
+            case 32768: return 15;
+            default: return frames <= 256 ? 6 : 7;
+        }
+    }
+
+    static int sampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200: return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            // 使用STREAMINFO中的采样率
+            default: return 0;
+        }
+    }
+
+    /**
+     * 选择并写入一个声道的子帧
+     */
+    private void writeSubframe(int n) {
+        int first = signal[0];
+        boolean constant = true;
+        for (int i = 1; i < n; i++) {
+            if (signal[i] != first) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            writeBits(CONSTANT << 1, 8);
+            writeBits(first, BITS_PER_SAMPLE);
+            return;
+        }
+
+        // 原样
+        long bestBits = 8 + (long) n * BITS_PER_SAMPLE;
+        bestType = VERBATIM;
+
+        // 固定多项式预测, 按残差绝对值之和选择阶数
+        int fixedOrder = bestFixedOrder(n);
+        if (n > fixedOrder) {
+            fixedResidual(fixedOrder, n);
+            long bits = 8 + (long) fixedOrder * BITS_PER_SAMPLE + riceBits(n, fixedOrder);
+            if (bits < bestBits) {
+                bestBits = bits;
+                keep(FIXED, fixedOrder, 0, n);
+            }
+        }
+
+        // LPC
+        int maxOrder = Math.min(maxLpcOrder, n - 1);
+        if (maxOrder > 0 && computeLpc(n, maxOrder)) {
+            int order = bestLpcOrder(n, maxOrder);
+            int shift = quantize(lpcByOrder[order - 1], order);
+            if (shift >= 0) {
+                lpcResidual(order, shift, n);
+                long bits = 8 + (long) order * BITS_PER_SAMPLE + 4 + 5 + (long) order * LPC_PRECISION
+                        + riceBits(n, order);
+                if (bits < bestBits) {
+                    System.arraycopy(quantized, 0, bestQuantized, 0, order);
+                    keep(LPC, order, shift, n);
+                }
+            }
+        }
+
+        switch (bestType) {
+            case VERBATIM:
+                writeBits(VERBATIM << 1, 8);
+                for (int i = 0; i < n; i++) {
+                    writeBits(signal[i], BITS_PER_SAMPLE);
+                }
+                break;
+            case FIXED:
+                writeBits((0x08 | bestOrder) << 1, 8);
+                writeWarmup(bestOrder);
+                writeResidual(n, bestOrder);
+                break;
+            default:
+                writeBits((0x20 | (bestOrder - 1)) << 1, 8);
+                writeWarmup(bestOrder);
+                writeBits(LPC_PRECISION - 1, 4);
+                writeBits(bestShift, 5);
+                for (int i = 0; i < bestOrder; i++) {
+                    writeBits(bestQuantized[i], LPC_PRECISION);
+                }
+                writeResidual(n, bestOrder);
+                break;
+        }
+    }
+
+    /**
+     * 记录当前的残差与分区作为最佳选择
+     */
+    private void keep(int type, int order, int shift, int n) {
+        bestType = type;
+        bestOrder = order;
+        bestShift = shift;
+        bestPartitionOrder = chosenPartitionOrder;
+        System.arraycopy(residual, order, bestResidual, order, n - order);
+        System.arraycopy(parameters, 0, bestParameters, 0, 1 << chosenPartitionOrder);
+    }
+
+    private void writeWarmup(int order) {
+        for (int i = 0; i < order; i++) {
+            writeBits(signal[i], BITS_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * 各阶差分的绝对值之和最小的阶数
+     */
+    private int bestFixedOrder(int n) {
+        if (n <= MAX_FIXED_ORDER) return 0;
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        int x = signal[3];
+        int d1 = x - signal[2];
+        int d2 = d1 - (signal[2] - signal[1]);
+        int d3 = d2 - (signal[2] - 2 * signal[1] + signal[0]);
+        for (int i = MAX_FIXED_ORDER; i < n; i++) {
+            int next = signal[i];
+            int n1 = next - x;
+            int n2 = n1 - d1;
+            int n3 = n2 - d2;
+            int n4 = n3 - d3;
+            e0 += Math.abs(next);
+            e1 += Math.abs(n1);
+            e2 += Math.abs(n2);
+            e3 += Math.abs(n3);
+            e4 += Math.abs(n4);
+            x = next;
+            d1 = n1;
+            d2 = n2;
+            d3 = n3;
+        }
+        int order = 0;
+        long best = e0;
+        if (e1 < best) { best = e1; order = 1; }
+        if (e2 < best) { best = e2; order = 2; }
+        if (e3 < best) { best = e3; order = 3; }
+        if (e4 < best) { order = 4; }
+        return order;
+    }
+
+    private void fixedResidual(int order, int n) {
+        int[] s = signal;
+        switch (order) {
+            case 0:
+                System.arraycopy(s, 0, residual, 0, n);
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) residual[i] = s[i] - s[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) residual[i] = s[i] - 2 * s[i - 1] + s[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) residual[i] = s[i] - 3 * s[i - 1] + 3 * s[i - 2] - s[i - 3];
+                break;
+            default:
+                for (int i = 4; i < n; i++) residual[i] = s[i] - 4 * s[i - 1] + 6 * s[i - 2] - 4 * s[i - 3] + s[i - 4];
+                break;
+        }
+    }
+
+    /**
+     * 加窗、自相关与Levinson-Durbin递推, 得到1 ~ maxOrder阶的预测系数
+     * @return 是否可以使用LPC
+     */
+    private boolean computeLpc(int n, int maxOrder) {
+        if (windowLength != n) {
+            tukey(n);
+            windowLength = n;
+        }
+        for (int i = 0; i < n; i++) {
+            windowed[i] = signal[i] * window[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] == 0) return false;
+
+        double error = autocorrelation[0];
+        for (int order = 1; order <= maxOrder; order++) {
+            double reflection = -autocorrelation[order];
+            for (int j = 0; j < order - 1; j++) {
+                reflection -= lpc[j] * autocorrelation[order - 1 - j];
+            }
+            reflection /= error;
+            System.arraycopy(lpc, 0, lpcPrevious, 0, order - 1);
+            lpc[order - 1] = reflection;
+            for (int j = 0; j < order - 1; j++) {
+                lpc[j] = lpcPrevious[j] + reflection * lpcPrevious[order - 2 - j];
+            }
+            error *= 1 - reflection * reflection;
+            lpcError[order - 1] = Math.max(0, error);
+            // 预测值 = sum(coefficient[j] * x[i - j - 1]), 与递推的符号相反
+            double[] coefficients = lpcByOrder[order - 1];
+            for (int j = 0; j < order; j++) {
+                coefficients[j] = -lpc[j];
+            }
+            if (error <= 0) {
+                // 完全可预测, 更高的阶数没有意义
+                for (int higher = order + 1; higher <= maxOrder; higher++) {
+                    double[] next = lpcByOrder[higher - 1];
+                    System.arraycopy(coefficients, 0, next, 0, order);
+                    for (int j = order; j < higher; j++) next[j] = 0;
+                    lpcError[higher - 1] = 0;
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按预测误差估计残差的长度(高斯分布近似), 加上系数与预热采样, 选择总长度最短的阶数
+     */
+    private int bestLpcOrder(int n, int maxOrder) {
+        double scale = 0.5 / n;
+        int best = 1;
+        double bestBits = Double.MAX_VALUE;
+        for (int order = 1; order <= maxOrder; order++) {
+            double error = lpcError[order - 1] * scale;
+            double bitsPerSample = error > 0 ? Math.max(0, 0.5 * Math.log(error) / Math.log(2)) : 0;
+            double bits = bitsPerSample * (n - order) + order * (BITS_PER_SAMPLE + LPC_PRECISION);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Tukey(0.5)窗, 块大小变化(最后一块)时重新计算
+     */
+    private void tukey(int n) {
+        int taper = n / 4;
+        for (int i = 0; i < n; i++) {
+            double w = 1;
+            if (i < taper) {
+                w = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+            } else if (i >= n - taper) {
+                w = 0.5 - 0.5 * Math.cos(Math.PI * (n - 1 - i) / taper);
+            }
+            window[i] = w;
+        }
+    }
+
+    /**
+     * 带误差反馈地把系数量化到LPC_PRECISION位
+     * @return 移位, 系数过大而无法表示时返回-1
+     */
+    private int quantize(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(coefficients[i]));
+        }
+        if (max <= 0) return -1;
+        // max = m * 2^exponent, 0.5 <= m < 1
+        int exponent = Math.getExponent(max) + 1;
+        int shift = Math.min(MAX_LPC_SHIFT, LPC_PRECISION - 1 - exponent);
+        if (shift < 0) return -1;
+        int qmax = (1 << (LPC_PRECISION - 1)) - 1;
+        int qmin = -(1 << (LPC_PRECISION - 1));
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(qmin, Math.min(qmax, q));
+            quantized[i] = (int) q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    private void lpcResidual(int order, int shift, int n) {
+        int[] s = signal;
+        int[] q = quantized;
+        for (int i = order; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) q[j] * s[i - j - 1];
+            }
+            residual[i] = s[i] - (int) (sum >> shift);
+        }
+    }
+
+    /**
+     * 选择分区阶数与各分区的Rice参数
+     * @return 残差部分的估计长度, 单位: bit
+     */
+    private long riceBits(int n, int order) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < MAX_PARTITION_ORDER
+                && (n & ((2 << maxPartitionOrder) - 1)) == 0
+                && (n >> (maxPartitionOrder + 1)) > order) {
+            maxPartitionOrder++;
+        }
+        int partitions = 1 << maxPartitionOrder;
+        int size = n >> maxPartitionOrder;
+        for (int p = 0; p < partitions; p++) {
+            long sum = 0;
+            int start = p == 0 ? order : p * size;
+            int end = (p + 1) * size;
+            for (int i = start; i < end; i++) {
+                int r = residual[i];
+                sum += (r << 1) ^ (r >> 31);
+            }
+            partitionSums[p] = sum;
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+            int count = 1 << partitionOrder;
+            int length = n >> partitionOrder;
+            long bits = 2 + 4;
+            for (int p = 0; p < count; p++) {
+                int samplesInPartition = p == 0 ? length - order : length;
+                long sum = partitionSums[p];
+                int parameter = riceParameter(sum, samplesInPartition);
+                bits += 4 + (long) samplesInPartition * (parameter + 1) + (sum >> parameter);
+            }
+            if (bits < best) {
+                best = bits;
+                chosenPartitionOrder = partitionOrder;
+                for (int p = 0; p < count; p++) {
+                    parameters[p] = riceParameter(partitionSums[p], p == 0 ? length - order : length);
+                }
+            }
+            // 合并相邻分区, 用于下一个较小的阶数
+            if (partitionOrder > 0) {
+                for (int p = 0; p < count / 2; p++) {
+                    partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum < count) return 0;
+        int parameter = 63 - Long.numberOfLeadingZeros(sum / count);
+        return Math.min(MAX_RICE_PARAMETER, parameter);
+    }
+
+    private void writeResidual(int n, int order) {
+        // Rice编码, 4位参数
+        writeBits(0, 2);
+        writeBits(bestPartitionOrder, 4);
+        int partitions = 1 << bestPartitionOrder;
+        int size = n >> bestPartitionOrder;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = bestParameters[p];
+            writeBits(parameter, 4);
+            int start = p == 0 ? order : p * size;
+            int end = (p + 1) * size;
+            for (int i = start; i < end; i++) {
+                int r = bestResidual[i];
+                writeRice((r << 1) ^ (r >> 31), parameter);
+            }
+        }
+    }
+
+    private void writeRice(int value, int parameter) {
+        int quotient = value >>> parameter;
+        while (quotient >= 32) {
+            writeBits(0, 32);
+            quotient -= 32;
+        }
+        // quotient个0, 一个1, 再加上parameter位余数
+        if (quotient + 1 + parameter <= 56) {
+            writeBits(((1L << parameter) | (value & ((1L << parameter) - 1))), quotient + 1 + parameter);
+        } else {
+            writeBits(1, quotient + 1);
+            writeBits(value & ((1L << parameter) - 1), parameter);
+        }
+    }
+
+    /**
+     * 写入value的低count位, count不超过56
+     */
+    private void writeBits(long value, int count) {
+        bitCache = (bitCache << count) | (value & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[outPosition++] = (byte) (bitCache >>> bitCount);
+        }
+    }
+
+    private void alignToByte() {
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+    }
+
+    /**
+     * 帧序号, 按UTF-8的方式编码
+     */
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits(value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5 : 6;
+        int shift = (bytes - 1) * 6;
+        writeBits((0xff00 >> bytes) & 0xff | (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            writeBits(0x80 | ((value >>> shift) & 0x3f), 8);
+        }
+    }
+
+    /**
+     * CRC-8, 多项式x^8 + x^2 + x + 1
+     */
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8[(crc ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    /**
+     * CRC-16, 多项式x^16 + x^15 + x^2 + 1
+     */
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16[((crc >> 8) ^ data[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    static final int[] CRC8 = new int[256];
+    static final int[] CRC16 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xff : (crc << 1) & 0xff;
+            }
+            CRC8[i] = crc;
+            crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xffff : (crc << 1) & 0xffff;
+            }
+            CRC16[i] = crc;
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return 已编码的采样数(每个声道)
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return 已编码的帧数
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return 最短的帧, 没有帧时为0
+     */
+    public int getMinFrameSize() {
+        return maxFrameSize == 0 ? 0 : minFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+}
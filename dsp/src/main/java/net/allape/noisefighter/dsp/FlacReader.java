@@ -0,0 +1,530 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 读取FLAC文件, 解码输出为16bit单声道
+ *
+ * 支持常见编码器的全部子帧类型、声道去相关与可变块大小; 校验每一帧的CRC.
+ * 不完整的最后一帧(写入时进程崩溃)视为文件结束. 有SEEKTABLE时按定位点跳转, 否则从头解码到目标位置.
+ */
+public class FlacReader implements Closeable {
+
+    // 读取缓冲的大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 元数据块类型
+    private static final int STREAMINFO = 0;
+    private static final int SEEKTABLE = 3;
+    // 未使用的定位点
+    private static final long PLACEHOLDER = -1;
+
+    private final FileChannel channel;
+    private final AudioConfig config;
+    private final int bitsPerSample;
+    // 固定块大小时的块大小
+    private final int blockSize;
+    // 总采样数(每个声道), 0表示未知
+    private final long frames;
+    private final byte[] md5 = new byte[16];
+    // 第一帧在文件中的位置
+    private final long firstFrame;
+    // 定位点: 第一个采样与相对于第一帧的位置
+    private final long[] seekSamples;
+    private final long[] seekOffsets;
+
+    // 读取缓冲
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // 缓冲结尾在文件中的位置
+    private long bufferEnd;
+    private long bitCache;
+    private int bitCount;
+    private int crc8;
+    private int crc16;
+
+    // 当前帧各声道的采样
+    private final int[][] decoded;
+    // 当前帧的第一个采样、长度与已读取的位置
+    private long blockFirst = 0;
+    private int blockLength = 0;
+    private int blockPosition = 0;
+    // 已到达结尾
+    private boolean ended = false;
+
+    public FlacReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            reposition(0);
+            if (readBits(32) != ('f' << 24 | 'L' << 16 | 'a' << 8 | 'C')) {
+                throw new IOException("not a flac file: " + file);
+            }
+            int sampleRate = 0, channels = 0, bits = 0, maxBlockSize = 0, minBlockSize = 0;
+            long total = 0;
+            long[] samples = new long[0];
+            long[] offsets = new long[0];
+            boolean streamInfo = false;
+            boolean last = false;
+            while (!last) {
+                last = readBits(1) == 1;
+                int type = readBits(7);
+                int length = readBits(24);
+                if (type == STREAMINFO) {
+                    minBlockSize = readBits(16);
+                    maxBlockSize = readBits(16);
+                    // 最短、最长帧
+                    readBits(24);
+                    readBits(24);
+                    sampleRate = readBits(20);
+                    channels = readBits(3) + 1;
+                    bits = readBits(5) + 1;
+                    total = (long) readBits(4) << 32 | (readBits(32) & 0xffffffffL);
+                    for (int i = 0; i < md5.length; i++) {
+                        md5[i] = (byte) readBits(8);
+                    }
+                    skip(length - 34);
+                    streamInfo = true;
+                } else if (type == SEEKTABLE) {
+                    int count = length / 18;
+                    samples = new long[count];
+                    offsets = new long[count];
+                    int used = 0;
+                    for (int i = 0; i < count; i++) {
+                        long sample = readLong();
+                        long offset = readLong();
+                        readBits(16);
+                        if (sample != PLACEHOLDER) {
+                            samples[used] = sample;
+                            offsets[used] = offset;
+                            used++;
+                        }
+                    }
+                    samples = Arrays.copyOf(samples, used);
+                    offsets = Arrays.copyOf(offsets, used);
+                    skip(length - count * 18);
+                } else {
+                    skip(length);
+                }
+            }
+            if (!streamInfo) {
+                throw new IOException("no STREAMINFO: " + file);
+            }
+            this.config = new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT);
+            this.bitsPerSample = bits;
+            this.blockSize = minBlockSize;
+            this.frames = total;
+            this.seekSamples = samples;
+            this.seekOffsets = offsets;
+            this.firstFrame = position();
+            this.decoded = new int[channels][Math.max(maxBlockSize, 16)];
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return 原始的采样精度, 输出统一为16bit
+     */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return 帧数(每个声道的采样数), 0表示未知
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return STREAMINFO中的MD5, 全0表示未知
+     */
+    public byte[] getMd5() {
+        return md5.clone();
+    }
+
+    /**
+     * @return 下一次读取的采样位置
+     */
+    public long getPosition() {
+        return blockFirst + blockPosition;
+    }
+
+    /**
+     * 解码为16bit单声道
+     * @return 读取的帧数, 到达结尾时返回0
+     */
+    public int read(short[] dst, int offset, int length) throws IOException {
+        int read = 0;
+        int channels = decoded.length;
+        while (read < length) {
+            if (blockPosition == blockLength && !nextFrame()) {
+                break;
+            }
+            int count = Math.min(length - read, blockLength - blockPosition);
+            int shift = bitsPerSample - 16;
+            for (int i = 0; i < count; i++) {
+                int index = blockPosition + i;
+                int sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    sum += decoded[c][index];
+                }
+                int sample = sum / channels;
+                dst[offset + read + i] = (short) (shift >= 0 ? sample >> shift : sample << -shift);
+            }
+            blockPosition += count;
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * 跳转到指定的采样, 超出结尾时跳转到结尾
+     */
+    public void seek(long sample) throws IOException {
+        long target = Math.max(0, sample);
+        long first = 0;
+        long offset = 0;
+        for (int i = 0; i < seekSamples.length && seekSamples[i] <= target; i++) {
+            first = seekSamples[i];
+            offset = seekOffsets[i];
+        }
+        reposition(firstFrame + offset);
+        ended = false;
+        blockFirst = first;
+        blockLength = 0;
+        blockPosition = 0;
+        while (nextFrame()) {
+            if (target < blockFirst + blockLength) {
+                blockPosition = (int) (target - blockFirst);
+                return;
+            }
+            blockPosition = blockLength;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 解码下一帧
+     * @return 是否还有数据
+     */
+    private boolean nextFrame() throws IOException {
+        if (ended) return false;
+        long end = blockFirst + blockLength;
+        try {
+            if (!decodeFrame()) {
+                ended = true;
+            }
+        } catch (EOFException e) {
+            ended = true;
+        }
+        if (ended) {
+            blockFirst = end;
+            blockLength = 0;
+            blockPosition = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean decodeFrame() throws IOException {
+        if (bitCount == 0 && !buffer.hasRemaining() && !fill()) {
+            return false;
+        }
+        crc8 = 0;
+        crc16 = 0;
+        int sync = readBits(16);
+        if ((sync >> 2) != 0x3ffe) {
+            throw new IOException("lost frame sync at " + (position() - 2));
+        }
+        boolean variable = (sync & 1) == 1;
+        int blockSizeCode = readBits(4);
+        int sampleRateCode = readBits(4);
+        int assignment = readBits(4);
+        int bitsCode = readBits(3);
+        readBits(1);
+        long number = readUtf8();
+        int n;
+        if (blockSizeCode == 1) {
+            n = 192;
+        } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+            n = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            n = readBits(8) + 1;
+        } else if (blockSizeCode == 7) {
+            n = readBits(16) + 1;
+        } else if (blockSizeCode >= 8) {
+            n = 256 << (blockSizeCode - 8);
+        } else {
+            throw new IOException("reserved block size");
+        }
+        if (sampleRateCode == 12) {
+            readBits(8);
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            readBits(16);
+        }
+        int bits;
+        switch (bitsCode) {
+            case 0: bits = bitsPerSample; break;
+            case 1: bits = 8; break;
+            case 2: bits = 12; break;
+            case 4: bits = 16; break;
+            case 5: bits = 20; break;
+            case 6: bits = 24; break;
+            case 7: bits = 32; break;
+            default: throw new IOException("reserved sample size");
+        }
+        if (bits != bitsPerSample) {
+            throw new IOException("sample size changed: " + bits);
+        }
+        int expectedCrc8 = crc8;
+        if (readBits(8) != expectedCrc8) {
+            throw new IOException("frame header crc mismatch");
+        }
+        int channels = decoded.length;
+        int frameChannels = assignment < 8 ? assignment + 1 : 2;
+        if (frameChannels != channels || assignment > 10 || n > decoded[0].length) {
+            throw new IOException("unsupported frame: " + frameChannels + "ch, " + n + " samples");
+        }
+
+        for (int c = 0; c < channels; c++) {
+            boolean side = (assignment == 8 || assignment == 10) && c == 1 || assignment == 9 && c == 0;
+            decodeSubframe(decoded[c], n, side ? bits + 1 : bits);
+        }
+        bitCount = 0;
+        int expectedCrc16 = crc16;
+        if (readBits(16) != expectedCrc16) {
+            throw new IOException("frame crc mismatch");
+        }
+
+        int[] left = decoded[0];
+        int[] right = channels > 1 ? decoded[1] : null;
+        if (assignment == 8) {
+            for (int i = 0; i < n; i++) right[i] = left[i] - right[i];
+        } else if (assignment == 9) {
+            for (int i = 0; i < n; i++) left[i] += right[i];
+        } else if (assignment == 10) {
+            for (int i = 0; i < n; i++) {
+                int side = right[i];
+                int mid = (left[i] << 1) | (side & 1);
+                left[i] = (mid + side) >> 1;
+                right[i] = (mid - side) >> 1;
+            }
+        }
+
+        blockFirst = variable ? number : number * blockSize;
+        blockLength = n;
+        blockPosition = 0;
+        return true;
+    }
+
+    private void decodeSubframe(int[] out, int n, int bits) throws IOException {
+        readBits(1);
+        int type = readBits(6);
+        int wasted = 0;
+        if (readBits(1) == 1) {
+            wasted = readUnary() + 1;
+            bits -= wasted;
+        }
+        if (type == 0) {
+            Arrays.fill(out, 0, n, readSigned(bits));
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) out[i] = readSigned(bits);
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            for (int i = 0; i < order; i++) out[i] = readSigned(bits);
+            decodeResidual(out, n, order);
+            restoreFixed(out, n, order);
+        } else if (type >= 32) {
+            int order = (type & 31) + 1;
+            for (int i = 0; i < order; i++) out[i] = readSigned(bits);
+            int precision = readBits(4) + 1;
+            int shift = readSigned(5);
+            if (precision == 16 || shift < 0) {
+                throw new IOException("invalid lpc precision or shift");
+            }
+            int[] coefficients = new int[order];
+            for (int i = 0; i < order; i++) coefficients[i] = readSigned(precision);
+            decodeResidual(out, n, order);
+            for (int i = order; i < n; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) coefficients[j] * out[i - j - 1];
+                }
+                out[i] += (int) (sum >> shift);
+            }
+        } else {
+            throw new IOException("reserved subframe type " + type);
+        }
+        if (wasted > 0) {
+            for (int i = 0; i < n; i++) out[i] <<= wasted;
+        }
+    }
+
+    private static void restoreFixed(int[] s, int n, int order) {
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) s[i] += s[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) s[i] += 2 * s[i - 1] - s[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) s[i] += 3 * s[i - 1] - 3 * s[i - 2] + s[i - 3];
+                break;
+            default:
+                for (int i = 4; i < n; i++) s[i] += 4 * s[i - 1] - 6 * s[i - 2] + 4 * s[i - 3] - s[i - 4];
+                break;
+        }
+    }
+
+    /**
+     * 残差写入out[order, n)
+     */
+    private void decodeResidual(int[] out, int n, int order) throws IOException {
+        int method = readBits(2);
+        if (method > 1) {
+            throw new IOException("reserved residual coding " + method);
+        }
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = (1 << parameterBits) - 1;
+        int partitionOrder = readBits(4);
+        int partitions = 1 << partitionOrder;
+        int size = n >> partitionOrder;
+        if (size << partitionOrder != n || size < order) {
+            throw new IOException("invalid partition order " + partitionOrder);
+        }
+        int i = order;
+        for (int p = 0; p < partitions; p++) {
+            int end = (p + 1) * size;
+            int parameter = readBits(parameterBits);
+            if (parameter == escape) {
+                int raw = readBits(5);
+                for (; i < end; i++) out[i] = raw == 0 ? 0 : readSigned(raw);
+            } else {
+                for (; i < end; i++) {
+                    int value = readUnary() << parameter | readBits(parameter);
+                    out[i] = (value >>> 1) ^ -(value & 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 帧序号或采样序号, 按UTF-8的方式编码
+     */
+    private long readUtf8() throws IOException {
+        int first = readBits(8);
+        if (first < 0x80) return first;
+        int bytes = Integer.numberOfLeadingZeros(~(first << 24));
+        if (bytes < 2 || bytes > 7) {
+            throw new IOException("invalid utf-8 number");
+        }
+        long value = first & (0x7f >> bytes);
+        for (int i = 1; i < bytes; i++) {
+            int next = readBits(8);
+            if ((next & 0xc0) != 0x80) {
+                throw new IOException("invalid utf-8 number");
+            }
+            value = value << 6 | (next & 0x3f);
+        }
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        return (long) readBits(32) << 32 | (readBits(32) & 0xffffffffL);
+    }
+
+    /**
+     * @param count 0 ~ 32
+     */
+    private int readBits(int count) throws IOException {
+        while (bitCount < count) {
+            bitCache = bitCache << 8 | nextByte();
+            bitCount += 8;
+        }
+        bitCount -= count;
+        return (int) (bitCache >>> bitCount & ((1L << count) - 1));
+    }
+
+    private int readSigned(int count) throws IOException {
+        int value = readBits(count);
+        return count == 32 ? value : value << (32 - count) >> (32 - count);
+    }
+
+    /**
+     * @return 连续0的个数, 并跳过之后的1
+     */
+    private int readUnary() throws IOException {
+        int zeros = 0;
+        while (true) {
+            long bits = bitCache & ((1L << bitCount) - 1);
+            if (bits != 0) {
+                int top = 63 - Long.numberOfLeadingZeros(bits);
+                zeros += bitCount - 1 - top;
+                bitCount = top;
+                return zeros;
+            }
+            zeros += bitCount;
+            bitCache = nextByte();
+            bitCount = 8;
+        }
+    }
+
+    private int nextByte() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            throw new EOFException();
+        }
+        int value = buffer.get() & 0xff;
+        crc8 = FlacEncoder.CRC8[crc8 ^ value];
+        crc16 = (crc16 << 8 ^ FlacEncoder.CRC16[(crc16 >> 8) ^ value]) & 0xffff;
+        return value;
+    }
+
+    private void skip(int bytes) throws IOException {
+        if (bytes > 0) {
+            reposition(position() + bytes);
+        }
+    }
+
+    /**
+     * @return 下一个未读取的字节在文件中的位置, 需要字节对齐
+     */
+    private long position() {
+        return bufferEnd - buffer.remaining() - bitCount / 8;
+    }
+
+    private void reposition(long position) {
+        buffer.clear();
+        buffer.limit(0);
+        bufferEnd = position;
+        bitCache = 0;
+        bitCount = 0;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer, bufferEnd);
+        buffer.flip();
+        if (read <= 0) return false;
+        bufferEnd += read;
+        return true;
+    }
+
+}
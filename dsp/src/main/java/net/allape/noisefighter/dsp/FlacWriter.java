@@ -0,0 +1,263 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 无损压缩的FLAC文件写入, 16bit整数, 编码见{@link FlacEncoder}
+ *
+ * 文件头包括STREAMINFO与预留了SEEK_POINTS个位置的SEEKTABLE, 与{@link WavWriter}一样可以随时回写:
+ * 回写之后即使进程崩溃, 文件也可以完整解码并按时间定位. 定位点最初每帧一个, 用完时隔一个删除一个并把间隔加倍,
+ * 所以文件头的长度固定, 定位点在整个文件中均匀分布. MD5在关闭时才写入, 之前为0(表示未知).
+ */
+public class FlacWriter implements PcmSink {
+
+    // 预留的定位点数量
+    public static final int SEEK_POINTS = 1024;
+
+    // STREAMINFO的内容长度
+    private static final int STREAMINFO_LENGTH = 34;
+    // 每个定位点的长度
+    private static final int SEEK_POINT_LENGTH = 18;
+    // 文件头长度, 第一帧的位置
+    static final int HEADER_LENGTH = 4 + 4 + STREAMINFO_LENGTH + 4 + SEEK_POINTS * SEEK_POINT_LENGTH;
+    // 未使用的定位点
+    private static final long PLACEHOLDER = -1;
+
+    // 音频格式
+    private final AudioConfig config;
+    // 文件
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FlacEncoder encoder;
+    // 文件头
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    // 解码小端输入的缓冲
+    private final short[] samples;
+
+    // 定位点: 第一个采样、相对于第一帧的位置、采样数
+    private final long[] seekSamples = new long[SEEK_POINTS];
+    private final long[] seekOffsets = new long[SEEK_POINTS];
+    private final int[] seekFrames = new int[SEEK_POINTS];
+    private int seekCount = 0;
+    // 每隔多少帧一个定位点
+    private long seekInterval = 1;
+
+    // 下一帧在文件中的位置
+    private long position = HEADER_LENGTH;
+    // 已经写入的PCM数据长度(byte数量)
+    private long dataBytes = 0;
+    // 关闭时得到的MD5
+    private byte[] md5;
+    // 帧写入时的错误, 在下一次写入时抛出
+    private IOException error;
+
+    public FlacWriter(File flacFile, AudioConfig config) throws IOException {
+        this(flacFile, config, FlacEncoder.DEFAULT_BLOCK_SIZE, FlacEncoder.DEFAULT_MAX_LPC_ORDER);
+    }
+
+    /**
+     * @param config 音频格式, 只支持16bit整数
+     * @param blockSize 每帧的采样数
+     * @param maxLpcOrder 最大LPC阶数, 越大压缩率越高、编码越慢
+     */
+    public FlacWriter(File flacFile, AudioConfig config, int blockSize, int maxLpcOrder) throws IOException {
+        if (config.getEncoding() != AudioConfig.Encoding.PCM_16BIT) {
+            throw new IllegalArgumentException("FLAC only supports 16bit integer samples: " + config);
+        }
+        this.config = config;
+        this.encoder = new FlacEncoder(config.getSampleRate(), config.getChannels(), blockSize, maxLpcOrder,
+                this::onFrame);
+        this.samples = new short[blockSize * config.getChannels()];
+        this.file = new RandomAccessFile(flacFile, "rw");
+        this.channel = file.getChannel();
+        this.channel.truncate(0);
+        updateHeader();
+    }
+
+    /**
+     * 追加单声道采样, 多声道时复制到每个声道
+     */
+    public void write(short[] frame, int offset, int length) throws IOException {
+        int channels = config.getChannels();
+        dataBytes += (long) length * config.getBytesPerFrame();
+        if (channels == 1) {
+            encoder.write(frame, offset, length);
+        } else {
+            while (length > 0) {
+                int count = Math.min(length, samples.length / channels);
+                PcmConverter.fromMono(frame, offset, count, samples, channels);
+                encoder.write(samples, 0, count);
+                offset += count;
+                length -= count;
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * 追加小端16bit交错采样, 写入position到limit之间的数据
+     */
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        int channels = config.getChannels();
+        int bytes = pcm.remaining() / config.getBytesPerFrame() * config.getBytesPerFrame();
+        ShortBuffer view = pcm.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        view.limit(bytes / Pcm16.BYTES_PER_SAMPLE);
+        while (view.hasRemaining()) {
+            int count = Math.min(view.remaining(), samples.length);
+            view.get(samples, 0, count);
+            encoder.write(samples, 0, count / channels);
+        }
+        pcm.position(pcm.position() + bytes);
+        dataBytes += bytes;
+        checkError();
+    }
+
+    /**
+     * 编码器的回调: 写入一帧并记录定位点
+     */
+    private void onFrame(byte[] data, int length, long firstSample, int frames) {
+        long frame = firstSample / encoder.getBlockSize();
+        if (frame % seekInterval == 0) {
+            if (seekCount == SEEK_POINTS) {
+                // 保留间隔加倍之后仍然需要的定位点
+                int kept = 0;
+                for (int i = 0; i < seekCount; i += 2) {
+                    seekSamples[kept] = seekSamples[i];
+                    seekOffsets[kept] = seekOffsets[i];
+                    seekFrames[kept] = seekFrames[i];
+                    kept++;
+                }
+                seekCount = kept;
+                seekInterval *= 2;
+            }
+            if (frame % seekInterval == 0) {
+                seekSamples[seekCount] = firstSample;
+                seekOffsets[seekCount] = position - HEADER_LENGTH;
+                seekFrames[seekCount] = frames;
+                seekCount++;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw e;
+        }
+    }
+
+    /**
+     * 按当前长度回写文件头
+     */
+    public void updateHeader() throws IOException {
+        header(header, config, encoder, md5, seekSamples, seekOffsets, seekFrames, seekCount);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        updateHeader();
+        channel.force(false);
+    }
+
+    /**
+     * 编码剩余的采样, 写入MD5并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            encoder.finish();
+            md5 = encoder.digest();
+            checkError();
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void header(ByteBuffer dst, AudioConfig config, FlacEncoder encoder, byte[] md5,
+                               long[] seekSamples, long[] seekOffsets, int[] seekFrames, int seekCount) {
+        ByteBuffer header = dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+        header.clear();
+        header.put((byte) 'f').put((byte) 'L').put((byte) 'a').put((byte) 'C');
+
+        // STREAMINFO
+        header.putInt(STREAMINFO_LENGTH);
+        header.putShort((short) encoder.getBlockSize());
+        header.putShort((short) encoder.getBlockSize());
+        putInt24(header, encoder.getMinFrameSize());
+        putInt24(header, encoder.getMaxFrameSize());
+        header.putLong((long) config.getSampleRate() << 44
+                | (long) (config.getChannels() - 1) << 41
+                | (long) (FlacEncoder.BITS_PER_SAMPLE - 1) << 36
+                | encoder.getSamples());
+        if (md5 != null) {
+            header.put(md5);
+        } else {
+            header.put(new byte[16]);
+        }
+
+        // SEEKTABLE, 最后一个元数据块
+        header.putInt(0x80 << 24 | 3 << 24 | SEEK_POINTS * SEEK_POINT_LENGTH);
+        for (int i = 0; i < SEEK_POINTS; i++) {
+            if (i < seekCount) {
+                header.putLong(seekSamples[i]);
+                header.putLong(seekOffsets[i]);
+                header.putShort((short) seekFrames[i]);
+            } else {
+                header.putLong(PLACEHOLDER);
+                header.putLong(0);
+                header.putShort((short) 0);
+            }
+        }
+    }
+
+    private static void putInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+    }
+
+    @Override
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    /**
+     * @return 压缩之后的帧数据长度, 不包括文件头
+     */
+    public long getEncodedBytes() {
+        return position - HEADER_LENGTH;
+    }
+
+    /**
+     * @return 已使用的定位点数量
+     */
+    public int getSeekPoints() {
+        return seekCount;
+    }
+
+}
@@ -0,0 +1,49 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 按顺序将同一帧交给多个{@link FrameProcessor}处理
+ */
+public class FramePipeline implements FrameProcessor {
+
+    // 处理阶段
+    private final FrameProcessor[] stages;
+
+    // 每个阶段的耗时, 为null时不计时
+    private volatile LatencyHistogram[] timers;
+
+    public FramePipeline(FrameProcessor... stages) {
+        this.stages = stages.clone();
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        LatencyHistogram[] timers = this.timers;
+        if (timers == null) {
+            for (FrameProcessor stage : stages) {
+                stage.process(frame, offset, length);
+            }
+            return;
+        }
+        // 每个阶段的结束时间作为下一阶段的开始时间
+        long start = System.nanoTime();
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].process(frame, offset, length);
+            start = timers[i].recordSince(start);
+        }
+    }
+
+    /**
+     * @param timers 每个阶段一个直方图, 记录耗时(ns); 为null时停止计时
+     */
+    public void setStageTimers(LatencyHistogram... timers) {
+        if (timers != null && timers.length != stages.length) {
+            throw new IllegalArgumentException("expected " + stages.length + " timers, got " + timers.length);
+        }
+        this.timers = timers == null ? null : timers.clone();
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+}
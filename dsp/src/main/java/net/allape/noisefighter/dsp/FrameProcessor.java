@@ -0,0 +1,18 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 音频帧处理器, 每次收到一帧16bit PCM数据时被调用
+ *
+ * 实现不应在该方法中保留frame的引用, 调用返回后数据可能被覆盖
+ */
+public interface FrameProcessor {
+
+    /**
+     * 处理一帧数据
+     * @param frame 采样数据
+     * @param offset 本帧在frame中的起始位置
+     * @param length 本帧的采样数量
+     */
+    void process(short[] frame, int offset, int length);
+
+}
@@ -0,0 +1,201 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预分配的定长帧环形缓冲, 单生产者/单消费者
+ *
+ * 所有帧保存在同一个short[]中, 每个槽位最多保存frameSize个采样, 初始化之后不再分配内存.
+ * 序号单调递增, 槽位 = 序号 % 槽位数量; 生产者只修改写序号, 消费者只修改读序号.
+ *
+ * 消费者释放的帧总是可以被覆盖; 未释放的帧由生产者决定是否保留:
+ * 序号不小于{@link #retain(long)}的帧以及序号小于{@link #hold(long)}的帧不会被覆盖,
+ * 其余的帧作为历史数据循环覆盖. 默认保留所有未释放的帧, 即普通的有界队列.
+ */
+public class FrameRingBuffer {
+
+    // 每个槽位的最大采样数
+    private final int frameSize;
+    // 槽位数量
+    private final int slots;
+    // 采样数据
+    private final short[] data;
+    // 每个槽位的有效采样数
+    private final int[] lengths;
+
+    // 下一个写入的序号, 仅生产者修改
+    private final AtomicLong writeSequence = new AtomicLong();
+    // 下一个读取的序号, 仅消费者修改
+    private final AtomicLong readSequence = new AtomicLong();
+
+    // 生产者需要保留的第一帧, 仅在生产者线程中访问
+    private long retainFrom = 0;
+    // 交给消费者的帧的结束序号, 消费者释放之前不能覆盖; 仅在生产者线程中访问
+    private long holdUntil = 0;
+
+    /**
+     * @param frameSize 每帧最大采样数
+     * @param slots 最多缓存的帧数
+     */
+    public FrameRingBuffer(int frameSize, int slots) {
+        if (frameSize <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("frameSize and slots must be positive: " + frameSize + ", " + slots);
+        }
+        if ((long) frameSize * slots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ring buffer too large: " + frameSize + " * " + slots);
+        }
+        this.frameSize = frameSize;
+        this.slots = slots;
+        this.data = new short[frameSize * slots];
+        this.lengths = new int[slots];
+    }
+
+    /**
+     * 生产者: 复制一帧到下一个槽位
+     * @return 缓冲已满时返回false, 不写入任何数据
+     */
+    public boolean offer(short[] frame, int offset, int length) {
+        int position = claim();
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(frame, offset, data, position, length);
+        commit(length);
+        return true;
+    }
+
+    /**
+     * 生产者: 取得下一个槽位, 之后可以直接写入{@link #array()}, 写完调用{@link #commit(int)}
+     * @return 槽位在{@link #array()}中的起始位置, 槽位中的帧仍需保留时返回-1
+     */
+    public int claim() {
+        long sequence = writeSequence.get();
+        long overwritten = sequence - slots;
+        if (overwritten >= 0
+                && overwritten >= readSequence.get()
+                && (overwritten >= retainFrom || overwritten < holdUntil)) {
+            return -1;
+        }
+        return slot(sequence) * frameSize;
+    }
+
+    /**
+     * 生产者: 发布{@link #claim()}取得的槽位
+     * @param length 写入的采样数
+     */
+    public void commit(int length) {
+        if (length > frameSize) {
+            throw new IllegalArgumentException("frame too large: " + length + " > " + frameSize);
+        }
+        long sequence = writeSequence.get();
+        lengths[slot(sequence)] = length;
+        writeSequence.lazySet(sequence + 1);
+    }
+
+    /**
+     * 生产者: 只需要保留从sequence开始的帧, 之前未交给消费者的帧可以被覆盖
+     */
+    public void retain(long sequence) {
+        retainFrom = sequence;
+    }
+
+    /**
+     * 生产者: sequence之前的帧已交给消费者, 消费者释放之前不能被覆盖
+     */
+    public void hold(long sequence) {
+        holdUntil = sequence;
+    }
+
+    /**
+     * @return 仍然保存在缓冲中的最早的帧的序号
+     */
+    public long getOldestSequence() {
+        return Math.max(0, writeSequence.get() - slots);
+    }
+
+    /**
+     * 消费者: 释放sequence之前的所有槽位
+     */
+    public void release(long sequence) {
+        readSequence.lazySet(sequence);
+    }
+
+    /**
+     * 消费者: 释放所有已写入的槽位
+     */
+    public void clear() {
+        release(writeSequence.get());
+    }
+
+    public long getWriteSequence() {
+        return writeSequence.get();
+    }
+
+    public long getReadSequence() {
+        return readSequence.get();
+    }
+
+    /**
+     * @return 已写入且未释放的帧数, 仅在默认保留所有帧时有意义; 否则使用{@link #getHeldSize()}
+     */
+    public int size() {
+        return (int) (writeSequence.get() - readSequence.get());
+    }
+
+    /**
+     * 生产者: 已写入且不能被覆盖的帧数, 即保留的帧与交给消费者未释放的帧; 覆盖的历史帧不计算在内
+     */
+    public int getHeldSize() {
+        long write = writeSequence.get();
+        long from = Math.max(Math.max(0, write - slots), readSequence.get());
+        // 交给消费者的帧 [from, holdUntil) 与需要保留的帧 [retainFrom, write), 两段可能重叠
+        long handed = Math.max(0, Math.min(holdUntil, write) - from);
+        long retained = Math.max(0, write - Math.max(Math.max(retainFrom, holdUntil), from));
+        return (int) (handed + retained);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 生产者: 是否无法写入下一帧
+     */
+    public boolean isFull() {
+        return claim() < 0;
+    }
+
+    /**
+     * @return 保存所有帧的数组, 配合{@link #offset(long)}和{@link #length(long)}直接读取, 无需复制
+     */
+    public short[] array() {
+        return data;
+    }
+
+    /**
+     * @return 序号对应的帧在{@link #array()}中的起始位置
+     */
+    public int offset(long sequence) {
+        return slot(sequence) * frameSize;
+    }
+
+    /**
+     * @return 序号对应的帧的采样数
+     */
+    public int length(long sequence) {
+        return lengths[slot(sequence)];
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % slots);
+    }
+
+}
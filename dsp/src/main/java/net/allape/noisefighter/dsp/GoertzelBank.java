@@ -0,0 +1,126 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * Goertzel滤波器组: 只计算频段内的DFT频点, 适合窄频段(例如低音)
+ *
+ * 频点间隔为 采样率 / 帧长度, 系数在构造时预先计算; 每个频点每个采样只需要一次乘加, 处理时不分配内存.
+ * 帧长度与构造时不同也可以处理, 只是频点不再与DFT频点对齐.
+ */
+public class GoertzelBank implements BandMeter {
+
+    // 频段
+    private final Band[] bands;
+    // 每个频段第一个频点的下标, 长度为频段数量 + 1
+    private final int[] firstBin;
+    // 每个频点的系数 2cos(2πk/N)
+    private final double[] coefficients;
+    // 每个频段最近一帧的均方值
+    private final double[] power;
+
+    /**
+     * @param sampleRate 采样率
+     * @param frameSize 预期的帧长度, 决定频点间隔
+     * @param bands 频段
+     */
+    public GoertzelBank(int sampleRate, int frameSize, Band... bands) {
+        if (bands.length == 0) {
+            throw new IllegalArgumentException("at least one band is required");
+        }
+        this.bands = bands.clone();
+        this.firstBin = new int[bands.length + 1];
+        this.power = new double[bands.length];
+
+        double resolution = (double) sampleRate / frameSize;
+        int[] from = new int[bands.length];
+        int[] to = new int[bands.length];
+        int total = 0;
+        for (int i = 0; i < bands.length; i++) {
+            double nyquist = sampleRate / 2.0;
+            int low = (int) Math.ceil(Math.min(bands[i].low, nyquist) / resolution);
+            int high = (int) Math.floor(Math.min(bands[i].high, nyquist) / resolution);
+            if (high < low) {
+                // 频段比频点间隔窄, 使用最近的频点
+                low = high = (int) Math.round(bands[i].center() / resolution);
+            }
+            from[i] = low;
+            to[i] = high;
+            firstBin[i] = total;
+            total += high - low + 1;
+        }
+        firstBin[bands.length] = total;
+
+        coefficients = new double[total];
+        for (int i = 0; i < bands.length; i++) {
+            for (int k = from[i]; k <= to[i]; k++) {
+                coefficients[firstBin[i] + k - from[i]] = 2 * Math.cos(2 * Math.PI * k / frameSize);
+            }
+        }
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        if (length == 0) {
+            for (int i = 0; i < power.length; i++) power[i] = 0;
+            return;
+        }
+        // 矩形窗: 均方值 = 2 * |X|^2 / N^2
+        double scale = 2.0 / ((double) length * length);
+        int end = offset + length;
+        for (int b = 0; b < bands.length; b++) {
+            double sum = 0;
+            int bin = firstBin[b];
+            int last = firstBin[b + 1];
+            // 两个频点交替计算, 让相互独立的递推可以并行执行
+            for (; bin + 1 < last; bin += 2) {
+                double c0 = coefficients[bin];
+                double c1 = coefficients[bin + 1];
+                double p1 = 0, p2 = 0, q1 = 0, q2 = 0;
+                for (int i = offset; i < end; i++) {
+                    double x = frame[i];
+                    double p0 = x + c0 * p1 - p2;
+                    double q0 = x + c1 * q1 - q2;
+                    p2 = p1;
+                    p1 = p0;
+                    q2 = q1;
+                    q1 = q0;
+                }
+                sum += p1 * p1 + p2 * p2 - c0 * p1 * p2;
+                sum += q1 * q1 + q2 * q2 - c1 * q1 * q2;
+            }
+            if (bin < last) {
+                double c = coefficients[bin];
+                double p1 = 0, p2 = 0;
+                for (int i = offset; i < end; i++) {
+                    double p0 = frame[i] + c * p1 - p2;
+                    p2 = p1;
+                    p1 = p0;
+                }
+                sum += p1 * p1 + p2 * p2 - c * p1 * p2;
+            }
+            power[b] = sum * scale;
+        }
+    }
+
+    @Override
+    public int getBandCount() {
+        return bands.length;
+    }
+
+    @Override
+    public Band getBand(int band) {
+        return bands[band];
+    }
+
+    @Override
+    public double getBandPower(int band) {
+        return power[band];
+    }
+
+    /**
+     * @return 频段内的频点数量
+     */
+    public int getBinCount(int band) {
+        return firstBin[band + 1] - firstBin[band];
+    }
+
+}
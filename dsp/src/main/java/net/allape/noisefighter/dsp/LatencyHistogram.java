@@ -0,0 +1,163 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 固定分桶的对数直方图, 与HdrHistogram相同的分桶方式, 由{@link Metrics}创建
+ *
+ * 小于{@link #SUB_BUCKETS}的值每个值一个桶, 之后每个2的幂区间分为{@link #SUB_BUCKETS}/2个桶,
+ * 相对误差不超过1/16; 超出{@link #MAX_VALUE}的值记入最后一个桶.
+ * 记录只是计算桶序号并lazySet一次计数, 只允许一个线程写入; 任意线程都可以通过{@link #snapshot(Snapshot)}读取.
+ */
+public final class LatencyHistogram {
+
+    // 每个2的幂区间的子桶数量(的两倍), 决定精度
+    public static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+    // 能够区分的最大值, 单位与记录的值相同, 纳秒时约为18分钟
+    public static final long MAX_VALUE = (1L << 40) - 1;
+    // 桶数量
+    public static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram> MAX =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "max");
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    // 最大值, 不受分桶精度影响
+    private volatile long max = 0;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一个值, 负数按0记录
+     */
+    public void record(long value) {
+        int index = index(Math.max(0, Math.min(MAX_VALUE, value)));
+        counts.lazySet(index, counts.get(index) + 1);
+        if (value > max) MAX.lazySet(this, value);
+    }
+
+    /**
+     * 记录从start到现在经过的纳秒数
+     * @param start {@link System#nanoTime()}
+     * @return 现在的时间, 可以作为下一段的start
+     */
+    public long recordSince(long start) {
+        long now = System.nanoTime();
+        record(now - start);
+        return now;
+    }
+
+    /**
+     * 复制当前的计数, 写入线程同时记录时各个桶之间可能相差一次记录
+     */
+    public Snapshot snapshot(Snapshot dst) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            dst.counts[i] = count;
+            total += count;
+        }
+        dst.count = total;
+        dst.max = max;
+        return dst;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 值所在的桶
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * (SUB_BUCKETS / 2) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return 桶的下限
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / (SUB_BUCKETS / 2) - 1;
+        return (long) (index - shift * (SUB_BUCKETS / 2)) << shift;
+    }
+
+    /**
+     * @return 桶的上限(包括)
+     */
+    static long highestValue(int index) {
+        return index + 1 < BUCKETS ? lowestValue(index + 1) - 1 : MAX_VALUE;
+    }
+
+    /**
+     * 某一时刻的计数, 可以复用
+     */
+    public static final class Snapshot {
+
+        final long[] counts = new long[BUCKETS];
+        long count;
+        long max;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return 桶i的计数
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @param percentile 0 ~ 100
+         * @return 该百分位所在桶的上限, 不超过最大值; 没有记录时为0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return 平均值, 按桶的中点计算
+         */
+        public double getMean() {
+            if (count == 0) return 0;
+            double sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] != 0) {
+                    sum += counts[i] * (lowestValue(i) + highestValue(i)) / 2.0;
+                }
+            }
+            return sum / count;
+        }
+
+        /**
+         * 设置为文件中读取的计数
+         */
+        void set(int bucket, long count) {
+            counts[bucket] = count;
+        }
+    }
+
+}
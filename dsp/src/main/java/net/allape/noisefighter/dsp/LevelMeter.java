@@ -0,0 +1,89 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 计算每一帧的振幅峰值(绝对值)和均方根
+ *
+ * 每帧只有一个循环, 结果保存为基本类型; 均方根与dBFS在读取时才计算, 不读取时没有额外开销.
+ * dBFS以32768为满幅, 满幅正弦波的均方根约为-3dBFS.
+ */
+public class LevelMeter implements FrameProcessor {
+
+    // 满幅
+    public static final int FULL_SCALE = 32768;
+    // 静音时的dBFS
+    public static final double SILENCE_DBFS = -120;
+
+    // 最近一帧的振幅峰值, 0 ~ 32768
+    private int peak = 0;
+    // 最近一帧的平方和
+    private long sumSquares = 0;
+    // 最近一帧的采样数
+    private int length = 0;
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        int peak = 0;
+        long sumSquares = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int one = frame[i];
+            // 无分支的绝对值, -32768得到32768
+            int sign = one >> 31;
+            int abs = (one ^ sign) - sign;
+            peak = Math.max(peak, abs);
+            sumSquares += one * one;
+        }
+        this.peak = peak;
+        this.sumSquares = sumSquares;
+        this.length = length;
+    }
+
+    /**
+     * @return 振幅峰值(绝对值), 0 ~ {@link #FULL_SCALE}
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    public long getSumSquares() {
+        return sumSquares;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return 均方根, 与采样同一量纲
+     */
+    public double getRms() {
+        return length == 0 ? 0 : Math.sqrt((double) sumSquares / length);
+    }
+
+    public double getPeakDbfs() {
+        return dbfs(peak);
+    }
+
+    public double getRmsDbfs() {
+        return dbfs(getRms());
+    }
+
+    /**
+     * @param amplitude 振幅
+     * @return 相对于满幅的分贝数, 静音时为{@link #SILENCE_DBFS}
+     */
+    public static double dbfs(double amplitude) {
+        if (amplitude <= 0) {
+            return SILENCE_DBFS;
+        }
+        return Math.max(SILENCE_DBFS, 20 * Math.log10(amplitude / FULL_SCALE));
+    }
+
+    /**
+     * @param dbfs 相对于满幅的分贝数
+     * @return 振幅
+     */
+    public static double amplitude(double dbfs) {
+        return FULL_SCALE * Math.pow(10, dbfs / 20);
+    }
+
+}
@@ -0,0 +1,130 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.Arrays;
+
+/**
+ * 增益与前视(look-ahead)峰值限制器, 原地处理
+ *
+ * 输出比输入延迟lookahead个采样; 增益包络跟随前视窗口内所需增益的最小值(单调队列, 每个采样均摊O(1)),
+ * 在峰值到达之前的前视时间内降低, 之后按释放时间恢复. 最后再按上限截断一次, 保证不超过上限.
+ */
+public class Limiter {
+
+    // 延迟, 单位: 采样
+    private final int lookahead;
+    // 延迟线, 保存乘以增益之后的输入
+    private final float[] delay;
+    // 前视窗口内所需增益的单调队列: 序号与数值
+    private final long[] queueIndex;
+    private final float[] queueValue;
+    // 包络下降与恢复的系数
+    private final float attack;
+    private final float release;
+
+    // 增益, 线性
+    private volatile float gain = 1;
+    // 上限, 与采样同一量纲
+    private volatile float ceiling = LevelMeter.FULL_SCALE - 1;
+
+    // 队列头尾, 环形; 窗口内最多lookahead + 1个值, 容量再多1以区分满与空
+    private int head = 0;
+    private int tail = 0;
+    // 延迟线的当前位置
+    private int slot = 0;
+    // 已经输入的采样数
+    private long index = 0;
+    // 当前的增益包络
+    private float envelope = 1;
+
+    /**
+     * @param sampleRate 采样率
+     * @param lookaheadMs 前视时长, 同时也是延迟
+     * @param releaseMs 恢复时长
+     */
+    public Limiter(int sampleRate, double lookaheadMs, double releaseMs) {
+        this.lookahead = Math.max(1, (int) Math.round(sampleRate * lookaheadMs / 1000));
+        this.delay = new float[lookahead];
+        this.queueIndex = new long[lookahead + 2];
+        this.queueValue = new float[lookahead + 2];
+        // 前视时间内下降到目标的99%, 剩余部分由截断处理
+        this.attack = (float) (1 - Math.exp(-4.6 / lookahead));
+        this.release = (float) (1 - Math.exp(-1000.0 / (sampleRate * Math.max(releaseMs, 1e-3))));
+    }
+
+    /**
+     * 原地处理, 输出延迟{@link #getLatency()}个采样
+     */
+    public void process(short[] block, int offset, int length) {
+        float gain = this.gain;
+        float ceiling = this.ceiling;
+        int capacity = queueValue.length;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            float input = block[i] * gain;
+            float abs = Math.abs(input);
+            float target = abs > ceiling ? ceiling / abs : 1;
+
+            // 移除不再比新值小的队尾, 以及离开窗口的队头
+            while (tail != head && queueValue[tail == 0 ? capacity - 1 : tail - 1] >= target) {
+                tail = tail == 0 ? capacity - 1 : tail - 1;
+            }
+            queueIndex[tail] = index;
+            queueValue[tail] = target;
+            if (++tail == capacity) tail = 0;
+            if (queueIndex[head] < index - lookahead) {
+                if (++head == capacity) head = 0;
+            }
+            float minimum = queueValue[head];
+            envelope += (minimum - envelope) * (minimum < envelope ? attack : release);
+
+            float output = delay[slot] * envelope;
+            delay[slot] = input;
+            if (++slot == lookahead) slot = 0;
+            index++;
+
+            output = Math.max(-ceiling, Math.min(ceiling, output));
+            block[i] = (short) Math.round(output);
+        }
+    }
+
+    /**
+     * 清空延迟线与包络, 开始新的一段
+     */
+    public void reset() {
+        Arrays.fill(delay, 0);
+        head = 0;
+        tail = 0;
+        slot = 0;
+        index = 0;
+        envelope = 1;
+    }
+
+    /**
+     * @return 延迟, 单位: 采样
+     */
+    public int getLatency() {
+        return lookahead;
+    }
+
+    /**
+     * @param gainDb 增益, 单位: dB
+     */
+    public void setGainDb(double gainDb) {
+        this.gain = (float) Math.pow(10, gainDb / 20);
+    }
+
+    public double getGainDb() {
+        return 20 * Math.log10(gain);
+    }
+
+    /**
+     * @param ceilingDbfs 上限, 单位: dBFS
+     */
+    public void setCeilingDbfs(double ceilingDbfs) {
+        this.ceiling = (float) Math.min(LevelMeter.FULL_SCALE - 1, LevelMeter.amplitude(ceilingDbfs));
+    }
+
+    public double getCeilingDbfs() {
+        return LevelMeter.dbfs(ceiling);
+    }
+
+}
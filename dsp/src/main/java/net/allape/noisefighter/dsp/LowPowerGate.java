@@ -0,0 +1,147 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 低功耗门控: 长时间没有声音时进入休眠, 只用抽取之后的峰值检测是否可能触发, 可能触发时唤醒完整的处理流程
+ *
+ * 休眠时每DECIMATION个采样只检查一个, 峰值达到唤醒阈值(可能触发的最低峰值再低一个余量)就唤醒;
+ * 抽取会低估高频突发的峰值, 余量用来补偿. 采样率的1/(2*DECIMATION)整数倍的正弦可能每次都取在过零点附近,
+ * 所以每帧检查的位置依次错开一个采样, 这样的声音最迟晚DECIMATION-1帧被检测到.
+ * 唤醒之后连续sleepAfter个采样低于唤醒阈值且没有触发、播放与冷却才再次休眠.
+ * 只在录音线程中使用, 状态可以由其他线程读取.
+ */
+public class LowPowerGate {
+
+    // 休眠时每几个采样检查一个
+    public static final int DECIMATION = 4;
+
+    // 唤醒之后需要保持安静的时长才再次休眠, 单位: 采样
+    private final long sleepAfter;
+    // 唤醒阈值相对可能触发的最低峰值的比例
+    private final double margin;
+
+    // 是否开启, 可以由其他线程修改
+    private volatile boolean enabled = false;
+    // 是否正在休眠
+    private volatile boolean sleeping = false;
+    // 唤醒之后保持安静的采样数
+    private long quiet = 0;
+    // 最近一次检测的抽取峰值
+    private int peak = 0;
+    // 检测过的帧数与采样数, 用于错开检查的位置
+    private long detectedFrames = 0;
+    private long detectedSamples = 0;
+    // 唤醒次数
+    private volatile long wakeups = 0;
+    // 休眠与唤醒的累计采样数
+    private volatile long sleptSamples = 0;
+    private volatile long awakeSamples = 0;
+
+    /**
+     * @param sleepAfter 唤醒之后需要保持安静的时长才再次休眠, 单位: 采样
+     * @param marginDb 唤醒阈值低于可能触发的最低峰值的余量, 单位: dB
+     */
+    public LowPowerGate(long sleepAfter, double marginDb) {
+        if (marginDb < 0) {
+            throw new IllegalArgumentException("margin must not be negative: " + marginDb);
+        }
+        this.sleepAfter = sleepAfter;
+        this.margin = Math.pow(10, -marginDb / 20);
+    }
+
+    /**
+     * 休眠时检测一帧
+     * @param onsetPeak 可能触发的最低峰值, 见{@link ThresholdTrigger#getOnsetPeak()}
+     * @return 是否唤醒, 唤醒时这一帧需要经过完整的处理流程
+     */
+    public boolean detect(short[] frame, int offset, int length, int onsetPeak) {
+        int peak = 0;
+        int start = (int) Math.floorMod(detectedFrames - detectedSamples, (long) DECIMATION);
+        detectedFrames++;
+        detectedSamples += length;
+        for (int i = offset + start, end = offset + length; i < end; i += DECIMATION) {
+            int abs = Math.abs(frame[i]);
+            if (abs > peak) peak = abs;
+        }
+        this.peak = peak;
+        if (peak < wakeThreshold(onsetPeak)) {
+            sleptSamples += length;
+            return false;
+        }
+        sleeping = false;
+        quiet = 0;
+        wakeups++;
+        return true;
+    }
+
+    /**
+     * 唤醒时在完整的处理流程之后调用
+     * @param busy 是否正在触发、播放或冷却
+     * @param peak 这一帧的峰值
+     * @param onsetPeak 可能触发的最低峰值
+     * @return 是否进入休眠, 从下一帧开始生效
+     */
+    public boolean update(boolean busy, int peak, int length, int onsetPeak) {
+        awakeSamples += length;
+        if (!enabled) return false;
+        if (busy || peak >= wakeThreshold(onsetPeak)) {
+            quiet = 0;
+            return false;
+        }
+        quiet += length;
+        if (quiet < sleepAfter) return false;
+        sleeping = true;
+        return true;
+    }
+
+    private int wakeThreshold(int onsetPeak) {
+        return (int) (onsetPeak * margin);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled 是否开启, 关闭时立即唤醒
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) sleeping = false;
+    }
+
+    /**
+     * @return 是否正在休眠
+     */
+    public boolean isSleeping() {
+        return sleeping;
+    }
+
+    /**
+     * @return 最近一次休眠时检测到的抽取峰值
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return 从休眠中唤醒的次数
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * @return 休眠时只做检测的采样数
+     */
+    public long getSleptSamples() {
+        return sleptSamples;
+    }
+
+    /**
+     * @return 经过完整处理流程的采样数
+     */
+    public long getAwakeSamples() {
+        return awakeSamples;
+    }
+
+}
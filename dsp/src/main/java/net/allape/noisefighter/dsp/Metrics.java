@@ -0,0 +1,59 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 指标注册表: 计数器与延迟直方图
+ *
+ * 注册在启动时进行(会分配内存并加锁), 之后热路径上只调用{@link Counter}与{@link LatencyHistogram}的记录方法,
+ * 每次记录只有几纳秒且不分配内存, 因此可以在生产环境中一直开启. 导出见{@link MetricsFile}.
+ */
+public class Metrics {
+
+    // 队列深度直方图的名称后缀, 其余直方图的单位为ns
+    public static final String DEPTH_SUFFIX = ".depth";
+
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    /**
+     * @return 名称对应的计数器, 不存在时创建
+     */
+    public synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.getName().equals(name)) return counter;
+        }
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * @return 名称对应的直方图, 不存在时创建
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getName().equals(name)) return histogram;
+        }
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * @return 所有计数器, 按注册顺序
+     */
+    public synchronized List<Counter> getCounters() {
+        return Collections.unmodifiableList(new ArrayList<>(counters));
+    }
+
+    /**
+     * @return 所有直方图, 按注册顺序
+     */
+    public synchronized List<LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableList(new ArrayList<>(histograms));
+    }
+
+}
@@ -0,0 +1,239 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将{@link Metrics}的快照追加到二进制文件, 文件超出大小时轮转
+ *
+ * 文件头: magic, 版本; 之后每条记录以长度开头: 时间, 各计数器的名称与数值, 各直方图的名称、总数、最大值与非零的桶.
+ * 数值都是累计值, 相邻两条记录相减即为这段时间内的变化. 当前文件为prefix.bin, 轮转之后依次为prefix.1.bin、prefix.2.bin...
+ * 只在导出线程中调用, 不在热路径上.
+ */
+public class MetricsFile implements Closeable {
+
+    // 文件头: magic, 版本
+    static final int HEADER_SIZE = 8;
+
+    private static final int MAGIC = 0x544d464e; // "NFMT"
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final String prefix;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    // 记录编码缓冲, 不够时扩大
+    private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param directory 文件所在的目录
+     * @param prefix 文件名前缀
+     * @param maxBytes 每个文件的最大长度, 单条记录超出时也会写入
+     * @param maxFiles 保留的文件数量, 包括当前文件
+     */
+    public MetricsFile(File directory, String prefix, long maxBytes, int maxFiles) throws IOException {
+        if (maxBytes <= HEADER_SIZE || maxFiles < 1) {
+            throw new IllegalArgumentException("illegal rotation: " + maxBytes + " bytes, " + maxFiles + " files");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    /**
+     * @param generation 0为当前文件, 数字越大越旧
+     */
+    public static File file(File directory, String prefix, int generation) {
+        return new File(directory, generation == 0 ? prefix + ".bin" : prefix + "." + generation + ".bin");
+    }
+
+    private void open() throws IOException {
+        file = new RandomAccessFile(file(directory, prefix, 0), "rw");
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.size() < HEADER_SIZE) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+        } else {
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                // 无法识别的文件重新开始
+                channel.truncate(0);
+                header.clear();
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.write(header, 0);
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录
+     * @param timestamp 时间, 单位: ms
+     */
+    public synchronized void append(Metrics metrics, long timestamp) throws IOException {
+        List<Counter> counters = metrics.getCounters();
+        List<LatencyHistogram> histograms = metrics.getHistograms();
+        int bound = 4 + 8 + 2 + 2;
+        for (Counter counter : counters) bound += 2 + utf8Length(counter.getName()) + 8;
+        for (LatencyHistogram histogram : histograms) {
+            bound += 2 + utf8Length(histogram.getName()) + 8 + 8 + 2 + LatencyHistogram.BUCKETS * 10;
+        }
+        if (buffer.capacity() < bound) {
+            buffer = ByteBuffer.allocate(bound).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        buffer.clear();
+        buffer.putInt(0).putLong(timestamp);
+        buffer.putShort((short) counters.size());
+        for (Counter counter : counters) {
+            putName(buffer, counter.getName());
+            buffer.putLong(counter.get());
+        }
+        buffer.putShort((short) histograms.size());
+        for (LatencyHistogram histogram : histograms) {
+            histogram.snapshot(snapshot);
+            putName(buffer, histogram.getName());
+            buffer.putLong(snapshot.getCount()).putLong(snapshot.getMax());
+            int countPosition = buffer.position();
+            buffer.putShort((short) 0);
+            short buckets = 0;
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                long count = snapshot.getCount(i);
+                if (count != 0) {
+                    buffer.putShort((short) i).putLong(count);
+                    buckets++;
+                }
+            }
+            buffer.putShort(countPosition, buckets);
+        }
+        buffer.putInt(0, buffer.position());
+        buffer.flip();
+
+        long size = channel.size();
+        if (size > HEADER_SIZE && size + buffer.remaining() > maxBytes) {
+            rotate();
+            size = channel.size();
+        }
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+    }
+
+    /**
+     * 关闭当前文件, 依次重命名旧文件并删除最旧的, 然后创建新文件
+     */
+    private void rotate() throws IOException {
+        file.close();
+        Files.deleteIfExists(file(directory, prefix, maxFiles - 1).toPath());
+        for (int generation = maxFiles - 2; generation >= 0; generation--) {
+            File older = file(directory, prefix, generation);
+            if (older.exists() && !older.renameTo(file(directory, prefix, generation + 1))) {
+                throw new IOException("failed to rotate " + older);
+            }
+        }
+        open();
+    }
+
+    /**
+     * 将数据写入存储设备
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * 读取一个文件中的所有记录, 忽略末尾不完整的记录
+     */
+    public static List<Record> read(File file) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw new IOException("not a metrics file: " + file);
+        }
+        List<Record> records = new ArrayList<>();
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length < 4 || length > data.remaining() + 4) break;
+            Record record = new Record(data.getLong());
+            for (int i = data.getShort(); i > 0; i--) {
+                record.counters.put(getName(data), data.getLong());
+            }
+            for (int i = data.getShort(); i > 0; i--) {
+                String name = getName(data);
+                LatencyHistogram.Snapshot histogram = new LatencyHistogram.Snapshot();
+                histogram.count = data.getLong();
+                histogram.max = data.getLong();
+                for (int j = data.getShort(); j > 0; j--) {
+                    histogram.set(data.getShort(), data.getLong());
+                }
+                record.histograms.put(name, histogram);
+            }
+            data.position(start + length);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static int utf8Length(String name) {
+        return name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putName(ByteBuffer dst, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        dst.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getName(ByteBuffer src) {
+        byte[] bytes = new byte[src.getShort()];
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一条记录
+     */
+    public static final class Record {
+
+        // 时间, 单位: ms
+        public final long timestamp;
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private final Map<String, LatencyHistogram.Snapshot> histograms = new LinkedHashMap<>();
+
+        Record(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public Map<String, Long> getCounters() {
+            return Collections.unmodifiableMap(counters);
+        }
+
+        public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+            return Collections.unmodifiableMap(histograms);
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按顺序追加保存{@link NoiseRollup}, 每条定长记录, 一天的分钟与小时统计约40KB
+ *
+ * 文件头: magic, 版本; 每条记录: start(8) period(4) duration(4), 之后leq lmax lmin l10 l50 l90各2字节, 单位: 0.01dB.
+ * 重新打开时丢弃不完整的最后一条记录. 只在导出线程中使用, 不在热路径上.
+ */
+public class NoiseLog implements Closeable {
+
+    // 文件头: magic, 版本
+    static final int HEADER_SIZE = 8;
+    // 每条记录的长度
+    static final int RECORD_SIZE = 28;
+
+    private static final int MAGIC = 0x4e4e464e; // "NFNN"
+    private static final int VERSION = 1;
+    // 电平的单位, dB
+    private static final float LEVEL_UNIT = 0.01f;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // 记录数量
+    private int size;
+
+    /**
+     * 打开或创建文件
+     */
+    public NoiseLog(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_SIZE) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                writeFully(header, 0);
+            } else {
+                readFully(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("not a noise log: " + path);
+                }
+                size = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+                channel.truncate(HEADER_SIZE + (long) size * RECORD_SIZE);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public void append(NoiseRollup rollup) throws IOException {
+        record.clear();
+        record.putLong(rollup.start)
+                .putInt(rollup.period)
+                .putInt(rollup.duration)
+                .putShort(encode(rollup.leq))
+                .putShort(encode(rollup.lmax))
+                .putShort(encode(rollup.lmin))
+                .putShort(encode(rollup.l10))
+                .putShort(encode(rollup.l50))
+                .putShort(encode(rollup.l90))
+                .flip();
+        writeFully(record, HEADER_SIZE + (long) size * RECORD_SIZE);
+        size++;
+    }
+
+    /**
+     * 读取第i条记录
+     */
+    public void read(int i, NoiseRollup dst) throws IOException {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("record " + i + " of " + size);
+        }
+        record.clear();
+        readFully(record, HEADER_SIZE + (long) i * RECORD_SIZE);
+        record.flip();
+        dst.start = record.getLong();
+        dst.period = record.getInt();
+        dst.duration = record.getInt();
+        dst.leq = decode(record.getShort());
+        dst.lmax = decode(record.getShort());
+        dst.lmin = decode(record.getShort());
+        dst.l10 = decode(record.getShort());
+        dst.l50 = decode(record.getShort());
+        dst.l90 = decode(record.getShort());
+    }
+
+    /**
+     * @return 记录数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 写入存储设备
+     */
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (channel.isOpen()) flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static short encode(float level) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(level / LEVEL_UNIT)));
+    }
+
+    private static float decode(short value) {
+        return value * LEVEL_UNIT;
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        int total = 0;
+        while (src.hasRemaining()) {
+            total += channel.write(src, position + total);
+        }
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.Locale;
+
+/**
+ * 一分钟或一小时的噪声统计, 由{@link NoiseStatistics}产生、{@link NoiseLog}保存, 可以复用
+ *
+ * 电平都是A计权的dBFS; 换算为声压级需要加上麦克风的校准值. Lx为超过x%时间的电平, 按125ms的等效声级统计.
+ */
+public class NoiseRollup {
+
+    // 统计周期的开始时间(按周期对齐), 单位: ms
+    public long start;
+    // 统计周期, 单位: ms, 为{@link NoiseStatistics#MINUTE_MS}或{@link NoiseStatistics#HOUR_MS}
+    public int period;
+    // 实际统计的时长, 单位: ms; 开始或停止录音的周期不完整, 播放期间跳过的采样也不计算在内
+    public int duration;
+    // 等效连续声级(能量平均)
+    public float leq;
+    // 125ms等效声级的最大值与最小值
+    public float lmax;
+    public float lmin;
+    // 超过10%、50%、90%时间的电平
+    public float l10;
+    public float l50;
+    public float l90;
+
+    public void set(NoiseRollup other) {
+        start = other.start;
+        period = other.period;
+        duration = other.duration;
+        leq = other.leq;
+        lmax = other.lmax;
+        lmin = other.lmin;
+        l10 = other.l10;
+        l50 = other.l50;
+        l90 = other.l90;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "NoiseRollup{start=%d, period=%d, duration=%d, leq=%.1f, lmax=%.1f, lmin=%.1f, l10=%.1f, l50=%.1f, l90=%.1f}",
+                start, period, duration, leq, lmax, lmin, l10, l50, l90);
+    }
+
+}
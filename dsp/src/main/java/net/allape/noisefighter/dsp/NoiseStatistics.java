@@ -0,0 +1,275 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 持续统计环境噪声: 每分钟与每小时的A计权等效声级(Leq)与百分位声级(L10/L50/L90)
+ *
+ * 录音先经过{@link AWeighting}, 每125ms得到一个等效声级, 记入当前分钟与当前小时的直方图(0.1dB一个桶, -120 ~ 0dBFS).
+ * 每帧只有滤波的循环与常数次的累加; 直方图大小固定, 与统计了多久无关, Leq由能量之和精确计算, 百分位的误差不超过一个桶.
+ * 周期按墙上时间对齐, 时间由{@link #reset(long)}设置的起点加上处理过的采样数得到, 所以录音中断时不会把空白算进去.
+ * {@link #setExcluded(boolean)}期间(例如播放应答声音时)的采样只推进时间, 不计入统计, 结果的时长因此小于周期.
+ * 周期结束时结果放入固定容量的单生产者/单消费者队列, 由其他线程通过{@link #poll(NoiseRollup)}取出并保存; 队列已满时丢弃.
+ * 除poll之外只能在录音线程中使用.
+ */
+public class NoiseStatistics implements FrameProcessor {
+
+    // 一个等效声级的时长
+    public static final int INTERVAL_MS = 125;
+    public static final int MINUTE_MS = 60 * 1000;
+    public static final int HOUR_MS = 60 * MINUTE_MS;
+    // 等待保存的统计结果的最大数量
+    public static final int QUEUE_CAPACITY = 64;
+
+    // 直方图的范围与精度
+    static final double MIN_DBFS = -120;
+    static final int BINS_PER_DB = 10;
+    static final int BINS = (int) -MIN_DBFS * BINS_PER_DB;
+    // 满幅的平方, 与LevelMeter相同以32768为满幅
+    private static final double FULL_SCALE_SQUARED = (double) LevelMeter.FULL_SCALE * LevelMeter.FULL_SCALE;
+
+    /**
+     * 一个统计周期的累加值
+     */
+    private static final class Period {
+
+        final int length;
+        final int[] counts = new int[BINS];
+        long start;
+        long end;
+        long samples;
+        double energy;
+        int intervals;
+        double max;
+        double min;
+
+        Period(int length) {
+            this.length = length;
+        }
+
+        void clear(long time) {
+            start = time - Math.floorMod(time, length);
+            end = start + length;
+            samples = 0;
+            energy = 0;
+            if (intervals > 0) {
+                for (int i = 0; i < BINS; i++) {
+                    counts[i] = 0;
+                }
+            }
+            intervals = 0;
+            max = MIN_DBFS;
+            min = 0;
+        }
+
+        void add(double level, double energy, int samples) {
+            int bin = (int) ((level - MIN_DBFS) * BINS_PER_DB);
+            counts[Math.max(0, Math.min(BINS - 1, bin))]++;
+            this.energy += energy;
+            this.samples += samples;
+            intervals++;
+            max = Math.max(max, level);
+            min = Math.min(min, level);
+        }
+
+        /**
+         * @return 超过percent%的时间的电平, 取桶的中点
+         */
+        double exceeded(double percent) {
+            double target = intervals * percent / 100;
+            long count = 0;
+            for (int i = BINS - 1; i > 0; i--) {
+                count += counts[i];
+                if (count >= target) return MIN_DBFS + (i + 0.5) / BINS_PER_DB;
+            }
+            return MIN_DBFS + 0.5 / BINS_PER_DB;
+        }
+
+        void to(NoiseRollup dst, int sampleRate) {
+            dst.start = start;
+            dst.period = length;
+            dst.duration = (int) (samples * 1000 / sampleRate);
+            dst.leq = (float) level(energy, samples);
+            dst.lmax = (float) max;
+            dst.lmin = (float) min;
+            dst.l10 = (float) exceeded(10);
+            dst.l50 = (float) exceeded(50);
+            dst.l90 = (float) exceeded(90);
+        }
+
+    }
+
+    private final int sampleRate;
+    private final AWeighting weighting;
+    // 一个等效声级的采样数
+    private final int intervalSamples;
+    private final Period minute = new Period(MINUTE_MS);
+    private final Period hour = new Period(HOUR_MS);
+
+    // 起点的墙上时间与之后处理过的采样数
+    private long epoch = 0;
+    private long time = 0;
+    // 当前等效声级的能量与采样数
+    private double intervalEnergy = 0;
+    private int intervalCount = 0;
+    // 最近一个等效声级, 单位: dBFS
+    private volatile double lastLevel = MIN_DBFS;
+    // 是否跳过之后的采样
+    private boolean excluded = false;
+
+    // 统计结果的队列
+    private final NoiseRollup[] queue = new NoiseRollup[QUEUE_CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public NoiseStatistics(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.weighting = new AWeighting(sampleRate);
+        this.intervalSamples = Math.max(1, sampleRate * INTERVAL_MS / 1000);
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            queue[i] = new NoiseRollup();
+        }
+        minute.clear(0);
+        hour.clear(0);
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        if (excluded) {
+            // 时间照常前进, 跳过的采样不属于任何等效声级
+            time += length;
+            intervalEnergy = 0;
+            intervalCount = 0;
+            rollover();
+            return;
+        }
+        while (length > 0) {
+            int count = Math.min(length, intervalSamples - intervalCount);
+            intervalEnergy += weighting.energy(frame, offset, count);
+            intervalCount += count;
+            time += count;
+            offset += count;
+            length -= count;
+            if (intervalCount == intervalSamples) {
+                endInterval();
+            }
+        }
+    }
+
+    private void endInterval() {
+        double level = level(intervalEnergy, intervalCount);
+        lastLevel = level;
+        minute.add(level, intervalEnergy, intervalCount);
+        hour.add(level, intervalEnergy, intervalCount);
+        intervalEnergy = 0;
+        intervalCount = 0;
+        rollover();
+    }
+
+    /**
+     * 发布已经结束的分钟与小时
+     */
+    private void rollover() {
+        long now = now();
+        if (now >= minute.end) {
+            publish(minute);
+            minute.clear(now);
+        }
+        if (now >= hour.end) {
+            publish(hour);
+            hour.clear(now);
+        }
+    }
+
+    private void publish(Period period) {
+        if (period.intervals == 0) return;
+        long t = tail.get();
+        if (t - head.get() == QUEUE_CAPACITY) {
+            dropped.lazySet(dropped.get() + 1);
+            return;
+        }
+        period.to(queue[(int) (t % QUEUE_CAPACITY)], sampleRate);
+        tail.lazySet(t + 1);
+    }
+
+    /**
+     * 发布未完成的分钟与小时, 在录音结束时调用; 不满一个等效声级的采样被丢弃
+     */
+    public void flush() {
+        intervalEnergy = 0;
+        intervalCount = 0;
+        long now = now();
+        publish(minute);
+        minute.clear(now);
+        publish(hour);
+        hour.clear(now);
+    }
+
+    /**
+     * @param excluded 是否跳过之后的采样, 例如播放期间麦克风录到的是应答声音而不是环境噪声
+     */
+    public void setExcluded(boolean excluded) {
+        this.excluded = excluded;
+    }
+
+    public boolean isExcluded() {
+        return excluded;
+    }
+
+    /**
+     * 丢弃未完成的统计并设置时间的起点, 在录音开始之前调用
+     * @param epochMillis 下一个采样的墙上时间, 单位: ms
+     */
+    public void reset(long epochMillis) {
+        epoch = epochMillis;
+        time = 0;
+        intervalEnergy = 0;
+        intervalCount = 0;
+        weighting.reset();
+        minute.clear(epochMillis);
+        hour.clear(epochMillis);
+    }
+
+    /**
+     * 消费者: 取出一个统计结果
+     * @return 没有时返回false
+     */
+    public boolean poll(NoiseRollup dst) {
+        long h = head.get();
+        if (h == tail.get()) return false;
+        dst.set(queue[(int) (h % QUEUE_CAPACITY)]);
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * @return 当前的墙上时间, 单位: ms
+     */
+    private long now() {
+        return epoch + time * 1000 / sampleRate;
+    }
+
+    /**
+     * @return 最近一个125ms的A计权等效声级, 单位: dBFS
+     */
+    public double getLastLevel() {
+        return lastLevel;
+    }
+
+    /**
+     * @return 队列已满而丢弃的统计结果数量
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 平方和对应的等效声级, 单位: dBFS, 不低于{@link #MIN_DBFS}
+     */
+    static double level(double energy, long samples) {
+        if (samples == 0 || energy <= 0) return MIN_DBFS;
+        return Math.max(MIN_DBFS, 10 * Math.log10(energy / samples / FULL_SCALE_SQUARED));
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 16bit小端PCM与short之间的转换
+ */
+public final class Pcm16 {
+
+    // 每个采样的字节数
+    public static final int BYTES_PER_SAMPLE = 2;
+
+    private Pcm16() {}
+
+    /**
+     * 将小端字节解码为采样
+     * @param src 原始字节
+     * @param byteLength 有效字节数
+     * @param dst 输出的采样, 长度至少为byteLength / 2
+     * @return 解码出的采样数量
+     */
+    public static int decode(byte[] src, int byteLength, short[] dst) {
+        return decode(src, byteLength, dst, 0);
+    }
+
+    /**
+     * 将小端字节解码为采样
+     * @param src 原始字节
+     * @param byteLength 有效字节数
+     * @param dst 输出的采样
+     * @param dstOffset 输出的起始位置
+     * @return 解码出的采样数量
+     */
+    public static int decode(byte[] src, int byteLength, short[] dst, int dstOffset) {
+        int samples = byteLength / BYTES_PER_SAMPLE;
+        for (int i = 0, j = 0; i < samples; i++, j += BYTES_PER_SAMPLE) {
+            // 低字节必须按无符号处理, 否则符号扩展会污染高字节
+            dst[dstOffset + i] = (short) ((src[j] & 0xff) | (src[j + 1] << 8));
+        }
+        return samples;
+    }
+
+    /**
+     * 将采样编码为小端字节
+     * @param src 采样
+     * @param offset 起始位置
+     * @param length 采样数量
+     * @param dst 输出字节, 长度至少为length * 2
+     */
+    public static void encode(short[] src, int offset, int length, byte[] dst) {
+        for (int i = 0, j = 0; i < length; i++, j += BYTES_PER_SAMPLE) {
+            short one = src[offset + i];
+            dst[j] = (byte) one;
+            dst[j + 1] = (byte) (one >> 8);
+        }
+    }
+
+}
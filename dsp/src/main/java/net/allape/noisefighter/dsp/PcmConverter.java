@@ -0,0 +1,134 @@
+package net.allape.noisefighter.dsp;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 输入输出边界上的格式转换: 多声道与单声道、浮点与16bit之间
+ *
+ * 交错(interleaved)排列, 即每帧依次保存各声道的采样; 浮点采样的满幅度为1.
+ */
+public final class PcmConverter {
+
+    // 浮点与16bit之间的比例
+    private static final float SCALE = LevelMeter.FULL_SCALE;
+    private static final float INVERSE_SCALE = 1f / LevelMeter.FULL_SCALE;
+
+    private PcmConverter() {}
+
+    /**
+     * 16bit多声道混合为单声道, 读取position到limit之间的完整帧, position移动到读取结束的位置
+     * @return 输出的采样数
+     */
+    public static int toMono(ShortBuffer src, int channels, short[] dst, int offset) {
+        int frames = src.remaining() / channels;
+        if (channels == 1) {
+            src.get(dst, offset, frames);
+            return frames;
+        }
+        int position = src.position();
+        if (channels == 2) {
+            // 立体声展开内层循环
+            for (int i = 0; i < frames; i++, position += 2) {
+                dst[offset + i] = (short) ((src.get(position) + src.get(position + 1)) / 2);
+            }
+            src.position(position);
+            return frames;
+        }
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += src.get(position++);
+            }
+            dst[offset + i] = (short) (sum / channels);
+        }
+        src.position(position);
+        return frames;
+    }
+
+    /**
+     * 浮点多声道混合为16bit单声道, 超出满幅度的采样截断, 其余同{@link #toMono(ShortBuffer, int, short[], int)}
+     * @return 输出的采样数
+     */
+    public static int toMono(FloatBuffer src, int channels, short[] dst, int offset) {
+        int frames = src.remaining() / channels;
+        int position = src.position();
+        float scale = SCALE / channels;
+        if (channels == 2) {
+            for (int i = 0; i < frames; i++, position += 2) {
+                dst[offset + i] = clamp((src.get(position) + src.get(position + 1)) * scale);
+            }
+            src.position(position);
+            return frames;
+        }
+        for (int i = 0; i < frames; i++) {
+            float sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += src.get(position++);
+            }
+            dst[offset + i] = clamp(sum * scale);
+        }
+        src.position(position);
+        return frames;
+    }
+
+    /**
+     * 16bit单声道复制到每个声道
+     * @param dst 输出, 长度至少为length * channels
+     */
+    public static void fromMono(short[] src, int offset, int length, short[] dst, int channels) {
+        if (channels == 1) {
+            System.arraycopy(src, offset, dst, 0, length);
+            return;
+        }
+        for (int i = 0, j = 0; i < length; i++) {
+            short sample = src[offset + i];
+            for (int c = 0; c < channels; c++) {
+                dst[j++] = sample;
+            }
+        }
+    }
+
+    /**
+     * 16bit单声道转换为浮点并复制到每个声道
+     * @param dst 输出, 长度至少为length * channels
+     */
+    public static void fromMono(short[] src, int offset, int length, float[] dst, int channels) {
+        for (int i = 0, j = 0; i < length; i++) {
+            float sample = src[offset + i] * INVERSE_SCALE;
+            for (int c = 0; c < channels; c++) {
+                dst[j++] = sample;
+            }
+        }
+    }
+
+    /**
+     * 16bit单声道按配置编码并追加到dst, 相对写入, 字节序由dst决定
+     * @param dst 剩余空间至少为length帧
+     */
+    public static void encode(short[] src, int offset, int length, AudioConfig config, ByteBuffer dst) {
+        int channels = config.getChannels();
+        if (config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT) {
+            for (int i = 0; i < length; i++) {
+                float sample = src[offset + i] * INVERSE_SCALE;
+                for (int c = 0; c < channels; c++) {
+                    dst.putFloat(sample);
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                short sample = src[offset + i];
+                for (int c = 0; c < channels; c++) {
+                    dst.putShort(sample);
+                }
+            }
+        }
+    }
+
+    private static short clamp(float sample) {
+        int rounded = Math.round(sample);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+    }
+
+}
@@ -0,0 +1,35 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 录音文件的写入端, 由{@link AsyncWavWriter}的写入线程调用
+ *
+ * @see WavWriter
+ * @see FlacWriter
+ */
+public interface PcmSink extends Closeable {
+
+    /**
+     * @return 输入的格式, write的数据按这个格式编码为小端
+     */
+    AudioConfig getConfig();
+
+    /**
+     * 追加采样, 写入position到limit之间的数据
+     */
+    void write(ByteBuffer pcm) throws IOException;
+
+    /**
+     * 回写文件头并将数据写入存储设备, 之后即使进程崩溃文件也是完整的
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return 已经写入的PCM数据长度(byte数量), 压缩之前
+     */
+    long getDataBytes();
+
+}
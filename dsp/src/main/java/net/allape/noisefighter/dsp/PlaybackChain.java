@@ -0,0 +1,166 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 播放处理链: 读取录音或选定的声音(可循环) -> 变速(线性插值, 音调随速度变化) -> 增益与限制器
+ *
+ * 按调用方给定的块大小输出, 每块的延迟与开销有上限, 处理过程中不分配内存.
+ * 参数在{@link #start(FrameRingBuffer, Clip)}时生效, 播放中途修改不影响当前录音.
+ * 选定的声音已经预先解码, 开始播放的开销与声音的长度和来源无关.
+ */
+public class PlaybackChain {
+
+    // 速度范围
+    public static final double MIN_SPEED = 0.25;
+    public static final double MAX_SPEED = 4;
+
+    private final int sampleRate;
+    private final ClipCursor cursor = new ClipCursor();
+    private final Limiter limiter;
+
+    // 播放次数
+    private volatile int loops = 1;
+    // 速度, 1为原速
+    private volatile double speed = 1;
+    // 应答的声音, 为null时播放触发的录音; 可以由其他线程修改
+    private volatile Sound sound;
+
+    // 当前录音使用的速度
+    private double activeSpeed = 1;
+    // 插值位置, 0 ~ 1
+    private double phase = 0;
+    // 插值的两个输入采样
+    private int previous = 0;
+    private int current = 0;
+    // 输入是否已经读完
+    private boolean sourceDone = true;
+    // 输入读完之后还需要输出的静音, 用于排空限制器的延迟
+    private int flushRemaining = 0;
+
+    /**
+     * @param sampleRate 采样率
+     * @param lookaheadMs 限制器前视时长
+     * @param releaseMs 限制器恢复时长
+     */
+    public PlaybackChain(int sampleRate, double lookaheadMs, double releaseMs) {
+        this.sampleRate = sampleRate;
+        this.limiter = new Limiter(sampleRate, lookaheadMs, releaseMs);
+    }
+
+    /**
+     * 开始播放一段录音, 录音在播放结束之前必须受保护; 选定了声音时播放声音, 录音只用于计时
+     */
+    public void start(FrameRingBuffer ring, Clip clip) {
+        Sound sound = this.sound;
+        if (sound != null) {
+            cursor.start(sound, loops);
+        } else {
+            cursor.start(ring, clip.start, clip.end, loops);
+        }
+        limiter.reset();
+        activeSpeed = speed;
+        phase = 0;
+        sourceDone = !cursor.hasNext();
+        if (!sourceDone && activeSpeed != 1) {
+            previous = cursor.next();
+            current = cursor.hasNext() ? cursor.next() : previous;
+        }
+        flushRemaining = sourceDone ? 0 : limiter.getLatency();
+    }
+
+    /**
+     * 输出下一块
+     * @return 输出的采样数, 小于length表示这段录音已经结束, 为0表示没有更多输出
+     */
+    public int render(short[] block, int offset, int length) {
+        int count = sourceDone ? 0 : activeSpeed == 1 ? copy(block, offset, length) : resample(block, offset, length);
+        // 排空限制器中延迟的采样
+        int padding = Math.min(length - count, flushRemaining);
+        for (int i = 0; i < padding; i++) {
+            block[offset + count + i] = 0;
+        }
+        flushRemaining -= padding;
+        count += padding;
+        limiter.process(block, offset, count);
+        return count;
+    }
+
+    /**
+     * 原速: 直接批量复制
+     */
+    private int copy(short[] block, int offset, int length) {
+        int count = cursor.read(block, offset, length);
+        if (count < length) {
+            sourceDone = true;
+        }
+        return count;
+    }
+
+    /**
+     * 变速: 线性插值
+     */
+    private int resample(short[] block, int offset, int length) {
+        double speed = activeSpeed;
+        for (int i = 0; i < length; i++) {
+            block[offset + i] = (short) Math.round(previous + (current - previous) * phase);
+            phase += speed;
+            while (phase >= 1) {
+                phase -= 1;
+                if (!cursor.hasNext()) {
+                    sourceDone = true;
+                    return i + 1;
+                }
+                previous = current;
+                current = cursor.next();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return 限制器带来的延迟, 单位: 采样
+     */
+    public int getLatency() {
+        return limiter.getLatency();
+    }
+
+    public int getLoops() {
+        return loops;
+    }
+
+    /**
+     * @param loops 播放次数, 至少1次
+     */
+    public void setLoops(int loops) {
+        this.loops = Math.max(1, loops);
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed 速度, {@link #MIN_SPEED} ~ {@link #MAX_SPEED}, 音调随速度变化
+     */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public Sound getSound() {
+        return sound;
+    }
+
+    /**
+     * @param sound 应答的声音, 采样率需要与播放相同; 为null时播放触发的录音
+     */
+    public void setSound(Sound sound) {
+        if (sound != null && sound.getSampleRate() != sampleRate) {
+            throw new IllegalArgumentException("sample rate " + sound.getSampleRate() + " != " + sampleRate);
+        }
+        this.sound = sound;
+    }
+
+    public Limiter getLimiter() {
+        return limiter;
+    }
+
+}
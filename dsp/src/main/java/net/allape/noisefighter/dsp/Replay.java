@@ -0,0 +1,387 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 不限速地把{@link AudioSource}送入{@link CapturePipeline}, 记录触发与播放的事件序列, 用于回归测试与压力测试
+ *
+ * 录音的转换与MicRunnable相同. 播放在录音线程中模拟: 每处理一个录音buffer, 就通过同一个{@link PlaybackChain}
+ * 渲染相同数量的采样, 所以播放占用的是音频时间而不是墙上时间, 同一输入的事件序列总是相同的.
+ * 事件的时间是当前帧第一个采样的序号.
+ * 可以模拟麦克风听到自己的播放({@link #setEcho(int, double)}), 用于检查回声消除与自触发.
+ * 每次读取的大小由{@link CapturePipeline#getReadSize()}决定, 低功耗休眠时与设备上一样批量读取.
+ */
+public class Replay {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        // 开始触发
+        TRIGGERED,
+        // 结束触发(包括保持)
+        IDLE,
+        // 发布了一段录音, length为采样数
+        CLIP,
+        // 丢弃了一段录音, length为采样数
+        DROPPED,
+        // 开始播放
+        PLAYBACK_START,
+        // 播放结束, length为播放的采样数
+        PLAYBACK_END,
+        // 进入低功耗休眠
+        SLEEP,
+    }
+
+    /**
+     * 一个事件
+     */
+    public static final class Event {
+
+        public final Type type;
+        // 发生时的采样序号
+        public final long frame;
+        // 采样数, 只有部分类型使用
+        public final long length;
+
+        Event(Type type, long frame, long length) {
+            this.type = type;
+            this.frame = frame;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Event)) return false;
+            Event event = (Event) o;
+            return type == event.type && frame == event.frame && length == event.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + Long.hashCode(frame)) * 31 + Long.hashCode(length);
+        }
+
+        @Override
+        public String toString() {
+            return type + "@" + frame + (length != 0 ? "(" + length + ")" : "");
+        }
+
+    }
+
+    /**
+     * 回放的结果
+     */
+    public static final class Report {
+
+        private final List<Event> events;
+        private final long frames;
+        private final int sampleRate;
+        private final long nanos;
+
+        Report(List<Event> events, long frames, int sampleRate, long nanos) {
+            this.events = Collections.unmodifiableList(events);
+            this.frames = frames;
+            this.sampleRate = sampleRate;
+            this.nanos = nanos;
+        }
+
+        public List<Event> getEvents() {
+            return events;
+        }
+
+        /**
+         * @return 事件类型的序列
+         */
+        public List<Type> getTypes() {
+            List<Type> types = new ArrayList<>(events.size());
+            for (Event event : events) {
+                types.add(event.type);
+            }
+            return types;
+        }
+
+        /**
+         * @return 指定类型的事件
+         */
+        public List<Event> getEvents(Type type) {
+            List<Event> result = new ArrayList<>();
+            for (Event event : events) {
+                if (event.type == type) result.add(event);
+            }
+            return result;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public double getAudioSeconds() {
+            return (double) frames / sampleRate;
+        }
+
+        public double getWallSeconds() {
+            return nanos / 1e9;
+        }
+
+        /**
+         * @return 处理速度相对于实时的倍数
+         */
+        public double getRealTimeFactor() {
+            return getAudioSeconds() / Math.max(getWallSeconds(), 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.1f s of audio in %.3f s (%.0fx real time), %d events",
+                    getAudioSeconds(), getWallSeconds(), getRealTimeFactor(), events.size());
+        }
+
+    }
+
+    private final AudioSource source;
+    private final AudioConfig config;
+    private final CapturePipeline pipeline;
+    // 每个录音buffer的处理耗时
+    private final LatencyHistogram callbackTime;
+    private final List<Event> events = new ArrayList<>();
+    // 播放输出, 可以为null
+    private FrameProcessor playbackSink;
+    // 模拟的回声: 按音频时间保存的播放输出, 为null时不模拟
+    private short[] echo;
+    private int echoDelay;
+    private float echoGain;
+    // 播放结束之后继续输出静音的时长(与PlaybackRunnable保持输出流运行相同), 单位: 采样
+    private long warmFrames = 0;
+    // 剩余的静音时长, 单位: 采样
+    private long warmRemaining = 0;
+
+    // 当前帧第一个采样的序号
+    private long position = 0;
+    // 是否处于触发状态
+    private boolean triggered = false;
+    // 正在播放的录音, 没有播放时为null
+    private Clip playing;
+    // 已经播放的采样数
+    private long played;
+
+    /**
+     * @param source 录音来源
+     * @param frameSize 一个录音buffer的帧数, 与设备上的录音buffer相同时结果最接近
+     * @param metrics 指标
+     */
+    public Replay(AudioSource source, int frameSize, Metrics metrics) {
+        this.source = source;
+        this.config = source.getConfig();
+        this.callbackTime = metrics.histogram("mic.callback");
+        this.pipeline = new CapturePipeline(config, frameSize, metrics, new CapturePipeline.Listener() {
+            @Override
+            public void onTriggered() {
+                if (!triggered) {
+                    triggered = true;
+                    events.add(new Event(Type.TRIGGERED, position, 0));
+                }
+            }
+
+            @Override
+            public void onIdle() {
+                if (triggered) {
+                    triggered = false;
+                    events.add(new Event(Type.IDLE, position, 0));
+                }
+            }
+
+            @Override
+            public void onClip(Clip clip) {
+                FrameRingBuffer recorded = pipeline.getRecorded();
+                long length = 0;
+                for (long sequence = clip.start; sequence < clip.end; sequence++) {
+                    length += recorded.length(sequence);
+                }
+                events.add(new Event(Type.CLIP, position, length));
+            }
+
+            @Override
+            public void onDropped(long start, long end) {
+                events.add(new Event(Type.DROPPED, position, (end - start) * frameSize));
+            }
+
+            @Override
+            public void onSleep() {
+                events.add(new Event(Type.SLEEP, position, 0));
+            }
+        }, null);
+        // 录音的时间戳使用音频时间, 结果与运行的时刻无关; 噪声统计默认也从0开始
+        pipeline.getClipRecorder().setClock(() -> position * 1000 / config.getSampleRate());
+    }
+
+    /**
+     * 读取来源直到结束
+     */
+    public Report run() throws IOException {
+        int maxSize = pipeline.getMaxReadSize();
+        int bytesPerFrame = config.getBytesPerFrame();
+        int bufferSize = maxSize * bytesPerFrame;
+        ByteBuffer audioData = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = audioData.asShortBuffer();
+        FloatBuffer floats = audioData.asFloatBuffer();
+        boolean floating = config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+        int channels = config.getChannels();
+        ShortBuffer mono = floating || channels > 1 ? ShortBuffer.wrap(new short[maxSize]) : samples;
+        int frameSize = pipeline.getFrameSize();
+        short[] block = new short[frameSize];
+
+        long began = System.nanoTime();
+        source.start();
+        int read;
+        while ((read = source.read(audioData, pipeline.getReadSize() * bytesPerFrame)) > 0) {
+            long start = System.nanoTime();
+            int count = read / config.getEncoding().bytesPerSample;
+            if (floating) {
+                floats.clear();
+                floats.limit(count);
+                mono.clear();
+                mono.limit(PcmConverter.toMono(floats, channels, mono.array(), 0));
+            } else if (channels > 1) {
+                samples.clear();
+                samples.limit(count);
+                mono.clear();
+                mono.limit(PcmConverter.toMono(samples, channels, mono.array(), 0));
+            } else {
+                samples.clear();
+                samples.limit(count);
+            }
+            // 批量读取时逐帧处理, 事件的时间与播放的模拟都按帧
+            int end = mono.limit();
+            for (int at = mono.position(); at < end; at += frameSize) {
+                int length = Math.min(frameSize, end - at);
+                mono.limit(at + length);
+                mono.position(at);
+                if (echo != null) {
+                    mixEcho(mono, length);
+                }
+                pipeline.onData(mono);
+                int played = play(block, length);
+                if (echo != null) {
+                    for (int i = 0; i < length; i++) {
+                        echo[(int) ((position + i) & (echo.length - 1))] = i < played ? block[i] : 0;
+                    }
+                }
+                position += length;
+                mono.limit(end);
+            }
+            callbackTime.recordSince(start);
+        }
+        pipeline.onEnd();
+        if (read < 0) {
+            throw new IOException("failed to read " + source + ": " + read);
+        }
+        return new Report(new ArrayList<>(events), position, config.getSampleRate(), System.nanoTime() - began);
+    }
+
+    /**
+     * 叠加echoDelay之前的播放输出
+     */
+    private void mixEcho(ShortBuffer mono, int length) {
+        int start = mono.position();
+        for (int i = 0; i < length; i++) {
+            long time = position + i - echoDelay;
+            if (time < 0) continue;
+            int value = Math.round(mono.get(start + i) + echo[(int) (time & (echo.length - 1))] * echoGain);
+            mono.put(start + i, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+        }
+    }
+
+    /**
+     * 与PlaybackRunnable相同的播放流程, 每个录音buffer播放相同数量的采样
+     * @return 播放的采样数
+     */
+    private int play(short[] block, int length) {
+        ClipQueue clips = pipeline.getClips();
+        PlaybackChain chain = pipeline.getPlaybackChain();
+        if (playing == null) {
+            playing = clips.peek();
+            if (playing == null) {
+                warm(block, length);
+                return 0;
+            }
+            chain.start(pipeline.getRecorded(), playing);
+            played = 0;
+            events.add(new Event(Type.PLAYBACK_START, position, 0));
+        }
+        int count = chain.render(block, 0, length);
+        if (count > 0) {
+            played += count;
+            if (playbackSink != null) playbackSink.process(block, 0, count);
+            if (pipeline.isEchoCancelling()) pipeline.getEchoReference().write(block, 0, count);
+        }
+        if (count < length) {
+            pipeline.getRecorded().release(playing.end);
+            clips.remove();
+            playing = null;
+            events.add(new Event(Type.PLAYBACK_END, position, played));
+            pipeline.onPlaybackEnd();
+            warmRemaining = warmFrames;
+        }
+        return count;
+    }
+
+    /**
+     * 没有播放时输出静音, 与播放的输出一样作为回声消除的参考信号
+     */
+    private void warm(short[] block, int length) {
+        int count = (int) Math.min(length, warmRemaining);
+        if (count <= 0) return;
+        warmRemaining -= count;
+        Arrays.fill(block, 0, count, (short) 0);
+        if (playbackSink != null) playbackSink.process(block, 0, count);
+        if (pipeline.isEchoCancelling()) pipeline.getEchoReference().write(block, 0, count);
+    }
+
+    public CapturePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * 模拟麦克风听到自己的播放: 播放输出延迟之后按增益叠加到录音上
+     * @param delayMs 延迟, 播放在处理录音之后模拟, 所以不能小于一个录音buffer
+     * @param gainDb 增益, 单位: dB
+     */
+    public void setEcho(int delayMs, double gainDb) {
+        int delay = (int) config.framesOf(delayMs);
+        int frameSize = pipeline.getFrameSize();
+        if (delay < frameSize) {
+            throw new IllegalArgumentException("echo delay must be at least one buffer: " + delayMs + "ms");
+        }
+        int size = Integer.highestOneBit(delay + frameSize) << 1;
+        this.echo = new short[size];
+        this.echoDelay = delay;
+        this.echoGain = (float) Math.pow(10, gainDb / 20);
+    }
+
+    /**
+     * 模拟输出流在播放结束之后保持运行, 期间的静音同样写入回声消除的参考信号
+     * @param warmMs 播放结束之后继续输出静音的时长, 0表示立即停止输出
+     */
+    public void setWarm(long warmMs) {
+        this.warmFrames = config.framesOf(warmMs);
+    }
+
+    /**
+     * @param sink 播放的单声道16bit输出, 为null时丢弃
+     */
+    public void setPlaybackSink(FrameProcessor sink) {
+        this.playbackSink = sink;
+    }
+
+}
@@ -0,0 +1,84 @@
+package net.allape.noisefighter.dsp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 解码之后的一段声音, 由{@link SoundLibrary}创建: 16bit单声道, 采样率与播放相同, 保存在直接内存中, 不占用Java堆
+ *
+ * 创建之后内容不再修改, 任意线程都可以同时读取; 只使用按下标的读取, 不改变共享视图的position.
+ * 直接内存在不再被引用之后由GC回收, 所以正在播放的声音即使被缓存淘汰也一直有效.
+ */
+public final class Sound {
+
+    // 来源, 例如文件路径, 也是缓存的键
+    private final String key;
+    private final int sampleRate;
+    // 小端直接内存
+    private final ByteBuffer data;
+    // 只读的采样视图
+    private final ShortBuffer samples;
+
+    /**
+     * @param length 采样数, 内容由调用方通过{@link #writable()}写入之后才能共享
+     */
+    Sound(String key, int sampleRate, int length) {
+        this.key = key;
+        this.sampleRate = sampleRate;
+        this.data = ByteBuffer.allocateDirect(length * Pcm16.BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN);
+        this.samples = data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * @return 写入用的采样视图, 只在解码时使用
+     */
+    ShortBuffer writable() {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * 读取第index个采样
+     */
+    public short get(int index) {
+        return samples.get(index);
+    }
+
+    /**
+     * 批量读取
+     * @param index 第一个采样的下标
+     */
+    public void get(int index, short[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = samples.get(index + i);
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return 采样数
+     */
+    public int getLength() {
+        return samples.capacity();
+    }
+
+    /**
+     * @return 占用的直接内存, 单位: byte
+     */
+    public long getBytes() {
+        return data.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "Sound{" + key + ", " + getLength() + " samples @ " + sampleRate + "Hz}";
+    }
+
+}
@@ -0,0 +1,226 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 应答声音库: WAV/FLAC文件或者记录的事件只解码一次, 转换为播放格式(16bit单声道, 播放的采样率)之后缓存
+ *
+ * 缓存按占用的直接内存限制大小, 超出时淘汰最久没有使用的声音; 被淘汰的声音仍然可以继续播放, 不再引用之后由GC回收.
+ * 解码在调用线程中进行, 不要在录音或播放线程中调用{@link #load(File)}; 其他方法可以由任意线程调用.
+ */
+public class SoundLibrary {
+
+    // 解码时每次处理的帧数
+    private static final int CHUNK_FRAMES = 4096;
+
+    // 播放的采样率
+    private final int sampleRate;
+    // 缓存上限, 单位: byte
+    private final long maxBytes;
+    // 按访问顺序排列, 最久没有使用的在最前
+    private final LinkedHashMap<String, Sound> sounds = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 缓存占用的直接内存, 单位: byte
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param sampleRate 播放的采样率
+     * @param maxBytes 缓存上限, 单位: byte; 单个声音也不能超过
+     */
+    public SoundLibrary(int sampleRate, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("illegal cache size: " + maxBytes);
+        }
+        this.sampleRate = sampleRate;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return 缓存中的声音, 没有时返回null
+     */
+    public synchronized Sound get(String key) {
+        Sound sound = sounds.get(key);
+        if (sound != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return sound;
+    }
+
+    /**
+     * 读取WAV或FLAC(按扩展名区分)文件, 已经缓存时直接返回
+     * @throws IOException 文件无法解码, 或者解码之后超过缓存上限
+     */
+    public Sound load(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        Sound sound = get(key);
+        if (sound != null) return sound;
+
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".flac")) {
+            try (FlacReader reader = new FlacReader(file)) {
+                Sound raw = allocate(key, reader.getConfig().getSampleRate(), reader.getFrames());
+                ShortBuffer dst = raw.writable();
+                short[] chunk = new short[CHUNK_FRAMES];
+                int count;
+                while (dst.hasRemaining()
+                        && (count = reader.read(chunk, 0, Math.min(chunk.length, dst.remaining()))) > 0) {
+                    dst.put(chunk, 0, count);
+                }
+                checkComplete(file, dst);
+                return put(resample(raw));
+            }
+        }
+        try (WavReader reader = new WavReader(file)) {
+            Sound raw = allocate(key, reader.getConfig().getSampleRate(), reader.getFrames());
+            ShortBuffer dst = raw.writable();
+            ByteBuffer src = reader.map(0, raw.getLength());
+            short[] chunk = new short[CHUNK_FRAMES];
+            int count;
+            while ((count = reader.decode(src, chunk, 0, chunk.length)) > 0) {
+                dst.put(chunk, 0, count);
+            }
+            checkComplete(file, dst);
+            return put(resample(raw));
+        }
+    }
+
+    /**
+     * 读取记录的事件, 已经缓存时直接返回; 缓存的键为"event:"加触发时间
+     * @param index 事件序号
+     */
+    public Sound load(EventStore.Reader events, int index) throws IOException {
+        Event event = new Event();
+        events.get(index, event);
+        String key = "event:" + event.timestamp;
+        Sound sound = get(key);
+        if (sound != null) return sound;
+
+        int channels = events.getChannels();
+        short[] pcm = new short[event.length];
+        events.read(event, pcm, 0);
+        Sound raw = allocate(key, events.getSampleRate(), event.length / channels);
+        ShortBuffer dst = raw.writable();
+        if (channels == 1) {
+            dst.put(pcm, 0, raw.getLength());
+        } else {
+            short[] mono = new short[raw.getLength()];
+            PcmConverter.toMono(ShortBuffer.wrap(pcm, 0, mono.length * channels), channels, mono, 0);
+            dst.put(mono);
+        }
+        return put(resample(raw));
+    }
+
+    /**
+     * 线性插值转换为播放的采样率, 只在解码时进行一次
+     */
+    private Sound resample(Sound raw) throws IOException {
+        if (raw.getSampleRate() == sampleRate) return raw;
+        int length = raw.getLength();
+        Sound sound = allocate(raw.getKey(), sampleRate, (long) length * sampleRate / raw.getSampleRate());
+        ShortBuffer dst = sound.writable();
+        double step = (double) raw.getSampleRate() / sampleRate;
+        for (int i = 0, count = sound.getLength(); i < count; i++) {
+            double position = i * step;
+            int index = (int) position;
+            int previous = raw.get(index);
+            int next = index + 1 < length ? raw.get(index + 1) : previous;
+            dst.put((short) Math.round(previous + (next - previous) * (position - index)));
+        }
+        return sound;
+    }
+
+    private Sound allocate(String key, int sampleRate, long length) throws IOException {
+        if (sampleRate <= 0) {
+            throw new IOException("illegal sample rate: " + sampleRate + ", " + key);
+        }
+        // 转换采样率之后的大小
+        long converted = (long) Math.ceil((double) length * this.sampleRate / sampleRate);
+        if (Math.max(length, converted) * Pcm16.BYTES_PER_SAMPLE > maxBytes) {
+            throw new IOException("sound exceeds cache size " + maxBytes + " bytes: " + key);
+        }
+        return new Sound(key, sampleRate, (int) length);
+    }
+
+    private static void checkComplete(File file, ShortBuffer dst) throws IOException {
+        if (dst.hasRemaining()) {
+            throw new IOException("unexpected end of file: " + file);
+        }
+    }
+
+    /**
+     * 加入缓存并淘汰最久没有使用的声音, 直到不超过上限
+     */
+    private synchronized Sound put(Sound sound) {
+        Sound previous = sounds.put(sound.getKey(), sound);
+        if (previous != null) {
+            bytes -= previous.getBytes();
+        }
+        bytes += sound.getBytes();
+        Iterator<Map.Entry<String, Sound>> iterator = sounds.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Sound eldest = iterator.next().getValue();
+            if (eldest == sound) continue;
+            iterator.remove();
+            bytes -= eldest.getBytes();
+            evictions++;
+        }
+        return sound;
+    }
+
+    /**
+     * 清空缓存, 正在使用的声音仍然有效
+     */
+    public synchronized void clear() {
+        sounds.clear();
+        bytes = 0;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return 缓存占用的直接内存, 单位: byte
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 缓存的声音数量
+     */
+    public synchronized int size() {
+        return sounds.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return 因超出上限而淘汰的声音数量
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+}
@@ -0,0 +1,145 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 频谱图: 把{@link SpectrumAnalyzer}产生的每个频谱转换为一列ARGB像素, 保存在固定列数的环形数组中
+ *
+ * 每列按列连续存放, 第0行为最高频率, 频率按对数刻度划分; 每个频谱只写入一列, 开销与保存的列数无关.
+ * 写入在处理线程中进行, 绘制线程根据{@link #getWritten()}复制新写入的列;
+ * 绘制线程落后超过列数时, 正在复制的列可能被覆盖, 只会影响显示.
+ */
+public class SpectrogramBuffer implements SpectrumAnalyzer.Listener {
+
+    // 色板的颜色数量
+    private static final int PALETTE_SIZE = 256;
+
+    // 列数
+    private final int columns;
+    // 行数
+    private final int rows;
+    // 每行对应的频点范围(含)
+    private final int[] fromBin;
+    private final int[] toBin;
+    // 频点间隔, 单位: Hz
+    private final double resolution;
+    // 显示范围的下限与上限, 单位: dBFS
+    private final double minDb;
+    private final double maxDb;
+    // 色板
+    private final int[] palette = new int[PALETTE_SIZE];
+    // 所有列的像素
+    private final int[] pixels;
+    // 已经写入的列数
+    private final AtomicLong written = new AtomicLong(0);
+
+    /**
+     * @param columns 保存的列数
+     * @param rows 每列的行数
+     * @param sampleRate 采样率
+     * @param fftSize 频谱来源的变换长度
+     * @param minHz 显示的最低频率
+     * @param minDb 最暗的颜色对应的电平, 单位: dBFS
+     * @param maxDb 最亮的颜色对应的电平, 单位: dBFS
+     */
+    public SpectrogramBuffer(int columns, int rows, int sampleRate, int fftSize, double minHz, double minDb, double maxDb) {
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("columns and rows must be positive");
+        }
+        if (maxDb <= minDb) {
+            throw new IllegalArgumentException("maxDb must be greater than minDb");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.minDb = minDb;
+        this.maxDb = maxDb;
+        this.pixels = new int[columns * rows];
+
+        // 对数频率刻度, 第0行为最高频率
+        resolution = (double) sampleRate / fftSize;
+        double maxHz = sampleRate / 2.0;
+        double ratio = Math.log(maxHz / minHz);
+        int lastBin = fftSize / 2;
+        fromBin = new int[rows];
+        toBin = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            int fromRow = rows - 1 - row;
+            double low = minHz * Math.exp(ratio * fromRow / rows);
+            double high = minHz * Math.exp(ratio * (fromRow + 1) / rows);
+            int from = Math.min(lastBin, (int) Math.round(low / resolution));
+            int to = Math.min(lastBin, Math.max(from, (int) Math.round(high / resolution) - 1));
+            fromBin[row] = from;
+            toBin[row] = to;
+        }
+
+        // 黑 -> 蓝 -> 红 -> 黄 -> 白
+        int[][] stops = {{0, 0, 0}, {32, 0, 128}, {200, 0, 64}, {255, 160, 0}, {255, 255, 255}};
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            double position = (double) i / (PALETTE_SIZE - 1) * (stops.length - 1);
+            int stop = Math.min(stops.length - 2, (int) position);
+            double t = position - stop;
+            int r = (int) Math.round(stops[stop][0] + (stops[stop + 1][0] - stops[stop][0]) * t);
+            int g = (int) Math.round(stops[stop][1] + (stops[stop + 1][1] - stops[stop][1]) * t);
+            int b = (int) Math.round(stops[stop][2] + (stops[stop + 1][2] - stops[stop][2]) * t);
+            palette[i] = 0xff000000 | r << 16 | g << 8 | b;
+        }
+        Arrays.fill(pixels, palette[0]);
+    }
+
+    @Override
+    public void onSpectrum(double[] power, SpectrumAnalyzer analyzer) {
+        long sequence = written.get();
+        int offset = (int) (sequence % columns) * rows;
+        // 频点的均方值换算为dBFS
+        double scale = analyzer.getPowerScale() / ((double) LevelMeter.FULL_SCALE * LevelMeter.FULL_SCALE);
+        double colorScale = (PALETTE_SIZE - 1) / (maxDb - minDb);
+        for (int row = 0; row < rows; row++) {
+            double max = 0;
+            for (int k = fromBin[row]; k <= toBin[row]; k++) {
+                max = Math.max(max, power[k]);
+            }
+            double db = max > 0 ? 10 * Math.log10(max * scale) : minDb;
+            int color = (int) ((db - minDb) * colorScale);
+            pixels[offset + row] = palette[Math.max(0, Math.min(PALETTE_SIZE - 1, color))];
+        }
+        written.lazySet(sequence + 1);
+    }
+
+    /**
+     * @return 已经写入的列数, 写入的像素在读取到这个值之后可见
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return 第sequence列(从0开始计数)在{@link #pixels()}中的起始位置
+     */
+    public int offset(long sequence) {
+        return (int) (sequence % columns) * rows;
+    }
+
+    /**
+     * @return 所有列的像素, 按列连续存放
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return 行对应的最低频率, 单位: Hz
+     */
+    public double getRowFrequency(int row) {
+        return fromBin[row] * resolution;
+    }
+
+}
@@ -0,0 +1,204 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 滑动窗口的实数FFT: 每累计hop个采样对最近fftSize个采样加汉宁窗做一次变换
+ *
+ * 一帧之内可能产生多个频谱, 频段能量取这一帧中所有频谱的最大值, 所以短促的声音也不会被平均掉;
+ * 一帧之内没有产生新频谱时保持上一次的值. 所有缓存在构造时分配, 处理时不分配内存.
+ */
+public class SpectrumAnalyzer implements BandMeter {
+
+    /**
+     * 频谱回调, 在处理线程中调用
+     */
+    public interface Listener {
+
+        /**
+         * @param power 功率谱 |X[k]|^2, 长度为fftSize / 2 + 1, 只在回调期间有效
+         * @param analyzer 来源, 用于换算频率与均方值
+         */
+        void onSpectrum(double[] power, SpectrumAnalyzer analyzer);
+
+    }
+
+    // 采样率
+    private final int sampleRate;
+    // 变换长度
+    private final int fftSize;
+    // 两次变换之间的采样数
+    private final int hop;
+    private final Fft fft;
+    // 汉宁窗
+    private final double[] window;
+    // 频谱的均方值系数 2 / (N * Σw^2)
+    private final double powerScale;
+    // 最近fftSize个采样, 环形
+    private final double[] history;
+    // 加窗之后的输入
+    private final double[] input;
+    private final double[] re;
+    private final double[] im;
+    // 最近一次的功率谱
+    private final double[] spectrum;
+
+    // 频段
+    private final Band[] bands;
+    // 每个频段的频点范围(含)
+    private final int[] fromBin;
+    private final int[] toBin;
+    // 每个频段最近一帧的均方值
+    private final double[] power;
+
+    // 下一个采样在history中的位置
+    private int position = 0;
+    // 已经累计的采样数, 达到fftSize之前不做变换
+    private long received = 0;
+    // 距离下一次变换还需要的采样数
+    private int untilNext;
+    // 回调
+    private Listener listener;
+
+    /**
+     * @param sampleRate 采样率
+     * @param fftSize 变换长度, 2的幂
+     * @param hop 两次变换之间的采样数, 不大于fftSize
+     * @param bands 需要计算能量的频段, 可以为空
+     */
+    public SpectrumAnalyzer(int sampleRate, int fftSize, int hop, Band... bands) {
+        if (hop <= 0 || hop > fftSize) {
+            throw new IllegalArgumentException("hop must be in 1 ~ " + fftSize + ": " + hop);
+        }
+        this.sampleRate = sampleRate;
+        this.fftSize = fftSize;
+        this.hop = hop;
+        this.fft = new Fft(fftSize);
+
+        window = new double[fftSize];
+        double sumSquares = 0;
+        for (int i = 0; i < fftSize; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / fftSize);
+            sumSquares += window[i] * window[i];
+        }
+        powerScale = 2 / (fftSize * sumSquares);
+
+        history = new double[fftSize];
+        input = new double[fftSize];
+        re = new double[fftSize / 2 + 1];
+        im = new double[fftSize / 2 + 1];
+        spectrum = new double[fftSize / 2 + 1];
+        untilNext = fftSize;
+
+        this.bands = bands.clone();
+        fromBin = new int[bands.length];
+        toBin = new int[bands.length];
+        power = new double[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            fromBin[i] = Math.min(fftSize / 2, (int) Math.ceil(bands[i].low / getResolution()));
+            toBin[i] = Math.min(fftSize / 2, (int) Math.floor(bands[i].high / getResolution()));
+            if (toBin[i] < fromBin[i]) {
+                fromBin[i] = toBin[i] = Math.min(fftSize / 2, (int) Math.round(bands[i].center() / getResolution()));
+            }
+        }
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        boolean first = true;
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int count = Math.min(untilNext, end - i);
+            for (int j = 0; j < count; j++) {
+                history[position] = frame[i + j];
+                position = (position + 1) & (fftSize - 1);
+            }
+            i += count;
+            received += count;
+            untilNext -= count;
+            if (untilNext == 0) {
+                untilNext = hop;
+                analyze(first);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * 对history做一次变换
+     * @param reset 是否为这一帧中的第一次变换
+     */
+    private void analyze(boolean reset) {
+        // 从最旧的采样开始展开并加窗
+        for (int j = 0, p = position; j < fftSize; j++, p = (p + 1) & (fftSize - 1)) {
+            input[j] = history[p] * window[j];
+        }
+        fft.power(input, spectrum, re, im);
+
+        for (int b = 0; b < bands.length; b++) {
+            double sum = 0;
+            for (int k = fromBin[b]; k <= toBin[b]; k++) {
+                sum += spectrum[k];
+            }
+            double value = sum * powerScale;
+            power[b] = reset ? value : Math.max(power[b], value);
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onSpectrum(spectrum, this);
+        }
+    }
+
+    /**
+     * @return 相邻频点的间隔, 单位: Hz
+     */
+    public double getResolution() {
+        return (double) sampleRate / fftSize;
+    }
+
+    /**
+     * @return 功率谱中频点对应的均方值系数
+     */
+    public double getPowerScale() {
+        return powerScale;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getHop() {
+        return hop;
+    }
+
+    /**
+     * @return 已经处理的采样数
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public int getBandCount() {
+        return bands.length;
+    }
+
+    @Override
+    public Band getBand(int band) {
+        return bands[band];
+    }
+
+    @Override
+    public double getBandPower(int band) {
+        return power[band];
+    }
+
+}
@@ -0,0 +1,114 @@
+package net.allape.noisefighter.dsp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 生成固定时长的信号: 高斯背景噪声加上若干段正弦突发, 相同的种子输出相同的数据
+ *
+ * 所有声道输出相同的采样.
+ */
+public class SyntheticSource implements AudioSource {
+
+    /**
+     * 一段正弦突发
+     */
+    private static final class Burst {
+        final long start;
+        final long end;
+        final double radians;
+        final double amplitude;
+
+        Burst(long start, long end, double radians, double amplitude) {
+            this.start = start;
+            this.end = end;
+            this.radians = radians;
+            this.amplitude = amplitude;
+        }
+    }
+
+    private final AudioConfig config;
+    private final long frames;
+    // 背景噪声的标准差, 相对于满幅
+    private final double noise;
+    private final Random random;
+    private final List<Burst> bursts = new ArrayList<>();
+
+    // 下一帧的序号
+    private long position = 0;
+
+    /**
+     * @param config 输出格式
+     * @param frames 总帧数
+     * @param noiseDbfs 背景噪声的有效值, 单位: dBFS
+     * @param seed 噪声的种子
+     */
+    public SyntheticSource(AudioConfig config, long frames, double noiseDbfs, long seed) {
+        this.config = config;
+        this.frames = frames;
+        this.noise = LevelMeter.amplitude(noiseDbfs) / LevelMeter.FULL_SCALE;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 添加一段正弦突发
+     * @param startMs 开始时间
+     * @param durationMs 时长
+     * @param hz 频率
+     * @param peakDbfs 峰值, 单位: dBFS
+     */
+    public SyntheticSource burst(long startMs, long durationMs, double hz, double peakDbfs) {
+        long start = config.framesOf(startMs);
+        bursts.add(new Burst(start, start + config.framesOf(durationMs),
+                2 * Math.PI * hz / config.getSampleRate(), LevelMeter.amplitude(peakDbfs) / LevelMeter.FULL_SCALE));
+        return this;
+    }
+
+    @Override
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int read(ByteBuffer dst, int size) {
+        int bytesPerFrame = config.getBytesPerFrame();
+        int count = (int) Math.min(size / bytesPerFrame, frames - position);
+        if (count <= 0) return 0;
+        int channels = config.getChannels();
+        boolean floating = config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+        int index = 0;
+        for (int i = 0; i < count; i++, position++) {
+            double value = random.nextGaussian() * noise;
+            for (Burst burst : bursts) {
+                if (position >= burst.start && position < burst.end) {
+                    value += Math.sin(burst.radians * (position - burst.start)) * burst.amplitude;
+                }
+            }
+            value = Math.max(-1, Math.min(1, value));
+            for (int c = 0; c < channels; c++) {
+                if (floating) {
+                    dst.putFloat(index, (float) value);
+                } else {
+                    dst.putShort(index, (short) Math.min(Short.MAX_VALUE, Math.round(value * LevelMeter.FULL_SCALE)));
+                }
+                index += config.getEncoding().bytesPerSample;
+            }
+        }
+        return count * bytesPerFrame;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,241 @@
+package net.allape.noisefighter.dsp;
+
+/**
+ * 阈值触发状态机: 达到阈值开始触发, 低于阈值后再保持一段时间(防闪烁)才结束
+ *
+ * 保持时长以采样为单位, 与每帧的长度无关. 自适应模式下起始与释放使用不同的阈值:
+ * 达到起始阈值开始触发, 之后只要不低于释放阈值就一直处于触发状态.
+ * 静音(例如正在播放声音)期间忽略输入, 取消静音之后还需要经过冷却时间才会再次触发.
+ * 必须放在对应的{@link LevelMeter}(以及{@link BandMeter}, {@link AdaptiveThreshold})之后处理
+ */
+public class ThresholdTrigger implements FrameProcessor {
+
+    /**
+     * 触发回调, 在处理线程中调用
+     */
+    public interface Listener {
+
+        /**
+         * 处于触发状态(包括保持)的每一帧
+         */
+        void onTriggered(short[] frame, int offset, int length);
+
+        /**
+         * 未处于触发状态的每一帧
+         */
+        void onIdle(short[] frame, int offset, int length);
+
+    }
+
+    /**
+     * 触发条件
+     */
+    public enum Mode {
+        // 峰值达到阈值
+        PEAK,
+        // 任意频段的能量达到峰值为阈值的正弦波的能量
+        BAND,
+        // 同时满足以上两个条件
+        PEAK_AND_BAND,
+        // 峰值达到背景噪声之上的起始/释放阈值, 忽略threshold
+        ADAPTIVE,
+    }
+
+    // 峰值来源
+    private final LevelMeter meter;
+    // 回调
+    private final Listener listener;
+
+    // 需要触发的阈值, 与振幅峰值(绝对值)比较, 0 ~ 32768
+    private volatile int threshold;
+    // 低于阈值之后继续保持触发的时长, 单位: 采样
+    private volatile long hold;
+    // 触发条件, 可以由其他线程修改
+    private volatile Mode mode = Mode.PEAK;
+    // 频段能量来源, BAND模式需要
+    private volatile BandMeter bandMeter;
+    // 自适应阈值, ADAPTIVE模式需要
+    private volatile AdaptiveThreshold adaptive;
+    // 是否忽略输入, 例如正在播放声音时; 可以由其他线程修改
+    private volatile boolean muted = false;
+    // 取消静音之后不触发的时长, 单位: 采样
+    private volatile long cooldown = 0;
+    // 上一帧是否达到阈值
+    private boolean active = false;
+    // 剩余保持时长, 单位: 采样
+    private long holdRemaining = 0;
+    // 上一帧是否静音
+    private boolean wasMuted = false;
+    // 剩余冷却时长, 单位: 采样
+    private long cooldownRemaining = 0;
+
+    /**
+     * @param meter 峰值来源
+     * @param threshold 阈值, 0 ~ 32768
+     * @param hold 低于阈值之后继续保持触发的时长, 单位: 采样
+     * @param listener 回调
+     */
+    public ThresholdTrigger(LevelMeter meter, int threshold, long hold, Listener listener) {
+        this.meter = meter;
+        this.threshold = threshold;
+        this.hold = hold;
+        this.listener = listener;
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        if (muted) {
+            wasMuted = true;
+            return;
+        }
+        if (wasMuted) {
+            wasMuted = false;
+            active = false;
+            holdRemaining = 0;
+            cooldownRemaining = cooldown;
+        }
+        if (cooldownRemaining > 0) {
+            cooldownRemaining -= length;
+            listener.onIdle(frame, offset, length);
+            return;
+        }
+
+        boolean engaged = active || holdRemaining > 0;
+        active = detect(engaged);
+        if (active) {
+            holdRemaining = hold;
+            listener.onTriggered(frame, offset, length);
+        } else if (holdRemaining > 0) {
+            holdRemaining -= length;
+            listener.onTriggered(frame, offset, length);
+        } else {
+            listener.onIdle(frame, offset, length);
+        }
+    }
+
+    /**
+     * @param engaged 是否已经处于触发状态, 自适应模式下使用释放阈值
+     * @return 当前帧是否满足触发条件
+     */
+    private boolean detect(boolean engaged) {
+        Mode mode = this.mode;
+        if (mode == Mode.ADAPTIVE) {
+            AdaptiveThreshold adaptive = this.adaptive;
+            return adaptive != null && (engaged ? adaptive.isAboveRelease() : adaptive.isAboveAttack());
+        }
+
+        int threshold = this.threshold;
+        boolean peak = meter.getPeak() >= threshold;
+        if (mode == Mode.PEAK || (mode == Mode.PEAK_AND_BAND && !peak)) {
+            return peak;
+        }
+        BandMeter bandMeter = this.bandMeter;
+        if (bandMeter == null) {
+            return false;
+        }
+        // 峰值为threshold的正弦波的均方值
+        double limit = (double) threshold * threshold / 2;
+        for (int i = 0, count = bandMeter.getBandCount(); i < count; i++) {
+            if (bandMeter.getBandPower(i) >= limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 下一帧低于阈值时是否仍然处于触发状态
+     */
+    public boolean isTriggered() {
+        return holdRemaining > 0;
+    }
+
+    /**
+     * @return 是否正在静音或冷却, 期间达到阈值也不触发
+     */
+    public boolean isCoolingDown() {
+        return muted || wasMuted || cooldownRemaining > 0;
+    }
+
+    /**
+     * 频段能量达到阈值时均方值不低于threshold^2/2, 所以峰值不低于threshold/√2
+     * @return 当前的触发条件下可能触发的最低峰值, 0 ~ 32768; 不可能触发时为Integer.MAX_VALUE
+     */
+    public int getOnsetPeak() {
+        Mode mode = this.mode;
+        if (mode == Mode.ADAPTIVE) {
+            AdaptiveThreshold adaptive = this.adaptive;
+            return adaptive != null ? (int) LevelMeter.amplitude(adaptive.getAttackDbfs()) : Integer.MAX_VALUE;
+        }
+        return mode == Mode.BAND ? (int) (threshold / Math.sqrt(2)) : threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getHold() {
+        return hold;
+    }
+
+    /**
+     * @param hold 低于阈值之后继续保持触发的时长, 单位: 采样
+     */
+    public void setHold(long hold) {
+        this.hold = hold;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public BandMeter getBandMeter() {
+        return bandMeter;
+    }
+
+    /**
+     * @param bandMeter 频段能量来源, 需要在本触发器之前处理同一帧
+     */
+    public void setBandMeter(BandMeter bandMeter) {
+        this.bandMeter = bandMeter;
+    }
+
+    public AdaptiveThreshold getAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @param adaptive 自适应阈值, 需要在本触发器之前处理同一帧
+     */
+    public void setAdaptive(AdaptiveThreshold adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * @param cooldown 取消静音之后不触发的时长, 单位: 采样
+     */
+    public void setCooldown(long cooldown) {
+        this.cooldown = cooldown;
+    }
+
+}
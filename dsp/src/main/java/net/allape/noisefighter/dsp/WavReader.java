@@ -0,0 +1,173 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 读取PCM WAV文件: 16bit整数或32bit浮点, 支持RF64
+ *
+ * 采样数据通过内存映射读取, 映射按需进行, 超过2GB的文件也可以分段读取; 解码输出为16bit单声道.
+ */
+public class WavReader implements Closeable {
+
+    // 单次映射的最大长度
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final AudioConfig config;
+    // 采样数据在文件中的位置
+    private final long dataOffset;
+    // 采样数据的长度, 不超过文件实际长度
+    private final long dataBytes;
+
+    public WavReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer chunk = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(chunk, 0, 12);
+            String riff = tag(chunk, 0);
+            if (!("RIFF".equals(riff) || "RF64".equals(riff)) || !"WAVE".equals(tag(chunk, 8))) {
+                throw new IOException("not a wav file: " + file);
+            }
+
+            AudioConfig format = null;
+            long ds64Data = -1;
+            long position = 12;
+            long size = channel.size();
+            while (position + 8 <= size) {
+                readFully(chunk, position, 8);
+                String id = tag(chunk, 0);
+                long length = chunk.getInt(4) & 0xffffffffL;
+                long body = position + 8;
+                if ("ds64".equals(id)) {
+                    readFully(chunk, body, 16);
+                    ds64Data = chunk.getLong(8);
+                } else if ("fmt ".equals(id)) {
+                    readFully(chunk, body, 16);
+                    format = format(chunk, file);
+                } else if ("data".equals(id)) {
+                    if (format == null) {
+                        throw new IOException("data before fmt: " + file);
+                    }
+                    if (length == 0xffffffffL && ds64Data >= 0) {
+                        length = ds64Data;
+                    }
+                    this.config = format;
+                    this.dataOffset = body;
+                    long available = Math.min(length, size - body);
+                    this.dataBytes = available - available % format.getBytesPerFrame();
+                    return;
+                }
+                position = body + length + (length & 1);
+            }
+            throw new IOException("no data chunk: " + file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static AudioConfig format(ByteBuffer fmt, File file) throws IOException {
+        int tag = fmt.getShort(0) & 0xffff;
+        int channels = fmt.getShort(2) & 0xffff;
+        int sampleRate = fmt.getInt(4);
+        int bits = fmt.getShort(14) & 0xffff;
+        // WAVE_FORMAT_EXTENSIBLE的子格式不展开, 按位数判断
+        if ((tag == 1 || tag == 0xfffe) && bits == 16) {
+            return new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT);
+        }
+        if ((tag == 3 || tag == 0xfffe) && bits == 32) {
+            return new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_FLOAT);
+        }
+        throw new IOException("unsupported wav format " + tag + "/" + bits + "bit: " + file);
+    }
+
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    /**
+     * @return 帧数(每个声道的采样数)
+     */
+    public long getFrames() {
+        return dataBytes / config.getBytesPerFrame();
+    }
+
+    /**
+     * 映射一段采样数据, 超出结尾的部分截断
+     * @param frame 起始帧
+     * @param frames 帧数, 映射长度不超过2GB
+     * @return 小端只读映射
+     */
+    public ByteBuffer map(long frame, int frames) throws IOException {
+        int bytesPerFrame = config.getBytesPerFrame();
+        long start = frame * bytesPerFrame;
+        long length = Math.min((long) frames * bytesPerFrame, dataBytes - start);
+        if (start < 0 || length < 0 || length > MAX_MAPPING) {
+            throw new IllegalArgumentException("illegal range: " + frame + " + " + frames);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 将映射(或其他小端缓冲)中position开始的帧解码为16bit单声道, position移动到读取结束的位置
+     * @param frames 最多解码的帧数
+     * @return 解码的帧数
+     */
+    public int decode(ByteBuffer src, short[] dst, int offset, int frames) {
+        int bytesPerFrame = config.getBytesPerFrame();
+        int count = Math.min(frames, src.remaining() / bytesPerFrame);
+        int channels = config.getChannels();
+        int start = src.position();
+        if (config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT) {
+            FloatBuffer view = src.asFloatBuffer();
+            view.limit(count * channels);
+            PcmConverter.toMono(view, channels, dst, offset);
+        } else {
+            ShortBuffer view = src.asShortBuffer();
+            view.limit(count * channels);
+            PcmConverter.toMono(view, channels, dst, offset);
+        }
+        src.position(start + count * bytesPerFrame);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer dst, long position, int length) throws IOException {
+        dst.clear();
+        dst.limit(length);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    private static String tag(ByteBuffer buffer, int offset) {
+        char[] tag = new char[4];
+        for (int i = 0; i < 4; i++) {
+            tag[i] = (char) (buffer.get(offset + i) & 0xff);
+        }
+        return new String(tag);
+    }
+
+}
@@ -0,0 +1,82 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 以最快的速度输出WAV文件的内容, 格式与文件相同
+ *
+ * 按MAP_FRAMES分段映射文件, 字节序不同时通过采样视图转换.
+ */
+public class WavSource implements AudioSource {
+
+    // 每次映射的帧数
+    private static final int MAP_FRAMES = 1 << 20;
+
+    private final WavReader reader;
+    private final int bytesPerFrame;
+    private final boolean floating;
+
+    // 当前映射, 剩余部分未读
+    private ByteBuffer mapped;
+    // 下一次映射的起始帧
+    private long nextFrame = 0;
+
+    public WavSource(File file) throws IOException {
+        reader = new WavReader(file);
+        bytesPerFrame = reader.getConfig().getBytesPerFrame();
+        floating = reader.getConfig().getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+    }
+
+    @Override
+    public AudioConfig getConfig() {
+        return reader.getConfig();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int read(ByteBuffer dst, int size) {
+        if (mapped == null || !mapped.hasRemaining()) {
+            long frames = Math.min(MAP_FRAMES, reader.getFrames() - nextFrame);
+            if (frames <= 0) return 0;
+            try {
+                mapped = reader.map(nextFrame, (int) frames);
+            } catch (IOException e) {
+                return -1;
+            }
+            nextFrame += frames;
+        }
+        int length = Math.min(size, mapped.remaining()) / bytesPerFrame * bytesPerFrame;
+        ByteBuffer src = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+        src.limit(length);
+        ByteBuffer out = dst.duplicate().order(dst.order());
+        out.clear();
+        if (dst.order() == ByteOrder.LITTLE_ENDIAN) {
+            out.put(src);
+        } else if (floating) {
+            out.asFloatBuffer().put(src.asFloatBuffer());
+        } else {
+            out.asShortBuffer().put(src.asShortBuffer());
+        }
+        mapped.position(mapped.position() + length);
+        return length;
+    }
+
+    /**
+     * @return 文件的总帧数
+     */
+    public long getFrames() {
+        return reader.getFrames();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
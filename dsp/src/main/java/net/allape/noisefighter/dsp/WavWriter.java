@@ -0,0 +1,231 @@
+package net.allape.noisefighter.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * PCM WAV文件写入, 格式由{@link AudioConfig}决定: 16bit整数或32bit浮点(格式编号3, 附带fact块)
+ *
+ * 文件头预留了ds64块的位置并填充到4096字节, 采样数据从对齐的位置开始;
+ * 可以随时调用{@link #updateHeader()}回写长度, 数据超出4GB时文件头自动改为RF64格式.
+ *
+ * @see <a href="https://zh.wikipedia.org/wiki/WAV">WAV</a>
+ * @see <a href="https://tech.ebu.ch/docs/tech/tech3306v1_1.pdf">RF64</a>
+ */
+public class WavWriter implements PcmSink {
+
+    // 采样数据在文件中的起始位置, 即文件头长度
+    public static final int DATA_OFFSET = 4096;
+    // 16bit整数格式的采样大小 bit
+    public static final int SAMPLE_LENGTH = 16;
+
+    // RIFF块能够表示的最大长度
+    private static final long RIFF_MAX_SIZE = 0xffffffffL;
+    // ds64块的内容长度
+    private static final int DS64_SIZE = 28;
+    // fmt块的起始位置
+    private static final int FMT_OFFSET = 48;
+
+    // 音频格式
+    private final AudioConfig config;
+    // 文件
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    // 文件头
+    private final ByteBuffer header = ByteBuffer.allocate(DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+
+    // 编码缓冲, 仅用于write(short[], int, int)
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0).order(ByteOrder.LITTLE_ENDIAN);
+    // 已经写入了的数据长度(byte数量)
+    private long dataBytes = 0;
+
+    /**
+     * 16bit整数格式
+     */
+    public WavWriter(File wavFile, int sampleRate, int channels) throws IOException {
+        this(wavFile, new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT));
+    }
+
+    public WavWriter(File wavFile, AudioConfig config) throws IOException {
+        this.config = config;
+        this.file = new RandomAccessFile(wavFile, "rw");
+        this.channel = file.getChannel();
+        this.channel.truncate(0);
+        updateHeader();
+    }
+
+    /**
+     * 追加单声道采样, 按文件格式编码, 多声道时复制到每个声道
+     */
+    public void write(short[] frame, int offset, int length) throws IOException {
+        int bytes = length * config.getBytesPerFrame();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        if (config.getChannels() == 1 && config.getEncoding() == AudioConfig.Encoding.PCM_16BIT) {
+            buffer.asShortBuffer().put(frame, offset, length);
+            buffer.limit(bytes);
+        } else {
+            PcmConverter.encode(frame, offset, length, config, buffer);
+            buffer.flip();
+        }
+        write(buffer);
+    }
+
+    /**
+     * 追加已经按文件格式编码为小端的采样, 写入position到limit之间的数据
+     */
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        long position = DATA_OFFSET + dataBytes;
+        while (pcm.hasRemaining()) {
+            int wrote = channel.write(pcm, position);
+            position += wrote;
+            dataBytes += wrote;
+        }
+    }
+
+    /**
+     * 按当前长度回写文件头, 之后即使进程崩溃文件也是完整的
+     */
+    public void updateHeader() throws IOException {
+        header(header, config, dataBytes);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * 回写文件头并将数据写入存储设备
+     */
+    @Override
+    public void flush() throws IOException {
+        updateHeader();
+        channel.force(false);
+    }
+
+    /**
+     * @return 是否已经改为RF64格式
+     */
+    public boolean isRf64() {
+        return isRf64(dataBytes);
+    }
+
+    @Override
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    @Override
+    public AudioConfig getConfig() {
+        return config;
+    }
+
+    public int getSampleRate() {
+        return config.getSampleRate();
+    }
+
+    public int getChannels() {
+        return config.getChannels();
+    }
+
+    /**
+     * 回写文件头并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static boolean isRf64(long dataBytes) {
+        return DATA_OFFSET - 8 + dataBytes > RIFF_MAX_SIZE;
+    }
+
+    /**
+     * 生成16bit整数格式的WAV文件头
+     * @see #header(ByteBuffer, AudioConfig, long)
+     */
+    public static void header(ByteBuffer dst, int sampleRate, int channels, long dataBytes) {
+        header(dst, new AudioConfig(sampleRate, channels, AudioConfig.Encoding.PCM_16BIT), dataBytes);
+    }
+
+    /**
+     * 生成WAV文件头
+     * @param dst 输出, 从0开始写入{@link #DATA_OFFSET}字节
+     * @param config 音频格式
+     * @param dataBytes 数据长度
+     */
+    public static void header(ByteBuffer dst, AudioConfig config, long dataBytes) {
+        ByteBuffer header = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.clear();
+        int blockAlign = config.getBytesPerFrame();
+        boolean floating = config.getEncoding() == AudioConfig.Encoding.PCM_FLOAT;
+        long riffSize = DATA_OFFSET - 8 + dataBytes;
+        boolean rf64 = isRf64(dataBytes);
+
+        // RIFF/WAVE header
+        putTag(header, 0, rf64 ? "RF64" : "RIFF");
+        header.putInt(4, rf64 ? -1 : (int) riffSize);
+        putTag(header, 8, "WAVE");
+
+        // 'ds64' chunk, 未使用时作为'JUNK'
+        putTag(header, 12, rf64 ? "ds64" : "JUNK");
+        header.putInt(16, DS64_SIZE);
+        header.putLong(20, rf64 ? riffSize : 0);
+        header.putLong(28, rf64 ? dataBytes : 0);
+        header.putLong(36, rf64 ? dataBytes / blockAlign : 0);
+        header.putInt(44, 0);
+
+        // 'fmt ' chunk, 浮点格式需要cbSize字段
+        int fmtSize = floating ? 18 : 16;
+        putTag(header, FMT_OFFSET, "fmt ");
+        header.putInt(52, fmtSize);
+        // format: 1为整数, 3为浮点
+        header.putShort(56, (short) config.getEncoding().formatTag);
+        header.putShort(58, (short) config.getChannels());
+        header.putInt(60, config.getSampleRate());
+        header.putInt(64, config.getByteRate());
+        // block align
+        header.putShort(68, (short) blockAlign);
+        // bits per sample
+        header.putShort(70, (short) config.getEncoding().getBitsPerSample());
+        int offset = FMT_OFFSET + 8 + fmtSize;
+        if (floating) {
+            // cbSize
+            header.putShort(72, (short) 0);
+            // 'fact' chunk: 帧数, RF64时以ds64中的数值为准
+            putTag(header, offset, "fact");
+            header.putInt(offset + 4, 4);
+            header.putInt(offset + 8, rf64 ? -1 : (int) (dataBytes / blockAlign));
+            offset += 12;
+        }
+
+        // 填充, 使采样数据对齐
+        putTag(header, offset, "JUNK");
+        header.putInt(offset + 4, DATA_OFFSET - offset - 16);
+        for (int i = offset + 8; i < DATA_OFFSET - 8; i++) {
+            header.put(i, (byte) 0);
+        }
+
+        //data
+        putTag(header, DATA_OFFSET - 8, "data");
+        header.putInt(DATA_OFFSET - 4, rf64 ? -1 : (int) dataBytes);
+    }
+
+    private static void putTag(ByteBuffer dst, int offset, String tag) {
+        for (int i = 0; i < 4; i++) {
+            dst.put(offset + i, (byte) tag.charAt(i));
+        }
+    }
+
+}
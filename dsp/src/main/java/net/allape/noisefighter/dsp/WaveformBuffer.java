@@ -0,0 +1,154 @@
+package net.allape.noisefighter.dsp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 滚动波形: 每列保存固定数量采样的最小值与最大值, 用于绘制
+ *
+ * 处理线程每帧把完整的列按时间顺序复制到后台快照中, 再与中间快照交换; 绘制线程只在有更新时与中间快照交换,
+ * 两个线程之间没有锁, 也不会分配内存. 绘制跟不上时中间的帧被合并, 只会看到最新的一份.
+ */
+public class WaveformBuffer implements FrameProcessor {
+
+    /**
+     * 波形快照, 只能由取得它的线程读取
+     */
+    public static final class Snapshot {
+
+        // 每列的最小值
+        public final short[] min;
+        // 每列的最大值
+        public final short[] max;
+        // 有效列数, 从0开始按时间顺序排列
+        public int count;
+        // 生成快照时已经处理的帧数
+        public long frames;
+
+        Snapshot(int columns) {
+            min = new short[columns];
+            max = new short[columns];
+        }
+
+    }
+
+    // 中间快照有更新的标记
+    private static final int DIRTY = 4;
+    // 快照序号的掩码
+    private static final int INDEX = 3;
+
+    // 列数
+    private final int columns;
+    // 每列的采样数
+    private final int samplesPerColumn;
+    // 处理线程的环形列
+    private final short[] ringMin;
+    private final short[] ringMax;
+    // 三个快照: 处理线程写入的后台快照, 交换用的中间快照, 绘制线程读取的前台快照
+    private final Snapshot[] snapshots;
+    // 中间快照的序号与更新标记
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // 处理线程的后台快照序号
+    private int back = 0;
+    // 绘制线程的前台快照序号
+    private int front = 2;
+    // 下一列在环形列中的位置
+    private int head = 0;
+    // 环形列中的有效列数
+    private int filled = 0;
+    // 当前列已经累计的采样数
+    private int accumulated = 0;
+    // 当前列的最小值与最大值
+    private int currentMin = Short.MAX_VALUE;
+    private int currentMax = Short.MIN_VALUE;
+    // 已经处理的帧数
+    private long frames = 0;
+
+    /**
+     * @param columns 列数
+     * @param samplesPerColumn 每列的采样数
+     */
+    public WaveformBuffer(int columns, int samplesPerColumn) {
+        if (columns <= 0 || samplesPerColumn <= 0) {
+            throw new IllegalArgumentException("columns and samplesPerColumn must be positive");
+        }
+        this.columns = columns;
+        this.samplesPerColumn = samplesPerColumn;
+        this.ringMin = new short[columns];
+        this.ringMax = new short[columns];
+        this.snapshots = new Snapshot[]{new Snapshot(columns), new Snapshot(columns), new Snapshot(columns)};
+    }
+
+    @Override
+    public void process(short[] frame, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int chunkEnd = Math.min(end, i + samplesPerColumn - accumulated);
+            int min = currentMin;
+            int max = currentMax;
+            for (int j = i; j < chunkEnd; j++) {
+                int one = frame[j];
+                min = Math.min(min, one);
+                max = Math.max(max, one);
+            }
+            accumulated += chunkEnd - i;
+            i = chunkEnd;
+            if (accumulated == samplesPerColumn) {
+                ringMin[head] = (short) min;
+                ringMax[head] = (short) max;
+                head = head + 1 == columns ? 0 : head + 1;
+                if (filled < columns) filled++;
+                accumulated = 0;
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+            }
+            currentMin = min;
+            currentMax = max;
+        }
+        frames++;
+        publish();
+    }
+
+    /**
+     * 按时间顺序复制到后台快照并与中间快照交换
+     */
+    private void publish() {
+        Snapshot snapshot = snapshots[back];
+        int oldest = filled < columns ? 0 : head;
+        int tail = filled - oldest;
+        System.arraycopy(ringMin, oldest, snapshot.min, 0, tail);
+        System.arraycopy(ringMax, oldest, snapshot.max, 0, tail);
+        System.arraycopy(ringMin, 0, snapshot.min, tail, filled - tail);
+        System.arraycopy(ringMax, 0, snapshot.max, tail, filled - tail);
+        snapshot.count = filled;
+        snapshot.frames = frames;
+        back = middle.getAndSet(back | DIRTY) & INDEX;
+    }
+
+    /**
+     * @return 是否有绘制线程还没有取得的快照
+     */
+    public boolean hasUpdate() {
+        return (middle.get() & DIRTY) != 0;
+    }
+
+    /**
+     * 取得最新的快照, 只能在绘制线程中调用; 在下一次调用之前有效
+     */
+    public Snapshot acquire() {
+        if (hasUpdate()) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return snapshots[front];
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getSamplesPerColumn() {
+        return samplesPerColumn;
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveThresholdTest {
+
+    private static final int RATE = 8000;
+    private static final int FRAME = 800;
+
+    private final Random random = new Random(7);
+    private final LevelMeter meter = new LevelMeter();
+    // 10秒窗口, 100帧
+    private final AdaptiveThreshold adaptive = new AdaptiveThreshold(meter, RATE, FRAME, 10000, 0.2);
+
+    private int triggered = 0;
+    private final ThresholdTrigger trigger = new ThresholdTrigger(meter, 0, 0, new ThresholdTrigger.Listener() {
+        @Override
+        public void onTriggered(short[] frame, int offset, int length) {
+            triggered++;
+        }
+
+        @Override
+        public void onIdle(short[] frame, int offset, int length) {
+        }
+    });
+    private final FramePipeline pipeline = new FramePipeline(meter, adaptive, trigger);
+
+    {
+        trigger.setAdaptive(adaptive);
+        trigger.setMode(ThresholdTrigger.Mode.ADAPTIVE);
+        adaptive.setMargins(12, 6);
+        adaptive.setMinimumDbfs(-60);
+    }
+
+    private short[] frame(double amplitude) {
+        short[] frame = new short[FRAME];
+        for (int i = 0; i < FRAME; i++) {
+            frame[i] = (short) Math.round(random.nextGaussian() * amplitude / 4);
+        }
+        return frame;
+    }
+
+    private void feed(double amplitude, int frames) {
+        for (int i = 0; i < frames; i++) {
+            short[] frame = frame(amplitude);
+            pipeline.process(frame, 0, FRAME);
+        }
+    }
+
+    @Test
+    public void floor_followsBackgroundNotBursts() {
+        assertEquals(100, adaptive.getWindowFrames());
+        feed(1000, 100);
+        double floor = adaptive.getFloorDbfs();
+        assertEquals(LevelMeter.dbfs(1000), floor, 3);
+
+        // 短暂的响声不改变背景噪声
+        feed(20000, 10);
+        assertEquals(floor, adaptive.getFloorDbfs(), 1);
+
+        // 背景噪声变大后跟随
+        feed(8000, 100);
+        assertEquals(LevelMeter.dbfs(8000), adaptive.getFloorDbfs(), 3);
+    }
+
+    @Test
+    public void trigger_usesAttackAndReleaseThresholds() {
+        feed(1000, 100);
+        assertEquals(0, triggered);
+
+        // 高于释放阈值但低于起始阈值: 不触发
+        feed(1000 * 2.5, 3);
+        assertEquals(0, triggered);
+
+        // 达到起始阈值之后, 高于释放阈值的帧继续触发
+        feed(1000 * 8, 1);
+        feed(1000 * 2.5, 3);
+        assertEquals(4, triggered);
+
+        feed(1000, 3);
+        assertEquals(4, triggered);
+    }
+
+    @Test
+    public void minimum_preventsTriggeringInSilence() {
+        adaptive.setMinimumDbfs(-40);
+        feed(10, 100);
+        feed(200, 3);
+        assertEquals(0, triggered);
+        assertEquals(-40, adaptive.getAttackDbfs(), 0);
+    }
+
+}
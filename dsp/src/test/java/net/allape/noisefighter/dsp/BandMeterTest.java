@@ -0,0 +1,86 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BandMeterTest {
+
+    private static final int RATE = 48000;
+    private static final Band BASS = new Band(40, 150);
+    private static final Band HISS = new Band(4000, 8000);
+
+    private static short[] tone(double frequency, double amplitude, int length) {
+        short[] frame = new short[length];
+        for (int i = 0; i < length; i++) {
+            frame[i] = (short) Math.round(Math.sin(2 * Math.PI * frequency * i / RATE) * amplitude);
+        }
+        return frame;
+    }
+
+    private static void assertBandPower(BandMeter meter, short[] frame) {
+        meter.process(frame, 0, frame.length);
+        // 振幅10000的正弦波: 均方值5e7
+        assertEquals(5e7, meter.getBandPower(0), 5e7 * 0.1);
+        assertTrue(meter.getBandPower(1) < 5e7 * 1e-3);
+    }
+
+    @Test
+    public void goertzel_measuresToneInsideBand() {
+        GoertzelBank bank = new GoertzelBank(RATE, 4800, BASS, HISS);
+        // 频点间隔10Hz
+        assertEquals(12, bank.getBinCount(0));
+        assertBandPower(bank, tone(100, 10000, 4800));
+    }
+
+    @Test
+    public void goertzel_narrowBandUsesNearestBin() {
+        GoertzelBank bank = new GoertzelBank(RATE, 4800, new Band(101, 102));
+        assertEquals(1, bank.getBinCount(0));
+    }
+
+    @Test
+    public void spectrum_measuresToneInsideBand() {
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(RATE, 4096, 1024, BASS, HISS);
+        int[] spectra = {0};
+        analyzer.setListener((power, source) -> spectra[0]++);
+        assertBandPower(analyzer, tone(100, 10000, 8192));
+        // 4096个采样之后每1024个采样一次
+        assertEquals(5, spectra[0]);
+    }
+
+    @Test
+    public void trigger_onBandEnergy() {
+        LevelMeter level = new LevelMeter();
+        GoertzelBank bank = new GoertzelBank(RATE, 4800, BASS);
+        int[] triggered = {0};
+        ThresholdTrigger trigger = new ThresholdTrigger(level, 8000, 0, new ThresholdTrigger.Listener() {
+            @Override
+            public void onTriggered(short[] frame, int offset, int length) {
+                triggered[0]++;
+            }
+
+            @Override
+            public void onIdle(short[] frame, int offset, int length) {
+            }
+        });
+        trigger.setBandMeter(bank);
+        trigger.setMode(ThresholdTrigger.Mode.BAND);
+        FramePipeline pipeline = new FramePipeline(level, bank, trigger);
+
+        // 响亮但不在频段内
+        pipeline.process(tone(1000, 20000, 4800), 0, 4800);
+        assertEquals(0, triggered[0]);
+        // 频段内
+        pipeline.process(tone(80, 10000, 4800), 0, 4800);
+        assertEquals(1, triggered[0]);
+
+        // 同时要求峰值
+        trigger.setMode(ThresholdTrigger.Mode.PEAK_AND_BAND);
+        pipeline.process(tone(80, 6000, 4800), 0, 4800);
+        assertEquals(1, triggered[0]);
+        pipeline.process(tone(80, 12000, 4800), 0, 4800);
+        assertEquals(2, triggered[0]);
+    }
+
+}
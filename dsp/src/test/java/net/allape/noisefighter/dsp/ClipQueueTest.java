@@ -0,0 +1,52 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClipQueueTest {
+
+    @Test
+    public void claim_returnsNullWhenFull() {
+        ClipQueue queue = new ClipQueue(3);
+        assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            Clip clip = queue.claim();
+            assertNotNull(clip);
+            clip.set(i, i + 1);
+            queue.publish();
+        }
+        assertNull(queue.claim());
+
+        assertEquals(0, queue.peek().start);
+        queue.remove();
+        assertEquals(1, queue.peek().start);
+        assertNotNull(queue.claim());
+    }
+
+    @Test
+    public void peek_returnsNullWhenEmpty() {
+        ClipQueue queue = new ClipQueue(2);
+        assertNull(queue.peek());
+        queue.claim().set(5, 9);
+        assertNull(queue.peek());
+        queue.publish();
+        assertEquals(4, queue.peek().frames());
+    }
+
+    @Test
+    public void clear_dropsPublishedClips() {
+        ClipQueue queue = new ClipQueue(2);
+        queue.claim().set(0, 1);
+        queue.publish();
+        queue.claim().set(1, 2);
+        queue.publish();
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        queue.claim().set(2, 3);
+        queue.publish();
+        assertEquals(2, queue.peek().start);
+    }
+
+}
@@ -0,0 +1,142 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClipRecorderTest {
+
+    private static final int FRAME = 4;
+
+    private FrameRingBuffer ring;
+    private ClipQueue clips;
+    private ClipRecorder recorder;
+    private FramePipeline pipeline;
+    private short[] scratch;
+    private int published;
+    private int dropped;
+
+    @Before
+    public void setup() {
+        ring = new FrameRingBuffer(FRAME, 8);
+        clips = new ClipQueue(2);
+        ClipRecorder.Callback callback = new ClipRecorder.Callback() {
+            @Override
+            public void onClip(Clip clip) {
+                published++;
+            }
+
+            @Override
+            public void onDropped(long start, long end) {
+                dropped++;
+            }
+        };
+        recorder = new ClipRecorder(ring, clips, 2, 4, callback);
+        LevelMeter meter = new LevelMeter();
+        pipeline = new FramePipeline(meter, new ThresholdTrigger(meter, 1000, 0, recorder));
+        scratch = new short[FRAME];
+    }
+
+    /**
+     * 与CaptureEngine相同的写入方式, 每帧的采样都等于value
+     */
+    private void feed(int value) {
+        int offset = recorder.claim();
+        short[] frame = ring.array();
+        if (offset < 0) {
+            frame = scratch;
+            offset = 0;
+        }
+        for (int i = 0; i < FRAME; i++) frame[offset + i] = (short) value;
+        recorder.commit(FRAME);
+        pipeline.process(frame, offset, FRAME);
+    }
+
+    private short first(long sequence) {
+        return ring.array()[ring.offset(sequence)];
+    }
+
+    @Test
+    public void clip_includesPreRoll() {
+        // 远超缓冲大小的空闲帧不会占满缓冲
+        for (int i = 0; i < 100; i++) feed(i % 10);
+        feed(2000);
+        feed(3000);
+        feed(1);
+
+        Clip clip = clips.peek();
+        assertNotNull(clip);
+        assertEquals(1, published);
+        // 2帧pre-roll + 2帧触发
+        assertEquals(4, clip.frames());
+        assertEquals(8, first(clip.start));
+        assertEquals(9, first(clip.start + 1));
+        assertEquals(2000, first(clip.start + 2));
+        assertEquals(3000, first(clip.end - 1));
+    }
+
+    @Test
+    public void clip_isProtectedUntilReleased() {
+        feed(2000);
+        feed(1);
+        Clip clip = clips.peek();
+        assertEquals(1, clip.frames());
+        assertEquals(0, clip.start);
+
+        // 未释放的录音不会被覆盖, 之后的帧只能写入临时buffer
+        for (int i = 0; i < 20; i++) feed(5);
+        assertEquals(2000, first(clip.start));
+        assertTrue(ring.isFull());
+
+        ring.release(clip.end);
+        clips.remove();
+        assertFalse(ring.isFull());
+
+        // 跳过帧之后的pre-roll不包括跳过之前的帧
+        feed(7);
+        feed(4000);
+        feed(1);
+        clip = clips.peek();
+        assertEquals(2, clip.frames());
+        assertEquals(7, first(clip.start));
+        assertEquals(0, dropped);
+    }
+
+    @Test
+    public void heldSize_countsPreRollAndUnreleasedClip() {
+        // 空闲时只保留pre-roll, 被覆盖的历史帧不计算在内
+        for (int i = 0; i < 100; i++) feed(i % 10);
+        assertEquals(100, ring.size());
+        assertEquals(2, ring.getHeldSize());
+
+        // 2帧pre-roll + 2帧触发
+        feed(2000);
+        feed(3000);
+        assertEquals(4, ring.getHeldSize());
+
+        // 发布之后消费者释放之前的历史帧也不能覆盖, 缓冲已满
+        feed(1);
+        Clip clip = clips.peek();
+        assertEquals(8, ring.getHeldSize());
+        assertTrue(ring.isFull());
+
+        // 消费者释放录音之前的帧之后, 录音在播放完之前一直保留, 加上当前帧
+        ring.release(clip.start);
+        assertEquals(5, ring.getHeldSize());
+        for (int i = 0; i < 20; i++) feed(5);
+        assertEquals(6, ring.getHeldSize());
+
+        ring.release(clip.end);
+        clips.remove();
+        assertEquals(2, ring.getHeldSize());
+    }
+
+    @Test
+    public void clip_isPublishedAtMaxFrames() {
+        for (int i = 0; i < 5; i++) feed(2000);
+        assertEquals(1, published);
+        assertEquals(4, clips.peek().frames());
+    }
+
+}
@@ -0,0 +1,160 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EchoCancellerTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SIZE = 640;
+    // 扬声器到麦克风: 整体延迟与简单的房间响应
+    private static final int ECHO_DELAY = 800;
+    private static final float[] ECHO_PATH = {0.6f, 0.25f, -0.1f, 0, 0.05f};
+
+    /**
+     * 播放与录音, 按帧交替推进
+     */
+    private static final class Room {
+
+        final EchoReference reference = new EchoReference(SAMPLE_RATE);
+        final EchoCanceller canceller = new EchoCanceller(reference, SAMPLE_RATE, FRAME_SIZE);
+        final Random random = new Random(11);
+        // 所有播放过的采样
+        final short[] played = new short[SAMPLE_RATE * 20];
+        final short[] frame = new short[FRAME_SIZE];
+        final short[] near = new short[FRAME_SIZE];
+        int time = 0;
+
+        /**
+         * @param playing 是否播放, 播放的是幅度变化的噪声
+         * @param nearHz 近端的正弦, 0表示只有背景噪声
+         * @return 输出的能量
+         */
+        double step(boolean playing, double nearHz) {
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                int t = time + i;
+                double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t / SAMPLE_RATE);
+                played[t] = playing ? (short) (random.nextGaussian() * 4000 * envelope) : 0;
+            }
+            reference.write(played, time, FRAME_SIZE);
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                int t = time + i;
+                double echo = 0;
+                for (int k = 0; k < ECHO_PATH.length; k++) {
+                    int source = t - ECHO_DELAY - k;
+                    if (source >= 0) echo += ECHO_PATH[k] * played[source];
+                }
+                double local = nearHz > 0 ? 3000 * Math.sin(2 * Math.PI * nearHz * t / SAMPLE_RATE) : 0;
+                near[i] = (short) Math.round(local + random.nextGaussian() * 10);
+                frame[i] = (short) Math.round(echo + near[i]);
+            }
+            canceller.process(frame, 0, FRAME_SIZE);
+            time += FRAME_SIZE;
+            return energy(frame, 0, FRAME_SIZE);
+        }
+
+        double run(int frames, boolean playing, double nearHz) {
+            double sum = 0;
+            for (int i = 0; i < frames; i++) {
+                sum += step(playing, nearHz);
+            }
+            return sum;
+        }
+
+    }
+
+    private static double energy(short[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += (double) samples[i] * samples[i];
+        }
+        return sum;
+    }
+
+    @Test
+    public void playback_findsDelayAndCancelsEcho() {
+        Room room = new Room();
+        double before = room.run(10, true, 0);
+        room.run(90, true, 0);
+        double after = room.run(10, true, 0);
+        EchoCanceller canceller = room.canceller;
+        assertTrue(canceller.isConverged());
+        // 主要路径落在滤波器的窗口之内
+        assertTrue("delay " + canceller.getDelay(),
+                canceller.getDelay() <= ECHO_DELAY && canceller.getDelay() > ECHO_DELAY - canceller.getTaps());
+        assertTrue("erle " + canceller.getErleDb(), canceller.getErleDb() > 20);
+        assertTrue(after < before / 100);
+    }
+
+    @Test
+    public void doubleTalk_keepsNearEnd() {
+        Room room = new Room();
+        room.run(100, true, 0);
+        double nearEnergy = 0, output = 0;
+        for (int i = 0; i < 25; i++) {
+            output += room.step(true, 1000);
+            nearEnergy += energy(room.near, 0, FRAME_SIZE);
+        }
+        // 近端的声音大部分保留(回声包络的峰值处以回声为主的块仍然衰减), 滤波器也没有被破坏
+        double ratio = output / nearEnergy;
+        assertTrue("ratio " + ratio, ratio > 0.5 && ratio < 1.5);
+        assertTrue(room.canceller.isConverged());
+        assertTrue(room.run(10, true, 0) < nearEnergy / 25 * 10 / 100);
+    }
+
+    @Test
+    public void noReference_passesThrough() {
+        Room room = new Room();
+        for (int i = 0; i < 20; i++) {
+            room.step(false, i < 10 ? 0 : 500);
+            assertArrayEquals(room.near, room.frame);
+        }
+        assertFalse(room.canceller.isConverged());
+    }
+
+    @Test
+    public void afterPlayback_passesThrough() {
+        Room room = new Room();
+        room.run(100, true, 0);
+        // 回声的尾部结束之后不再处理
+        room.run(3, false, 0);
+        room.step(false, 500);
+        assertArrayEquals(room.near, room.frame);
+    }
+
+    @Test
+    public void disabled_skipsReference() {
+        Room room = new Room();
+        room.canceller.setEnabled(false);
+        room.run(20, true, 0);
+        assertEquals(0, room.reference.size());
+        assertFalse(room.canceller.isConverged());
+        assertEquals(0, room.canceller.getDelay());
+    }
+
+    @Test
+    public void reference_dropsWhenFull() {
+        EchoReference reference = new EchoReference(1000);
+        assertEquals(1024, reference.capacity());
+        short[] samples = new short[800];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) i;
+        }
+        assertEquals(800, reference.write(samples, 0, 800));
+        assertEquals(224, reference.write(samples, 0, 800));
+        assertEquals(576, reference.getDropped());
+        assertEquals(500, reference.skip(500));
+        short[] read = new short[600];
+        // 跨过环形缓冲的末尾, 不足的部分以静音补齐
+        assertEquals(524, reference.read(read, 0, 600));
+        assertEquals(500, read[0]);
+        assertEquals(0, read[300]);
+        assertEquals(223, read[523]);
+        assertEquals(0, read[524]);
+        assertEquals(0, reference.size());
+    }
+
+}
@@ -0,0 +1,170 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class EventStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static short[] samples(int length, int value) {
+        short[] pcm = new short[length];
+        for (int i = 0; i < length; i++) pcm[i] = (short) (i % 2 == 0 ? value : -value);
+        return pcm;
+    }
+
+    @Test
+    public void append_isSearchableAndReadable() throws IOException {
+        File base = new File(folder.getRoot(), "events");
+        try (EventStore store = new EventStore(base, 44100, 1)) {
+            for (int i = 0; i < 10; i++) {
+                store.begin(1000L * i);
+                short[] pcm = samples(100 + i, 100 * (i + 1));
+                store.write(pcm, 0, 50);
+                store.write(pcm, 50, pcm.length - 50);
+                assertEquals(i, store.end());
+            }
+        }
+
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            assertEquals(10, reader.size());
+            assertEquals(44100, reader.getSampleRate());
+            assertEquals(0, reader.search(0));
+            assertEquals(4, reader.search(3500));
+            assertEquals(4, reader.search(4000));
+            assertEquals(10, reader.search(100000));
+
+            Event event = new Event();
+            reader.get(4, event);
+            assertEquals(4000, event.timestamp);
+            assertEquals(104, event.length);
+            assertEquals(500, event.peak);
+            assertEquals(500, event.rms, 0.01);
+
+            short[] pcm = new short[event.length];
+            reader.read(event, pcm, 0);
+            assertArrayEquals(samples(104, 500), pcm);
+        }
+    }
+
+    @Test
+    public void append_recoversFromWriteError() throws IOException {
+        File base = new File(folder.getRoot(), "events");
+        // 超过写入缓冲, 每个事件写入段文件两次; 第二个事件已经写入一部分之后失败
+        FrameRingBuffer ring = new FrameRingBuffer(10000, 5);
+        for (int i = 0; i < 4; i++) {
+            ring.offer(samples(10000, 1000 + i), 0, 10000);
+        }
+        Clip clip = new Clip();
+        clip.set(0, 4);
+        int[] writes = {0};
+        try (EventStore store = new EventStore(base, 44100, 1) {
+            @Override
+            int writeSegment(ByteBuffer src, long position) throws IOException {
+                if (++writes[0] == 4) {
+                    throw new IOException("disk full");
+                }
+                return super.writeSegment(src, position);
+            }
+        }) {
+            assertEquals(0, store.append(1000, ring, clip));
+            try {
+                store.append(2000, ring, clip);
+                fail();
+            } catch (IOException expected) {
+                assertEquals(1, store.size());
+            }
+            // 失败的事件被丢弃, 之后照常写入
+            assertEquals(1, store.append(3000, ring, clip));
+        }
+
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            assertEquals(2, reader.size());
+            Event event = new Event();
+            reader.get(1, event);
+            assertEquals(3000, event.timestamp);
+            assertEquals(40000 * 2, event.offset);
+            assertEquals(40000, event.length);
+            short[] pcm = new short[event.length];
+            reader.read(event, pcm, 0);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(1000 + i, pcm[i * 10000]);
+            }
+        }
+        assertEquals(80000 * 2, EventStore.segmentFile(base).length());
+    }
+
+    @Test
+    public void begin_keepsTimestampsSorted() throws IOException {
+        File base = new File(folder.getRoot(), "events");
+        short[] pcm = samples(10, 100);
+        try (EventStore store = new EventStore(base, 44100, 1)) {
+            store.begin(5000);
+            store.write(pcm, 0, pcm.length);
+            store.end();
+            // 系统时间被调回
+            store.begin(3000);
+            store.write(pcm, 0, pcm.length);
+            store.end();
+        }
+        // 重新打开之后同样不早于最后一个事件
+        try (EventStore store = new EventStore(base, 44100, 1)) {
+            store.begin(1000);
+            store.write(pcm, 0, pcm.length);
+            store.end();
+            store.begin(6000);
+            store.write(pcm, 0, pcm.length);
+            store.end();
+        }
+
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            Event event = new Event();
+            long[] expected = {5000, 5000, 5000, 6000};
+            for (int i = 0; i < expected.length; i++) {
+                reader.get(i, event);
+                assertEquals(expected[i], event.timestamp);
+            }
+            assertEquals(0, reader.search(4000));
+            assertEquals(3, reader.search(5500));
+        }
+    }
+
+    @Test
+    public void reopen_dropsUnindexedData() throws IOException {
+        File base = new File(folder.getRoot(), "events");
+        try (EventStore store = new EventStore(base, 44100, 1)) {
+            store.begin(1);
+            store.write(samples(10, 1), 0, 10);
+            store.end();
+        }
+        // 模拟崩溃: 只写了数据和半条索引
+        try (RandomAccessFile segment = new RandomAccessFile(EventStore.segmentFile(base), "rw");
+             RandomAccessFile index = new RandomAccessFile(EventStore.indexFile(base), "rw")) {
+            segment.setLength(segment.length() + 64);
+            index.setLength(index.length() + 5);
+        }
+
+        try (EventStore store = new EventStore(base, 44100, 1)) {
+            assertEquals(1, store.size());
+            store.begin(2);
+            store.write(samples(4, 2), 0, 4);
+            store.end();
+        }
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            Event event = new Event();
+            reader.get(1, event);
+            assertEquals(20, event.offset);
+            assertEquals(4, event.length);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EventWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Clip clip(long start, long end, long timestamp) {
+        Clip clip = new Clip();
+        clip.set(start, end);
+        clip.timestamp = timestamp;
+        return clip;
+    }
+
+    @Test
+    public void offer_holdsRingUntilWritten() throws Exception {
+        FrameRingBuffer ring = new FrameRingBuffer(10, 8);
+        for (int i = 0; i < 6; i++) {
+            short[] frame = new short[10];
+            Arrays.fill(frame, (short) (i + 1));
+            ring.offer(frame, 0, frame.length);
+        }
+        Metrics metrics = new Metrics();
+        EventWriter writer = new EventWriter(ring, 2, metrics);
+
+        // 没有写入目标时不保留
+        assertFalse(writer.offer(clip(1, 3, 1000)));
+        assertEquals(5, writer.releasable(5));
+
+        File base = new File(folder.getRoot(), "events");
+        try (EventStore store = new EventStore(base, 8000, 1)) {
+            writer.setStore(store);
+            assertTrue(writer.offer(clip(1, 3, 1000)));
+            assertTrue(writer.offer(clip(3, 5, 2000)));
+            // 队列已满, 丢弃而不是等待
+            assertFalse(writer.offer(clip(5, 6, 3000)));
+            assertEquals(1, metrics.counter("events.dropped").get());
+            // 写入之前不能释放第一段录音
+            assertEquals(1, writer.releasable(5));
+
+            Thread thread = new Thread(writer, "EventWriter");
+            thread.start();
+            writer.close();
+            thread.join(1000);
+            assertFalse(thread.isAlive());
+            assertEquals(0, writer.size());
+            assertEquals(5, writer.releasable(5));
+            assertEquals(2, store.size());
+        }
+
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            Event event = new Event();
+            reader.get(1, event);
+            assertEquals(2000, event.timestamp);
+            short[] pcm = new short[event.length];
+            reader.read(event, pcm, 0);
+            assertEquals(20, pcm.length);
+            assertEquals(4, pcm[0]);
+            assertEquals(5, pcm[19]);
+        }
+    }
+
+    @Test
+    public void run_countsFailedWrites() throws IOException, InterruptedException {
+        FrameRingBuffer ring = new FrameRingBuffer(10, 4);
+        ring.offer(new short[10], 0, 10);
+        Metrics metrics = new Metrics();
+        EventWriter writer = new EventWriter(ring, 2, metrics);
+        EventStore store = new EventStore(new File(folder.getRoot(), "events"), 8000, 1);
+        writer.setStore(store);
+        assertTrue(writer.offer(clip(0, 1, 1000)));
+        // 已经关闭的文件写入失败, 写入线程继续处理之后的录音
+        store.close();
+
+        Thread thread = new Thread(writer, "EventWriter");
+        thread.start();
+        writer.close();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, metrics.counter("events.failed").get());
+        assertEquals(0, writer.size());
+    }
+
+}
@@ -0,0 +1,54 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FftTest {
+
+    @Test
+    public void transform_matchesNaiveDft() {
+        int n = 64;
+        double[] input = new double[n];
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) input[i] = random.nextGaussian();
+
+        double[] re = new double[n / 2 + 1];
+        double[] im = new double[n / 2 + 1];
+        new Fft(n).transform(input, re, im);
+
+        for (int k = 0; k <= n / 2; k++) {
+            double expectedRe = 0, expectedIm = 0;
+            for (int i = 0; i < n; i++) {
+                expectedRe += input[i] * Math.cos(2 * Math.PI * k * i / n);
+                expectedIm -= input[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            assertEquals("re " + k, expectedRe, re[k], 1e-9);
+            assertEquals("im " + k, expectedIm, im[k], 1e-9);
+        }
+    }
+
+    @Test
+    public void power_peaksAtToneBin() {
+        int n = 1024;
+        double[] input = new double[n];
+        for (int i = 0; i < n; i++) input[i] = Math.sin(2 * Math.PI * 37 * i / n);
+        double[] power = new double[n / 2 + 1];
+        new Fft(n).power(input, power, new double[n / 2 + 1], new double[n / 2 + 1]);
+
+        int max = 0;
+        for (int k = 1; k < power.length; k++) {
+            if (power[k] > power[max]) max = k;
+        }
+        assertEquals(37, max);
+        assertEquals(n * n / 4.0, power[37], 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void size_mustBePowerOfTwo() {
+        new Fft(1000);
+    }
+
+}
@@ -0,0 +1,193 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FlacTest {
+
+    private static final AudioConfig MONO = new AudioConfig(48000, 1, AudioConfig.Encoding.PCM_16BIT);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // 正弦加少量噪声, 类似环境录音
+    private static short[] tone(int length, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            double value = 6000 * Math.sin(2 * Math.PI * 440 * i / 48000.0)
+                    + 2000 * Math.sin(2 * Math.PI * 97 * i / 48000.0)
+                    + random.nextGaussian() * 30;
+            samples[i] = (short) Math.round(value);
+        }
+        return samples;
+    }
+
+    private File encode(AudioConfig config, short[] samples, int blockSize) throws IOException {
+        File file = folder.newFile();
+        try (FlacWriter writer = new FlacWriter(file, config, blockSize, FlacEncoder.DEFAULT_MAX_LPC_ORDER)) {
+            // 分段写入, 段长与块大小无关
+            for (int offset = 0; offset < samples.length; offset += 1000) {
+                writer.write(samples, offset, Math.min(1000, samples.length - offset));
+            }
+        }
+        return file;
+    }
+
+    private static short[] decodeAll(FlacReader reader) throws IOException {
+        short[] decoded = new short[(int) reader.getFrames()];
+        int read = 0;
+        int count;
+        while ((count = reader.read(decoded, read, Math.min(777, decoded.length - read))) > 0) {
+            read += count;
+        }
+        assertEquals(decoded.length, read);
+        assertEquals(0, reader.read(new short[1], 0, 1));
+        return decoded;
+    }
+
+    @Test
+    public void tone_roundTripsAndCompresses() throws IOException {
+        // 最后一块不满
+        short[] samples = tone(48000 * 3 + 123, 1);
+        File file = encode(MONO, samples, FlacEncoder.DEFAULT_BLOCK_SIZE);
+        try (FlacReader reader = new FlacReader(file)) {
+            assertEquals(48000, reader.getConfig().getSampleRate());
+            assertEquals(1, reader.getConfig().getChannels());
+            assertEquals(16, reader.getBitsPerSample());
+            assertEquals(samples.length, reader.getFrames());
+            assertArrayEquals(samples, decodeAll(reader));
+        }
+        assertTrue("ratio " + (double) file.length() / (samples.length * 2),
+                file.length() < samples.length * 2 * 6 / 10);
+    }
+
+    @Test
+    public void silenceAndNoise_roundTrip() throws IOException {
+        Random random = new Random(2);
+        short[] samples = new short[20000];
+        for (int i = 8000; i < samples.length; i++) {
+            // 满幅度的白噪声只能原样保存
+            samples[i] = (short) random.nextInt();
+        }
+        for (int i = 4000; i < 6000; i++) {
+            samples[i] = -1234;
+        }
+        File file = encode(MONO, samples, 1000);
+        try (FlacReader reader = new FlacReader(file)) {
+            assertArrayEquals(samples, decodeAll(reader));
+        }
+    }
+
+    @Test
+    public void stereo_decodesToMono() throws IOException {
+        AudioConfig stereo = MONO.withChannels(2);
+        short[] samples = tone(10000, 3);
+        File file = encode(stereo, samples, 2048);
+        try (FlacReader reader = new FlacReader(file)) {
+            assertEquals(2, reader.getConfig().getChannels());
+            assertArrayEquals(samples, decodeAll(reader));
+        }
+    }
+
+    @Test
+    public void seek_usesSeekTable() throws IOException {
+        short[] samples = tone(48000 * 4, 4);
+        File file = encode(MONO, samples, 1152);
+        try (FlacReader reader = new FlacReader(file)) {
+            short[] decoded = new short[500];
+            for (long target : new long[]{100000, 5, 1152 * 7, 48000 * 4 - 200}) {
+                reader.seek(target);
+                assertEquals(target, reader.getPosition());
+                int read = reader.read(decoded, 0, decoded.length);
+                assertEquals(Math.min(500, samples.length - target), read);
+                for (int i = 0; i < read; i++) {
+                    assertEquals(samples[(int) target + i], decoded[i]);
+                }
+            }
+            reader.seek(samples.length + 10);
+            assertEquals(0, reader.read(decoded, 0, decoded.length));
+        }
+    }
+
+    @Test
+    public void seekTable_thinsOutWhenFull() throws IOException {
+        File file = folder.newFile();
+        short[] samples = tone(16 * (FlacWriter.SEEK_POINTS + 100), 5);
+        try (FlacWriter writer = new FlacWriter(file, MONO, 16, 2)) {
+            writer.write(samples, 0, samples.length);
+            // 间隔加倍之后只保留偶数帧
+            assertEquals(FlacWriter.SEEK_POINTS / 2 + 50, writer.getSeekPoints());
+        }
+        try (FlacReader reader = new FlacReader(file)) {
+            reader.seek(16 * 1001 + 3);
+            short[] decoded = new short[10];
+            assertEquals(10, reader.read(decoded, 0, 10));
+            assertEquals(samples[16 * 1001 + 3], decoded[0]);
+        }
+    }
+
+    @Test
+    public void md5_matchesSamples() throws Exception {
+        short[] samples = tone(5000, 6);
+        File file = encode(MONO, samples, FlacEncoder.DEFAULT_BLOCK_SIZE);
+        byte[] bytes = new byte[samples.length * 2];
+        Pcm16.encode(samples, 0, samples.length, bytes);
+        byte[] expected = MessageDigest.getInstance("MD5").digest(bytes);
+        try (FlacReader reader = new FlacReader(file)) {
+            assertArrayEquals(expected, reader.getMd5());
+        }
+    }
+
+    @Test
+    public void flushedFile_isReadableBeforeClose() throws IOException {
+        File file = folder.newFile();
+        short[] samples = tone(10000, 7);
+        FlacWriter writer = new FlacWriter(file, MONO, 4096, 8);
+        try {
+            writer.write(samples, 0, samples.length);
+            writer.flush();
+            // 只有完整的块已经写入
+            try (FlacReader reader = new FlacReader(file)) {
+                assertEquals(8192, reader.getFrames());
+                short[] decoded = decodeAll(reader);
+                for (int i = 0; i < decoded.length; i++) {
+                    assertEquals(samples[i], decoded[i]);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void asyncWriter_encodesOnWriterThread() throws IOException {
+        File file = folder.newFile();
+        short[] samples = tone(30000, 8);
+        FlacWriter sink = new FlacWriter(file, MONO);
+        try (AsyncWavWriter writer = new AsyncWavWriter(sink)) {
+            for (int offset = 0; offset < samples.length; offset += 960) {
+                assertTrue(writer.write(samples, offset, Math.min(960, samples.length - offset)));
+            }
+        }
+        assertEquals(samples.length * 2L, sink.getDataBytes());
+        assertTrue(sink.getEncodedBytes() < sink.getDataBytes());
+        try (FlacReader reader = new FlacReader(file)) {
+            assertArrayEquals(samples, decodeAll(reader));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void floatConfig_isRejected() throws IOException {
+        new FlacWriter(folder.newFile(), MONO.withEncoding(AudioConfig.Encoding.PCM_FLOAT)).close();
+    }
+
+}
@@ -0,0 +1,62 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRingBufferTest {
+
+    @Test
+    public void offer_rejectsWhenFull() {
+        FrameRingBuffer ring = new FrameRingBuffer(4, 2);
+        short[] frame = {1, 2, 3, 4};
+        assertTrue(ring.offer(frame, 0, 4));
+        assertTrue(ring.offer(frame, 1, 3));
+        assertTrue(ring.isFull());
+        assertFalse(ring.offer(frame, 0, 4));
+
+        assertEquals(4, ring.length(0));
+        assertEquals(3, ring.length(1));
+        assertEquals(2, ring.array()[ring.offset(1)]);
+
+        ring.release(1);
+        assertTrue(ring.offer(frame, 0, 2));
+        // 第三帧复用了第一个槽位
+        assertEquals(ring.offset(0), ring.offset(2));
+        assertEquals(2, ring.length(2));
+    }
+
+    @Test
+    public void spsc_deliversFramesInOrder() throws InterruptedException {
+        final int frames = 100000;
+        final FrameRingBuffer ring = new FrameRingBuffer(8, 16);
+        Thread producer = new Thread(() -> {
+            short[] frame = new short[8];
+            for (int i = 0; i < frames; i++) {
+                for (int j = 0; j < frame.length; j++) frame[j] = (short) (i + j);
+                while (!ring.offer(frame, 0, 1 + i % frame.length)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        long sequence = 0;
+        while (sequence < frames) {
+            if (sequence == ring.getWriteSequence()) {
+                Thread.yield();
+                continue;
+            }
+            int offset = ring.offset(sequence);
+            int length = ring.length(sequence);
+            assertEquals(1 + sequence % 8, length);
+            for (int j = 0; j < length; j++) {
+                assertEquals((short) (sequence + j), ring.array()[offset + j]);
+            }
+            ring.release(++sequence);
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+}
@@ -0,0 +1,49 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelMeterTest {
+
+    private final LevelMeter meter = new LevelMeter();
+
+    @Test
+    public void peak_includesNegativeExcursions() {
+        meter.process(new short[]{0, 100, -20000, 300}, 0, 4);
+        assertEquals(20000, meter.getPeak());
+
+        meter.process(new short[]{Short.MIN_VALUE, Short.MAX_VALUE}, 0, 2);
+        assertEquals(LevelMeter.FULL_SCALE, meter.getPeak());
+        assertEquals(0, meter.getPeakDbfs(), 1e-9);
+    }
+
+    @Test
+    public void rms_ofSquareWave() {
+        short[] frame = new short[100];
+        for (int i = 0; i < frame.length; i++) frame[i] = (short) (i % 2 == 0 ? 1000 : -1000);
+        // 只处理中间一段
+        meter.process(frame, 10, 50);
+        assertEquals(50, meter.getLength());
+        assertEquals(1000, meter.getRms(), 1e-9);
+        assertEquals(20 * Math.log10(1000.0 / 32768), meter.getRmsDbfs(), 1e-9);
+    }
+
+    @Test
+    public void rms_ofFullScaleSine() {
+        short[] frame = new short[48000];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (short) Math.round(Math.sin(2 * Math.PI * 1000 * i / 48000) * 32767);
+        }
+        meter.process(frame, 0, frame.length);
+        assertEquals(-3.01, meter.getRmsDbfs(), 0.01);
+    }
+
+    @Test
+    public void dbfs_ofSilence() {
+        meter.process(new short[10], 0, 10);
+        assertEquals(LevelMeter.SILENCE_DBFS, meter.getPeakDbfs(), 0);
+        assertEquals(16384, LevelMeter.amplitude(LevelMeter.dbfs(16384)), 1e-6);
+    }
+
+}
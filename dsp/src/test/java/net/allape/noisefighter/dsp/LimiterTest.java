@@ -0,0 +1,57 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LimiterTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    @Test
+    public void loudBurst_neverExceedsCeiling() {
+        Limiter limiter = new Limiter(SAMPLE_RATE, 5, 50);
+        limiter.setGainDb(12);
+        limiter.setCeilingDbfs(-1);
+        double ceiling = LevelMeter.amplitude(-1);
+
+        short[] block = new short[64];
+        for (int b = 0; b < 40; b++) {
+            for (int i = 0; i < block.length; i++) {
+                // 前半段安静, 后半段满幅度方波
+                block[i] = (short) (b < 20 ? 0 : (i % 2 == 0 ? 32767 : -32768));
+            }
+            limiter.process(block, 0, block.length);
+            for (short sample : block) {
+                assertTrue(Math.abs(sample) <= ceiling + 1);
+            }
+        }
+    }
+
+    @Test
+    public void quietSignal_passesAfterLatency() {
+        Limiter limiter = new Limiter(SAMPLE_RATE, 2, 50);
+        int latency = limiter.getLatency();
+        assertEquals(16, latency);
+
+        short[] block = new short[100];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) (i * 10);
+        }
+        limiter.process(block, 0, block.length);
+        for (int i = 0; i < block.length; i++) {
+            assertEquals(i < latency ? 0 : (i - latency) * 10, block[i]);
+        }
+    }
+
+    @Test
+    public void gain_isAppliedBelowCeiling() {
+        Limiter limiter = new Limiter(SAMPLE_RATE, 1, 50);
+        limiter.setGainDb(20 * Math.log10(2));
+        short[] block = new short[32];
+        java.util.Arrays.fill(block, (short) 1000);
+        limiter.process(block, 0, block.length);
+        assertEquals(2000, block[block.length - 1]);
+    }
+
+}
@@ -0,0 +1,196 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LowPowerGateTest {
+
+    private static final AudioConfig CONFIG = new AudioConfig(16000, 1, AudioConfig.Encoding.PCM_16BIT);
+    private static final int FRAME_SIZE = 640;
+
+    /**
+     * 70秒的背景噪声, 20s处响亮的突发, 45s处短而轻的突发; 2kHz是抽取之后最难检测的频率之一
+     */
+    private static SyntheticSource source() {
+        return new SyntheticSource(CONFIG, CONFIG.framesOf(70000), -60, 11)
+                .burst(20000, 500, 440, -6)
+                .burst(45000, 120, 2000, -24);
+    }
+
+    private static Replay replay(boolean lowPower) {
+        Replay replay = new Replay(source(), FRAME_SIZE, new Metrics());
+        replay.getPipeline().setLowPower(lowPower);
+        return replay;
+    }
+
+    private static List<Long> frames(List<Replay.Event> events) {
+        List<Long> frames = new ArrayList<>();
+        for (Replay.Event event : events) {
+            frames.add(event.frame);
+        }
+        return frames;
+    }
+
+    @Test
+    public void gate_detectsDecimatedPeakWithMargin() {
+        LowPowerGate gate = new LowPowerGate(1000, 6);
+        gate.setEnabled(true);
+        short[] frame = new short[LowPowerGate.DECIMATION * 25];
+        // 比可能触发的最低峰值低5dB, 在余量之内
+        frame[12] = 5600;
+        assertTrue(gate.detect(frame, 0, frame.length, 10000));
+        assertEquals(1, gate.getWakeups());
+        // 下一帧错开一个采样, 上一帧检查的位置不再检查; 比可能触发的最低峰值低7dB
+        frame[12] = 10000;
+        frame[13] = 4400;
+        assertFalse(gate.detect(frame, 0, frame.length, 10000));
+        assertEquals(4400, gate.getPeak());
+        frame[14] = 5600;
+        assertTrue(gate.detect(frame, 0, frame.length, 10000));
+        assertEquals(2, gate.getWakeups());
+        assertEquals(frame.length, gate.getSleptSamples());
+    }
+
+    @Test
+    public void gate_sleepsAfterQuiet() {
+        LowPowerGate gate = new LowPowerGate(1000, 6);
+        assertFalse(gate.update(false, 0, 2000, 10000));
+        gate.setEnabled(true);
+        assertFalse(gate.update(false, 0, 600, 10000));
+        // 触发、播放或冷却期间重新计时
+        assertFalse(gate.update(true, 0, 600, 10000));
+        assertFalse(gate.update(false, 0, 600, 10000));
+        assertFalse(gate.isSleeping());
+        assertTrue(gate.update(false, 4000, 600, 10000));
+        assertTrue(gate.isSleeping());
+        gate.setEnabled(false);
+        assertFalse(gate.isSleeping());
+    }
+
+    @Test
+    public void sleeping_triggersLikeFullPipeline() throws IOException {
+        Replay full = replay(false);
+        Replay.Report expected = full.run();
+        Replay lowPower = replay(true);
+        Replay.Report actual = lowPower.run();
+
+        // 两次突发都触发: 响亮的突发开始于同一帧, 2kHz的突发最多晚DECIMATION-1帧
+        List<Long> expectedFrames = frames(expected.getEvents(Replay.Type.TRIGGERED));
+        List<Long> actualFrames = frames(actual.getEvents(Replay.Type.TRIGGERED));
+        assertEquals(2, expectedFrames.size());
+        assertEquals(2, actualFrames.size());
+        assertEquals(expectedFrames.get(0), actualFrames.get(0));
+        long delay = actualFrames.get(1) - expectedFrames.get(1);
+        assertTrue(delay + " frames late", delay >= 0 && delay <= (LowPowerGate.DECIMATION - 1) * FRAME_SIZE);
+        assertEquals(2, actual.getEvents(Replay.Type.CLIP).size());
+        assertTrue(expected.getEvents(Replay.Type.SLEEP).isEmpty());
+
+        // 大部分时间在休眠, 每次突发唤醒一次
+        LowPowerGate gate = lowPower.getPipeline().getLowPowerGate();
+        assertEquals(3, actual.getEvents(Replay.Type.SLEEP).size());
+        assertEquals(2, gate.getWakeups());
+        assertTrue(gate.getSleptSamples() > actual.getFrames() / 2);
+        assertEquals(actual.getFrames(), gate.getSleptSamples() + gate.getAwakeSamples());
+    }
+
+    @Test
+    public void sleeping_waitsForPlaybackAndCooldown() throws IOException {
+        Replay.Report report = replay(true).run();
+        // 播放结束之后的下一帧开始冷却, 冷却包括这一帧
+        long quiet = CONFIG.framesOf(CapturePipeline.PLAYBACK_COOLDOWN_MS + CapturePipeline.LOW_POWER_SLEEP_MS)
+                - FRAME_SIZE;
+        long lastEnd = -1;
+        for (Replay.Event event : report.getEvents()) {
+            if (event.type == Replay.Type.PLAYBACK_END) {
+                lastEnd = event.frame;
+            } else if (event.type == Replay.Type.SLEEP && lastEnd >= 0) {
+                assertTrue(event + " after playback end at " + lastEnd, event.frame >= lastEnd + quiet);
+            }
+        }
+        assertTrue(lastEnd >= 0);
+    }
+
+    @Test
+    public void sleeping_keepsEchoReferenceAligned() throws IOException {
+        // 第一段声音播放之后输出流保持运行10秒, 期间进入休眠; 唤醒之后第二段声音的播放期间出现第三段声音
+        SyntheticSource source = new SyntheticSource(CONFIG, CONFIG.framesOf(45000), -60, 7)
+                .burst(2000, 1000, 440, -6)
+                .burst(30000, 3000, 440, -6)
+                .burst(36300, 300, 880, -12);
+        Replay replay = new Replay(source, FRAME_SIZE, new Metrics());
+        replay.setEcho(100, -6);
+        replay.setWarm(10000);
+        replay.getPipeline().setEchoCancelling(true);
+        replay.getPipeline().setLowPower(true);
+        List<Replay.Event> events = replay.run().getEvents();
+
+        long sleep = -1;
+        long wake = -1;
+        for (Replay.Event event : events) {
+            if (event.type == Replay.Type.SLEEP && sleep < 0) sleep = event.frame;
+            if (event.type == Replay.Type.TRIGGERED && sleep >= 0 && wake < 0) wake = event.frame;
+        }
+        assertTrue(sleep >= 0 && sleep < CONFIG.framesOf(20000));
+        assertTrue(wake > CONFIG.framesOf(29000));
+        // 休眠期间参考信号照常消耗, 播放第二段录音时回声消除收敛, 第三段声音照常触发
+        long burst = CONFIG.framesOf(36300);
+        int triggers = 0;
+        for (Replay.Event event : events) {
+            if (event.type == Replay.Type.TRIGGERED && event.frame > wake) {
+                triggers++;
+                assertTrue(event.frame <= burst && event.frame > burst - FRAME_SIZE);
+            }
+        }
+        assertEquals(1, triggers);
+        // 参考信号没有积压: 最多是最后一帧的播放输出
+        EchoReference reference = replay.getPipeline().getEchoReference();
+        assertEquals(0, reference.getDropped());
+        assertTrue(reference.size() + " samples behind", reference.size() <= FRAME_SIZE);
+    }
+
+    @Test
+    public void sleeping_readsInBatchesAndKeepsNoiseStatistics() throws IOException {
+        Metrics fullMetrics = new Metrics();
+        Replay full = new Replay(source(), FRAME_SIZE, fullMetrics);
+        full.run();
+        Metrics lowPowerMetrics = new Metrics();
+        Replay lowPower = new Replay(source(), FRAME_SIZE, lowPowerMetrics);
+        lowPower.getPipeline().setLowPower(true);
+        lowPower.run();
+
+        // 每次读取唤醒一次录音线程
+        LatencyHistogram.Snapshot reads = new LatencyHistogram.Snapshot();
+        fullMetrics.histogram("mic.callback").snapshot(reads);
+        long fullReads = reads.getCount();
+        lowPowerMetrics.histogram("mic.callback").snapshot(reads);
+        assertEquals(CONFIG.framesOf(70000) / FRAME_SIZE, fullReads);
+        assertTrue(reads.getCount() + " reads", reads.getCount() < fullReads / 2);
+        assertEquals(2, lowPowerMetrics.counter("power.wake").get());
+
+        // 休眠时噪声统计照常; 唤醒晚一帧, 第二段录音的播放短一些, 跳过的时长与之后的125ms窗口略有不同
+        NoiseRollup expected = new NoiseRollup();
+        NoiseRollup actual = new NoiseRollup();
+        int count = 0;
+        while (full.getPipeline().getNoiseStatistics().poll(expected)) {
+            assertTrue(lowPower.getPipeline().getNoiseStatistics().poll(actual));
+            String message = expected + " vs " + actual;
+            assertEquals(message, expected.start, actual.start);
+            assertEquals(message, expected.period, actual.period);
+            assertEquals(message, expected.duration, actual.duration, NoiseStatistics.INTERVAL_MS);
+            assertEquals(message, expected.leq, actual.leq, 0.1);
+            assertEquals(message, expected.lmax, actual.lmax, 0.1);
+            assertEquals(message, expected.lmin, actual.lmin, 0.2);
+            assertEquals(message, expected.l10, actual.l10, 0.1);
+            assertEquals(message, expected.l50, actual.l50, 0.1);
+            assertEquals(message, expected.l90, actual.l90, 0.1);
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+}
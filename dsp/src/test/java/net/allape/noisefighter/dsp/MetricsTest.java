@@ -0,0 +1,92 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogram_bucketsAreContiguousWithBoundedError() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long low = LatencyHistogram.lowestValue(i);
+            long high = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.index(low));
+            assertEquals(i, LatencyHistogram.index(high));
+            assertTrue(high - low <= Math.max(0, low / 16));
+        }
+    }
+
+    @Test
+    public void histogram_percentiles() {
+        Metrics metrics = new Metrics();
+        LatencyHistogram histogram = metrics.histogram("latency");
+        assertSame(histogram, metrics.histogram("latency"));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(new LatencyHistogram.Snapshot());
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMax());
+        assertEquals(500_000, snapshot.getValueAtPercentile(50), 500_000 / 16.0);
+        assertEquals(990_000, snapshot.getValueAtPercentile(99), 990_000 / 16.0);
+        assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+        assertEquals(500_500, snapshot.getMean(), 500_500 / 16.0);
+    }
+
+    @Test
+    public void stageTimers_recordEachStage() {
+        Metrics metrics = new Metrics();
+        Counter frames = metrics.counter("frames");
+        FramePipeline pipeline = new FramePipeline((frame, offset, length) -> frames.increment(),
+                (frame, offset, length) -> frames.add(length));
+        pipeline.setStageTimers(metrics.histogram("a"), metrics.histogram("b"));
+        pipeline.process(new short[10], 0, 10);
+        pipeline.setStageTimers((LatencyHistogram[]) null);
+        pipeline.process(new short[10], 0, 10);
+        assertEquals(22, frames.get());
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        assertEquals(1, metrics.histogram("a").snapshot(snapshot).getCount());
+        assertEquals(1, metrics.histogram("b").snapshot(snapshot).getCount());
+    }
+
+    @Test
+    public void file_roundTripsAndRotates() throws IOException {
+        Metrics metrics = new Metrics();
+        Counter underruns = metrics.counter("track.underrun");
+        LatencyHistogram latency = metrics.histogram("mic.callback");
+        File directory = folder.getRoot();
+        MetricsFile file = new MetricsFile(directory, "metrics", 200, 3);
+        for (int i = 0; i < 10; i++) {
+            underruns.increment();
+            latency.record(1000 + i);
+            file.append(metrics, i);
+        }
+        file.close();
+
+        List<MetricsFile.Record> records = MetricsFile.read(MetricsFile.file(directory, "metrics", 0));
+        MetricsFile.Record last = records.get(records.size() - 1);
+        assertEquals(9, last.timestamp);
+        assertEquals(10L, (long) last.getCounters().get("track.underrun"));
+        LatencyHistogram.Snapshot snapshot = last.getHistograms().get("mic.callback");
+        assertEquals(10, snapshot.getCount());
+        assertEquals(1009, snapshot.getMax());
+        assertEquals(1000, snapshot.getValueAtPercentile(0), 1000 / 16.0);
+
+        // 最多保留3个文件, 记录按时间连续
+        assertTrue(MetricsFile.file(directory, "metrics", 2).exists());
+        assertFalse(MetricsFile.file(directory, "metrics", 3).exists());
+        List<MetricsFile.Record> older = MetricsFile.read(MetricsFile.file(directory, "metrics", 1));
+        assertEquals(records.get(0).timestamp - 1, older.get(older.size() - 1).timestamp);
+    }
+
+}
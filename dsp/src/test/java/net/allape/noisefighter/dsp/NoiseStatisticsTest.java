@@ -0,0 +1,239 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NoiseStatisticsTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAME_SIZE = 3840;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 按帧送入seconds秒的1kHz正弦, 相位连续
+     */
+    private static final class Feeder {
+
+        final NoiseStatistics statistics;
+        final short[] frame = new short[FRAME_SIZE];
+        long time = 0;
+
+        Feeder(NoiseStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        void tone(double seconds, double rmsDbfs) {
+            double amplitude = LevelMeter.amplitude(rmsDbfs) * Math.sqrt(2);
+            long total = Math.round(seconds * SAMPLE_RATE);
+            for (long done = 0; done < total; ) {
+                int count = (int) Math.min(FRAME_SIZE, total - done);
+                for (int i = 0; i < count; i++) {
+                    frame[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * (time + i) / SAMPLE_RATE));
+                }
+                statistics.process(frame, 0, count);
+                time += count;
+                done += count;
+            }
+        }
+
+    }
+
+    private static List<NoiseRollup> drain(NoiseStatistics statistics) {
+        List<NoiseRollup> rollups = new ArrayList<>();
+        NoiseRollup rollup = new NoiseRollup();
+        while (statistics.poll(rollup)) {
+            NoiseRollup copy = new NoiseRollup();
+            copy.set(rollup);
+            rollups.add(copy);
+        }
+        return rollups;
+    }
+
+    @Test
+    public void aWeighting_matchesStandard() {
+        AWeighting weighting = new AWeighting(SAMPLE_RATE);
+        // IEC 61672的标称值(取整到0.1dB)与允许的误差, 高频因为双线性变换偏低
+        double[][] expected = {{31.5, -39.4, 0.2}, {100, -19.1, 0.2}, {250, -8.6, 0.2}, {1000, 0, 0.01},
+                {4000, 1.0, 0.2}, {8000, -1.1, 1}};
+        for (double[] point : expected) {
+            double db = 20 * Math.log10(weighting.magnitude(point[0], SAMPLE_RATE));
+            assertEquals(point[0] + "Hz", point[1], db, point[2]);
+        }
+
+        // 滤波的结果与幅度响应一致
+        short[] tone = new short[SAMPLE_RATE];
+        for (int i = 0; i < tone.length; i++) {
+            tone[i] = (short) Math.round(10000 * Math.sin(2 * Math.PI * 100 * i / SAMPLE_RATE));
+        }
+        weighting.energy(tone, 0, SAMPLE_RATE / 2);
+        double energy = weighting.energy(tone, SAMPLE_RATE / 2, SAMPLE_RATE / 2);
+        double db = 10 * Math.log10(energy / (SAMPLE_RATE / 2) / (10000.0 * 10000 / 2));
+        assertEquals(-19.1, db, 0.5);
+    }
+
+    @Test
+    public void minute_leqAndPercentiles() {
+        NoiseStatistics statistics = new NoiseStatistics(SAMPLE_RATE);
+        Feeder feeder = new Feeder(statistics);
+        // 每10秒: 2秒-20dB, 8秒-60dB
+        for (int i = 0; i < 6; i++) {
+            feeder.tone(2, -20);
+            feeder.tone(8, -60);
+        }
+        feeder.tone(1, -60);
+        List<NoiseRollup> rollups = drain(statistics);
+        assertEquals(1, rollups.size());
+        NoiseRollup minute = rollups.get(0);
+        assertEquals(0, minute.start);
+        assertEquals(NoiseStatistics.MINUTE_MS, minute.period);
+        assertEquals(60000, minute.duration);
+        // 能量平均: 20%的时间在-20dB
+        double leq = 10 * Math.log10(0.2 * Math.pow(10, -2) + 0.8 * Math.pow(10, -6));
+        assertEquals(leq, minute.leq, 0.1);
+        assertEquals(-20, minute.l10, 0.2);
+        assertEquals(-60, minute.l50, 0.2);
+        assertEquals(-60, minute.l90, 0.2);
+        assertEquals(-20, minute.lmax, 0.2);
+        assertEquals(-60, minute.lmin, 0.5);
+        assertEquals(-60, statistics.getLastLevel(), 0.2);
+    }
+
+    @Test
+    public void periods_alignToWallClock() {
+        NoiseStatistics statistics = new NoiseStatistics(SAMPLE_RATE);
+        // 从某个小时的59分30秒开始
+        long hour = 1_600_000_000_000L / NoiseStatistics.HOUR_MS * NoiseStatistics.HOUR_MS;
+        statistics.reset(hour + 59 * 60000 + 30000);
+        Feeder feeder = new Feeder(statistics);
+        feeder.tone(90, -40);
+        statistics.flush();
+        List<NoiseRollup> rollups = drain(statistics);
+        assertEquals(4, rollups.size());
+        // 不完整的分钟与小时, 完整的下一分钟, 停止时不完整的分钟与小时
+        assertEquals(hour + 59 * 60000, rollups.get(0).start);
+        assertEquals(30000, rollups.get(0).duration);
+        assertEquals(NoiseStatistics.HOUR_MS, rollups.get(1).period);
+        assertEquals(hour, rollups.get(1).start);
+        assertEquals(30000, rollups.get(1).duration);
+        assertEquals(hour + NoiseStatistics.HOUR_MS, rollups.get(2).start);
+        assertEquals(60000, rollups.get(2).duration);
+        assertEquals(NoiseStatistics.HOUR_MS, rollups.get(3).period);
+        assertEquals(60000, rollups.get(3).duration);
+        for (NoiseRollup rollup : rollups) {
+            assertEquals(-40, rollup.leq, 0.1);
+            assertEquals(-40, rollup.l50, 0.2);
+        }
+    }
+
+    @Test
+    public void excluded_advancesTimeOnly() {
+        NoiseStatistics statistics = new NoiseStatistics(SAMPLE_RATE);
+        Feeder feeder = new Feeder(statistics);
+        feeder.tone(30, -40);
+        // 播放期间录到的声音不计入统计
+        statistics.setExcluded(true);
+        feeder.tone(20, -10);
+        statistics.setExcluded(false);
+        feeder.tone(5, -40);
+        // 跳过期间到达分钟的结束时间, 照常发布
+        statistics.setExcluded(true);
+        feeder.tone(10, -10);
+        List<NoiseRollup> rollups = drain(statistics);
+        assertEquals(1, rollups.size());
+        NoiseRollup minute = rollups.get(0);
+        assertEquals(0, minute.start);
+        assertEquals(35000, minute.duration);
+        assertEquals(-40, minute.leq, 0.1);
+        assertEquals(-40, minute.lmax, 0.2);
+
+        statistics.setExcluded(false);
+        feeder.tone(5, -40);
+        statistics.flush();
+        minute = drain(statistics).get(0);
+        assertEquals(NoiseStatistics.MINUTE_MS, minute.start);
+        assertEquals(5000, minute.duration);
+    }
+
+    @Test
+    public void queue_dropsWhenFull() {
+        NoiseStatistics statistics = new NoiseStatistics(SAMPLE_RATE);
+        short[] frame = new short[SAMPLE_RATE];
+        // 每分钟只送入一个等效声级
+        for (int i = 0; i < NoiseStatistics.QUEUE_CAPACITY + 10; i++) {
+            statistics.reset((long) i * NoiseStatistics.MINUTE_MS);
+            statistics.process(frame, 0, SAMPLE_RATE * NoiseStatistics.INTERVAL_MS / 1000);
+            statistics.flush();
+        }
+        // 每次flush发布一分钟与一小时
+        assertEquals(2L * (NoiseStatistics.QUEUE_CAPACITY + 10) - NoiseStatistics.QUEUE_CAPACITY,
+                statistics.getDropped());
+        List<NoiseRollup> rollups = drain(statistics);
+        assertEquals(NoiseStatistics.QUEUE_CAPACITY, rollups.size());
+        assertEquals(NoiseStatistics.MIN_DBFS, rollups.get(0).leq, 0.01);
+        assertEquals(125, rollups.get(0).duration);
+    }
+
+    @Test
+    public void log_roundTripsAndRecovers() throws IOException {
+        File file = folder.newFile();
+        NoiseRollup rollup = new NoiseRollup();
+        try (NoiseLog log = new NoiseLog(file)) {
+            for (int i = 0; i < 3; i++) {
+                rollup.start = 1_600_000_000_000L + i * 60000L;
+                rollup.period = NoiseStatistics.MINUTE_MS;
+                rollup.duration = 60000 - i;
+                rollup.leq = -35.27f;
+                rollup.lmax = -3.01f;
+                rollup.lmin = -119.95f;
+                rollup.l10 = -30.05f - i;
+                rollup.l50 = -41.15f;
+                rollup.l90 = -55.95f;
+                log.append(rollup);
+            }
+        }
+        assertEquals(NoiseLog.HEADER_SIZE + 3 * NoiseLog.RECORD_SIZE, file.length());
+
+        // 写到一半的记录被丢弃
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(file.length() + 10);
+        }
+        try (NoiseLog log = new NoiseLog(file)) {
+            assertEquals(3, log.size());
+            NoiseRollup read = new NoiseRollup();
+            log.read(2, read);
+            assertEquals(1_600_000_000_000L + 120000L, read.start);
+            assertEquals(NoiseStatistics.MINUTE_MS, read.period);
+            assertEquals(59998, read.duration);
+            assertEquals(-35.27, read.leq, 0.006);
+            assertEquals(-3.01, read.lmax, 0.006);
+            assertEquals(-119.95, read.lmin, 0.006);
+            assertEquals(-32.05, read.l10, 0.006);
+            assertEquals(-41.15, read.l50, 0.006);
+            assertEquals(-55.95, read.l90, 0.006);
+            log.append(read);
+            assertEquals(4, log.size());
+        }
+        assertEquals(NoiseLog.HEADER_SIZE + 4 * NoiseLog.RECORD_SIZE, file.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void log_rejectsOtherFiles() throws IOException {
+        File file = folder.newFile();
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.writeLong(0x1234567812345678L);
+        }
+        new NoiseLog(file).close();
+    }
+
+}
@@ -0,0 +1,27 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Pcm16Test {
+
+    @Test
+    public void decode_isLittleEndianSigned() {
+        byte[] bytes = {(byte) 0xff, 0x00, 0x00, (byte) 0x80, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f};
+        short[] samples = new short[4];
+        assertEquals(4, Pcm16.decode(bytes, bytes.length, samples));
+        assertArrayEquals(new short[]{255, Short.MIN_VALUE, -1, Short.MAX_VALUE}, samples);
+    }
+
+    @Test
+    public void encode_roundTrips() {
+        short[] samples = {0, 1, -1, 255, -256, Short.MIN_VALUE, Short.MAX_VALUE};
+        byte[] bytes = new byte[samples.length * 2];
+        Pcm16.encode(samples, 0, samples.length, bytes);
+        short[] decoded = new short[samples.length];
+        Pcm16.decode(bytes, bytes.length, decoded);
+        assertArrayEquals(samples, decoded);
+    }
+
+}
@@ -0,0 +1,41 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmConverterTest {
+
+    @Test
+    public void toMono_averagesShortChannels() {
+        ShortBuffer stereo = ShortBuffer.wrap(new short[]{100, 300, -32768, -32768, 32767, -32768, 7});
+        short[] mono = new short[4];
+        // 不完整的帧不读取
+        assertEquals(3, PcmConverter.toMono(stereo, 2, mono, 1));
+        assertArrayEquals(new short[]{0, 200, -32768, 0}, mono);
+        assertEquals(6, stereo.position());
+    }
+
+    @Test
+    public void toMono_scalesAndClampsFloat() {
+        FloatBuffer stereo = FloatBuffer.wrap(new float[]{0.5f, 0.5f, -1, -1, 2, 2, 0.25f, -0.25f});
+        short[] mono = new short[4];
+        assertEquals(4, PcmConverter.toMono(stereo, 2, mono, 0));
+        assertArrayEquals(new short[]{16384, -32768, 32767, 0}, mono);
+    }
+
+    @Test
+    public void fromMono_fansOutChannels() {
+        short[] mono = {1, -32768};
+        float[] floats = new float[4];
+        PcmConverter.fromMono(mono, 0, 2, floats, 2);
+        assertArrayEquals(new float[]{1 / 32768f, 1 / 32768f, -1, -1}, floats, 0);
+        short[] shorts = new short[4];
+        PcmConverter.fromMono(mono, 0, 2, shorts, 2);
+        assertArrayEquals(new short[]{1, 1, -32768, -32768}, shorts);
+    }
+
+}
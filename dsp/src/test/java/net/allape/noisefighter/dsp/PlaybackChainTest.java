@@ -0,0 +1,87 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackChainTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private static FrameRingBuffer ring(int frames, int frameSize) {
+        FrameRingBuffer ring = new FrameRingBuffer(frameSize, frames + 1);
+        short[] frame = new short[frameSize];
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < frameSize; i++) {
+                frame[i] = (short) (f * frameSize + i);
+            }
+            ring.offer(frame, 0, frameSize);
+        }
+        return ring;
+    }
+
+    private static int drain(PlaybackChain chain, short[] block, short[] output) {
+        int total = 0;
+        int count;
+        while ((count = chain.render(block, 0, block.length)) > 0) {
+            if (output != null) {
+                System.arraycopy(block, 0, output, total, count);
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    @Test
+    public void loops_repeatTheClip() {
+        FrameRingBuffer ring = ring(3, 50);
+        PlaybackChain chain = new PlaybackChain(SAMPLE_RATE, 1, 50);
+        chain.setLoops(3);
+        Clip clip = new Clip();
+        clip.set(0, 3);
+        chain.start(ring, clip);
+
+        int latency = chain.getLatency();
+        short[] output = new short[450 + latency];
+        assertEquals(output.length, drain(chain, new short[64], output));
+        for (int i = 0; i < 450; i++) {
+            assertEquals(i % 150, output[latency + i]);
+        }
+    }
+
+    @Test
+    public void speed_changesLength() {
+        FrameRingBuffer ring = ring(10, 100);
+        PlaybackChain chain = new PlaybackChain(SAMPLE_RATE, 1, 50);
+        Clip clip = new Clip();
+        clip.set(0, 10);
+
+        chain.setSpeed(2);
+        chain.start(ring, clip);
+        short[] output = new short[1000];
+        int count = drain(chain, new short[64], output) - chain.getLatency();
+        assertEquals(500, count, 1);
+        // 线性插值: 每隔一个采样取一次
+        assertEquals(20, output[chain.getLatency() + 10]);
+
+        chain.setSpeed(0.5);
+        chain.start(ring, clip);
+        count = drain(chain, new short[64], null) - chain.getLatency();
+        assertEquals(2000, count, 2);
+    }
+
+    @Test
+    public void render_restartsCleanly() {
+        FrameRingBuffer ring = ring(2, 40);
+        PlaybackChain chain = new PlaybackChain(SAMPLE_RATE, 1, 50);
+        Clip clip = new Clip();
+        clip.set(0, 2);
+        short[] block = new short[32];
+        for (int i = 0; i < 2; i++) {
+            chain.start(ring, clip);
+            assertEquals(80 + chain.getLatency(), drain(chain, block, null));
+            assertEquals(0, chain.render(block, 0, block.length));
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayTest {
+
+    private static final AudioConfig CONFIG = new AudioConfig(16000, 1, AudioConfig.Encoding.PCM_16BIT);
+    // 与设备上常见的录音buffer相近
+    private static final int FRAME_SIZE = 640;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 40秒的背景噪声, 在15s与30s处各有500ms的突发, 20s处的突发在播放与冷却期间
+     */
+    private static SyntheticSource source(AudioConfig config) {
+        return new SyntheticSource(config, config.framesOf(40000), -60, 7)
+                .burst(15000, 500, 440, -6)
+                .burst(16800, 300, 440, -6)
+                .burst(30000, 500, 880, -6);
+    }
+
+    private static Replay.Report replay(AudioSource source) throws IOException {
+        return new Replay(source, FRAME_SIZE, new Metrics()).run();
+    }
+
+    @Test
+    public void reportsTriggerAndPlaybackSequence() throws IOException {
+        Replay.Report report = replay(source(CONFIG));
+        assertEquals(CONFIG.framesOf(40000), report.getFrames());
+        assertEquals(Arrays.asList(
+                Replay.Type.TRIGGERED, Replay.Type.IDLE, Replay.Type.CLIP, Replay.Type.PLAYBACK_START, Replay.Type.PLAYBACK_END,
+                Replay.Type.TRIGGERED, Replay.Type.IDLE, Replay.Type.CLIP, Replay.Type.PLAYBACK_START, Replay.Type.PLAYBACK_END),
+                report.getTypes());
+
+        List<Replay.Event> triggered = report.getEvents(Replay.Type.TRIGGERED);
+        // 开始于突发所在的buffer
+        assertEquals(CONFIG.framesOf(15000) / FRAME_SIZE * FRAME_SIZE, triggered.get(0).frame);
+        assertEquals(CONFIG.framesOf(30000) / FRAME_SIZE * FRAME_SIZE, triggered.get(1).frame);
+
+        // 录音包括pre-roll、突发与保持, 播放原速且不循环, 另加限制器的延迟
+        Replay.Event clip = report.getEvents(Replay.Type.CLIP).get(0);
+        assertTrue(clip.length >= CONFIG.framesOf(CapturePipeline.RECORDED_PRE_ROLL_MS + 500 + CapturePipeline.RECORDED_HOLD_MS));
+        Replay.Event end = report.getEvents(Replay.Type.PLAYBACK_END).get(0);
+        assertEquals(clip.length + (long) Math.ceil(CONFIG.getSampleRate() * CapturePipeline.PLAYBACK_LIMITER_LOOKAHEAD_MS / 1000),
+                end.length, FRAME_SIZE);
+        assertTrue(report.getRealTimeFactor() > 1);
+    }
+
+    @Test
+    public void isDeterministic() throws IOException {
+        assertEquals(replay(source(CONFIG)).getEvents(), replay(source(CONFIG)).getEvents());
+    }
+
+    @Test
+    public void wavMatchesSyntheticSource() throws IOException {
+        File file = folder.newFile();
+        SyntheticSource synthetic = source(CONFIG);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE * CONFIG.getBytesPerFrame()).order(ByteOrder.LITTLE_ENDIAN);
+        try (WavWriter writer = new WavWriter(file, CONFIG)) {
+            int read;
+            while ((read = synthetic.read(buffer, buffer.capacity())) > 0) {
+                buffer.limit(read);
+                writer.write(buffer);
+                buffer.clear();
+            }
+        }
+        try (WavSource wav = new WavSource(file)) {
+            assertEquals(replay(source(CONFIG)).getEvents(), replay(wav).getEvents());
+        }
+    }
+
+    @Test
+    public void floatStereoMatchesPcm16Mono() throws IOException {
+        AudioConfig stereo = new AudioConfig(16000, 2, AudioConfig.Encoding.PCM_FLOAT);
+        assertEquals(replay(source(CONFIG)).getTypes(), replay(source(stereo)).getTypes());
+    }
+
+    @Test
+    public void playbackSinkReceivesClip() throws IOException {
+        long[] played = new long[1];
+        Replay replay = new Replay(source(CONFIG), FRAME_SIZE, new Metrics());
+        replay.setPlaybackSink((frame, offset, length) -> played[0] += length);
+        Replay.Report report = replay.run();
+        long expected = 0;
+        for (Replay.Event event : report.getEvents(Replay.Type.PLAYBACK_END)) {
+            expected += event.length;
+        }
+        assertEquals(expected, played[0]);
+    }
+
+    @Test
+    public void echoCancelling_keepsTriggerLiveDuringPlayback() throws IOException {
+        // 第二段声音在第一段录音的播放期间出现; 麦克风以-6dB听到自己的播放
+        List<Replay.Event> muted = echoEvents(false);
+        List<Replay.Event> cancelled = echoEvents(true);
+        long playback = first(muted, Replay.Type.PLAYBACK_START).frame;
+        assertEquals(playback, first(cancelled, Replay.Type.PLAYBACK_START).frame);
+        long burst = CONFIG.framesOf(21300);
+
+        // 不消除回声时播放期间不触发, 第二段声音丢失
+        assertEquals(Replay.Type.PLAYBACK_END, muted.get(muted.size() - 1).type);
+        for (Replay.Event event : muted) {
+            assertFalse(event.type == Replay.Type.TRIGGERED && event.frame > playback);
+        }
+
+        // 消除回声时第二段声音在它所在的buffer触发, 它的播放不会再触发自己
+        int triggers = 0;
+        for (Replay.Event event : cancelled) {
+            if (event.type != Replay.Type.TRIGGERED || event.frame <= playback) continue;
+            triggers++;
+            assertTrue(event.frame <= burst && event.frame > burst - FRAME_SIZE);
+        }
+        assertEquals(1, triggers);
+        int clips = 0;
+        for (Replay.Event event : cancelled) {
+            if (event.type == Replay.Type.CLIP) clips++;
+        }
+        assertEquals(2, clips);
+    }
+
+    private static List<Replay.Event> echoEvents(boolean cancelling) throws IOException {
+        SyntheticSource source = new SyntheticSource(CONFIG, CONFIG.framesOf(40000), -60, 7)
+                .burst(15000, 3000, 440, -6)
+                .burst(21300, 300, 880, -12);
+        Replay replay = new Replay(source, FRAME_SIZE, new Metrics());
+        replay.setEcho(100, -6);
+        replay.getPipeline().setEchoCancelling(cancelling);
+        return replay.run().getEvents();
+    }
+
+    private static Replay.Event first(List<Replay.Event> events, Replay.Type type) {
+        for (Replay.Event event : events) {
+            if (event.type == type) return event;
+        }
+        throw new AssertionError("no " + type + " in " + events);
+    }
+
+}
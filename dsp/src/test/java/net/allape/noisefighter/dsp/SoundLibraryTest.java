@@ -0,0 +1,175 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SoundLibraryTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static short[] ramp(int length) {
+        short[] pcm = new short[length];
+        for (int i = 0; i < length; i++) {
+            pcm[i] = (short) (i * 3);
+        }
+        return pcm;
+    }
+
+    private File wav(String name, int sampleRate, int channels, short[] pcm) throws IOException {
+        File file = folder.newFile(name);
+        try (WavWriter writer = new WavWriter(file, sampleRate, channels)) {
+            writer.write(pcm, 0, pcm.length);
+        }
+        return file;
+    }
+
+    @Test
+    public void load_decodesOnceToOutputFormat() throws IOException {
+        SoundLibrary library = new SoundLibrary(SAMPLE_RATE, 1 << 20);
+        short[] pcm = ramp(1600);
+        // 16kHz双声道, 转换为8kHz单声道
+        File file = wav("stereo.wav", SAMPLE_RATE * 2, 2, pcm);
+        Sound sound = library.load(file);
+        assertEquals(SAMPLE_RATE, sound.getSampleRate());
+        assertEquals(800, sound.getLength());
+        assertEquals(1600, sound.getBytes());
+        for (int i = 0; i < sound.getLength(); i++) {
+            assertEquals(pcm[i * 2], sound.get(i));
+        }
+
+        // 第二次直接返回缓存
+        assertSame(sound, library.load(file));
+        assertEquals(1, library.getHits());
+        assertEquals(1, library.getMisses());
+
+        // FLAC解码的结果与WAV相同
+        File flac = folder.newFile("same.flac");
+        try (FlacWriter writer = new FlacWriter(flac, new AudioConfig(SAMPLE_RATE, 1, AudioConfig.Encoding.PCM_16BIT))) {
+            writer.write(pcm, 0, pcm.length);
+        }
+        File same = wav("same.wav", SAMPLE_RATE, 1, pcm);
+        Sound fromFlac = library.load(flac);
+        Sound fromWav = library.load(same);
+        assertEquals(pcm.length, fromFlac.getLength());
+        short[] a = new short[pcm.length];
+        short[] b = new short[pcm.length];
+        fromFlac.get(0, a, 0, a.length);
+        fromWav.get(0, b, 0, b.length);
+        assertArrayEquals(pcm, a);
+        assertArrayEquals(pcm, b);
+    }
+
+    @Test
+    public void cache_evictsLeastRecentlyUsedByBytes() throws IOException {
+        // 每个声音2000 byte, 最多缓存2个
+        SoundLibrary library = new SoundLibrary(SAMPLE_RATE, 5000);
+        File a = wav("a.wav", SAMPLE_RATE, 1, ramp(1000));
+        File b = wav("b.wav", SAMPLE_RATE, 1, ramp(1000));
+        File c = wav("c.wav", SAMPLE_RATE, 1, ramp(1000));
+        Sound soundA = library.load(a);
+        library.load(b);
+        // 访问a之后最久没有使用的是b
+        assertSame(soundA, library.load(a));
+        library.load(c);
+        assertEquals(2, library.size());
+        assertEquals(4000, library.getBytes());
+        assertEquals(1, library.getEvictions());
+        assertNotNull(library.get(a.getAbsolutePath()));
+        assertNull(library.get(b.getAbsolutePath()));
+        assertNotNull(library.get(c.getAbsolutePath()));
+
+        // 被淘汰之后仍然可以读取
+        library.clear();
+        assertEquals(0, library.getBytes());
+        assertEquals(999 * 3, soundA.get(999));
+
+        // 超过上限的声音不解码
+        File large = wav("large.wav", SAMPLE_RATE, 1, ramp(3000));
+        try {
+            library.load(large);
+            fail();
+        } catch (IOException expected) {
+            assertEquals(0, library.size());
+        }
+    }
+
+    @Test
+    public void load_readsRecordedEvent() throws IOException {
+        File base = new File(folder.getRoot(), "events");
+        short[] pcm = ramp(500);
+        try (EventStore store = new EventStore(base, SAMPLE_RATE, 1)) {
+            store.begin(1000);
+            store.write(pcm, 0, 100);
+            store.end();
+            store.begin(2000);
+            store.write(pcm, 0, pcm.length);
+            store.end();
+        }
+        SoundLibrary library = new SoundLibrary(SAMPLE_RATE, 1 << 20);
+        try (EventStore.Reader reader = new EventStore.Reader(base)) {
+            Sound sound = library.load(reader, 1);
+            assertEquals("event:2000", sound.getKey());
+            short[] samples = new short[sound.getLength()];
+            sound.get(0, samples, 0, samples.length);
+            assertArrayEquals(pcm, samples);
+            assertSame(sound, library.load(reader, 1));
+        }
+    }
+
+    @Test
+    public void playback_playsSelectedSound() throws IOException {
+        SoundLibrary library = new SoundLibrary(SAMPLE_RATE, 1 << 20);
+        Sound sound = library.load(wav("sound.wav", SAMPLE_RATE, 1, ramp(300)));
+        FrameRingBuffer ring = new FrameRingBuffer(50, 3);
+        ring.offer(new short[50], 0, 50);
+        Clip clip = new Clip();
+        clip.set(0, 1);
+
+        PlaybackChain chain = new PlaybackChain(SAMPLE_RATE, 1, 50);
+        chain.setSound(sound);
+        chain.setLoops(2);
+        chain.start(ring, clip);
+        int latency = chain.getLatency();
+        short[] block = new short[64];
+        short[] output = new short[600 + latency];
+        int total = 0;
+        int count;
+        while ((count = chain.render(block, 0, block.length)) > 0) {
+            System.arraycopy(block, 0, output, total, count);
+            total += count;
+        }
+        // 播放选定的声音而不是触发的录音
+        assertEquals(output.length, total);
+        for (int i = 0; i < 600; i++) {
+            assertEquals((i % 300) * 3, output[latency + i]);
+        }
+
+        // 取消之后恢复播放录音
+        chain.setSound(null);
+        chain.start(ring, clip);
+        total = 0;
+        while ((count = chain.render(block, 0, block.length)) > 0) {
+            total += count;
+        }
+        assertEquals(2 * 50 + latency, total);
+
+        // 采样率必须与播放相同
+        Sound other = new SoundLibrary(SAMPLE_RATE * 2, 1 << 20).load(wav("other.wav", SAMPLE_RATE, 1, ramp(10)));
+        try {
+            chain.setSound(other);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertNull(chain.getSound());
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpectrogramBufferTest {
+
+    private static final int RATE = 48000;
+
+    @Test
+    public void column_isBrightestAtToneRow() {
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(RATE, 1024, 512);
+        SpectrogramBuffer spectrogram = new SpectrogramBuffer(8, 64, RATE, 1024, 50, -100, 0);
+        analyzer.setListener(spectrogram);
+
+        short[] frame = new short[2048];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (short) Math.round(Math.sin(2 * Math.PI * 1000 * i / RATE) * 16000);
+        }
+        analyzer.process(frame, 0, frame.length);
+        // 1024个采样之后每512个采样一列
+        assertEquals(3, spectrogram.getWritten());
+
+        int[] pixels = spectrogram.pixels();
+        int offset = spectrogram.offset(2);
+        int brightest = 0;
+        for (int row = 1; row < spectrogram.getRows(); row++) {
+            if (luminance(pixels[offset + row]) > luminance(pixels[offset + brightest])) brightest = row;
+        }
+        double low = spectrogram.getRowFrequency(brightest);
+        assertTrue("row starts at " + low, low <= 1000 && low > 700);
+        // 没有写入的列保持最暗的颜色
+        assertEquals(0xff000000, pixels[spectrogram.offset(3)]);
+    }
+
+    private static int luminance(int argb) {
+        return ((argb >> 16) & 0xff) + ((argb >> 8) & 0xff) + (argb & 0xff);
+    }
+
+}
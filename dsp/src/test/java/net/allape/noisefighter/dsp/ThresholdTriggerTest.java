@@ -0,0 +1,83 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThresholdTriggerTest {
+
+    private static final short[] LOUD = {0, 20000, -20000, 0};
+    private static final short[] QUIET = {0, 100, -100, 0};
+
+    private int triggered = 0;
+    private int idle = 0;
+
+    private final LevelMeter meter = new LevelMeter();
+    private final ThresholdTrigger trigger = new ThresholdTrigger(meter, 10000, QUIET.length * 2, new ThresholdTrigger.Listener() {
+        @Override
+        public void onTriggered(short[] frame, int offset, int length) {
+            triggered++;
+        }
+
+        @Override
+        public void onIdle(short[] frame, int offset, int length) {
+            idle++;
+        }
+    });
+    private final FramePipeline pipeline = new FramePipeline(meter, trigger);
+
+    @Test
+    public void trailing_keepsTriggeredAfterPeak() {
+        pipeline.process(QUIET, 0, QUIET.length);
+        assertFalse(trigger.isTriggered());
+
+        pipeline.process(LOUD, 0, LOUD.length);
+        assertTrue(trigger.isTriggered());
+
+        for (int i = 0; i < 5; i++) {
+            pipeline.process(QUIET, 0, QUIET.length);
+        }
+        // 触发帧 + 保持8个采样(2帧)
+        assertEquals(3, triggered);
+        assertEquals(4, idle);
+        assertFalse(trigger.isTriggered());
+    }
+
+    @Test
+    public void muted_ignoresInput() {
+        trigger.setMuted(true);
+        pipeline.process(LOUD, 0, LOUD.length);
+        assertEquals(0, triggered);
+        assertEquals(0, idle);
+    }
+
+    @Test
+    public void cooldown_startsWhenUnmuted() {
+        trigger.setCooldown(LOUD.length * 2);
+        trigger.setMuted(true);
+        pipeline.process(LOUD, 0, LOUD.length);
+        trigger.setMuted(false);
+
+        // 冷却期间的两帧不触发
+        pipeline.process(LOUD, 0, LOUD.length);
+        pipeline.process(LOUD, 0, LOUD.length);
+        assertEquals(0, triggered);
+        assertEquals(2, idle);
+
+        pipeline.process(LOUD, 0, LOUD.length);
+        assertEquals(1, triggered);
+    }
+
+    @Test
+    public void hold_isIndependentOfFrameSize() {
+        trigger.setHold(10);
+        pipeline.process(LOUD, 0, LOUD.length);
+        // 一帧1个采样: 保持10帧
+        short[] one = {0};
+        for (int i = 0; i < 20; i++) {
+            pipeline.process(one, 0, 1);
+        }
+        assertEquals(11, triggered);
+    }
+
+}
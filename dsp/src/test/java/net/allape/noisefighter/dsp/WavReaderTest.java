@@ -0,0 +1,76 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class WavReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static short[] ramp(int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (i * 7 - 5000);
+        }
+        return samples;
+    }
+
+    private File write(AudioConfig config, short[] samples) throws IOException {
+        File file = folder.newFile();
+        try (WavWriter writer = new WavWriter(file, config)) {
+            writer.write(samples, 0, samples.length);
+        }
+        return file;
+    }
+
+    @Test
+    public void pcm16_roundTrips() throws IOException {
+        short[] samples = ramp(3000);
+        File file = write(new AudioConfig(16000, 1, AudioConfig.Encoding.PCM_16BIT), samples);
+        try (WavReader reader = new WavReader(file)) {
+            assertEquals(16000, reader.getConfig().getSampleRate());
+            assertEquals(WavWriter.DATA_OFFSET, reader.getDataOffset());
+            assertEquals(3000, reader.getFrames());
+
+            // 分段映射
+            ByteBuffer mapped = reader.map(1000, 5000);
+            short[] decoded = new short[3000];
+            assertEquals(2000, reader.decode(mapped, decoded, 0, 3000));
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(samples[1000 + i], decoded[i]);
+            }
+            assertFalse(mapped.hasRemaining());
+        }
+    }
+
+    @Test
+    public void floatStereo_decodesToMono() throws IOException {
+        short[] samples = ramp(500);
+        File file = write(new AudioConfig(48000, 2, AudioConfig.Encoding.PCM_FLOAT), samples);
+        try (WavReader reader = new WavReader(file)) {
+            assertEquals(AudioConfig.Encoding.PCM_FLOAT, reader.getConfig().getEncoding());
+            assertEquals(2, reader.getConfig().getChannels());
+            ByteBuffer mapped = reader.map(0, 500);
+            short[] decoded = new short[500];
+            assertEquals(200, reader.decode(mapped, decoded, 0, 200));
+            assertEquals(300, reader.decode(mapped, decoded, 200, 1000));
+            assertArrayEquals(samples, decoded);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notWav_isRejected() throws IOException {
+        File file = folder.newFile();
+        java.nio.file.Files.write(file.toPath(), new byte[100]);
+        new WavReader(file).close();
+    }
+
+}
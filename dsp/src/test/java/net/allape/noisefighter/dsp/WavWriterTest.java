@@ -0,0 +1,138 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class WavWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String tag(ByteBuffer buffer, int offset) {
+        byte[] tag = new byte[4];
+        for (int i = 0; i < 4; i++) tag[i] = buffer.get(offset + i);
+        return new String(tag);
+    }
+
+    @Test
+    public void header_isRiffBelow4GB() {
+        ByteBuffer header = ByteBuffer.allocate(WavWriter.DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+        WavWriter.header(header, 44100, 1, 1000);
+        assertEquals("RIFF", tag(header, 0));
+        assertEquals(WavWriter.DATA_OFFSET - 8 + 1000, header.getInt(4));
+        assertEquals("JUNK", tag(header, 12));
+        assertEquals("fmt ", tag(header, 48));
+        assertEquals(44100, header.getInt(60));
+        assertEquals(88200, header.getInt(64));
+        assertEquals("data", tag(header, WavWriter.DATA_OFFSET - 8));
+        assertEquals(1000, header.getInt(WavWriter.DATA_OFFSET - 4));
+    }
+
+    @Test
+    public void header_isRf64Above4GB() {
+        long dataBytes = 5L << 30;
+        ByteBuffer header = ByteBuffer.allocate(WavWriter.DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+        WavWriter.header(header, 48000, 2, dataBytes);
+        assertEquals("RF64", tag(header, 0));
+        assertEquals(-1, header.getInt(4));
+        assertEquals("ds64", tag(header, 12));
+        assertEquals(WavWriter.DATA_OFFSET - 8 + dataBytes, header.getLong(20));
+        assertEquals(dataBytes, header.getLong(28));
+        assertEquals(dataBytes / 4, header.getLong(36));
+        assertEquals(-1, header.getInt(WavWriter.DATA_OFFSET - 4));
+    }
+
+    @Test
+    public void header_describesFloat() {
+        ByteBuffer header = ByteBuffer.allocate(WavWriter.DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+        AudioConfig config = new AudioConfig(48000, 2, AudioConfig.Encoding.PCM_FLOAT);
+        WavWriter.header(header, config, 8000);
+        assertEquals(18, header.getInt(52));
+        assertEquals(3, header.getShort(56));
+        assertEquals(2, header.getShort(58));
+        assertEquals(48000 * 8, header.getInt(64));
+        assertEquals(8, header.getShort(68));
+        assertEquals(32, header.getShort(70));
+        assertEquals(0, header.getShort(72));
+        assertEquals("fact", tag(header, 74));
+        assertEquals(1000, header.getInt(82));
+        assertEquals("JUNK", tag(header, 86));
+        assertEquals(WavWriter.DATA_OFFSET - 86 - 16, header.getInt(90));
+        assertEquals("data", tag(header, WavWriter.DATA_OFFSET - 8));
+    }
+
+    @Test
+    public void asyncWriter_writesAllSamples() throws IOException {
+        File file = folder.newFile("async.wav");
+        // 小块, 强制多次交接
+        AsyncWavWriter writer = new AsyncWavWriter(file, 44100, 1, 4096, 64, 1);
+        short[] frame = new short[1000];
+        int total = 0;
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < frame.length; j++) frame[j] = (short) (total + j);
+            while (!writer.write(frame, 0, frame.length)) {
+                Thread.yield();
+            }
+            total += frame.length;
+        }
+        writer.close();
+        assertFalse(writer.write(frame, 0, frame.length));
+
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(WavWriter.DATA_OFFSET + total * 2, wav.capacity());
+        assertEquals(total * 2, wav.getInt(WavWriter.DATA_OFFSET - 4));
+        for (int i = 0; i < total; i++) {
+            assertEquals((short) i, wav.getShort(WavWriter.DATA_OFFSET + i * 2));
+        }
+    }
+
+    @Test
+    public void asyncWriter_closeKeepsLastPartialBlock() throws IOException {
+        short[] frame = new short[300];
+        // 重复多次, 写入线程可能在close的任意时刻检查是否结束
+        for (int i = 0; i < 200; i++) {
+            File file = folder.newFile("partial" + i + ".wav");
+            AsyncWavWriter writer = new AsyncWavWriter(file, 44100, 1, 4096, 4, 1000);
+            // 一块半, 最后半块在close时提交
+            for (int j = 0; j < 10; j++) {
+                assertTrue(writer.write(frame, 0, frame.length));
+            }
+            writer.close();
+
+            ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(3000 * 2, wav.getInt(WavWriter.DATA_OFFSET - 4));
+            assertEquals(WavWriter.DATA_OFFSET + 3000 * 2, wav.capacity());
+        }
+    }
+
+    @Test
+    public void asyncWriter_encodesFloatStereo() throws IOException {
+        File file = folder.newFile("float.wav");
+        AudioConfig config = new AudioConfig(48000, 2, AudioConfig.Encoding.PCM_FLOAT);
+        AsyncWavWriter writer = new AsyncWavWriter(file, config, 4096, 8, 1);
+        short[] frame = {0, 16384, -32768, 100};
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(writer.write(frame, 0, frame.length));
+        }
+        writer.close();
+
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(4000 * 8, wav.getInt(WavWriter.DATA_OFFSET - 4));
+        assertEquals(WavWriter.DATA_OFFSET + 4000 * 8, wav.capacity());
+        for (int i = 0; i < 4000; i++) {
+            float expected = frame[i % frame.length] / 32768f;
+            assertEquals(expected, wav.getFloat(WavWriter.DATA_OFFSET + i * 8), 0);
+            assertEquals(expected, wav.getFloat(WavWriter.DATA_OFFSET + i * 8 + 4), 0);
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package net.allape.noisefighter.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaveformBufferTest {
+
+    @Test
+    public void columns_keepMinMaxInTimeOrder() {
+        WaveformBuffer waveform = new WaveformBuffer(3, 2);
+        assertFalse(waveform.hasUpdate());
+
+        // 列跨越帧边界
+        waveform.process(new short[]{1, -1, 2}, 0, 3);
+        waveform.process(new short[]{-2, 3, -3, 4}, 0, 4);
+        WaveformBuffer.Snapshot snapshot = waveform.acquire();
+        assertEquals(3, snapshot.count);
+        assertArrayEquals(new short[]{-1, -2, -3}, snapshot.min);
+        assertArrayEquals(new short[]{1, 2, 3}, snapshot.max);
+        assertEquals(2, snapshot.frames);
+        assertFalse(waveform.hasUpdate());
+
+        // 完成两列, 环形覆盖最旧的两列
+        waveform.process(new short[]{-4, 5, -5}, 0, 3);
+        snapshot = waveform.acquire();
+        assertArrayEquals(new short[]{-3, -4, -5}, snapshot.min);
+        assertArrayEquals(new short[]{3, 4, 5}, snapshot.max);
+    }
+
+    @Test
+    public void acquire_coalescesFrames() {
+        WaveformBuffer waveform = new WaveformBuffer(4, 1);
+        for (int i = 0; i < 10; i++) {
+            waveform.process(new short[]{(short) i}, 0, 1);
+        }
+        WaveformBuffer.Snapshot snapshot = waveform.acquire();
+        assertEquals(10, snapshot.frames);
+        assertArrayEquals(new short[]{6, 7, 8, 9}, snapshot.max);
+        // 没有更新时返回同一份快照
+        assertSame(snapshot, waveform.acquire());
+    }
+
+    @Test
+    public void acquire_isConsistentAcrossThreads() throws InterruptedException {
+        WaveformBuffer waveform = new WaveformBuffer(64, 16);
+        Thread producer = new Thread(() -> {
+            short[] frame = new short[256];
+            for (short value = 0; value < 2000; value++) {
+                java.util.Arrays.fill(frame, value);
+                waveform.process(frame, 0, frame.length);
+            }
+        });
+        producer.start();
+        long last = 0;
+        while (producer.isAlive() || waveform.hasUpdate()) {
+            WaveformBuffer.Snapshot snapshot = waveform.acquire();
+            assertTrue(snapshot.frames >= last);
+            last = snapshot.frames;
+            // 每帧写入同一个值, 同一份快照中相邻列的值不会减小
+            for (int i = 1; i < snapshot.count; i++) {
+                assertTrue(snapshot.max[i] >= snapshot.max[i - 1]);
+            }
+        }
+        producer.join();
+        assertEquals(2000, waveform.acquire().frames);
+    }
+
+}